@@ -1,5 +1,7 @@
 package cn.panchen.pc.dev.tech.api;
 
+import cn.panchen.pc.dev.tech.api.dto.BatchAnswerDTO;
+import cn.panchen.pc.dev.tech.api.dto.BatchRagRequestDTO;
 import cn.panchen.pc.dev.tech.api.response.Response;
 import org.springframework.ai.chat.ChatResponse;
 import reactor.core.publisher.Flux;
@@ -23,4 +25,11 @@ public interface IAiService {
 
 
     Flux<ChatResponse> generateStreamRag(String model, String ragTag, String message);
+
+    /**
+     * 批量知识库问答：所有问题一次向量化、一次查库检索，生成并发受限，每完成一个问题返回一行
+     * @param request
+     * @return
+     */
+    Flux<BatchAnswerDTO> generateBatchRag(BatchRagRequestDTO request);
 }
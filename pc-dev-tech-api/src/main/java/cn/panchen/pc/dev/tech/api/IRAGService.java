@@ -1,5 +1,7 @@
 package cn.panchen.pc.dev.tech.api;
 
+import cn.panchen.pc.dev.tech.api.dto.IngestJobDTO;
+import cn.panchen.pc.dev.tech.api.dto.RagTagDTO;
 import cn.panchen.pc.dev.tech.api.response.Response;
 import org.springframework.web.multipart.MultipartFile;
 
@@ -14,20 +16,48 @@ public interface IRAGService {
     Response<List<String>> queryRagTagList();
 
     /**
-     * 上传 RAG 文件
+     * 查询各知识库的规模：切片数、字节数、向量模型、最后入库的 commit
+     * @return
+     */
+    Response<List<RagTagDTO>> queryRagTagStats();
+
+    /**
+     * 上传 RAG 文件，提交入库任务
      * @param ragTag
      * @param files
-     * @return
+     * @return 入库任务ID
      */
-    Response<String> uploadFile(String ragTag, List<MultipartFile> files);
+    Response<String> uploadFile(String ragTag, List<MultipartFile> files) throws Exception;
 
     /**
-     * 拉取 Git 仓库，解析并上传
+     * 拉取 Git 仓库，解析并上传，提交入库任务
      * @param repoUrl
      * @param userName
      * @param token
-     * @return
+     * @param includes 只入库匹配这些 glob 的文件，可为空
+     * @param excludes 跳过匹配这些 glob 的文件，可为空
+     * @return 入库任务ID
      * @throws Exception
      */
-    Response<String> analyzeGitRepository(String repoUrl, String userName, String token) throws Exception;
+    Response<String> analyzeGitRepository(String repoUrl, String userName, String token, List<String> includes, List<String> excludes) throws Exception;
+
+    /**
+     * 查询入库任务进度
+     * @param jobId
+     * @return
+     */
+    Response<IngestJobDTO> queryIngestJob(String jobId);
+
+    /**
+     * 查询最近的入库任务
+     * @return
+     */
+    Response<List<IngestJobDTO>> queryIngestJobList();
+
+    /**
+     * 取消入库任务
+     * @param jobId
+     * @return 是否取消成功
+     */
+    Response<Boolean> cancelIngestJob(String jobId);
 }
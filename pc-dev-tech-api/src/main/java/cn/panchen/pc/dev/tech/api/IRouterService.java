@@ -0,0 +1,15 @@
+package cn.panchen.pc.dev.tech.api;
+
+import org.springframework.ai.chat.ChatResponse;
+import reactor.core.publisher.Flux;
+
+/**
+ * 多后端路由对话：不指定后端和模型，由服务端按各路由最近的首 token 时间选择，慢时对冲到另一条路由
+ */
+public interface IRouterService {
+
+    Flux<ChatResponse> generateStream(String message);
+
+    Flux<ChatResponse> generateStreamRag(String ragTag, String message);
+
+}
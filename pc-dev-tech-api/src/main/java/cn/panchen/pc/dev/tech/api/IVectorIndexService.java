@@ -0,0 +1,36 @@
+package cn.panchen.pc.dev.tech.api;
+
+import cn.panchen.pc.dev.tech.api.dto.VectorIndexDTO;
+import cn.panchen.pc.dev.tech.api.dto.VectorRecallDTO;
+import cn.panchen.pc.dev.tech.api.response.Response;
+
+public interface IVectorIndexService {
+
+    /**
+     * 查询向量索引的定义、大小和构建进度
+     * @return
+     */
+    Response<VectorIndexDTO> queryVectorIndex();
+
+    /**
+     * 按当前配置重建向量索引，新索引建好后替换旧索引，重建期间检索仍走旧索引
+     * @return 是否已提交重建
+     */
+    Response<Boolean> rebuildVectorIndex();
+
+    /**
+     * 原地重建向量索引（REINDEX CONCURRENTLY），用于大量删除/更新后回收空间
+     * @return 是否已提交重建
+     */
+    Response<Boolean> reindexVectorIndex();
+
+    /**
+     * 评估 ragTag 上当前检索路径（ANN 索引、量化 + 重排）相对精确检索的召回率
+     * @param ragTag
+     * @param samples 查询数
+     * @param topK
+     * @return
+     */
+    Response<VectorRecallDTO> measureRecall(String ragTag, int samples, int topK);
+
+}
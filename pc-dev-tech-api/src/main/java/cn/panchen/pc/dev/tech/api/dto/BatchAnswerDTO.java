@@ -0,0 +1,33 @@
+package cn.panchen.pc.dev.tech.api.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.io.Serializable;
+
+/**
+ * 批量问答中一个问题的回答，按完成顺序返回，用 index 或 id 对应请求中的问题
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class BatchAnswerDTO implements Serializable {
+
+    /** 问题在请求中的下标 */
+    private int index;
+    /** 调用方自定义的问题ID */
+    private String id;
+    private String ragTag;
+    private String question;
+    /** 回答，失败时为空 */
+    private String answer;
+    /** 0000 成功，0001 失败 */
+    private String code;
+    private String info;
+    /** 从开始生成到回答完成的耗时，毫秒 */
+    private long millis;
+
+}
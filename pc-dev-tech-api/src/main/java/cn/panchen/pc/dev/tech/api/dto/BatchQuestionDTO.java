@@ -0,0 +1,26 @@
+package cn.panchen.pc.dev.tech.api.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.io.Serializable;
+
+/**
+ * 批量问答中的一个问题
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class BatchQuestionDTO implements Serializable {
+
+    /** 调用方自定义的问题ID，原样返回，可为空 */
+    private String id;
+    /** 知识库标签 */
+    private String ragTag;
+    /** 问题 */
+    private String question;
+
+}
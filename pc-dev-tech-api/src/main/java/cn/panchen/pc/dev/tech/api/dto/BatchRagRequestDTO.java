@@ -0,0 +1,25 @@
+package cn.panchen.pc.dev.tech.api.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.io.Serializable;
+import java.util.List;
+
+/**
+ * 批量知识库问答请求
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class BatchRagRequestDTO implements Serializable {
+
+    /** 生成回答的模型 */
+    private String model;
+    /** 问题列表，每个问题可以属于不同的知识库 */
+    private List<BatchQuestionDTO> questions;
+
+}
@@ -0,0 +1,51 @@
+package cn.panchen.pc.dev.tech.api.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.io.Serializable;
+import java.util.List;
+
+/**
+ * 入库任务的状态与进度
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class IngestJobDTO implements Serializable {
+
+    /** 任务ID */
+    private String jobId;
+    /** 知识库标签 */
+    private String ragTag;
+    /** 来源：文件上传 / Git 仓库地址 */
+    private String source;
+    /** 状态：QUEUED、RUNNING、COMMITTED、FAILED、CANCELLED */
+    private String status;
+    /** 已解析的文件数 */
+    private long filesProcessed;
+    /** 被过滤跳过的文件数 */
+    private long filesSkipped;
+    /** 解析失败的文件数 */
+    private long filesFailed;
+    /** 已向量化的切片数 */
+    private long chunksEmbedded;
+    /** 已写入向量库的切片数 */
+    private long chunksWritten;
+    /** 向量化或写入失败的切片数 */
+    private long chunksFailed;
+    /** 向量化吞吐，切片/秒 */
+    private double chunksPerSecond;
+    /** 最近的错误信息 */
+    private List<String> errors;
+    /** 提交时间 */
+    private long submitTime;
+    /** 开始时间 */
+    private long startTime;
+    /** 结束时间 */
+    private long endTime;
+
+}
@@ -0,0 +1,32 @@
+package cn.panchen.pc.dev.tech.api.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.io.Serializable;
+
+/**
+ * 知识库标签及其规模，每次入库任务提交后更新
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class RagTagDTO implements Serializable {
+
+    /** 知识库标签 */
+    private String ragTag;
+    /** 切片数 */
+    private long chunkCount;
+    /** 切片文本的总字节数 */
+    private long bytes;
+    /** 入库时使用的向量模型 */
+    private String embeddingModel;
+    /** Git 仓库最后入库的 commit，上传文件的知识库为空 */
+    private String lastCommit;
+    /** 最后一次入库提交的时间，毫秒 */
+    private long updateTime;
+
+}
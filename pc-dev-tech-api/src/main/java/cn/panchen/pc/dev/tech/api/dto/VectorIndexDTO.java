@@ -0,0 +1,33 @@
+package cn.panchen.pc.dev.tech.api.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.io.Serializable;
+import java.util.List;
+
+/**
+ * 向量索引状态，每个知识库分区一个索引
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class VectorIndexDTO implements Serializable {
+
+    /** 配置的索引类型：hnsw、ivfflat、none */
+    private String indexType;
+    /** 是否正在构建/重建 */
+    private boolean building;
+    /** 所有分区索引的总大小，字节 */
+    private long totalSizeBytes;
+    /** 所有分区的切片数（估算值） */
+    private long estimatedRows;
+    /** 最近一次构建的错误信息 */
+    private String lastError;
+    /** 各知识库分区的索引 */
+    private List<VectorIndexPartitionDTO> partitions;
+
+}
@@ -0,0 +1,42 @@
+package cn.panchen.pc.dev.tech.api.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.io.Serializable;
+
+/**
+ * 单个知识库分区的向量索引状态与构建进度
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class VectorIndexPartitionDTO implements Serializable {
+
+    /** 知识库标签 */
+    private String ragTag;
+    /** 分区表名 */
+    private String partition;
+    /** 索引名，不存在时为空 */
+    private String indexName;
+    /** 数据库中的索引定义 */
+    private String definition;
+    /** 索引定义是否与当前配置一致 */
+    private boolean matchesConfig;
+    /** 索引是否可用（并发构建失败会留下不可用的索引） */
+    private boolean valid;
+    /** 索引大小，字节 */
+    private long sizeBytes;
+    /** 分区中的切片数（估算值） */
+    private long estimatedRows;
+    /** 构建阶段，来自 pg_stat_progress_create_index，没有在构建时为空 */
+    private String phase;
+    private long blocksDone;
+    private long blocksTotal;
+    private long tuplesDone;
+    private long tuplesTotal;
+
+}
@@ -0,0 +1,35 @@
+package cn.panchen.pc.dev.tech.api.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.io.Serializable;
+
+/**
+ * ANN 检索（含量化）相对精确检索的召回率
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class VectorRecallDTO implements Serializable {
+
+    /** 知识库标签 */
+    private String ragTag;
+    /** 索引量化方式：NONE、HALFVEC、BINARY */
+    private String quantization;
+    /** 量化索引第一轮的候选倍数 */
+    private int overFetch;
+    /** 评估用的查询数 */
+    private int samples;
+    private int topK;
+    /** recall@topK：ANN 结果中属于精确 topK 的比例 */
+    private double recall;
+    /** 精确检索平均耗时，毫秒 */
+    private double exactMillis;
+    /** ANN 检索平均耗时，毫秒 */
+    private double annMillis;
+
+}
@@ -0,0 +1,49 @@
+package cn.panchen.pc.dev.tech.config;
+
+import com.zaxxer.hikari.HikariDataSource;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import javax.sql.DataSource;
+
+/**
+ * 数据源
+ * 默认连接池（spring.datasource.hikari）供入库写入、建索引、热点层加载使用；
+ * 在线检索另用一个只读连接池（rag.retrieval.datasource.hikari），连接地址和账号相同，两个池分别设置大小，互不挤占。
+ */
+@Configuration
+public class DataSourceConfig {
+
+    @Bean
+    @Primary
+    @ConfigurationProperties("spring.datasource.hikari")
+    public HikariDataSource dataSource(DataSourceProperties properties) {
+        return properties.initializeDataSourceBuilder().type(HikariDataSource.class).build();
+    }
+
+    @Bean
+    @Primary
+    public JdbcTemplate jdbcTemplate(DataSource dataSource) {
+        return new JdbcTemplate(dataSource);
+    }
+
+    /**
+     * 检索连接池，大小不小于检索线程数 rag.retrieval.threads
+     */
+    @Bean
+    @ConfigurationProperties("rag.retrieval.datasource.hikari")
+    public HikariDataSource retrievalDataSource(DataSourceProperties properties) {
+        return properties.initializeDataSourceBuilder().type(HikariDataSource.class).build();
+    }
+
+    @Bean
+    public JdbcTemplate retrievalJdbcTemplate(@Qualifier("retrievalDataSource") DataSource retrievalDataSource) {
+        return new JdbcTemplate(retrievalDataSource);
+    }
+
+}
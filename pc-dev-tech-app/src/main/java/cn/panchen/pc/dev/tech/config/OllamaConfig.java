@@ -1,19 +1,27 @@
 package cn.panchen.pc.dev.tech.config;
 
+import cn.panchen.pc.dev.tech.trigger.embedding.CachingEmbeddingClient;
+import cn.panchen.pc.dev.tech.trigger.embedding.LoadBalancedEmbeddingClient;
+import cn.panchen.pc.dev.tech.trigger.ingest.CodeAwareTextSplitter;
+import org.redisson.api.RedissonClient;
+import org.springframework.ai.embedding.EmbeddingClient;
 import org.springframework.ai.ollama.OllamaChatClient;
 import org.springframework.ai.ollama.OllamaEmbeddingClient;
 import org.springframework.ai.ollama.api.OllamaApi;
 import org.springframework.ai.ollama.api.OllamaOptions;
 import org.springframework.ai.openai.OpenAiEmbeddingClient;
 import org.springframework.ai.openai.api.OpenAiApi;
-import org.springframework.ai.transformer.splitter.TokenTextSplitter;
+import org.springframework.ai.transformer.splitter.TextSplitter;
 import org.springframework.ai.vectorstore.PgVectorStore;
-import org.springframework.ai.vectorstore.SimpleVectorStore;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
 import org.springframework.jdbc.core.JdbcTemplate;
 
+import java.util.ArrayList;
+import java.util.List;
+
 @Configuration
 public class OllamaConfig {
 
@@ -45,38 +53,78 @@ public class OllamaConfig {
     }
 
     /**
-     * 切割文件
+     * 切割文件，按代码、markdown 的语法边界切片
      */
     @Bean
-    public TokenTextSplitter tokenTextSplitter() {
-        return new TokenTextSplitter();
+    public TextSplitter textSplitter(@Value("${rag.splitter.chunk-size:800}") int chunkSize,
+                                     @Value("${rag.splitter.min-chunk-tokens:200}") int minChunkTokens,
+                                     @Value("${rag.splitter.parallel-threshold:262144}") int parallelThreshold) {
+        return new CodeAwareTextSplitter(chunkSize, minChunkTokens, parallelThreshold);
     }
 
+    /**
+     * ollama 向量模型实例池，每个 base-url 一个客户端，按进行中请求最少分发，失败的实例熔断
+     */
     @Bean
-    public SimpleVectorStore simpleVectorStore(OllamaApi ollamaApi) {
-        OllamaEmbeddingClient embeddingClient = new OllamaEmbeddingClient(ollamaApi);
-        embeddingClient.withDefaultOptions(OllamaOptions.create().withModel("nomic-embed-text"));
-        return new SimpleVectorStore(embeddingClient);
+    public LoadBalancedEmbeddingClient ollamaEmbeddingPool(@Value("${rag.embedding.pool.base-urls:${spring.ai.ollama.base-url}}") String[] baseUrls,
+                                                           @Value("${rag.embedding.pool.ingest-max-in-flight:2}") int ingestMaxInFlight,
+                                                           @Value("${rag.embedding.pool.failure-threshold:3}") int failureThreshold,
+                                                           @Value("${rag.embedding.pool.open-ms:30000}") long openMillis) {
+        List<LoadBalancedEmbeddingClient.Endpoint> endpoints = new ArrayList<>();
+        for (String baseUrl : baseUrls) {
+            OllamaEmbeddingClient ollamaEmbeddingClient = new OllamaEmbeddingClient(new OllamaApi(baseUrl.trim()));
+            ollamaEmbeddingClient.withDefaultOptions(OllamaOptions.create().withModel("nomic-embed-text"));
+            endpoints.add(new LoadBalancedEmbeddingClient.Endpoint(baseUrl.trim(), ollamaEmbeddingClient));
+        }
+        return new LoadBalancedEmbeddingClient(endpoints, ingestMaxInFlight, failureThreshold, openMillis);
     }
 
     /**
-     * 存储到向量数据库
-     * 实例化带存储库的方式
-     * 根据配置文件中的配置来选择不同的向量库
-     * @param ollamaApi
-     * @param jdbcTemplate
-     * @return
+     * 向量模型，向量库、检索等查询流量使用
+     * 根据配置文件中的配置来选择不同的向量模型，外层包一层按内容寻址的向量缓存
      */
     @Bean
-    public PgVectorStore pgVectorStore(@Value("${spring.ai.rag.embed}") String model, OllamaApi ollamaApi, OpenAiApi openAiApi, JdbcTemplate jdbcTemplate) {
+    @Primary
+    public EmbeddingClient embeddingClient(@Value("${spring.ai.rag.embed}") String model, LoadBalancedEmbeddingClient ollamaEmbeddingPool, OpenAiApi openAiApi,
+                                           RedissonClient redissonClient,
+                                           @Value("${rag.embedding.cache.enabled:true}") boolean cacheEnabled,
+                                           @Value("${rag.embedding.cache.local-max-size:20000}") long localMaxSize,
+                                           @Value("${rag.embedding.cache.shared-max-size:2000000}") int sharedMaxSize,
+                                           @Value("${rag.embedding.cache.shared-ttl-seconds:2592000}") long sharedTtlSeconds) {
+        EmbeddingClient embeddingClient;
         if ("nomic-embed-text".equalsIgnoreCase(model)) {
-            OllamaEmbeddingClient embeddingClient = new OllamaEmbeddingClient(ollamaApi);
-            embeddingClient.withDefaultOptions(OllamaOptions.create().withModel("nomic-embed-text"));
-            return new PgVectorStore(jdbcTemplate, embeddingClient);
+            embeddingClient = ollamaEmbeddingPool;
         } else {
-            OpenAiEmbeddingClient embeddingClient = new OpenAiEmbeddingClient(openAiApi);
-            return new PgVectorStore(jdbcTemplate, embeddingClient);
+            embeddingClient = new OpenAiEmbeddingClient(openAiApi);
         }
+        if (!cacheEnabled) return embeddingClient;
+        return new CachingEmbeddingClient(embeddingClient, model, redissonClient, localMaxSize, sharedMaxSize, sharedTtlSeconds);
+    }
+
+    /**
+     * 入库流水线使用的向量模型：与查询共用实例池和向量缓存，ollama 实例上的入库并发受 ingest-max-in-flight 限制
+     */
+    @Bean
+    public EmbeddingClient ingestEmbeddingClient(EmbeddingClient embeddingClient, LoadBalancedEmbeddingClient ollamaEmbeddingPool) {
+        if (embeddingClient == ollamaEmbeddingPool) return ollamaEmbeddingPool.forIngest();
+        if (embeddingClient instanceof CachingEmbeddingClient cachingEmbeddingClient
+                && cachingEmbeddingClient.getDelegate() == ollamaEmbeddingPool) {
+            return cachingEmbeddingClient.withDelegate(ollamaEmbeddingPool.forIngest());
+        }
+        return embeddingClient;
+    }
+
+    /**
+     * 存储到向量数据库
+     * 实例化带存储库的方式；线上的切片读写已改走按 ragTag 分区的 rag_chunk 表，这里的 vector_store 表只作为旧数据迁移来源，不再建索引
+     * @param embeddingClient
+     * @param jdbcTemplate
+     * @return
+     */
+    @Bean
+    public PgVectorStore pgVectorStore(EmbeddingClient embeddingClient, JdbcTemplate jdbcTemplate,
+                                       @Value("${rag.vector-index.distance:CosineDistance}") PgVectorStore.PgDistanceType distance) {
+        return new PgVectorStore(jdbcTemplate, embeddingClient, PgVectorStore.INVALID_EMBEDDING_DIMENSION, distance, false, PgVectorStore.PgIndexType.NONE);
     }
 //    @Bean
 //    public PgVectorStore pgVectorStore(OllamaApi ollamaApi, JdbcTemplate jdbcTemplate) {
@@ -85,16 +133,4 @@ public class OllamaConfig {
 //        embeddingClient.withDefaultOptions(OllamaOptions.create().withModel("nomic-embed-text"));
 //        return new PgVectorStore(jdbcTemplate, embeddingClient);
 //    }
-
-    @Bean
-    public SimpleVectorStore vectorStore(@Value("${spring.ai.rag.embed}") String model, OllamaApi ollamaApi, OpenAiApi openAiApi) {
-        if ("nomic-embed-text".equalsIgnoreCase(model)) {
-            OllamaEmbeddingClient embeddingClient = new OllamaEmbeddingClient(ollamaApi);
-            embeddingClient.withDefaultOptions(OllamaOptions.create().withModel("nomic-embed-text"));
-            return new SimpleVectorStore(embeddingClient);
-        } else {
-            OpenAiEmbeddingClient embeddingClient = new OpenAiEmbeddingClient(openAiApi);
-            return new SimpleVectorStore(embeddingClient);
-        }
-    }
 }
@@ -0,0 +1,146 @@
+package cn.panchen.pc.dev.tech.test;
+
+import cn.panchen.pc.dev.tech.trigger.embedding.CachingEmbeddingClient;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.redisson.api.RMapCache;
+import org.redisson.api.RedissonClient;
+import org.redisson.client.codec.Codec;
+import org.springframework.ai.embedding.EmbeddingClient;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * CachingEmbeddingClient 本地缓存、共享缓存两级查找和批内去重测试，Redis 用内存 Map 替代，不依赖 Spring 上下文
+ */
+public class CachingEmbeddingClientTest {
+
+    private static final String MODEL = "nomic-embed-text";
+
+    /** 模拟 Redis 中的共享缓存，多个实例共用 */
+    private final Map<String, byte[]> shared = new ConcurrentHashMap<>();
+    /** 每次请求向量模型的文本 */
+    private final List<List<String>> delegateCalls = new ArrayList<>();
+    private RedissonClient redissonClient;
+    private EmbeddingClient delegate;
+    private boolean sharedDown;
+
+    @Before
+    @SuppressWarnings("unchecked")
+    public void setUp() {
+        RMapCache<String, byte[]> sharedCache = Mockito.mock(RMapCache.class);
+        Mockito.when(sharedCache.getAll(Mockito.anySet())).thenAnswer(invocation -> {
+            if (sharedDown) throw new IllegalStateException("Redis 不可用");
+            Map<String, byte[]> result = new HashMap<>();
+            for (String key : (Set<String>) invocation.getArgument(0)) {
+                if (shared.containsKey(key)) result.put(key, shared.get(key));
+            }
+            return result;
+        });
+        Mockito.doAnswer(invocation -> {
+            if (sharedDown) throw new IllegalStateException("Redis 不可用");
+            shared.putAll(invocation.getArgument(0));
+            return null;
+        }).when(sharedCache).putAll(Mockito.anyMap(), Mockito.anyLong(), Mockito.any(TimeUnit.class));
+        redissonClient = Mockito.mock(RedissonClient.class);
+        Mockito.when(redissonClient.<String, byte[]>getMapCache(Mockito.anyString(), Mockito.any(Codec.class))).thenReturn(sharedCache);
+
+        delegate = Mockito.mock(EmbeddingClient.class);
+        Mockito.when(delegate.embed(Mockito.anyList())).thenAnswer(invocation -> {
+            List<String> texts = invocation.getArgument(0);
+            delegateCalls.add(new ArrayList<>(texts));
+            return texts.stream().map(CachingEmbeddingClientTest::vector).toList();
+        });
+    }
+
+    @Test
+    public void test_localHit_skipsDelegate() {
+        CachingEmbeddingClient client = client(MODEL);
+
+        List<List<Double>> first = client.embed(List.of("a", "b"));
+        List<List<Double>> second = client.embed(List.of("b", "a"));
+
+        Assert.assertEquals(1, delegateCalls.size());
+        Assert.assertEquals(List.of(first.get(1), first.get(0)), second);
+        Assert.assertEquals(2, client.getLocalHits());
+        Assert.assertEquals(2, client.getMisses());
+    }
+
+    @Test
+    public void test_sharedHit_acrossInstances() {
+        client(MODEL).embed(List.of("a", "b"));
+
+        // 另一个节点本地缓存为空，从共享缓存取到后不再请求向量模型
+        CachingEmbeddingClient other = client(MODEL);
+        List<List<Double>> result = other.embed(List.of("a", "c", "b"));
+
+        Assert.assertEquals(List.of(List.of("a", "b"), List.of("c")), delegateCalls);
+        Assert.assertEquals(List.of(vector("a"), vector("c"), vector("b")), result);
+        Assert.assertEquals(2, other.getSharedHits());
+        Assert.assertEquals(1, other.getMisses());
+
+        // 共享缓存命中后放入本地缓存
+        other.embed(List.of("a"));
+        Assert.assertEquals(1, other.getLocalHits());
+    }
+
+    @Test
+    public void test_duplicateTexts_embeddedOnce() {
+        CachingEmbeddingClient client = client(MODEL);
+
+        List<List<Double>> result = client.embed(List.of("license", "a", "license"));
+
+        Assert.assertEquals(List.of(List.of("license", "a")), delegateCalls);
+        Assert.assertEquals(List.of(vector("license"), vector("a"), vector("license")), result);
+    }
+
+    @Test
+    public void test_sharedCacheDown_fallBackToDelegate() {
+        sharedDown = true;
+        CachingEmbeddingClient client = client(MODEL);
+
+        Assert.assertEquals(List.of(vector("a")), client.embed(List.of("a")));
+        // 共享缓存不可用时本地缓存照常生效
+        client.embed(List.of("a"));
+        Assert.assertEquals(1, delegateCalls.size());
+        Assert.assertEquals(1, client.getLocalHits());
+    }
+
+    @Test
+    public void test_differentModel_separateKeys() {
+        client(MODEL).embed(List.of("a"));
+        client("bge-m3").embed(List.of("a"));
+
+        Assert.assertEquals(2, delegateCalls.size());
+        Assert.assertEquals(2, shared.size());
+    }
+
+    @Test
+    public void test_withDelegate_sharesCache() {
+        CachingEmbeddingClient client = client(MODEL);
+        EmbeddingClient ingestDelegate = Mockito.mock(EmbeddingClient.class);
+        CachingEmbeddingClient ingest = client.withDelegate(ingestDelegate);
+
+        client.embed(List.of("a"));
+        ingest.embed(List.of("a"));
+
+        Mockito.verifyNoInteractions(ingestDelegate);
+        Assert.assertEquals(1, client.getLocalHits());
+    }
+
+    private CachingEmbeddingClient client(String model) {
+        return new CachingEmbeddingClient(delegate, model, redissonClient, 100, 1000, 3600);
+    }
+
+    /**
+     * 缓存按 float 存储，测试向量取 float 可精确表示的值
+     */
+    private static List<Double> vector(String text) {
+        return List.of((double) text.charAt(0), (double) text.length());
+    }
+
+}
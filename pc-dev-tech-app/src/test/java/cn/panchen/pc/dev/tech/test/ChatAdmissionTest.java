@@ -0,0 +1,165 @@
+package cn.panchen.pc.dev.tech.test;
+
+import cn.panchen.pc.dev.tech.trigger.admission.ChatAdmission;
+import cn.panchen.pc.dev.tech.trigger.admission.ChatRejectedException;
+import cn.panchen.pc.dev.tech.trigger.metrics.RagMetrics;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Sinks;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * ChatAdmission 放行、归还、排队超时的计数测试，不依赖 Spring 上下文
+ */
+public class ChatAdmissionTest {
+
+    private static final String BACKEND = "ollama";
+
+    private SimpleMeterRegistry meterRegistry;
+    private ChatAdmission chatAdmission;
+
+    @Before
+    public void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        RagMetrics ragMetrics = new RagMetrics();
+        ReflectionTestUtils.setField(ragMetrics, "models", "deepseek-r1:1.5b");
+        ragMetrics.init();
+        chatAdmission = new ChatAdmission();
+        ReflectionTestUtils.setField(chatAdmission, "meterRegistry", meterRegistry);
+        ReflectionTestUtils.setField(chatAdmission, "ragMetrics", ragMetrics);
+        ReflectionTestUtils.setField(chatAdmission, "enabled", true);
+        ReflectionTestUtils.setField(chatAdmission, "backendLimits", BACKEND + "=2");
+        ReflectionTestUtils.setField(chatAdmission, "modelLimits", "deepseek-r1:1.5b=1");
+        ReflectionTestUtils.setField(chatAdmission, "queueCapacity", 1);
+        ReflectionTestUtils.setField(chatAdmission, "maxWaitMillis", 200L);
+        ReflectionTestUtils.setField(chatAdmission, "retryAfterSeconds", 2L);
+        chatAdmission.init();
+    }
+
+    @Test
+    public void test_grant_releaseOnComplete() {
+        Sinks.Many<String> first = Sinks.many().unicast().onBackpressureBuffer();
+        AtomicBoolean queuedSubscribed = new AtomicBoolean();
+
+        chatAdmission.reserve(BACKEND, "qwen2.5:7b").admit(first.asFlux()).subscribe();
+        // 立即结束的流马上归还名额
+        chatAdmission.reserve(BACKEND, "qwen2.5:7b").admit(Flux.just("a")).subscribe();
+        Assert.assertEquals(1.0, active(), 0);
+
+        chatAdmission.reserve(BACKEND, "qwen2.5:7b").admit(Flux.never()).subscribe();
+        Assert.assertEquals(2.0, active(), 0);
+
+        // 名额占满后的请求排队，拿到名额前不订阅下游
+        chatAdmission.reserve(BACKEND, "qwen2.5:7b").admit(Flux.never().doOnSubscribe(s -> queuedSubscribed.set(true))).subscribe();
+        Assert.assertEquals(1.0, queued(), 0);
+        Assert.assertFalse(queuedSubscribed.get());
+
+        first.tryEmitComplete();
+        Assert.assertEquals(0.0, queued(), 0);
+        Assert.assertEquals(2.0, active(), 0);
+        Assert.assertTrue(queuedSubscribed.get());
+    }
+
+    @Test
+    public void test_reject_whenQueueFull() {
+        chatAdmission.reserve(BACKEND, "qwen2.5:7b").admit(Flux.never()).subscribe();
+        chatAdmission.reserve(BACKEND, "qwen2.5:7b").admit(Flux.never()).subscribe();
+        chatAdmission.reserve(BACKEND, "qwen2.5:7b").admit(Flux.never()).subscribe();
+
+        ChatRejectedException e = Assert.assertThrows(ChatRejectedException.class, () -> chatAdmission.reserve(BACKEND, "qwen2.5:7b"));
+        Assert.assertEquals("2", e.getHeaders().getFirst("Retry-After"));
+        Assert.assertEquals(1.0, rejected("queue_full"), 0);
+        Assert.assertEquals(2.0, active(), 0);
+        Assert.assertEquals(1.0, queued(), 0);
+    }
+
+    @Test
+    public void test_timeout_leavesQueue() throws InterruptedException {
+        Disposable holder1 = chatAdmission.reserve(BACKEND, "qwen2.5:7b").admit(Flux.never()).subscribe();
+        chatAdmission.reserve(BACKEND, "qwen2.5:7b").admit(Flux.never()).subscribe();
+
+        CountDownLatch done = new CountDownLatch(1);
+        AtomicReference<Throwable> error = new AtomicReference<>();
+        chatAdmission.reserve(BACKEND, "qwen2.5:7b").admit(Flux.just("a"))
+                .subscribe(ignored -> {}, e -> {
+                    error.set(e);
+                    done.countDown();
+                });
+        Assert.assertTrue(done.await(5, TimeUnit.SECONDS));
+
+        Assert.assertTrue(error.get() instanceof ChatRejectedException);
+        Assert.assertEquals(1.0, rejected("timeout"), 0);
+        Assert.assertEquals(1, waited("timeout"));
+        Assert.assertEquals(0.0, queued(), 0);
+        Assert.assertEquals(2.0, active(), 0);
+
+        // 超时的请求已退出队列，归还名额后不会被放行
+        holder1.dispose();
+        Assert.assertEquals(1.0, active(), 0);
+    }
+
+    @Test
+    public void test_modelLimit_doesNotBlockOtherModels() {
+        Disposable limited = chatAdmission.reserve(BACKEND, "deepseek-r1:1.5b").admit(Flux.never()).subscribe();
+        chatAdmission.reserve(BACKEND, "deepseek-r1:1.5b").admit(Flux.never()).subscribe();
+        Assert.assertEquals(1.0, active(), 0);
+        Assert.assertEquals(1.0, queued(), 0);
+
+        // 队首请求受模型上限约束暂不放行，其它模型的请求照常放行
+        chatAdmission.reserve(BACKEND, "qwen2.5:7b").admit(Flux.never()).subscribe();
+        Assert.assertEquals(2.0, active(), 0);
+        Assert.assertEquals(1.0, queued(), 0);
+
+        // 取消后名额交给排队中的同模型请求
+        limited.dispose();
+        Assert.assertEquals(2.0, active(), 0);
+        Assert.assertEquals(0.0, queued(), 0);
+        Assert.assertEquals(3, waited("granted"));
+        // 未配置的模型在等待计时上记为 other
+        Assert.assertEquals(1, meterRegistry.get("rag.chat.admission.wait").tag("model", "other").timers().size());
+        Assert.assertEquals(2, meterRegistry.get("rag.chat.admission.wait").tag("model", "deepseek-r1:1.5b").timer().count());
+    }
+
+    @Test
+    public void test_release_isIdempotent() {
+        ChatAdmission.Ticket ticket = chatAdmission.reserve(BACKEND, "qwen2.5:7b");
+        chatAdmission.reserve(BACKEND, "qwen2.5:7b").admit(Flux.never()).subscribe();
+        Assert.assertEquals(2.0, active(), 0);
+
+        // 预约后未使用直接放弃，重复归还不会多减
+        ticket.release();
+        ticket.release();
+        Assert.assertEquals(1.0, active(), 0);
+        Assert.assertEquals(0.0, queued(), 0);
+    }
+
+    private double active() {
+        return meterRegistry.get("rag.chat.admission.active").tag("backend", BACKEND).gauge().value();
+    }
+
+    private double queued() {
+        return meterRegistry.get("rag.chat.admission.queue").tag("backend", BACKEND).gauge().value();
+    }
+
+    /**
+     * 等待计时按模型打标签，这里累加所有模型
+     */
+    private long waited(String outcome) {
+        return meterRegistry.get("rag.chat.admission.wait").tag("outcome", outcome).timers().stream().mapToLong(Timer::count).sum();
+    }
+
+    private double rejected(String reason) {
+        return meterRegistry.get("rag.chat.admission.rejected").tag("reason", reason).counter().count();
+    }
+
+}
@@ -0,0 +1,189 @@
+package cn.panchen.pc.dev.tech.test;
+
+import cn.panchen.pc.dev.tech.trigger.admission.ChatAdmission;
+import cn.panchen.pc.dev.tech.trigger.admission.ChatRejectedException;
+import cn.panchen.pc.dev.tech.trigger.metrics.RagMetrics;
+import cn.panchen.pc.dev.tech.trigger.routing.ChatRouter;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.micrometer.observation.ObservationRegistry;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.springframework.ai.chat.ChatResponse;
+import org.springframework.ai.chat.messages.UserMessage;
+import org.springframework.ai.chat.prompt.Prompt;
+import org.springframework.ai.ollama.OllamaChatClient;
+import org.springframework.ai.openai.OpenAiChatClient;
+import org.springframework.test.util.ReflectionTestUtils;
+import reactor.core.publisher.Flux;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * ChatRouter 失败改发、对冲、截尾 TTFT 样本和排队已满不计失败的测试，模型客户端用 Mockito 替代，不依赖 Spring 上下文
+ */
+public class ChatRouterTest {
+
+    private static final String OLLAMA_MODEL = "deepseek-r1:1.5b";
+    private static final String OPENAI_MODEL = "gpt-4o";
+
+    private final ChatResponse ollamaResponse = new ChatResponse(List.of());
+    private final ChatResponse openAiResponse = new ChatResponse(List.of());
+
+    private SimpleMeterRegistry meterRegistry;
+    private ChatAdmission chatAdmission;
+    private OllamaChatClient ollamaChatClient;
+    private OpenAiChatClient openAiChatClient;
+    private ChatRouter chatRouter;
+
+    @Before
+    public void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        RagMetrics ragMetrics = new RagMetrics();
+        ReflectionTestUtils.setField(ragMetrics, "meterRegistry", meterRegistry);
+        ReflectionTestUtils.setField(ragMetrics, "observationRegistry", ObservationRegistry.create());
+        ReflectionTestUtils.setField(ragMetrics, "models", "");
+        ragMetrics.init();
+
+        // ollama 只有一个名额且不排队，占住后再来的请求立即 429
+        chatAdmission = new ChatAdmission();
+        ReflectionTestUtils.setField(chatAdmission, "meterRegistry", meterRegistry);
+        ReflectionTestUtils.setField(chatAdmission, "ragMetrics", ragMetrics);
+        ReflectionTestUtils.setField(chatAdmission, "enabled", true);
+        ReflectionTestUtils.setField(chatAdmission, "backendLimits", "ollama=1,openai=4");
+        ReflectionTestUtils.setField(chatAdmission, "modelLimits", "");
+        ReflectionTestUtils.setField(chatAdmission, "queueCapacity", 0);
+        ReflectionTestUtils.setField(chatAdmission, "maxWaitMillis", 1000L);
+        ReflectionTestUtils.setField(chatAdmission, "retryAfterSeconds", 2L);
+        chatAdmission.init();
+
+        ollamaChatClient = Mockito.mock(OllamaChatClient.class);
+        openAiChatClient = Mockito.mock(OpenAiChatClient.class);
+        Mockito.when(openAiChatClient.stream(Mockito.any(Prompt.class))).thenAnswer(invocation -> Flux.just(openAiResponse));
+
+        chatRouter = new ChatRouter();
+        ReflectionTestUtils.setField(chatRouter, "ollamaChatClient", ollamaChatClient);
+        ReflectionTestUtils.setField(chatRouter, "openAiChatClient", openAiChatClient);
+        ReflectionTestUtils.setField(chatRouter, "chatAdmission", chatAdmission);
+        ReflectionTestUtils.setField(chatRouter, "ragMetrics", ragMetrics);
+        ReflectionTestUtils.setField(chatRouter, "meterRegistry", meterRegistry);
+        ReflectionTestUtils.setField(chatRouter, "routes", "ollama=" + OLLAMA_MODEL + ",openai=" + OPENAI_MODEL);
+        ReflectionTestUtils.setField(chatRouter, "window", 100);
+        ReflectionTestUtils.setField(chatRouter, "exploreRatio", 0.0);
+        ReflectionTestUtils.setField(chatRouter, "failureThreshold", 1);
+        ReflectionTestUtils.setField(chatRouter, "cooldownMillis", 60000L);
+        ReflectionTestUtils.setField(chatRouter, "hedgeEnabled", true);
+        ReflectionTestUtils.setField(chatRouter, "minSamples", 10);
+        ReflectionTestUtils.setField(chatRouter, "defaultDelayMillis", 100L);
+        ReflectionTestUtils.setField(chatRouter, "minDelayMillis", 50L);
+        chatRouter.init();
+    }
+
+    @Test
+    public void test_failover_whenPrimaryFails() {
+        Mockito.when(ollamaChatClient.stream(Mockito.any(Prompt.class))).thenAnswer(invocation -> Flux.error(new IllegalStateException("连接被拒绝")));
+        // 对冲时间远大于测试超时，说明是首选失败后立即改发
+        ReflectionTestUtils.setField(chatRouter, "defaultDelayMillis", 60000L);
+
+        Assert.assertEquals(List.of(openAiResponse), stream());
+
+        assertAttempts("ollama", "primary", "failed");
+        assertAttempts("openai", "failover", "first-token");
+        // 连续失败达到阈值，冷却期内不再选择
+        Assert.assertEquals(0.0, healthy("ollama"), 0);
+        Assert.assertEquals(List.of(openAiResponse), stream());
+        Mockito.verify(ollamaChatClient, Mockito.times(1)).stream(Mockito.any(Prompt.class));
+    }
+
+    @Test
+    public void test_failover_onQueueFull_notCountedAsFailure() {
+        AtomicBoolean primarySubscribed = new AtomicBoolean();
+        Mockito.when(ollamaChatClient.stream(Mockito.any(Prompt.class)))
+                .thenAnswer(invocation -> Flux.just(ollamaResponse).doOnSubscribe(subscription -> primarySubscribed.set(true)));
+        ReflectionTestUtils.setField(chatRouter, "defaultDelayMillis", 60000L);
+        chatAdmission.reserve("ollama", OLLAMA_MODEL).admit(Flux.never()).subscribe();
+
+        Assert.assertEquals(List.of(openAiResponse), stream());
+
+        // 预约名额时被拒绝，请求没有发往 ollama，只记在准入的拒绝计数上
+        assertAttempts("openai", "failover", "first-token");
+        Assert.assertEquals(1.0, meterRegistry.get("rag.chat.admission.rejected").tag("backend", "ollama").counter().count(), 0);
+        Assert.assertNull(meterRegistry.find("rag.router.attempts").tag("backend", "ollama").counter());
+        Assert.assertFalse(primarySubscribed.get());
+        // 排队已满（429）不算路由失败
+        Assert.assertEquals(1.0, healthy("ollama"), 0);
+    }
+
+    @Test
+    public void test_hedge_slowPrimaryCancelledAndCensored() {
+        AtomicBoolean primaryCancelled = new AtomicBoolean();
+        Mockito.when(ollamaChatClient.stream(Mockito.any(Prompt.class)))
+                .thenAnswer(invocation -> Flux.<ChatResponse>never().doOnCancel(() -> primaryCancelled.set(true)));
+
+        Assert.assertEquals(List.of(openAiResponse), stream());
+
+        Assert.assertTrue(primaryCancelled.get());
+        assertAttempts("ollama", "primary", "cancelled");
+        assertAttempts("openai", "hedge", "first-token");
+        // 被取消的首选路由留下不小于对冲等待时间的截尾样本
+        Assert.assertTrue(ttftMedian("ollama") >= 0.1);
+        Assert.assertTrue(ttftMedian("openai") < ttftMedian("ollama"));
+
+        // 截尾样本让慢路由的中位数上升，之后首选改为 openai，直接返回不再对冲
+        Assert.assertEquals(List.of(openAiResponse), stream());
+        Mockito.verify(ollamaChatClient, Mockito.times(1)).stream(Mockito.any(Prompt.class));
+        assertAttempts("openai", "primary", "first-token");
+    }
+
+    @Test
+    public void test_primaryWins_backupNeverStarted() {
+        Mockito.when(ollamaChatClient.stream(Mockito.any(Prompt.class))).thenAnswer(invocation -> Flux.just(ollamaResponse));
+
+        Assert.assertEquals(List.of(ollamaResponse), stream());
+
+        Mockito.verifyNoInteractions(openAiChatClient);
+        assertAttempts("ollama", "primary", "first-token");
+    }
+
+    @Test
+    public void test_bothFail_preferRejected() {
+        chatAdmission.reserve("ollama", OLLAMA_MODEL).admit(Flux.never()).subscribe();
+        Mockito.when(openAiChatClient.stream(Mockito.any(Prompt.class))).thenAnswer(invocation -> Flux.error(new IllegalStateException("服务不可用")));
+
+        // 两条路由都失败时返回 429，客户端可以按 Retry-After 重试
+        Assert.assertThrows(ChatRejectedException.class, this::stream);
+    }
+
+    private List<ChatResponse> stream() {
+        return chatRouter.stream(route -> List.of(new UserMessage("hello"))).collectList().block(Duration.ofSeconds(5));
+    }
+
+    /**
+     * 尝试次数在流结束后的 doFinally 中记录，可能晚于 block 返回，短时间内轮询
+     */
+    private void assertAttempts(String backend, String role, String outcome) {
+        long deadline = System.currentTimeMillis() + 1000;
+        while (true) {
+            Counter counter = meterRegistry.find("rag.router.attempts").tag("backend", backend).tag("role", role).tag("outcome", outcome).counter();
+            if (null != counter && counter.count() >= 1) {
+                Assert.assertEquals(1.0, counter.count(), 0);
+                return;
+            }
+            Assert.assertTrue("没有记录尝试 " + backend + " " + role + " " + outcome, System.currentTimeMillis() < deadline);
+            Thread.onSpinWait();
+        }
+    }
+
+    private double healthy(String backend) {
+        return meterRegistry.get("rag.router.healthy").tag("backend", backend).gauge().value();
+    }
+
+    private double ttftMedian(String backend) {
+        return meterRegistry.get("rag.router.ttft").tag("backend", backend).tag("quantile", "0.5").gauge().value();
+    }
+
+}
@@ -0,0 +1,113 @@
+package cn.panchen.pc.dev.tech.test;
+
+import cn.panchen.pc.dev.tech.trigger.ingest.CodeAwareTextSplitter;
+import com.knuddels.jtokkit.Encodings;
+import com.knuddels.jtokkit.api.Encoding;
+import com.knuddels.jtokkit.api.EncodingType;
+import org.junit.Assert;
+import org.junit.Test;
+import org.springframework.ai.document.Document;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * CodeAwareTextSplitter 切点测试，不依赖 Spring 上下文
+ */
+public class CodeAwareTextSplitterTest {
+
+    private static final Encoding ENCODING = Encodings.newLazyEncodingRegistry().getEncoding(EncodingType.CL100K_BASE);
+
+    @Test
+    public void test_code_cutBeforeDeclaration() {
+        StringBuilder source = new StringBuilder("package demo;\n\nimport java.util.List;\n\npublic class Demo {\n\n");
+        for (int i = 0; i < 20; i++) {
+            source.append("    /**\n     * 方法 ").append(i).append("\n     */\n")
+                    .append("    public int method").append(i).append("(int value) {\n")
+                    .append("        int result = value * ").append(i).append(";\n")
+                    .append("        return result + ").append(i).append(";\n")
+                    .append("    }\n\n");
+        }
+        source.append("}\n");
+
+        List<String> chunks = split(new CodeAwareTextSplitter(120, 30, -1), source.toString(), "src/main/java/demo/Demo.java");
+
+        Assert.assertTrue(chunks.size() > 1);
+        for (String chunk : chunks) {
+            Assert.assertTrue("切片超过 chunkSize：" + chunk, ENCODING.countTokens(chunk) <= 120);
+            Assert.assertTrue("切片直接截取原文", source.indexOf(chunk) >= 0);
+        }
+        // 除第一片外，每片都从方法的文档注释开始，不切在方法中间
+        for (String chunk : chunks.subList(1, chunks.size())) {
+            Assert.assertTrue("切片没有从声明开始：" + chunk, chunk.startsWith("    /**"));
+        }
+    }
+
+    @Test
+    public void test_markdown_neverCutInsideFence() {
+        StringBuilder markdown = new StringBuilder("# 标题\n\n说明文字。\n\n");
+        for (int i = 0; i < 6; i++) {
+            markdown.append("## 小节 ").append(i).append("\n\n一段说明。\n\n```java\n");
+            for (int j = 0; j < 8; j++) {
+                markdown.append("int value").append(j).append(" = compute(").append(i).append(", ").append(j).append(");\n");
+            }
+            markdown.append("```\n\n");
+        }
+
+        List<String> chunks = split(new CodeAwareTextSplitter(150, 20, -1), markdown.toString(), "README.md");
+
+        Assert.assertTrue(chunks.size() > 1);
+        for (String chunk : chunks) {
+            Assert.assertTrue("切片超过 chunkSize：" + chunk, ENCODING.countTokens(chunk) <= 150);
+            // 每个切片内的代码块标记成对出现，说明切点不在代码块内
+            long fences = chunk.lines().filter(line -> line.startsWith("```")).count();
+            Assert.assertEquals("切点落在代码块内：" + chunk, 0, fences % 2);
+        }
+    }
+
+    @Test
+    public void test_overlongLine_splitEvenly() {
+        StringBuilder line = new StringBuilder();
+        for (int i = 0; i < 400; i++) {
+            line.append("token").append(i).append(' ');
+        }
+        String text = "第一行。\n" + line.toString().strip() + "\n最后一行。\n";
+
+        List<String> chunks = split(new CodeAwareTextSplitter(100, 10, -1), text, "data.txt");
+
+        Assert.assertTrue(chunks.size() > 2);
+        for (String chunk : chunks) {
+            Assert.assertTrue("切片超过 chunkSize：" + chunk, ENCODING.countTokens(chunk) <= 100);
+        }
+        // 超长行被切开后，各段拼起来仍覆盖整行
+        String joined = String.join("", chunks).replaceAll("\\s", "");
+        Assert.assertTrue(joined.contains(line.toString().replaceAll("\\s", "")));
+    }
+
+    @Test
+    public void test_parallelRegions_matchSequential() {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 200; i++) {
+            text.append("第 ").append(i).append(" 段的第一句话。第二句话说明一些细节。\n");
+            text.append("这一段还有一行，用来凑够长度。\n\n");
+        }
+
+        List<String> sequential = split(new CodeAwareTextSplitter(80, 20, -1), text.toString(), "notes.txt");
+        List<String> parallel = split(new CodeAwareTextSplitter(80, 20, 2000), text.toString(), "notes.txt");
+
+        Assert.assertTrue(parallel.size() > 1);
+        for (String chunk : parallel) {
+            Assert.assertTrue("切片超过 chunkSize：" + chunk, ENCODING.countTokens(chunk) <= 80);
+        }
+        // 区域在空行处划分，并行切割后按原顺序拼接，内容与顺序切割一致
+        Assert.assertEquals(String.join("", sequential).replaceAll("\\s", ""), String.join("", parallel).replaceAll("\\s", ""));
+        Assert.assertEquals(text.toString().replaceAll("\\s", ""), String.join("", parallel).replaceAll("\\s", ""));
+    }
+
+    private static List<String> split(CodeAwareTextSplitter splitter, String text, String path) {
+        return splitter.apply(List.of(new Document(text, Map.of("path", path)))).stream()
+                .map(Document::getContent)
+                .toList();
+    }
+
+}
@@ -0,0 +1,97 @@
+package cn.panchen.pc.dev.tech.test;
+
+import cn.panchen.pc.dev.tech.trigger.retrieval.ContextPacker;
+import com.knuddels.jtokkit.Encodings;
+import com.knuddels.jtokkit.api.Encoding;
+import com.knuddels.jtokkit.api.EncodingType;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.ai.document.Document;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.List;
+
+/**
+ * ContextPacker 去重和预算截断测试，不依赖 Spring 上下文
+ */
+public class ContextPackerTest {
+
+    private static final Encoding ENCODING = Encodings.newLazyEncodingRegistry().getEncoding(EncodingType.CL100K_BASE);
+
+    private ContextPacker contextPacker;
+
+    @Before
+    public void setUp() {
+        contextPacker = new ContextPacker();
+        ReflectionTestUtils.setField(contextPacker, "candidates", 12);
+        ReflectionTestUtils.setField(contextPacker, "defaultTokenBudget", 2000);
+        ReflectionTestUtils.setField(contextPacker, "tokenBudgets", "deepseek-r1:1.5b=100");
+        ReflectionTestUtils.setField(contextPacker, "lambda", 0.7);
+        ReflectionTestUtils.setField(contextPacker, "dedupThreshold", 0.8);
+        ReflectionTestUtils.setField(contextPacker, "minTruncatedTokens", 16);
+        contextPacker.init();
+    }
+
+    @Test
+    public void test_dedup_dropNearDuplicate() {
+        String first = paragraph("alpha", 40);
+        // 重叠切割产生的切片：与第一段大部分相同，只多出结尾几个词
+        String overlapped = first + " trailing words here";
+        String second = paragraph("beta", 40);
+
+        String context = contextPacker.pack(List.of(doc(first), doc(overlapped), doc(second)), 2000);
+
+        Assert.assertEquals(List.of(first, second), List.of(context.split("\n\n")));
+    }
+
+    @Test
+    public void test_budget_truncateLastChunk() {
+        String first = paragraph("alpha", 30);
+        String second = paragraph("beta", 60);
+        int budget = ENCODING.countTokens(first) + ENCODING.countTokens("\n\n") + 40;
+
+        String context = contextPacker.pack(List.of(doc(first), doc(second), doc(paragraph("gamma", 30))), budget);
+
+        String[] parts = context.split("\n\n");
+        Assert.assertEquals(2, parts.length);
+        Assert.assertEquals(first, parts[0]);
+        // 第二段放不下整段，截断放入后停止，第三段不再放入
+        Assert.assertTrue(second.startsWith(parts[1]));
+        Assert.assertTrue(parts[1].length() < second.length());
+        Assert.assertTrue(ENCODING.countTokens(parts[1]) <= 40);
+    }
+
+    @Test
+    public void test_budget_skipTruncationBelowMinimum() {
+        String first = paragraph("alpha", 30);
+        int budget = ENCODING.countTokens(first) + ENCODING.countTokens("\n\n") + 8;
+
+        String context = contextPacker.pack(List.of(doc(first), doc(paragraph("beta", 60))), budget);
+
+        // 剩余预算少于 minTruncatedTokens，不再截断放入
+        Assert.assertEquals(first, context);
+    }
+
+    @Test
+    public void test_tokenBudget_perModel() {
+        Assert.assertEquals(100, contextPacker.tokenBudget("deepseek-r1:1.5b"));
+        Assert.assertEquals(2000, contextPacker.tokenBudget("qwen2.5:7b"));
+        String context = contextPacker.pack("deepseek-r1:1.5b", List.of(doc(paragraph("alpha", 200))));
+        Assert.assertTrue(ENCODING.countTokens(context) <= 100);
+    }
+
+    private static String paragraph(String word, int words) {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < words; i++) {
+            if (i > 0) text.append(' ');
+            text.append(word).append(i);
+        }
+        return text.toString();
+    }
+
+    private static Document doc(String content) {
+        return new Document(content);
+    }
+
+}
@@ -0,0 +1,104 @@
+package cn.panchen.pc.dev.tech.test;
+
+import cn.panchen.pc.dev.tech.trigger.retrieval.HnswIndex;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+/**
+ * HnswIndex 召回率测试：固定种子的随机向量，与精确扫描的 topK 比较
+ */
+public class HnswIndexTest {
+
+    private static final int DIMENSIONS = 32;
+    private static final int VECTORS = 3000;
+    private static final int QUERIES = 100;
+    private static final int TOP_K = 10;
+
+    @Test
+    public void test_recall_againstExactScan() {
+        Random random = new Random(7);
+        float[][] vectors = new float[VECTORS][];
+        HnswIndex index = new HnswIndex(DIMENSIONS, 16, 100, VECTORS);
+        for (int i = 0; i < VECTORS; i++) {
+            vectors[i] = randomVector(random);
+            Assert.assertEquals(i, index.add(vectors[i]));
+        }
+        Assert.assertEquals(VECTORS, index.size());
+
+        int found = 0;
+        for (int q = 0; q < QUERIES; q++) {
+            float[] query = randomVector(random);
+            float[] similarities = new float[TOP_K];
+            int[] nodes = index.search(query, TOP_K, 64, similarities);
+            Assert.assertEquals(TOP_K, nodes.length);
+            for (int i = 1; i < nodes.length; i++) {
+                Assert.assertTrue("结果应按相似度降序", similarities[i - 1] >= similarities[i]);
+            }
+            int[] exact = exactTopK(vectors, query);
+            for (int node : nodes) {
+                if (Arrays.stream(exact).anyMatch(e -> e == node)) found++;
+            }
+        }
+        double recall = (double) found / (QUERIES * TOP_K);
+        Assert.assertTrue("召回率过低:" + recall, recall >= 0.9);
+    }
+
+    @Test
+    public void test_search_returnsSelfAsNearest() {
+        Random random = new Random(11);
+        HnswIndex index = new HnswIndex(DIMENSIONS, 8, 50, 16);
+        float[][] vectors = new float[500][];
+        for (int i = 0; i < vectors.length; i++) {
+            vectors[i] = randomVector(random);
+            index.add(vectors[i]);
+        }
+        // 超过初始容量后自动扩容；与库中向量方向相同的查询，最近邻就是它自己，相似度为 1
+        float[] similarities = new float[1];
+        for (int i = 0; i < vectors.length; i += 50) {
+            float[] scaled = vectors[i].clone();
+            for (int d = 0; d < scaled.length; d++) scaled[d] *= 3;
+            int[] nodes = index.search(scaled, 1, 32, similarities);
+            Assert.assertEquals(i, nodes[0]);
+            Assert.assertEquals(1.0, similarities[0], 1e-4);
+        }
+    }
+
+    @Test
+    public void test_search_emptyIndex() {
+        HnswIndex index = new HnswIndex(DIMENSIONS, 16, 100, 0);
+        Assert.assertEquals(0, index.search(randomVector(new Random(1)), TOP_K, 64, new float[TOP_K]).length);
+        Assert.assertThrows(IllegalArgumentException.class, () -> index.add(new float[DIMENSIONS + 1]));
+    }
+
+    private static int[] exactTopK(float[][] vectors, float[] query) {
+        return IntStream.range(0, vectors.length).boxed()
+                .sorted(Comparator.comparingDouble(i -> -cosine(vectors[i], query)))
+                .limit(TOP_K)
+                .mapToInt(Integer::intValue)
+                .toArray();
+    }
+
+    private static double cosine(float[] a, float[] b) {
+        double dot = 0, normA = 0, normB = 0;
+        for (int i = 0; i < a.length; i++) {
+            dot += a[i] * b[i];
+            normA += a[i] * a[i];
+            normB += b[i] * b[i];
+        }
+        return dot / Math.sqrt(normA * normB);
+    }
+
+    private static float[] randomVector(Random random) {
+        float[] vector = new float[DIMENSIONS];
+        for (int i = 0; i < DIMENSIONS; i++) {
+            vector[i] = (float) random.nextGaussian();
+        }
+        return vector;
+    }
+
+}
@@ -0,0 +1,88 @@
+package cn.panchen.pc.dev.tech.test;
+
+import cn.panchen.pc.dev.tech.trigger.retrieval.HnswIndex;
+import cn.panchen.pc.dev.tech.trigger.retrieval.HotTier;
+import cn.panchen.pc.dev.tech.trigger.retrieval.HotTierSnapshot;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.file.Path;
+import java.util.Random;
+
+/**
+ * HotTierSnapshot 写入、读回测试
+ */
+public class HotTierSnapshotTest {
+
+    private static final int DIMENSIONS = 16;
+    private static final int VECTORS = 300;
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void test_roundTrip() throws Exception {
+        HotTier.TagIndex written = buildTagIndex(new HotTier.Fingerprint(VECTORS, 123456789L));
+        Path file = temporaryFolder.getRoot().toPath().resolve("hot-tier").resolve("tag.snap");
+        HotTierSnapshot.write(file, written);
+
+        HotTier.TagIndex read = HotTierSnapshot.read(file, "tag", written.fingerprint());
+
+        Assert.assertNotNull(read);
+        Assert.assertEquals("tag", read.ragTag());
+        Assert.assertEquals(written.fingerprint(), read.fingerprint());
+        Assert.assertArrayEquals(written.ids(), read.ids());
+        Assert.assertArrayEquals(written.contents(), read.contents());
+        Assert.assertArrayEquals(written.metadata(), read.metadata());
+        Assert.assertEquals(written.index().size(), read.index().size());
+        Assert.assertEquals(written.index().dimensions(), read.index().dimensions());
+
+        // 读回的图与原图的检索结果完全一致
+        Random random = new Random(3);
+        for (int q = 0; q < 20; q++) {
+            float[] query = randomVector(random);
+            float[] expectedSimilarities = new float[10];
+            float[] actualSimilarities = new float[10];
+            int[] expected = written.index().search(query, 10, 32, expectedSimilarities);
+            int[] actual = read.index().search(query, 10, 32, actualSimilarities);
+            Assert.assertArrayEquals(expected, actual);
+            Assert.assertArrayEquals(expectedSimilarities, actualSimilarities, 0f);
+        }
+    }
+
+    @Test
+    public void test_read_staleFingerprint() throws Exception {
+        HotTier.TagIndex written = buildTagIndex(new HotTier.Fingerprint(VECTORS, 1L));
+        Path file = temporaryFolder.getRoot().toPath().resolve("tag.snap");
+        HotTierSnapshot.write(file, written);
+
+        // 知识库内容变了（切片数相同、散列不同），快照作废
+        Assert.assertNull(HotTierSnapshot.read(file, "tag", new HotTier.Fingerprint(VECTORS, 2L)));
+    }
+
+    private static HotTier.TagIndex buildTagIndex(HotTier.Fingerprint fingerprint) {
+        Random random = new Random(5);
+        HnswIndex index = new HnswIndex(DIMENSIONS, 8, 50, VECTORS);
+        String[] ids = new String[VECTORS];
+        String[] contents = new String[VECTORS];
+        String[] metadata = new String[VECTORS];
+        for (int i = 0; i < VECTORS; i++) {
+            index.add(randomVector(random));
+            ids[i] = "id-" + i;
+            contents[i] = "切片内容 " + i;
+            metadata[i] = "{\"knowledge\":\"tag\",\"path\":\"src/File" + i + ".java\"}";
+        }
+        return new HotTier.TagIndex("tag", index, ids, contents, metadata, fingerprint);
+    }
+
+    private static float[] randomVector(Random random) {
+        float[] vector = new float[DIMENSIONS];
+        for (int i = 0; i < DIMENSIONS; i++) {
+            vector[i] = (float) random.nextGaussian();
+        }
+        return vector;
+    }
+
+}
@@ -0,0 +1,165 @@
+package cn.panchen.pc.dev.tech.test;
+
+import cn.panchen.pc.dev.tech.trigger.ingest.IngestJob;
+import cn.panchen.pc.dev.tech.trigger.ingest.IngestJobService;
+import cn.panchen.pc.dev.tech.trigger.ingest.IngestJobStatus;
+import cn.panchen.pc.dev.tech.trigger.ingest.RagTagRegistry;
+import cn.panchen.pc.dev.tech.trigger.listener.KnowledgeUpdateListener;
+import cn.panchen.pc.dev.tech.trigger.store.VectorIndexManager;
+import cn.panchen.pc.dev.tech.trigger.store.VectorStoreRepository;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * IngestJobService 提交、失败回滚、取消回滚测试，依赖用 Mockito 替代，不依赖 Spring 上下文
+ */
+public class IngestJobServiceTest {
+
+    private static final String RAG_TAG = "demo";
+
+    private RagTagRegistry ragTagRegistry;
+    private VectorStoreRepository vectorStoreRepository;
+    private KnowledgeUpdateListener knowledgeUpdateListener;
+    private IngestJobService ingestJobService;
+
+    @Before
+    public void setUp() {
+        ragTagRegistry = Mockito.mock(RagTagRegistry.class);
+        vectorStoreRepository = Mockito.mock(VectorStoreRepository.class);
+        knowledgeUpdateListener = Mockito.mock(KnowledgeUpdateListener.class);
+        ingestJobService = new IngestJobService();
+        ReflectionTestUtils.setField(ingestJobService, "ragTagRegistry", ragTagRegistry);
+        ReflectionTestUtils.setField(ingestJobService, "vectorStoreRepository", vectorStoreRepository);
+        ReflectionTestUtils.setField(ingestJobService, "knowledgeUpdateListener", knowledgeUpdateListener);
+        ReflectionTestUtils.setField(ingestJobService, "vectorIndexManager", Mockito.mock(VectorIndexManager.class));
+        ReflectionTestUtils.setField(ingestJobService, "jobThreads", 1);
+        ReflectionTestUtils.setField(ingestJobService, "jobQueueCapacity", 10);
+        ReflectionTestUtils.setField(ingestJobService, "jobRetention", 100);
+        ingestJobService.init();
+    }
+
+    @After
+    public void tearDown() {
+        ingestJobService.destroy();
+    }
+
+    @Test
+    public void test_success_commitWithoutRollback() throws InterruptedException {
+        AtomicBoolean hookRun = new AtomicBoolean();
+        IngestJob job = ingestJobService.submit(RAG_TAG, "test", running -> {
+            running.setCommit("abc123");
+            running.onCommit(ignored -> hookRun.set(true));
+        });
+
+        awaitFinished(job);
+
+        Assert.assertEquals(IngestJobStatus.COMMITTED, job.getStatus());
+        Assert.assertTrue(hookRun.get());
+        Mockito.verify(ragTagRegistry).commit(RAG_TAG, "abc123");
+        // 状态先置为已提交，再发布更新通知
+        Mockito.verify(knowledgeUpdateListener, Mockito.timeout(5000)).publish(RAG_TAG);
+        Mockito.verify(vectorStoreRepository, Mockito.never()).deleteByMetadata(Mockito.anyString(), Mockito.anyString(), Mockito.anyString());
+    }
+
+    @Test
+    public void test_failure_rollbackByJobId() throws InterruptedException {
+        Mockito.when(vectorStoreRepository.deleteByMetadata(Mockito.eq(RAG_TAG), Mockito.eq(IngestJobService.METADATA_JOB_ID), Mockito.anyString())).thenReturn(3);
+        AtomicBoolean hookRun = new AtomicBoolean();
+        IngestJob job = ingestJobService.submit(RAG_TAG, "test", running -> {
+            running.onCommit(ignored -> hookRun.set(true));
+            throw new IllegalStateException("解析失败");
+        });
+
+        awaitFinished(job);
+
+        Assert.assertEquals(IngestJobStatus.FAILED, job.getStatus());
+        Assert.assertFalse(hookRun.get());
+        Assert.assertTrue(job.getErrors().get(0).contains("解析失败"));
+        Mockito.verify(vectorStoreRepository).deleteByMetadata(RAG_TAG, IngestJobService.METADATA_JOB_ID, job.getJobId());
+        // 回滚删除了切片，通知各实例清理缓存；不登记 ragTag
+        Mockito.verify(knowledgeUpdateListener).publish(RAG_TAG);
+        Mockito.verify(ragTagRegistry, Mockito.never()).commit(Mockito.anyString(), Mockito.any());
+    }
+
+    @Test
+    public void test_commitHookFailure_rollback() throws InterruptedException {
+        IngestJob job = ingestJobService.submit(RAG_TAG, "test", running -> running.onCommit(ignored -> {
+            throw new IllegalStateException("删除旧切片失败");
+        }));
+
+        awaitFinished(job);
+
+        Assert.assertEquals(IngestJobStatus.FAILED, job.getStatus());
+        Mockito.verify(vectorStoreRepository).deleteByMetadata(RAG_TAG, IngestJobService.METADATA_JOB_ID, job.getJobId());
+        Mockito.verify(ragTagRegistry, Mockito.never()).commit(Mockito.anyString(), Mockito.any());
+    }
+
+    @Test
+    public void test_cancelRunning_rollback() throws InterruptedException {
+        CountDownLatch started = new CountDownLatch(1);
+        IngestJob job = ingestJobService.submit(RAG_TAG, "test", running -> {
+            started.countDown();
+            new CountDownLatch(1).await();
+        });
+        Assert.assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        Assert.assertTrue(ingestJobService.cancel(job.getJobId()));
+        awaitFinished(job);
+
+        Assert.assertEquals(IngestJobStatus.CANCELLED, job.getStatus());
+        Mockito.verify(vectorStoreRepository).deleteByMetadata(RAG_TAG, IngestJobService.METADATA_JOB_ID, job.getJobId());
+        Mockito.verify(ragTagRegistry, Mockito.never()).commit(Mockito.anyString(), Mockito.any());
+        // 已结束的任务不能再取消
+        Assert.assertFalse(ingestJobService.cancel(job.getJobId()));
+    }
+
+    @Test
+    public void test_cancelQueued_neverRuns() throws InterruptedException {
+        CountDownLatch release = new CountDownLatch(1);
+        IngestJob blocker = ingestJobService.submit(RAG_TAG, "test", running -> release.await());
+        AtomicBoolean queuedRun = new AtomicBoolean();
+        IngestJob queued = ingestJobService.submit(RAG_TAG, "test", running -> queuedRun.set(true));
+
+        Assert.assertTrue(ingestJobService.cancel(queued.getJobId()));
+        Assert.assertEquals(IngestJobStatus.CANCELLED, queued.getStatus());
+        release.countDown();
+        awaitFinished(blocker);
+
+        Assert.assertFalse(queuedRun.get());
+        // 排队中取消的任务没有写入切片，不需要回滚
+        Mockito.verify(vectorStoreRepository, Mockito.never()).deleteByMetadata(RAG_TAG, IngestJobService.METADATA_JOB_ID, queued.getJobId());
+    }
+
+    @Test
+    public void test_submitExclusive_oneActivePerRagTag() throws InterruptedException {
+        CountDownLatch release = new CountDownLatch(1);
+        IngestJob first = ingestJobService.submitExclusive(RAG_TAG, "git", running -> release.await());
+        Assert.assertNotNull(first);
+        Assert.assertNull(ingestJobService.submitExclusive(RAG_TAG, "git", running -> {}));
+        Assert.assertNotNull(ingestJobService.submitExclusive("other", "git", running -> {}));
+
+        release.countDown();
+        awaitFinished(first);
+        // 前一个任务结束后可以再次提交
+        IngestJob second = ingestJobService.submitExclusive(RAG_TAG, "git", running -> {});
+        Assert.assertNotNull(second);
+        awaitFinished(second);
+    }
+
+    private static void awaitFinished(IngestJob job) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!job.getStatus().isFinished()) {
+            Assert.assertTrue("任务未在超时前结束", System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+    }
+
+}
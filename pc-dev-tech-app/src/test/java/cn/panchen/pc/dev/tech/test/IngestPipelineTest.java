@@ -0,0 +1,169 @@
+package cn.panchen.pc.dev.tech.test;
+
+import cn.panchen.pc.dev.tech.trigger.ingest.DocumentParserRegistry;
+import cn.panchen.pc.dev.tech.trigger.ingest.IngestJob;
+import cn.panchen.pc.dev.tech.trigger.ingest.IngestJobService;
+import cn.panchen.pc.dev.tech.trigger.ingest.IngestPipeline;
+import cn.panchen.pc.dev.tech.trigger.metrics.RagMetrics;
+import cn.panchen.pc.dev.tech.trigger.store.VectorStoreRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.micrometer.observation.ObservationRegistry;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.EmbeddingClient;
+import org.springframework.ai.transformer.splitter.TextSplitter;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.core.io.Resource;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * IngestPipeline 各阶段流转和取消时停止写库的测试，解析、向量化、写库用 Mockito 替代，不依赖 Spring 上下文
+ */
+public class IngestPipelineTest {
+
+    private static final String RAG_TAG = "demo";
+
+    private DocumentParserRegistry documentParserRegistry;
+    private EmbeddingClient embeddingClient;
+    private VectorStoreRepository vectorStoreRepository;
+    private IngestPipeline ingestPipeline;
+    private final List<Document> written = Collections.synchronizedList(new ArrayList<>());
+
+    @Before
+    public void setUp() throws Exception {
+        RagMetrics ragMetrics = new RagMetrics();
+        ReflectionTestUtils.setField(ragMetrics, "meterRegistry", new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(ragMetrics, "observationRegistry", ObservationRegistry.create());
+        ReflectionTestUtils.setField(ragMetrics, "models", "");
+        ragMetrics.init();
+
+        documentParserRegistry = Mockito.mock(DocumentParserRegistry.class);
+        // 每个文件解析出一个文档，内容为文件内容
+        Mockito.doAnswer(invocation -> {
+            Resource resource = invocation.getArgument(0);
+            Consumer<Document> consumer = invocation.getArgument(1);
+            consumer.accept(new Document(new String(resource.getContentAsByteArray())));
+            return null;
+        }).when(documentParserRegistry).parse(Mockito.any(), Mockito.any());
+        TextSplitter textSplitter = Mockito.mock(TextSplitter.class);
+        Mockito.when(textSplitter.apply(Mockito.anyList())).thenAnswer(invocation -> invocation.getArgument(0));
+        embeddingClient = Mockito.mock(EmbeddingClient.class);
+        vectorStoreRepository = Mockito.mock(VectorStoreRepository.class);
+        Mockito.doAnswer(invocation -> {
+            written.addAll(invocation.getArgument(0));
+            return null;
+        }).when(vectorStoreRepository).batchInsert(Mockito.anyList());
+
+        ingestPipeline = new IngestPipeline();
+        ReflectionTestUtils.setField(ingestPipeline, "documentParserRegistry", documentParserRegistry);
+        ReflectionTestUtils.setField(ingestPipeline, "textSplitter", textSplitter);
+        ReflectionTestUtils.setField(ingestPipeline, "ingestEmbeddingClient", embeddingClient);
+        ReflectionTestUtils.setField(ingestPipeline, "vectorStoreRepository", vectorStoreRepository);
+        ReflectionTestUtils.setField(ingestPipeline, "ragMetrics", ragMetrics);
+        ReflectionTestUtils.setField(ingestPipeline, "parseThreads", 2);
+        ReflectionTestUtils.setField(ingestPipeline, "splitThreads", 1);
+        ReflectionTestUtils.setField(ingestPipeline, "embedThreads", 2);
+        ReflectionTestUtils.setField(ingestPipeline, "writeThreads", 1);
+        ReflectionTestUtils.setField(ingestPipeline, "queueCapacity", 4);
+        ReflectionTestUtils.setField(ingestPipeline, "embedBatchSize", 3);
+        ReflectionTestUtils.setField(ingestPipeline, "writeBatchSize", 5);
+        ReflectionTestUtils.setField(ingestPipeline, "parsedQueueCapacity", 2);
+    }
+
+    @After
+    public void tearDown() {
+        ingestPipeline.destroy();
+    }
+
+    @Test
+    public void test_ingest_allStagesWritten() throws InterruptedException {
+        Mockito.when(embeddingClient.embed(Mockito.anyList())).thenAnswer(invocation -> embeddings(invocation.getArgument(0)));
+        IngestJob job = new IngestJob("job-1", RAG_TAG, "test");
+
+        ingestPipeline.ingest(job, files(20));
+
+        Assert.assertEquals(20, written.size());
+        Assert.assertEquals(20, job.getProgress().getFilesProcessed().get());
+        Assert.assertEquals(20, job.getProgress().getChunksWritten().get());
+        for (Document document : written) {
+            Assert.assertEquals(RAG_TAG, document.getMetadata().get("knowledge"));
+            Assert.assertEquals("job-1", document.getMetadata().get(IngestJobService.METADATA_JOB_ID));
+            Assert.assertNotNull(document.getEmbedding());
+        }
+    }
+
+    @Test
+    public void test_embedFailure_recordedNotThrown() throws InterruptedException {
+        Mockito.when(embeddingClient.embed(Mockito.anyList())).thenThrow(new IllegalStateException("模型不可用"));
+        IngestJob job = new IngestJob("job-1", RAG_TAG, "test");
+
+        ingestPipeline.ingest(job, files(6));
+
+        Assert.assertTrue(written.isEmpty());
+        Assert.assertEquals(6, job.getProgress().getChunksFailed().get());
+        Assert.assertTrue(job.getErrors().get(0).contains("模型不可用"));
+    }
+
+    @Test
+    public void test_cancel_stopsBeforeReturn() throws Exception {
+        CountDownLatch embedding = new CountDownLatch(1);
+        AtomicInteger embedCalls = new AtomicInteger();
+        // 第一批之后向量化变慢，取消时各阶段都有数据在途
+        Mockito.when(embeddingClient.embed(Mockito.anyList())).thenAnswer(invocation -> {
+            if (embedCalls.incrementAndGet() > 1) {
+                embedding.countDown();
+                Thread.sleep(200);
+            }
+            return embeddings(invocation.getArgument(0));
+        });
+        IngestJob job = new IngestJob("job-1", RAG_TAG, "test");
+
+        Thread canceller = new Thread(() -> {
+            try {
+                if (embedding.await(5, TimeUnit.SECONDS)) job.cancel();
+            } catch (InterruptedException ignored) {
+            }
+        });
+        canceller.start();
+        Assert.assertThrows(CancellationException.class, () -> ingestPipeline.ingest(job, files(200)));
+        canceller.join();
+
+        // ingest 返回前各阶段已退出，之后不会再有切片写入，回滚不会漏删
+        int writtenOnReturn = written.size();
+        Thread.sleep(500);
+        Assert.assertEquals(writtenOnReturn, written.size());
+        Assert.assertTrue(job.getProgress().getFilesProcessed().get() < 200);
+    }
+
+    private static List<Resource> files(int count) {
+        List<Resource> files = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            String name = "file" + i + ".txt";
+            files.add(new ByteArrayResource(("content " + i).getBytes()) {
+                @Override
+                public String getFilename() {
+                    return name;
+                }
+            });
+        }
+        return files;
+    }
+
+    private static List<List<Double>> embeddings(List<String> texts) {
+        return texts.stream().map(text -> List.of((double) text.length(), 1.0)).toList();
+    }
+
+}
@@ -1,5 +1,8 @@
 package cn.panchen.pc.dev.tech.test;
 
+import cn.panchen.pc.dev.tech.trigger.ingest.IngestJob;
+import cn.panchen.pc.dev.tech.trigger.ingest.IngestJobService;
+import cn.panchen.pc.dev.tech.trigger.ingest.IngestPipeline;
 import jakarta.annotation.Resource;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.io.FileUtils;
@@ -7,20 +10,14 @@ import org.eclipse.jgit.api.Git;
 import org.eclipse.jgit.transport.UsernamePasswordCredentialsProvider;
 import org.junit.Test;
 import org.junit.runner.RunWith;
-import org.springframework.ai.document.Document;
-import org.springframework.ai.ollama.OllamaChatClient;
-import org.springframework.ai.reader.tika.TikaDocumentReader;
-import org.springframework.ai.transformer.splitter.TokenTextSplitter;
-import org.springframework.ai.vectorstore.PgVectorStore;
-import org.springframework.ai.vectorstore.SimpleVectorStore;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.core.io.PathResource;
 import org.springframework.test.context.junit4.SpringRunner;
 
 import java.io.File;
-import java.io.IOException;
 import java.nio.file.*;
 import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
 import java.util.List;
 
 @Slf4j
@@ -29,13 +26,9 @@ import java.util.List;
 public class JGitTest {
 
     @Resource
-    private OllamaChatClient ollamaChatClient;
+    private IngestJobService ingestJobService;
     @Resource
-    private TokenTextSplitter tokenTextSplitter;
-    @Resource
-    private SimpleVectorStore simpleVectorStore;
-    @Resource
-    private PgVectorStore pgVectorStore;
+    private IngestPipeline ingestPipeline;
 
     /**
      * 拉取仓库代码
@@ -70,32 +63,27 @@ public class JGitTest {
     }
 
     /**
-     * 遍历文件并上传
-     * @throws IOException
+     * 遍历文件并上传，走与接口相同的入库流水线，切片写入按 ragTag 分区的 rag_chunk 表
+     * @throws Exception
      */
     @Test
-    public void test_file() throws IOException {
+    public void test_file() throws Exception {
+        List<PathResource> resources = new ArrayList<>();
         Files.walkFileTree(Paths.get("./cloned-repo"), new SimpleFileVisitor<>() {
             @Override
-            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
-
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
                 log.info("文件路径:{}", file.toString());
-
-                // 解析文件
-                PathResource resource = new PathResource(file);
-                TikaDocumentReader reader = new TikaDocumentReader(resource);
-
-                List<Document> documents = reader.get();
-                List<Document> documentSplitterList = tokenTextSplitter.apply(documents);
-
-                documents.forEach(doc -> doc.getMetadata().put("knowledge", "chatbot-api"));
-                documentSplitterList.forEach(doc -> doc.getMetadata().put("knowledge", "chatbot-apiu"));
-
-                pgVectorStore.accept(documentSplitterList);
-
+                resources.add(new PathResource(file));
                 return FileVisitResult.CONTINUE;
             }
         });
+
+        // 解析、切割、向量化、写库
+        IngestJob job = ingestJobService.submit("chatbot-api", "test", ingestJob -> ingestPipeline.ingest(ingestJob, resources));
+        while (!job.getStatus().isFinished()) {
+            Thread.sleep(500);
+        }
+        log.info("入库完成 状态:{} 切片:{} 错误:{}", job.getStatus(), job.getProgress().getChunksWritten(), job.getErrors());
     }
 
 }
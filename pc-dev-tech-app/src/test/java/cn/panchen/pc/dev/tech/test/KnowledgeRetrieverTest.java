@@ -0,0 +1,159 @@
+package cn.panchen.pc.dev.tech.test;
+
+import cn.panchen.pc.dev.tech.trigger.metrics.RagMetrics;
+import cn.panchen.pc.dev.tech.trigger.retrieval.HotTier;
+import cn.panchen.pc.dev.tech.trigger.retrieval.KnowledgeRetriever;
+import cn.panchen.pc.dev.tech.trigger.retrieval.RetrievalCache;
+import cn.panchen.pc.dev.tech.trigger.store.VectorStoreRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.micrometer.observation.ObservationRegistry;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.EmbeddingClient;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * KnowledgeRetriever.retrieveBatch 结果顺序、缓存命中、问题去重、热点分层的测试，存储和模型用 Mockito 替代，不依赖 Spring 上下文
+ */
+public class KnowledgeRetrieverTest {
+
+    private static final String HOT_TAG = "hot";
+    private static final String COLD_TAG = "cold";
+
+    private EmbeddingClient embeddingClient;
+    private VectorStoreRepository vectorStoreRepository;
+    private RetrievalCache retrievalCache;
+    private KnowledgeRetriever knowledgeRetriever;
+
+    @Before
+    @SuppressWarnings("unchecked")
+    public void setUp() {
+        RagMetrics ragMetrics = new RagMetrics();
+        ReflectionTestUtils.setField(ragMetrics, "meterRegistry", new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(ragMetrics, "observationRegistry", ObservationRegistry.create());
+        ReflectionTestUtils.setField(ragMetrics, "models", "");
+        ragMetrics.init();
+
+        retrievalCache = new RetrievalCache();
+        ReflectionTestUtils.setField(retrievalCache, "enabled", true);
+        ReflectionTestUtils.setField(retrievalCache, "ttlSeconds", 600L);
+        ReflectionTestUtils.setField(retrievalCache, "maxSize", 100L);
+        retrievalCache.init();
+
+        // 问题向量为问题文本的长度，便于对应
+        embeddingClient = Mockito.mock(EmbeddingClient.class);
+        Mockito.when(embeddingClient.embed(Mockito.anyList())).thenAnswer(invocation -> ((List<String>) invocation.getArgument(0)).stream()
+                .map(message -> List.of((double) message.length()))
+                .toList());
+        // 只有 HOT_TAG 在热点层中
+        HotTier hotTier = Mockito.mock(HotTier.class);
+        Mockito.when(hotTier.search(Mockito.anyString(), Mockito.anyList(), Mockito.anyInt())).thenReturn(null);
+        Mockito.when(hotTier.search(Mockito.eq(HOT_TAG), Mockito.anyList(), Mockito.anyInt()))
+                .thenAnswer(invocation -> List.of(doc("hot-" + ((List<Double>) invocation.getArgument(1)).get(0).intValue())));
+        // 每个查询的向量结果和关键词结果各一个切片，ID 标明来自哪个查询
+        vectorStoreRepository = Mockito.mock(VectorStoreRepository.class);
+        Mockito.when(vectorStoreRepository.batchSearch(Mockito.anyList(), Mockito.anyInt())).thenAnswer(invocation -> {
+            List<VectorStoreRepository.BatchResult> results = new ArrayList<>();
+            for (VectorStoreRepository.BatchQuery query : (List<VectorStoreRepository.BatchQuery>) invocation.getArgument(0)) {
+                List<Document> vector = null == query.embedding() ? List.of() : List.of(doc(query.ragTag() + "-vector-" + query.text()));
+                results.add(new VectorStoreRepository.BatchResult(vector, List.of(doc(query.ragTag() + "-lexical-" + query.text()))));
+            }
+            return results;
+        });
+
+        knowledgeRetriever = new KnowledgeRetriever();
+        ReflectionTestUtils.setField(knowledgeRetriever, "embeddingClient", embeddingClient);
+        ReflectionTestUtils.setField(knowledgeRetriever, "vectorStoreRepository", vectorStoreRepository);
+        ReflectionTestUtils.setField(knowledgeRetriever, "retrievalCache", retrievalCache);
+        ReflectionTestUtils.setField(knowledgeRetriever, "hotTier", hotTier);
+        ReflectionTestUtils.setField(knowledgeRetriever, "ragMetrics", ragMetrics);
+        ReflectionTestUtils.setField(knowledgeRetriever, "hybridEnabled", true);
+        ReflectionTestUtils.setField(knowledgeRetriever, "candidates", 20);
+        ReflectionTestUtils.setField(knowledgeRetriever, "rrfK", 60);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void test_retrieveBatch_resultsMatchQueryOrder() {
+        retrievalCache.put(COLD_TAG, "cached", 2, retrievalCache.generation(COLD_TAG), List.of(doc("from-cache")));
+        List<KnowledgeRetriever.Query> queries = List.of(
+                new KnowledgeRetriever.Query(COLD_TAG, "q1"),
+                new KnowledgeRetriever.Query(COLD_TAG, "cached"),
+                new KnowledgeRetriever.Query(HOT_TAG, "question"),
+                new KnowledgeRetriever.Query(COLD_TAG, "q22"));
+
+        List<List<Document>> results = knowledgeRetriever.retrieveBatch(queries, 2);
+
+        Assert.assertEquals(4, results.size());
+        Assert.assertEquals(List.of("cold-vector-q1", "cold-lexical-q1"), ids(results.get(0)));
+        Assert.assertEquals(List.of("from-cache"), ids(results.get(1)));
+        // 热点 ragTag 的向量结果来自内存，查库只做关键词检索
+        Assert.assertEquals(List.of("hot-8", "hot-lexical-question"), ids(results.get(2)));
+        Assert.assertEquals(List.of("cold-vector-q22", "cold-lexical-q22"), ids(results.get(3)));
+
+        // 命中缓存的问题不再向量化，未命中的合并为一次查库
+        ArgumentCaptor<List<VectorStoreRepository.BatchQuery>> captor = ArgumentCaptor.forClass(List.class);
+        Mockito.verify(vectorStoreRepository).batchSearch(captor.capture(), Mockito.eq(20));
+        Assert.assertEquals(List.of("q1", "question", "q22"), captor.getValue().stream().map(VectorStoreRepository.BatchQuery::text).toList());
+        Assert.assertNull(captor.getValue().get(1).embedding());
+        Mockito.verify(embeddingClient).embed(List.of("q1", "question", "q22"));
+    }
+
+    @Test
+    public void test_retrieveBatch_duplicateMessagesEmbeddedOnce() {
+        List<KnowledgeRetriever.Query> queries = List.of(
+                new KnowledgeRetriever.Query(COLD_TAG, "same"),
+                new KnowledgeRetriever.Query(HOT_TAG, "same"),
+                new KnowledgeRetriever.Query(COLD_TAG, "same"));
+
+        List<List<Document>> results = knowledgeRetriever.retrieveBatch(queries, 2);
+
+        Mockito.verify(embeddingClient).embed(List.of("same"));
+        Assert.assertEquals(ids(results.get(0)), ids(results.get(2)));
+        Assert.assertEquals(List.of("hot-4", "hot-lexical-same"), ids(results.get(1)));
+    }
+
+    @Test
+    public void test_retrieveBatch_allCached() {
+        List<KnowledgeRetriever.Query> queries = List.of(new KnowledgeRetriever.Query(COLD_TAG, "q1"));
+        List<List<Document>> first = knowledgeRetriever.retrieveBatch(queries, 2);
+
+        // 归一化后相同的问题命中缓存，不再向量化和查库
+        List<List<Document>> second = knowledgeRetriever.retrieveBatch(List.of(new KnowledgeRetriever.Query(COLD_TAG, " Q1 ")), 2);
+
+        Assert.assertEquals(ids(first.get(0)), ids(second.get(0)));
+        Mockito.verify(embeddingClient, Mockito.times(1)).embed(Mockito.anyList());
+        Mockito.verify(vectorStoreRepository, Mockito.times(1)).batchSearch(Mockito.anyList(), Mockito.anyInt());
+    }
+
+    @Test
+    public void test_retrieveBatch_invalidatedDuringSearch_notCached() {
+        Mockito.when(vectorStoreRepository.batchSearch(Mockito.anyList(), Mockito.anyInt())).thenAnswer(invocation -> {
+            // 检索进行中知识库有新切片写入
+            retrievalCache.invalidate(COLD_TAG);
+            return List.of(new VectorStoreRepository.BatchResult(List.of(doc("stale")), List.of()));
+        });
+
+        List<List<Document>> results = knowledgeRetriever.retrieveBatch(List.of(new KnowledgeRetriever.Query(COLD_TAG, "q1")), 2);
+
+        Assert.assertEquals(List.of("stale"), ids(results.get(0)));
+        Assert.assertNull(retrievalCache.get(COLD_TAG, "q1", 2));
+    }
+
+    private static Document doc(String id) {
+        return new Document(id, "content " + id, new HashMap<>());
+    }
+
+    private static List<String> ids(List<Document> documents) {
+        return documents.stream().map(Document::getId).toList();
+    }
+
+}
@@ -0,0 +1,251 @@
+package cn.panchen.pc.dev.tech.test;
+
+import cn.panchen.pc.dev.tech.trigger.embedding.LoadBalancedEmbeddingClient;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.springframework.ai.embedding.EmbeddingClient;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * LoadBalancedEmbeddingClient 失败重试、熔断与试探、入库名额测试，向量模型实例用 Mockito 替代，不依赖 Spring 上下文
+ */
+public class LoadBalancedEmbeddingClientTest {
+
+    private static final long OPEN_MILLIS = 200;
+    private static final String INGEST_TEXT = "ingest";
+
+    private SimpleMeterRegistry meterRegistry;
+    private FakeEndpoint a;
+    private FakeEndpoint b;
+
+    @Before
+    public void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        a = new FakeEndpoint("a");
+        b = new FakeEndpoint("b");
+    }
+
+    @Test
+    public void test_failure_retryOtherEndpoint() {
+        LoadBalancedEmbeddingClient client = client(1, 3);
+        a.failing.set(true);
+
+        // 无论先选中哪个实例，失败后都换另一个重试
+        for (int i = 0; i < 4; i++) {
+            Assert.assertEquals(List.of(2.0), client.embed("q"));
+        }
+        Assert.assertEquals(4, b.calls.get());
+        Assert.assertEquals(a.calls.get(), requests("a", "failure"), 0);
+        Assert.assertEquals(4.0, requests("b", "success"), 0);
+    }
+
+    @Test
+    public void test_allFail_throwLastFailure() {
+        LoadBalancedEmbeddingClient client = client(1, 3);
+        a.failing.set(true);
+        b.failing.set(true);
+
+        IllegalStateException e = Assert.assertThrows(IllegalStateException.class, () -> client.embed("q"));
+        Assert.assertTrue(e.getMessage().startsWith("实例不可用"));
+        // 每个实例只尝试一次
+        Assert.assertEquals(1, a.calls.get());
+        Assert.assertEquals(1, b.calls.get());
+    }
+
+    @Test
+    public void test_breaker_openSkipsEndpoint() {
+        LoadBalancedEmbeddingClient client = client(1, 2);
+        a.failing.set(true);
+        openBreaker(client, a);
+        Assert.assertEquals(0.0, healthy("a"), 0);
+
+        // 熔断期间请求都发往另一个实例
+        for (int i = 0; i < 6; i++) {
+            client.embed("q");
+        }
+        Assert.assertEquals(2, a.calls.get());
+        Assert.assertEquals(1.0, healthy("b"), 0);
+    }
+
+    @Test
+    public void test_breaker_probeSuccessCloses() throws InterruptedException {
+        LoadBalancedEmbeddingClient client = client(1, 2);
+        a.failing.set(true);
+        openBreaker(client, a);
+        a.failing.set(false);
+        Thread.sleep(OPEN_MILLIS + 50);
+
+        // 熔断到期后实例重新参与轮转，试探成功即恢复
+        untilCalled(client, a, 3);
+        Assert.assertEquals(1.0, healthy("a"), 0);
+        Assert.assertEquals(1.0, requests("a", "success"), 0);
+    }
+
+    @Test
+    public void test_breaker_probeFailureReopens() throws InterruptedException {
+        LoadBalancedEmbeddingClient client = client(1, 2);
+        a.failing.set(true);
+        openBreaker(client, a);
+        Thread.sleep(OPEN_MILLIS + 50);
+
+        // 试探请求失败一次就重新熔断，不需要再连续失败 failureThreshold 次
+        untilCalled(client, a, 3);
+        Assert.assertEquals(0.0, healthy("a"), 0);
+    }
+
+    @Test
+    public void test_breaker_singleProbeInFlight() throws InterruptedException {
+        LoadBalancedEmbeddingClient client = client(1, 2);
+        a.failing.set(true);
+        openBreaker(client, a);
+        a.failing.set(false);
+        a.block = new CountDownLatch(1);
+        Thread.sleep(OPEN_MILLIS + 50);
+
+        // 后台线程不断发请求，直到有一个成为试探请求并停在实例 a 上
+        Thread prober = new Thread(() -> untilCalled(client, a, 3));
+        prober.start();
+        Assert.assertTrue(a.entered.await(5, TimeUnit.SECONDS));
+
+        // 试探请求未结束时，其它请求不再发往实例 a
+        for (int i = 0; i < 6; i++) {
+            Assert.assertEquals(List.of(2.0), client.embed("q"));
+        }
+        Assert.assertEquals(3, a.calls.get());
+
+        a.block.countDown();
+        prober.join(5000);
+        Assert.assertEquals(1.0, healthy("a"), 0);
+    }
+
+    @Test
+    public void test_ingest_permitsPerEndpoint() throws InterruptedException {
+        LoadBalancedEmbeddingClient client = client(1, 3);
+        LoadBalancedEmbeddingClient ingestClient = client.forIngest();
+        CountDownLatch release = new CountDownLatch(1);
+        a.block = release;
+        a.blockIngestOnly = true;
+        b.block = release;
+        b.blockIngestOnly = true;
+
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            Thread thread = new Thread(() -> ingestClient.embed(INGEST_TEXT));
+            threads.add(thread);
+            thread.start();
+        }
+        // 每个实例一个入库名额，第三个入库请求等待
+        awaitInFlight(2);
+        Thread.sleep(100);
+        Assert.assertEquals(1.0, inFlight("a"), 0);
+        Assert.assertEquals(1.0, inFlight("b"), 0);
+
+        // 查询请求不受入库名额限制
+        Assert.assertNotNull(client.embed("q"));
+
+        release.countDown();
+        for (Thread thread : threads) {
+            thread.join(5000);
+        }
+        Assert.assertEquals(3, a.ingestCalls.get() + b.ingestCalls.get());
+        Assert.assertEquals(1, a.maxIngestInFlight.get());
+        Assert.assertEquals(1, b.maxIngestInFlight.get());
+    }
+
+    private LoadBalancedEmbeddingClient client(int ingestMaxInFlight, int failureThreshold) {
+        LoadBalancedEmbeddingClient client = new LoadBalancedEmbeddingClient(
+                List.of(new LoadBalancedEmbeddingClient.Endpoint("a", a.client), new LoadBalancedEmbeddingClient.Endpoint("b", b.client)),
+                ingestMaxInFlight, failureThreshold, OPEN_MILLIS);
+        client.bindTo(meterRegistry);
+        return client;
+    }
+
+    /**
+     * 持续发请求直到失败的实例被熔断；failureThreshold 为 2
+     */
+    private void openBreaker(LoadBalancedEmbeddingClient client, FakeEndpoint endpoint) {
+        for (int i = 0; i < 20 && endpoint.calls.get() < 2; i++) {
+            client.embed("q");
+        }
+        Assert.assertEquals(2, endpoint.calls.get());
+    }
+
+    /**
+     * 持续发请求直到 endpoint 的调用次数达到 calls；相同负载时各实例轮流被选中
+     */
+    private static void untilCalled(LoadBalancedEmbeddingClient client, FakeEndpoint endpoint, int calls) {
+        for (int i = 0; i < 20 && endpoint.calls.get() < calls; i++) {
+            client.embed("q");
+        }
+        Assert.assertEquals(calls, endpoint.calls.get());
+    }
+
+    private void awaitInFlight(int expected) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (inFlight("a") + inFlight("b") < expected) {
+            Assert.assertTrue("入库请求未在超时前开始", System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+    }
+
+    private double requests(String endpoint, String outcome) {
+        return meterRegistry.get("rag.embedding.pool.requests").tag("endpoint", endpoint).tag("outcome", outcome).functionCounter().count();
+    }
+
+    private double healthy(String endpoint) {
+        return meterRegistry.get("rag.embedding.pool.healthy").tag("endpoint", endpoint).gauge().value();
+    }
+
+    private double inFlight(String endpoint) {
+        return meterRegistry.get("rag.embedding.pool.in.flight").tag("endpoint", endpoint).gauge().value();
+    }
+
+    /**
+     * 一个向量模型实例：按开关失败，可以停在 block 上，记录调用次数和同时进行的入库请求数
+     */
+    private static class FakeEndpoint {
+
+        private final EmbeddingClient client = Mockito.mock(EmbeddingClient.class);
+        private final AtomicBoolean failing = new AtomicBoolean();
+        private final AtomicInteger calls = new AtomicInteger();
+        private final AtomicInteger ingestCalls = new AtomicInteger();
+        private final AtomicInteger ingestInFlight = new AtomicInteger();
+        private final AtomicInteger maxIngestInFlight = new AtomicInteger();
+        private final CountDownLatch entered = new CountDownLatch(1);
+        /** 不为空时请求停在这里，直到放行 */
+        private volatile CountDownLatch block;
+        private volatile boolean blockIngestOnly;
+
+        FakeEndpoint(String name) {
+            Mockito.when(client.embed(Mockito.anyString())).thenAnswer(invocation -> {
+                calls.incrementAndGet();
+                if (failing.get()) throw new IllegalStateException("实例不可用:" + name);
+                boolean ingest = INGEST_TEXT.equals(invocation.getArgument(0));
+                if (ingest) {
+                    ingestCalls.incrementAndGet();
+                    maxIngestInFlight.accumulateAndGet(ingestInFlight.incrementAndGet(), Math::max);
+                }
+                try {
+                    CountDownLatch latch = block;
+                    if (null != latch && (ingest || !blockIngestOnly)) {
+                        entered.countDown();
+                        latch.await(5, TimeUnit.SECONDS);
+                    }
+                } finally {
+                    if (ingest) ingestInFlight.decrementAndGet();
+                }
+                return List.of("a".equals(name) ? 1.0 : 2.0);
+            });
+        }
+    }
+
+}
@@ -1,5 +1,9 @@
 package cn.panchen.pc.dev.tech.test;
 
+import cn.panchen.pc.dev.tech.trigger.ingest.IngestJob;
+import cn.panchen.pc.dev.tech.trigger.ingest.IngestJobService;
+import cn.panchen.pc.dev.tech.trigger.ingest.IngestPipeline;
+import cn.panchen.pc.dev.tech.trigger.retrieval.KnowledgeRetriever;
 import com.alibaba.fastjson.JSON;
 import jakarta.annotation.Resource;
 import lombok.extern.slf4j.Slf4j;
@@ -13,12 +17,8 @@ import org.springframework.ai.chat.prompt.SystemPromptTemplate;
 import org.springframework.ai.document.Document;
 import org.springframework.ai.ollama.OllamaChatClient;
 import org.springframework.ai.ollama.api.OllamaOptions;
-import org.springframework.ai.reader.tika.TikaDocumentReader;
-import org.springframework.ai.transformer.splitter.TokenTextSplitter;
-import org.springframework.ai.vectorstore.PgVectorStore;
-import org.springframework.ai.vectorstore.SearchRequest;
-import org.springframework.ai.vectorstore.SimpleVectorStore;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.core.io.FileSystemResource;
 import org.springframework.test.context.junit4.SpringRunner;
 
 import java.util.ArrayList;
@@ -34,32 +34,24 @@ public class RAGTest {
     @Resource
     private OllamaChatClient ollamaChatClient;
     @Resource
-    private TokenTextSplitter tokenTextSplitter;
+    private IngestJobService ingestJobService;
     @Resource
-    private SimpleVectorStore simpleVectorStore;
+    private IngestPipeline ingestPipeline;
     @Resource
-    private PgVectorStore pgVectorStore;
+    private KnowledgeRetriever knowledgeRetriever;
 
     /**
      *  上传 “知识”
      */
     @Test
-    public void upload() {
-        // 读取文件
-        TikaDocumentReader reader = new TikaDocumentReader("./data/file.text");
-
-        List<Document> documents = reader.get();
-        // 切割文件，知道每一个向量在哪个位置
-        List<Document> documentSplitterList = tokenTextSplitter.apply(documents);
-
-        // 打标，针对上传的文件，有针对性的检索知识库
-        documents.forEach(doc -> doc.getMetadata().put("knowledge", "RAG 知识库 潘晨 个人信息"));
-        documentSplitterList.forEach(doc -> doc.getMetadata().put("knowledge", "RAG 知识库 潘晨 个人信息"));
-
-        // 用 pgsql 存储切割之后的向量
-        pgVectorStore.accept(documentSplitterList);
-        log.info("documentSplitterList:" + documentSplitterList);
-        log.info("上传完成");
+    public void upload() throws Exception {
+        // 读取文件、切割、向量化，打上 ragTag 写入 rag_chunk 中该知识库的分区，与 file/upload 接口走同一条入库流水线
+        List<FileSystemResource> resources = List.of(new FileSystemResource("./data/file.text"));
+        IngestJob job = ingestJobService.submit("RAG 知识库 潘晨 个人信息", "test", ingestJob -> ingestPipeline.ingest(ingestJob, resources));
+        while (!job.getStatus().isFinished()) {
+            Thread.sleep(500);
+        }
+        log.info("上传完成 状态:{} 切片:{} 错误:{}", job.getStatus(), job.getProgress().getChunksWritten(), job.getErrors());
     }
 
     /**
@@ -79,12 +71,9 @@ public class RAGTest {
                 """;
 
         /**
-         * 用知识库要去检索信息
+         * 用知识库要去检索信息：向量检索 + 关键词检索，只查该知识库的分区
          */
-        SearchRequest request = SearchRequest.query(message).withTopK(5).withFilterExpression("knowledge == 'RAG 知识库 潘晨 个人信息'");
-
-        // 使用向量库去搜索
-        List<Document> documents = pgVectorStore.similaritySearch(request);
+        List<Document> documents = knowledgeRetriever.retrieve("RAG 知识库 潘晨 个人信息", message, 5);
         String documentsCollectors = documents.stream().map(Document::getContent).collect(Collectors.joining());
 
         // 把模版转换进去
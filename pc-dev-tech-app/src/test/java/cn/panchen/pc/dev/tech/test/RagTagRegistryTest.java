@@ -0,0 +1,159 @@
+package cn.panchen.pc.dev.tech.test;
+
+import cn.panchen.pc.dev.tech.api.dto.RagTagDTO;
+import cn.panchen.pc.dev.tech.trigger.ingest.RagTagRegistry;
+import cn.panchen.pc.dev.tech.trigger.listener.KnowledgeUpdatedEvent;
+import cn.panchen.pc.dev.tech.trigger.store.VectorStoreRepository;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.redisson.api.RList;
+import org.redisson.api.RLock;
+import org.redisson.api.RMap;
+import org.redisson.api.RedissonClient;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * RagTagRegistry 旧数据导入、提交登记、本地副本刷新测试，Redis 用内存 Map 替代，不依赖 Spring 上下文
+ */
+public class RagTagRegistryTest {
+
+    private static final String EMBEDDING_MODEL = "nomic-embed-text";
+
+    /** 模拟 Redis 中的 ragTagRegistry 表 */
+    private final Map<String, RagTagDTO> registry = new ConcurrentHashMap<>();
+    private final List<String> legacyTags = new ArrayList<>();
+    private final Map<String, String> legacyCommits = new LinkedHashMap<>();
+    private RedissonClient redissonClient;
+    private RLock lock;
+    private VectorStoreRepository vectorStoreRepository;
+    private RagTagRegistry ragTagRegistry;
+
+    @Before
+    @SuppressWarnings("unchecked")
+    public void setUp() {
+        redissonClient = Mockito.mock(RedissonClient.class);
+        RMap<String, RagTagDTO> registryMap = fakeMap(registry);
+        Mockito.when(redissonClient.<String, RagTagDTO>getMap("ragTagRegistry")).thenReturn(registryMap);
+        RMap<String, String> legacyCommitMap = fakeMap(legacyCommits);
+        Mockito.when(redissonClient.<String, String>getMap("ragTagCommit")).thenReturn(legacyCommitMap);
+        RList<String> legacyTagList = Mockito.mock(RList.class);
+        Mockito.when(legacyTagList.readAll()).thenAnswer(invocation -> new ArrayList<>(legacyTags));
+        Mockito.when(redissonClient.<String>getList("ragTag")).thenReturn(legacyTagList);
+        lock = Mockito.mock(RLock.class);
+        Mockito.when(redissonClient.getLock(Mockito.anyString())).thenReturn(lock);
+
+        vectorStoreRepository = Mockito.mock(VectorStoreRepository.class);
+        Mockito.when(vectorStoreRepository.tagStats(Mockito.anyString())).thenReturn(new long[]{10, 1000});
+
+        ragTagRegistry = new RagTagRegistry();
+        ReflectionTestUtils.setField(ragTagRegistry, "redissonClient", redissonClient);
+        ReflectionTestUtils.setField(ragTagRegistry, "vectorStoreRepository", vectorStoreRepository);
+        ReflectionTestUtils.setField(ragTagRegistry, "embeddingModel", EMBEDDING_MODEL);
+        ReflectionTestUtils.setField(ragTagRegistry, "refreshSeconds", 3600L);
+    }
+
+    @After
+    public void tearDown() {
+        ragTagRegistry.destroy();
+    }
+
+    @Test
+    public void test_migrate_fromLegacyListAndCommits() {
+        legacyTags.addAll(List.of("b-repo", "a-doc"));
+        legacyCommits.put("b-repo", "c1");
+        legacyCommits.put("c-repo", "c2");
+        // 统计失败的标签照常导入，规模为 0
+        Mockito.when(vectorStoreRepository.tagStats("c-repo")).thenThrow(new IllegalStateException("分区不存在"));
+
+        ragTagRegistry.init();
+
+        Assert.assertEquals(List.of("a-doc", "b-repo", "c-repo"), ragTagRegistry.list());
+        Assert.assertEquals("c1", registry.get("b-repo").getLastCommit());
+        Assert.assertEquals("c2", registry.get("c-repo").getLastCommit());
+        Assert.assertNull(registry.get("a-doc").getLastCommit());
+        Assert.assertEquals(10, registry.get("a-doc").getChunkCount());
+        Assert.assertEquals(0, registry.get("c-repo").getChunkCount());
+        // 旧数据保留不动
+        Assert.assertEquals(List.of("b-repo", "a-doc"), legacyTags);
+    }
+
+    @Test
+    public void test_migrate_skippedWhenRegistryExists() {
+        registry.put("a-doc", RagTagDTO.builder().ragTag("a-doc").lastCommit("new").build());
+        legacyTags.add("old");
+        legacyCommits.put("a-doc", "old-commit");
+
+        ragTagRegistry.init();
+
+        Assert.assertEquals(List.of("a-doc"), ragTagRegistry.list());
+        Assert.assertEquals("new", ragTagRegistry.getLastCommit("a-doc"));
+        Mockito.verify(redissonClient, Mockito.never()).getList("ragTag");
+    }
+
+    @Test
+    public void test_migrate_keepsEntriesWrittenByOtherNode() {
+        legacyCommits.put("b-repo", "legacy");
+        RMap<String, RagTagDTO> registryMap = redissonClient.getMap("ragTagRegistry");
+        // 其它节点在本节点检查之后、导入之前已经写入
+        Mockito.when(registryMap.isExists()).thenReturn(false);
+        registry.put("b-repo", RagTagDTO.builder().ragTag("b-repo").lastCommit("newer").build());
+
+        ragTagRegistry.init();
+
+        Assert.assertEquals("newer", ragTagRegistry.getLastCommit("b-repo"));
+    }
+
+    @Test
+    public void test_commit_updateStatsAndKeepCommit() {
+        ragTagRegistry.init();
+
+        ragTagRegistry.commit("repo", "c1");
+        Mockito.when(vectorStoreRepository.tagStats("repo")).thenReturn(new long[]{25, 5000});
+        // 上传文件提交时不带 commit，保留仓库最后入库的 commit
+        ragTagRegistry.commit("repo", null);
+
+        RagTagDTO info = registry.get("repo");
+        Assert.assertEquals("c1", info.getLastCommit());
+        Assert.assertEquals(25, info.getChunkCount());
+        Assert.assertEquals(5000, info.getBytes());
+        Assert.assertEquals(EMBEDDING_MODEL, info.getEmbeddingModel());
+        Assert.assertEquals(List.of("repo"), ragTagRegistry.list());
+        Assert.assertEquals(25, ragTagRegistry.listStats().get(0).getChunkCount());
+        Mockito.verify(lock, Mockito.times(2)).lock();
+        Mockito.verify(lock, Mockito.times(2)).unlock();
+    }
+
+    @Test
+    public void test_onKnowledgeUpdated_refreshLocalCopy() {
+        ragTagRegistry.init();
+        Assert.assertTrue(ragTagRegistry.list().isEmpty());
+
+        // 其它节点提交后经通知刷新本地副本
+        registry.put("repo", RagTagDTO.builder().ragTag("repo").chunkCount(3).build());
+        ragTagRegistry.onKnowledgeUpdated(new KnowledgeUpdatedEvent(this, "repo"));
+        Assert.assertEquals(List.of("repo"), ragTagRegistry.list());
+
+        registry.remove("repo");
+        ragTagRegistry.onKnowledgeUpdated(new KnowledgeUpdatedEvent(this, "repo"));
+        Assert.assertTrue(ragTagRegistry.list().isEmpty());
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <V> RMap<String, V> fakeMap(Map<String, V> backing) {
+        RMap<String, V> map = Mockito.mock(RMap.class);
+        Mockito.when(map.isExists()).thenAnswer(invocation -> !backing.isEmpty());
+        Mockito.when(map.get(Mockito.any())).thenAnswer(invocation -> backing.get(invocation.<String>getArgument(0)));
+        Mockito.when(map.keySet()).thenAnswer(invocation -> new LinkedHashSet<>(backing.keySet()));
+        Mockito.when(map.readAllMap()).thenAnswer(invocation -> new HashMap<>(backing));
+        Mockito.when(map.fastPut(Mockito.anyString(), Mockito.any())).thenAnswer(invocation -> null == backing.put(invocation.getArgument(0), invocation.getArgument(1)));
+        Mockito.when(map.fastPutIfAbsent(Mockito.anyString(), Mockito.any())).thenAnswer(invocation -> null == backing.putIfAbsent(invocation.getArgument(0), invocation.getArgument(1)));
+        return map;
+    }
+
+}
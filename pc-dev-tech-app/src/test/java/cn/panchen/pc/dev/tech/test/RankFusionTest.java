@@ -0,0 +1,76 @@
+package cn.panchen.pc.dev.tech.test;
+
+import cn.panchen.pc.dev.tech.trigger.retrieval.RankFusion;
+import org.junit.Assert;
+import org.junit.Test;
+import org.springframework.ai.document.Document;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * RankFusion 倒数排名融合的排序、去重、截断测试，不依赖 Spring 上下文
+ */
+public class RankFusionTest {
+
+    @Test
+    public void test_fuse_bothRankingsWin() {
+        List<Document> vector = docs("a", "b", "c");
+        List<Document> lexical = docs("c", "d", "b");
+
+        List<Document> fused = RankFusion.fuse(List.of(vector, lexical), RankFusion.DEFAULT_K, 10);
+
+        // b: 1/62 + 1/63，c: 1/63 + 1/61，两路都命中的排在只命中一路的前面
+        Assert.assertEquals(List.of("c", "b", "a", "d"), ids(fused));
+    }
+
+    @Test
+    public void test_fuse_dedupKeepsFirstInstance() {
+        Document first = new Document("a", "向量检索的内容", new HashMap<>());
+        Document duplicate = new Document("a", "全文检索的内容", new HashMap<>());
+
+        List<Document> fused = RankFusion.fuse(List.of(List.of(first), List.of(duplicate)), RankFusion.DEFAULT_K, 10);
+
+        Assert.assertEquals(1, fused.size());
+        Assert.assertSame(first, fused.get(0));
+    }
+
+    @Test
+    public void test_fuse_topK() {
+        List<Document> fused = RankFusion.fuse(List.of(docs("a", "b", "c", "d"), docs("d", "c")), RankFusion.DEFAULT_K, 2);
+
+        // d: 1/64 + 1/61 略高于 c: 1/63 + 1/62
+        Assert.assertEquals(List.of("d", "c"), ids(fused));
+    }
+
+    @Test
+    public void test_fuse_smallKFavoursTopRank() {
+        // k 越小头部名次权重越大：a 在一路排第一，b 在两路都排第三
+        List<List<Document>> rankings = List.of(docs("a", "x", "b"), docs("y", "z", "b"));
+
+        Assert.assertEquals("a", RankFusion.fuse(rankings, 0, 1).get(0).getId());
+        Assert.assertEquals("b", RankFusion.fuse(rankings, RankFusion.DEFAULT_K, 1).get(0).getId());
+    }
+
+    @Test
+    public void test_fuse_emptyAndSingleRanking() {
+        Assert.assertTrue(RankFusion.fuse(List.of(), RankFusion.DEFAULT_K, 5).isEmpty());
+        Assert.assertTrue(RankFusion.fuse(List.of(List.of(), List.of()), RankFusion.DEFAULT_K, 5).isEmpty());
+        // 只有一路时保持原顺序
+        Assert.assertEquals(List.of("a", "b", "c"), ids(RankFusion.fuse(List.of(docs("a", "b", "c")), RankFusion.DEFAULT_K, 5)));
+    }
+
+    private static List<Document> docs(String... ids) {
+        List<Document> documents = new ArrayList<>();
+        for (String id : ids) {
+            documents.add(new Document(id, "content " + id, new HashMap<>()));
+        }
+        return documents;
+    }
+
+    private static List<String> ids(List<Document> documents) {
+        return documents.stream().map(Document::getId).toList();
+    }
+
+}
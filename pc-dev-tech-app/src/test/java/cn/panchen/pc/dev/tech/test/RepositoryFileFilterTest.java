@@ -0,0 +1,115 @@
+package cn.panchen.pc.dev.tech.test;
+
+import cn.panchen.pc.dev.tech.trigger.ingest.RepositoryFileFilter;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * RepositoryFileFilter 的 .gitignore、include/exclude glob、二进制和大小过滤测试，在临时目录中构造仓库，不依赖 Spring 上下文
+ */
+public class RepositoryFileFilterTest {
+
+    private static final List<String> EXCLUDED_DIRS = List.of(".git", "node_modules");
+    private static final List<String> EXCLUDED_EXTENSIONS = List.of("png", "jar");
+    private static final List<String> DOCUMENT_EXTENSIONS = List.of("pdf");
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Path root;
+
+    @Before
+    public void setUp() throws IOException {
+        root = folder.getRoot().toPath();
+        write(".gitignore", "*.log\nbuild/\n");
+        write("sub/.gitignore", "!keep.log\n");
+        write("app.log", "log");
+        write("sub/keep.log", "log");
+        write("sub/drop.log", "log");
+        write("build/Out.java", "class Out {}");
+        write("src/main/java/A.java", "class A {}");
+        write("src/test/java/ATest.java", "class ATest {}");
+        write("node_modules/lib/index.js", "module.exports = {};");
+        write("README.md", "# readme");
+    }
+
+    @Test
+    public void test_gitignore_nestedAndNegated() {
+        RepositoryFileFilter filter = filter(List.of(), List.of());
+
+        Assert.assertFalse(filter.accept("app.log"));
+        Assert.assertFalse(filter.accept("sub/drop.log"));
+        // 子目录的 .gitignore 取反规则优先于根目录规则
+        Assert.assertTrue(filter.accept("sub/keep.log"));
+        Assert.assertTrue(filter.accept("src/main/java/A.java"));
+        Assert.assertEquals(Map.of("gitignore", 2L), filter.getSkipped());
+    }
+
+    @Test
+    public void test_directories_ignoredAndExcluded() {
+        RepositoryFileFilter filter = filter(List.of(), List.of());
+
+        Assert.assertFalse(filter.acceptDirectory("build"));
+        Assert.assertFalse(filter.acceptDirectory(".git"));
+        Assert.assertFalse(filter.acceptDirectory("node_modules"));
+        Assert.assertTrue(filter.acceptDirectory("src/main"));
+        // 增量入库时逐级检查父目录
+        Assert.assertFalse(filter.accept("build/Out.java"));
+        Assert.assertFalse(filter.accept("node_modules/lib/index.js"));
+        Assert.assertEquals(Map.of("ignored-dir", 2L), filter.getSkipped());
+    }
+
+    @Test
+    public void test_includeExclude_globs() {
+        // 不含 '/' 的 glob 匹配文件名，含 '/' 的匹配相对路径
+        RepositoryFileFilter filter = filter(List.of("*.java", "*.md"), List.of("src/test/**"));
+
+        Assert.assertTrue(filter.accept("src/main/java/A.java"));
+        Assert.assertTrue(filter.accept("README.md"));
+        Assert.assertFalse(filter.accept("src/test/java/ATest.java"));
+        Assert.assertFalse(filter.accept("sub/keep.log"));
+        Assert.assertEquals(Map.of("excluded", 1L, "not-included", 1L), filter.getSkipped());
+    }
+
+    @Test
+    public void test_binaryAndSize() throws IOException {
+        Files.write(root.resolve("data.bin"), new byte[]{'a', 0, 'b'});
+        Files.write(root.resolve("manual.pdf"), new byte[]{'%', 'P', 'D', 'F', 0});
+        write("logo.png", "not really a png");
+        write("empty.txt", "");
+        write("big.txt", "x".repeat(2048));
+        RepositoryFileFilter filter = filter(List.of(), List.of());
+
+        Assert.assertFalse(filter.accept("data.bin"));
+        // 文档格式交给 Tika，不做二进制探测
+        Assert.assertTrue(filter.accept("manual.pdf"));
+        Assert.assertFalse(filter.accept("logo.png"));
+        Assert.assertFalse(filter.accept("empty.txt"));
+        Assert.assertFalse(filter.accept("big.txt"));
+        Assert.assertFalse(filter.accept("missing.txt"));
+        Assert.assertEquals(Map.of("binary", 1L, "extension", 1L, "empty", 1L, "size", 1L, "not-regular", 1L), filter.getSkipped());
+        Assert.assertEquals(5, filter.getSkippedCount());
+    }
+
+    private RepositoryFileFilter filter(Collection<String> includes, Collection<String> excludes) {
+        return new RepositoryFileFilter(root, EXCLUDED_DIRS, EXCLUDED_EXTENSIONS, DOCUMENT_EXTENSIONS, 1024, includes, excludes);
+    }
+
+    private void write(String path, String content) throws IOException {
+        Path file = root.resolve(path);
+        Files.createDirectories(file.getParent());
+        Files.writeString(file, content, StandardCharsets.UTF_8);
+    }
+
+}
@@ -0,0 +1,111 @@
+package cn.panchen.pc.dev.tech.test;
+
+import cn.panchen.pc.dev.tech.trigger.admission.ChatRejectedException;
+import cn.panchen.pc.dev.tech.trigger.retrieval.RetrievalExecutor;
+import io.micrometer.observation.Observation;
+import io.micrometer.observation.ObservationRegistry;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * RetrievalExecutor 排队已满返回 429、span 传递到检索线程的测试，不依赖 Spring 上下文
+ */
+public class RetrievalExecutorTest {
+
+    private ObservationRegistry observationRegistry;
+    private RetrievalExecutor retrievalExecutor;
+
+    @Before
+    public void setUp() {
+        observationRegistry = ObservationRegistry.create();
+        observationRegistry.observationConfig().observationHandler(context -> true);
+        retrievalExecutor = new RetrievalExecutor();
+        ReflectionTestUtils.setField(retrievalExecutor, "observationRegistry", observationRegistry);
+        ReflectionTestUtils.setField(retrievalExecutor, "threads", 1);
+        ReflectionTestUtils.setField(retrievalExecutor, "queueCapacity", 1);
+        ReflectionTestUtils.setField(retrievalExecutor, "retryAfterSeconds", 3L);
+        retrievalExecutor.init();
+    }
+
+    @After
+    public void tearDown() {
+        retrievalExecutor.destroy();
+    }
+
+    @Test
+    public void test_submit_runsOnRetrievalThread() {
+        String thread = retrievalExecutor.submit(() -> Thread.currentThread().getName()).block(Duration.ofSeconds(5));
+
+        Assert.assertNotNull(thread);
+        Assert.assertTrue(thread.startsWith("rag-retrieval"));
+    }
+
+    @Test
+    public void test_queueFull_rejectWith429() throws InterruptedException {
+        CountDownLatch running = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        // 唯一的线程被占住，再排一个任务后排队已满
+        retrievalExecutor.submit(() -> {
+            running.countDown();
+            await(release);
+            return "busy";
+        }).subscribe();
+        Assert.assertTrue(running.await(5, TimeUnit.SECONDS));
+        CountDownLatch queuedDone = new CountDownLatch(1);
+        retrievalExecutor.submit(() -> "queued").subscribe(ignored -> queuedDone.countDown());
+
+        ChatRejectedException e = Assert.assertThrows(ChatRejectedException.class,
+                () -> retrievalExecutor.submit(() -> "rejected").block(Duration.ofSeconds(5)));
+        Assert.assertEquals(429, e.getStatusCode().value());
+        Assert.assertEquals("3", e.getHeaders().getFirst("Retry-After"));
+
+        // 排队的任务执行完、线程空出来后恢复接收
+        release.countDown();
+        Assert.assertTrue(queuedDone.await(5, TimeUnit.SECONDS));
+        Assert.assertEquals("ok", submitUntilAccepted());
+    }
+
+    @Test
+    public void test_submit_propagatesParentObservation() {
+        Observation parent = Observation.start("rag.test", observationRegistry);
+        Observation current;
+        try (Observation.Scope ignored = parent.openScope()) {
+            current = retrievalExecutor.submit(() -> observationRegistry.getCurrentObservation()).block(Duration.ofSeconds(5));
+        } finally {
+            parent.stop();
+        }
+
+        Assert.assertSame(parent, current);
+    }
+
+    /**
+     * 任务发出结果后线程才归还排队名额，短时间内重试
+     */
+    private String submitUntilAccepted() throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (true) {
+            try {
+                return retrievalExecutor.submit(() -> "ok").block(Duration.ofSeconds(5));
+            } catch (ChatRejectedException e) {
+                Assert.assertTrue("线程空出后仍被拒绝", System.currentTimeMillis() < deadline);
+                Thread.sleep(10);
+            }
+        }
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+}
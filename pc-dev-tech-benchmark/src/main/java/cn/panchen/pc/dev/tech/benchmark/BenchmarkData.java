@@ -0,0 +1,157 @@
+package cn.panchen.pc.dev.tech.benchmark;
+
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDPageContentStream;
+import org.apache.pdfbox.pdmodel.font.PDType1Font;
+import org.apache.poi.xwpf.usermodel.XWPFDocument;
+import org.springframework.core.io.ByteArrayResource;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * 基准测试的输入数据，全部由固定种子生成，每次运行完全一致
+ */
+public class BenchmarkData {
+
+    private static final String[] VOCABULARY = {
+            "knowledge", "vector", "embedding", "index", "query", "document", "chunk", "token", "model", "prompt",
+            "repository", "commit", "branch", "merge", "build", "deploy", "service", "controller", "request", "response",
+            "cache", "latency", "throughput", "memory", "thread", "queue", "batch", "stream", "partition", "replica",
+            "database", "table", "column", "schema", "transaction", "lock", "timeout", "retry", "error", "exception",
+            "config", "property", "profile", "module", "package", "class", "method", "field", "interface", "annotation",
+            "search", "rank", "score", "distance", "cosine", "similarity", "graph", "neighbor", "layer", "recall",
+            "the", "a", "of", "to", "and", "in", "is", "for", "with", "on", "that", "by", "this", "from", "as", "be"
+    };
+
+    private static final int PDF_LINES_PER_PAGE = 50;
+    private static final int PDF_CHARS_PER_LINE = 90;
+
+    private BenchmarkData() {
+    }
+
+    /**
+     * 生成由若干段落组成的英文文本，约 words 个词
+     */
+    public static String text(int words, long seed) {
+        return String.join("\n\n", paragraphs(words, seed));
+    }
+
+    public static List<String> paragraphs(int words, long seed) {
+        Random random = new Random(seed);
+        List<String> paragraphs = new ArrayList<>();
+        int remaining = words;
+        while (remaining > 0) {
+            StringBuilder paragraph = new StringBuilder();
+            int sentences = 4 + random.nextInt(5);
+            for (int s = 0; s < sentences && remaining > 0; s++) {
+                int length = Math.min(remaining, 8 + random.nextInt(13));
+                for (int w = 0; w < length; w++) {
+                    String word = VOCABULARY[random.nextInt(VOCABULARY.length)];
+                    if (0 == w) word = Character.toUpperCase(word.charAt(0)) + word.substring(1);
+                    paragraph.append(word).append(w == length - 1 ? ". " : " ");
+                }
+                remaining -= length;
+            }
+            paragraphs.add(paragraph.toString().trim());
+        }
+        return paragraphs;
+    }
+
+    /**
+     * 生成指定格式的文件内容，格式取文件扩展名：txt、md、html、pdf、docx
+     */
+    public static byte[] file(String format, int words, long seed) throws IOException {
+        List<String> paragraphs = paragraphs(words, seed);
+        return switch (format) {
+            case "txt" -> String.join("\n\n", paragraphs).getBytes(StandardCharsets.UTF_8);
+            case "md" -> markdown(paragraphs).getBytes(StandardCharsets.UTF_8);
+            case "html" -> html(paragraphs).getBytes(StandardCharsets.UTF_8);
+            case "pdf" -> pdf(paragraphs);
+            case "docx" -> docx(paragraphs);
+            default -> throw new IllegalArgumentException("不支持的格式:" + format);
+        };
+    }
+
+    /**
+     * 带文件名的内存资源，和上传文件一样让 Tika 能按扩展名识别类型
+     */
+    public static ByteArrayResource resource(String filename, byte[] content) {
+        return new ByteArrayResource(content) {
+            @Override
+            public String getFilename() {
+                return filename;
+            }
+        };
+    }
+
+    private static String markdown(List<String> paragraphs) {
+        StringBuilder markdown = new StringBuilder("# Benchmark\n\n");
+        for (int i = 0; i < paragraphs.size(); i++) {
+            if (i % 5 == 0) markdown.append("## Section ").append(i / 5 + 1).append("\n\n");
+            markdown.append(paragraphs.get(i)).append("\n\n");
+        }
+        return markdown.toString();
+    }
+
+    private static String html(List<String> paragraphs) {
+        StringBuilder html = new StringBuilder("<!DOCTYPE html><html><head><title>Benchmark</title></head><body>\n");
+        for (int i = 0; i < paragraphs.size(); i++) {
+            if (i % 5 == 0) html.append("<h2>Section ").append(i / 5 + 1).append("</h2>\n");
+            html.append("<p>").append(paragraphs.get(i)).append("</p>\n");
+        }
+        return html.append("</body></html>").toString();
+    }
+
+    private static byte[] pdf(List<String> paragraphs) throws IOException {
+        List<String> lines = new ArrayList<>();
+        for (String paragraph : paragraphs) {
+            StringBuilder line = new StringBuilder();
+            for (String word : paragraph.split(" ")) {
+                if (line.length() + word.length() + 1 > PDF_CHARS_PER_LINE) {
+                    lines.add(line.toString());
+                    line.setLength(0);
+                }
+                line.append(word).append(' ');
+            }
+            lines.add(line.toString());
+            lines.add("");
+        }
+
+        try (PDDocument document = new PDDocument(); ByteArrayOutputStream out = new ByteArrayOutputStream()) {
+            for (int start = 0; start < lines.size(); start += PDF_LINES_PER_PAGE) {
+                PDPage page = new PDPage();
+                document.addPage(page);
+                try (PDPageContentStream content = new PDPageContentStream(document, page)) {
+                    content.beginText();
+                    content.setFont(PDType1Font.HELVETICA, 10);
+                    content.setLeading(14);
+                    content.newLineAtOffset(50, 750);
+                    for (String line : lines.subList(start, Math.min(lines.size(), start + PDF_LINES_PER_PAGE))) {
+                        content.showText(line);
+                        content.newLine();
+                    }
+                    content.endText();
+                }
+            }
+            document.save(out);
+            return out.toByteArray();
+        }
+    }
+
+    private static byte[] docx(List<String> paragraphs) throws IOException {
+        try (XWPFDocument document = new XWPFDocument(); ByteArrayOutputStream out = new ByteArrayOutputStream()) {
+            for (String paragraph : paragraphs) {
+                document.createParagraph().createRun().setText(paragraph);
+            }
+            document.write(out);
+            return out.toByteArray();
+        }
+    }
+
+}
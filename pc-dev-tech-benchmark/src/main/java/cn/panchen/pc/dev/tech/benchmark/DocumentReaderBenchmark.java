@@ -0,0 +1,41 @@
+package cn.panchen.pc.dev.tech.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.reader.tika.TikaDocumentReader;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * TikaDocumentReader 解析各类型文件的耗时，文件在内存中生成，内容相同、格式不同
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DocumentReaderBenchmark {
+
+    @Param({"txt", "md", "html", "pdf", "docx"})
+    public String format;
+
+    /** 文件词数 */
+    @Param({"10000"})
+    public int words;
+
+    private byte[] content;
+
+    @Setup
+    public void setup() throws IOException {
+        content = BenchmarkData.file(format, words, 42);
+    }
+
+    @Benchmark
+    public List<Document> read() {
+        return new TikaDocumentReader(BenchmarkData.resource("benchmark." + format, content)).get();
+    }
+
+}
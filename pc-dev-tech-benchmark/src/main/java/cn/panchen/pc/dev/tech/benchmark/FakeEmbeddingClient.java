@@ -0,0 +1,109 @@
+package cn.panchen.pc.dev.tech.benchmark;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.Embedding;
+import org.springframework.ai.embedding.EmbeddingClient;
+import org.springframework.ai.embedding.EmbeddingOptions;
+import org.springframework.ai.embedding.EmbeddingRequest;
+import org.springframework.ai.embedding.EmbeddingResponse;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 确定性的假向量模型，基准测试离线使用
+ * 对文本分词后做特征哈希：每个词按散列值在若干维上加减 1，再归一化。同样的文本总是得到同样的向量，
+ * 共有词越多的文本向量越相近，检索结果有意义，但不需要请求模型。
+ */
+public class FakeEmbeddingClient implements EmbeddingClient {
+
+    /** 每个词落到的维数 */
+    private static final int FEATURES_PER_TOKEN = 8;
+
+    private static final HashFunction HASH = Hashing.murmur3_32_fixed();
+
+    private final int dimensions;
+
+    public FakeEmbeddingClient(int dimensions) {
+        this.dimensions = dimensions;
+    }
+
+    public float[] embedToArray(String text) {
+        float[] vector = new float[dimensions];
+        int start = -1;
+        for (int i = 0; i <= text.length(); i++) {
+            boolean letter = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+            if (letter && start < 0) {
+                start = i;
+            } else if (!letter && start >= 0) {
+                addToken(vector, text.substring(start, i).toLowerCase());
+                start = -1;
+            }
+        }
+        double norm = 0;
+        for (float v : vector) {
+            norm += v * v;
+        }
+        norm = Math.sqrt(norm);
+        if (norm > 0) {
+            for (int i = 0; i < dimensions; i++) {
+                vector[i] = (float) (vector[i] / norm);
+            }
+        }
+        return vector;
+    }
+
+    @Override
+    public List<Double> embed(String text) {
+        float[] vector = embedToArray(text);
+        List<Double> embedding = new ArrayList<>(vector.length);
+        for (float v : vector) {
+            embedding.add((double) v);
+        }
+        return embedding;
+    }
+
+    @Override
+    public List<Double> embed(Document document) {
+        return embed(document.getContent());
+    }
+
+    @Override
+    public List<List<Double>> embed(List<String> texts) {
+        return texts.stream().map(this::embed).toList();
+    }
+
+    @Override
+    public EmbeddingResponse call(EmbeddingRequest request) {
+        List<String> texts = request.getInstructions();
+        List<Embedding> results = new ArrayList<>(texts.size());
+        for (int i = 0; i < texts.size(); i++) {
+            results.add(new Embedding(embed(texts.get(i)), i));
+        }
+        return new EmbeddingResponse(results);
+    }
+
+    @Override
+    public EmbeddingResponse embedForResponse(List<String> texts) {
+        return call(new EmbeddingRequest(texts, EmbeddingOptions.EMPTY));
+    }
+
+    @Override
+    public int dimensions() {
+        return dimensions;
+    }
+
+    private void addToken(float[] vector, String token) {
+        int hash = HASH.hashString(token, StandardCharsets.UTF_8).asInt();
+        for (int i = 0; i < FEATURES_PER_TOKEN; i++) {
+            // 用一个散列值派生出多个位置和符号
+            int h = hash * (2 * i + 1) + i * 0x9E3779B9;
+            h ^= h >>> 16;
+            vector[Math.floorMod(h, dimensions)] += (h & 0x40000000) == 0 ? 1 : -1;
+        }
+    }
+
+}
@@ -0,0 +1,56 @@
+package cn.panchen.pc.dev.tech.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.prompt.SystemPromptTemplate;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 知识库问答时 SystemPromptTemplate 渲染 {documents} 的耗时，模板与 OllamaController/OpenAiController 一致
+ * 切片数对应检索的 topK，每个切片约为 TokenTextSplitter 默认的 800 token
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PromptTemplateBenchmark {
+
+    private static final String SYSTEM_PROMPT = """
+            Use the information from the DOCUMENTS section to provide accurate answers but act as if you knew this information innately.
+            If unsure, simply state that you don't know.
+            Another thing you need to note is that your reply must be in Chinese!
+            DOCUMENTS:
+                {documents}
+            """;
+
+    /** 切片数 */
+    @Param({"5", "20", "50"})
+    public int chunks;
+
+    /** 每个切片的词数 */
+    @Param({"600"})
+    public int wordsPerChunk;
+
+    private List<String> contents;
+
+    @Setup
+    public void setup() {
+        contents = new ArrayList<>(chunks);
+        for (int i = 0; i < chunks; i++) {
+            contents.add(BenchmarkData.text(wordsPerChunk, i));
+        }
+    }
+
+    @Benchmark
+    public Message createMessage() {
+        String documentCollectors = String.join("", contents);
+        return new SystemPromptTemplate(SYSTEM_PROMPT).createMessage(Map.of("documents", documentCollectors));
+    }
+
+}
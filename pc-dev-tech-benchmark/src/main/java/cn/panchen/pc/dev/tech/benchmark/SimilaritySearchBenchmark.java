@@ -0,0 +1,118 @@
+package cn.panchen.pc.dev.tech.benchmark;
+
+import cn.panchen.pc.dev.tech.trigger.retrieval.HnswIndex;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.vectorstore.SearchRequest;
+import org.springframework.ai.vectorstore.SimpleVectorStore;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 向量检索的耗时：SimpleVectorStore（嵌入式向量库，含问题向量化）、连续数组上的精确检索、热点检索层的 HnswIndex
+ * 切片和问题都用 FakeEmbeddingClient 向量化，不依赖模型和 pgvector
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = {"-Xmx4g"})
+public class SimilaritySearchBenchmark {
+
+    private static final int QUERIES = 64;
+
+    /** 切片数 */
+    @Param({"1000", "10000"})
+    public int size;
+
+    @Param({"768"})
+    public int dimensions;
+
+    @Param({"5"})
+    public int topK;
+
+    /** HNSW 检索宽度，与 rag.hot-tier.ef-search 默认值一致 */
+    @Param({"64"})
+    public int efSearch;
+
+    private FakeEmbeddingClient embeddingClient;
+    private SimpleVectorStore simpleVectorStore;
+    private HnswIndex hnswIndex;
+    /** 归一化后连续存放的切片向量 */
+    private float[] matrix;
+
+    private String[] queryTexts;
+    private float[][] queryVectors;
+    private int next;
+
+    @Setup
+    public void setup() {
+        embeddingClient = new FakeEmbeddingClient(dimensions);
+        simpleVectorStore = new SimpleVectorStore(embeddingClient);
+        hnswIndex = new HnswIndex(dimensions, 16, 100, size);
+        matrix = new float[size * dimensions];
+
+        List<Document> documents = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            String content = BenchmarkData.text(100, i);
+            documents.add(new Document(content, Map.of("knowledge", "benchmark")));
+            float[] vector = embeddingClient.embedToArray(content);
+            System.arraycopy(vector, 0, matrix, i * dimensions, dimensions);
+            hnswIndex.add(vector);
+        }
+        simpleVectorStore.add(documents);
+
+        queryTexts = new String[QUERIES];
+        queryVectors = new float[QUERIES][];
+        for (int i = 0; i < QUERIES; i++) {
+            queryTexts[i] = BenchmarkData.text(12, -1 - i);
+            queryVectors[i] = embeddingClient.embedToArray(queryTexts[i]);
+        }
+    }
+
+    @Benchmark
+    public List<Document> simpleVectorStore() {
+        return simpleVectorStore.similaritySearch(SearchRequest.query(queryTexts[nextQuery()]).withTopK(topK));
+    }
+
+    @Benchmark
+    public int[] exactScan() {
+        float[] query = queryVectors[nextQuery()];
+        // 小顶堆保留相似度最高的 topK 个
+        PriorityQueue<long[]> heap = new PriorityQueue<>(topK + 1, (a, b) -> Float.compare(Float.intBitsToFloat((int) a[1]), Float.intBitsToFloat((int) b[1])));
+        for (int node = 0; node < size; node++) {
+            int offset = node * dimensions;
+            float sum = 0;
+            for (int i = 0; i < dimensions; i++) {
+                sum += query[i] * matrix[offset + i];
+            }
+            if (heap.size() < topK) {
+                heap.add(new long[]{node, Float.floatToRawIntBits(sum)});
+            } else if (sum > Float.intBitsToFloat((int) heap.peek()[1])) {
+                heap.poll();
+                heap.add(new long[]{node, Float.floatToRawIntBits(sum)});
+            }
+        }
+        int[] result = new int[heap.size()];
+        for (int i = result.length - 1; i >= 0; i--) {
+            result[i] = (int) heap.poll()[0];
+        }
+        return result;
+    }
+
+    @Benchmark
+    public int[] hnsw() {
+        return hnswIndex.search(queryVectors[nextQuery()], topK, efSearch, new float[topK]);
+    }
+
+    private int nextQuery() {
+        next = (next + 1) % QUERIES;
+        return next;
+    }
+
+}
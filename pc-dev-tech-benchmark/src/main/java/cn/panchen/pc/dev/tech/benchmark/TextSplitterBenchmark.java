@@ -0,0 +1,48 @@
+package cn.panchen.pc.dev.tech.benchmark;
+
+import cn.panchen.pc.dev.tech.trigger.ingest.CodeAwareTextSplitter;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.transformer.splitter.TextSplitter;
+import org.springframework.ai.transformer.splitter.TokenTextSplitter;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 切割器 apply 在不同文档大小下的耗时，与入库流水线中的切割阶段一致（默认参数，带 metadata）
+ * token 为 Spring AI 默认的 TokenTextSplitter，code-aware 为入库流水线使用的 CodeAwareTextSplitter
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TextSplitterBenchmark {
+
+    /** 文档词数 */
+    @Param({"1000", "10000", "100000"})
+    public int words;
+
+    @Param({"token", "code-aware"})
+    public String splitterType;
+
+    private TextSplitter splitter;
+    private String text;
+
+    @Setup
+    public void setup() {
+        splitter = "token".equals(splitterType) ? new TokenTextSplitter() : new CodeAwareTextSplitter(800, 200, 262144);
+        text = BenchmarkData.text(words, 42);
+    }
+
+    @Benchmark
+    public List<Document> apply() {
+        // apply 会改写传入文档的 metadata，每次新建
+        Document document = new Document(text, Map.of("knowledge", "benchmark", "source", "benchmark.txt"));
+        return splitter.apply(List.of(document));
+    }
+
+}
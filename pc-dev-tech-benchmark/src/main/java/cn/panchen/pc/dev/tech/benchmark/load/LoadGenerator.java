@@ -0,0 +1,206 @@
+package cn.panchen.pc.dev.tech.benchmark.load;
+
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.JSONObject;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+
+import java.io.PrintStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntFunction;
+
+/**
+ * 开环压测：按固定 QPS 发出流式请求，不等待前一个请求完成，避免被测服务变慢时压力随之下降而掩盖排队延迟
+ * 以 text/event-stream 接收回答，每个请求记录首 token 时间（TTFT）、总耗时和生成速度（token/s）。
+ */
+@Slf4j
+public class LoadGenerator {
+
+    private static final Duration REQUEST_TIMEOUT = Duration.ofMinutes(5);
+
+    private final HttpClient client = HttpClient.newBuilder()
+            .connectTimeout(Duration.ofSeconds(10))
+            .executor(Executors.newCachedThreadPool(r -> {
+                Thread thread = new Thread(r, "load-client");
+                thread.setDaemon(true);
+                return thread;
+            }))
+            .build();
+
+    /**
+     * 对一个接口压测
+     * @param uris 第 i 个请求的地址
+     */
+    public Result run(String name, IntFunction<URI> uris, double qps, Duration duration, Duration warmup, int maxInFlight) throws InterruptedException {
+        Result result = new Result(name);
+        AtomicInteger sequence = new AtomicInteger();
+        AtomicInteger inFlight = new AtomicInteger();
+        long start = System.nanoTime();
+        long measureFrom = start + warmup.toNanos();
+        long end = measureFrom + duration.toNanos();
+        Phaser pending = new Phaser(1);
+
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+        scheduler.scheduleAtFixedRate(() -> {
+            long now = System.nanoTime();
+            if (now >= end) return;
+            boolean measured = now >= measureFrom;
+            if (inFlight.get() >= maxInFlight) {
+                if (measured) result.dropped.incrementAndGet();
+                return;
+            }
+            if (measured) result.sent.incrementAndGet();
+            inFlight.incrementAndGet();
+            pending.register();
+            send(uris.apply(sequence.getAndIncrement()), measured ? result : null).whenComplete((ignored, e) -> {
+                inFlight.decrementAndGet();
+                pending.arriveAndDeregister();
+            });
+        }, 0, Math.max(1, (long) (TimeUnit.SECONDS.toNanos(1) / qps)), TimeUnit.NANOSECONDS);
+
+        Thread.sleep(TimeUnit.NANOSECONDS.toMillis(end - start));
+        scheduler.shutdownNow();
+        result.elapsedNanos = System.nanoTime() - measureFrom;
+        log.info("{} 发送结束，等待 {} 个在途请求", name, inFlight.get());
+        try {
+            pending.awaitAdvanceInterruptibly(pending.arrive(), REQUEST_TIMEOUT.toMillis(), TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            log.warn("{} 仍有 {} 个请求未完成", name, inFlight.get());
+        }
+        return result;
+    }
+
+    /**
+     * 发出一个请求；result 为 null 时为预热请求，不计入统计
+     */
+    private CompletableFuture<Void> send(URI uri, Result result) {
+        HttpRequest request = HttpRequest.newBuilder(uri)
+                .header("Accept", "text/event-stream")
+                .timeout(REQUEST_TIMEOUT)
+                .GET()
+                .build();
+        StreamRecorder recorder = new StreamRecorder(System.nanoTime());
+        return client.sendAsync(request, responseInfo -> {
+                    recorder.status = responseInfo.statusCode();
+                    return HttpResponse.BodySubscribers.fromLineSubscriber(recorder);
+                })
+                .handle((response, e) -> {
+                    if (null != result) result.record(recorder, e);
+                    return null;
+                });
+    }
+
+    /**
+     * 逐行读取 SSE，data 行中 result.output.content 非空即计为一个 token
+     */
+    private static class StreamRecorder implements Flow.Subscriber<String> {
+
+        private final long start;
+        private int status;
+        private long firstToken;
+        private long lastToken;
+        private int tokens;
+
+        StreamRecorder(long start) {
+            this.start = start;
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            subscription.request(Long.MAX_VALUE);
+        }
+
+        @Override
+        public void onNext(String line) {
+            if (!line.startsWith("data:")) return;
+            JSONObject chunk = JSON.parseObject(line.substring("data:".length()));
+            JSONObject result = null == chunk ? null : chunk.getJSONObject("result");
+            JSONObject output = null == result ? null : result.getJSONObject("output");
+            String content = null == output ? null : output.getString("content");
+            if (null == content || content.isEmpty()) return;
+            long now = System.nanoTime();
+            if (0 == tokens) firstToken = now;
+            lastToken = now;
+            tokens++;
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+        }
+
+        @Override
+        public void onComplete() {
+        }
+    }
+
+    /**
+     * 一个接口的压测结果，耗时以微秒记录
+     */
+    @Getter
+    public static class Result {
+
+        private final String name;
+        private final AtomicLong sent = new AtomicLong();
+        private final AtomicLong succeeded = new AtomicLong();
+        private final AtomicLong failed = new AtomicLong();
+        private final AtomicLong dropped = new AtomicLong();
+        private final Histogram ttft = new ConcurrentHistogram(3);
+        private final Histogram latency = new ConcurrentHistogram(3);
+        /** 每个请求的生成速度，token/s */
+        private final Histogram tokensPerSecond = new ConcurrentHistogram(3);
+        private volatile long elapsedNanos;
+
+        Result(String name) {
+            this.name = name;
+        }
+
+        void record(StreamRecorder recorder, Throwable e) {
+            long end = System.nanoTime();
+            if (null != e || 200 != recorder.status || 0 == recorder.tokens) {
+                failed.incrementAndGet();
+                return;
+            }
+            succeeded.incrementAndGet();
+            ttft.recordValue(TimeUnit.NANOSECONDS.toMicros(recorder.firstToken - recorder.start));
+            latency.recordValue(TimeUnit.NANOSECONDS.toMicros(end - recorder.start));
+            if (recorder.tokens > 1 && recorder.lastToken > recorder.firstToken) {
+                double seconds = (recorder.lastToken - recorder.firstToken) / 1e9;
+                tokensPerSecond.recordValue(Math.round((recorder.tokens - 1) / seconds));
+            }
+        }
+
+        public void print(PrintStream out) {
+            double seconds = elapsedNanos / 1e9;
+            out.printf("==== %s ====%n", name);
+            out.printf("发送:%d 成功:%d 失败:%d 丢弃(在途超限):%d 实际QPS:%.2f 成功QPS:%.2f%n",
+                    sent.get(), succeeded.get(), failed.get(), dropped.get(), sent.get() / seconds, succeeded.get() / seconds);
+            printLatency(out, "TTFT(ms)", ttft);
+            printLatency(out, "总耗时(ms)", latency);
+            if (tokensPerSecond.getTotalCount() > 0) {
+                out.printf("%-12s p50:%d p10:%d p1:%d min:%d mean:%.1f%n", "token/s",
+                        tokensPerSecond.getValueAtPercentile(50), tokensPerSecond.getValueAtPercentile(10),
+                        tokensPerSecond.getValueAtPercentile(1), tokensPerSecond.getMinValue(), tokensPerSecond.getMean());
+            }
+            out.println("TTFT 分布(ms):");
+            ttft.outputPercentileDistribution(out, 5, 1000.0);
+        }
+
+        private static void printLatency(PrintStream out, String label, Histogram histogram) {
+            if (0 == histogram.getTotalCount()) return;
+            out.printf("%-12s p50:%.1f p90:%.1f p99:%.1f p99.9:%.1f max:%.1f%n", label,
+                    histogram.getValueAtPercentile(50) / 1000.0, histogram.getValueAtPercentile(90) / 1000.0,
+                    histogram.getValueAtPercentile(99) / 1000.0, histogram.getValueAtPercentile(99.9) / 1000.0,
+                    histogram.getMaxValue() / 1000.0);
+        }
+    }
+
+}
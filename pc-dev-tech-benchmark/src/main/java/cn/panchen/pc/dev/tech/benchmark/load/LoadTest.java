@@ -0,0 +1,115 @@
+package cn.panchen.pc.dev.tech.benchmark.load;
+
+import cn.panchen.pc.dev.tech.benchmark.BenchmarkData;
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.JSONObject;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * generate_stream_rag 端到端压测入口
+ * 1. 启动桩模型服务、pgvector/Redis 测试容器和被测应用 → 2. 上传生成的文档到压测知识库 → 3. 依次按固定 QPS 压测各接口并输出延迟分布
+ * 用法：
+ *      mvn -pl pc-dev-tech-app,pc-dev-tech-benchmark -am package
+ *      java -cp pc-dev-tech-benchmark/target/benchmarks.jar cn.panchen.pc.dev.tech.benchmark.load.LoadTest \
+ *          --app-jar=pc-dev-tech-app/target/xfg-dev-tech-app.jar --qps=10 --duration-seconds=120 --token-delay-ms=25
+ * 参数见 LoadTestOptions。
+ */
+@Slf4j
+public class LoadTest {
+
+    private static final Set<String> FINISHED_STATUS = Set.of("COMMITTED", "FAILED", "CANCELLED");
+
+    public static void main(String[] args) throws Exception {
+        LoadTestOptions options = LoadTestOptions.parse(args);
+        try (LoadTestEnvironment environment = new LoadTestEnvironment(options)) {
+            environment.start();
+            String target = environment.getTarget();
+            if (options.seedDocuments() > 0) seed(target, options);
+
+            List<LoadGenerator.Result> results = new ArrayList<>();
+            LoadGenerator generator = new LoadGenerator();
+            for (String endpoint : options.endpoints()) {
+                String model = "openai".equals(endpoint) ? options.openaiModel() : options.ollamaModel();
+                log.info("开始压测 {} qps:{} 时长:{}s 预热:{}s", endpoint, options.qps(), options.durationSeconds(), options.warmupSeconds());
+                results.add(generator.run(endpoint + "/generate_stream_rag",
+                        i -> URI.create(target + "/api/v1/" + endpoint + "/generate_stream_rag" +
+                                "?model=" + encode(model) +
+                                "&ragTag=" + encode(options.ragTag()) +
+                                "&message=" + encode(question(i % options.distinctQuestions()))),
+                        options.qps(),
+                        Duration.ofSeconds(options.durationSeconds()),
+                        Duration.ofSeconds(options.warmupSeconds()),
+                        options.maxInFlight()));
+            }
+
+            StubModelServer stub = environment.getStubModelServer();
+            System.out.printf("桩模型：对话请求:%d 向量请求:%d 注入失败:%d%n", stub.getChatRequests(), stub.getEmbeddingRequests(), stub.getFailures());
+            for (LoadGenerator.Result result : results) {
+                result.print(System.out);
+            }
+        }
+    }
+
+    private static String question(int i) {
+        return BenchmarkData.text(12, 1_000_000L + i);
+    }
+
+    /**
+     * 上传生成的文档到压测知识库并等待入库完成
+     */
+    private static void seed(String target, LoadTestOptions options) throws IOException, InterruptedException {
+        String boundary = "----rag-loadtest-" + UUID.randomUUID();
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        for (int i = 0; i < options.seedDocuments(); i++) {
+            body.write(("--" + boundary + "\r\n" +
+                    "Content-Disposition: form-data; name=\"file\"; filename=\"loadtest-" + i + ".txt\"\r\n" +
+                    "Content-Type: text/plain\r\n\r\n").getBytes(StandardCharsets.UTF_8));
+            body.write(BenchmarkData.file("txt", options.seedWords(), i));
+            body.write("\r\n".getBytes(StandardCharsets.UTF_8));
+        }
+        body.write(("--" + boundary + "--\r\n").getBytes(StandardCharsets.UTF_8));
+
+        HttpClient client = HttpClient.newHttpClient();
+        HttpResponse<String> response = client.send(HttpRequest.newBuilder(URI.create(target + "/api/v1/rag/file/upload?ragTag=" + encode(options.ragTag())))
+                        .header("Content-Type", "multipart/form-data; boundary=" + boundary)
+                        .POST(HttpRequest.BodyPublishers.ofByteArray(body.toByteArray()))
+                        .build(),
+                HttpResponse.BodyHandlers.ofString());
+        JSONObject upload = JSON.parseObject(response.body());
+        if (!"0000".equals(upload.getString("code"))) throw new IllegalStateException("上传压测文档失败:" + response.body());
+        String jobId = upload.getString("data");
+        log.info("压测文档已提交 ragTag:{} 文档:{} jobId:{}", options.ragTag(), options.seedDocuments(), jobId);
+
+        while (true) {
+            Thread.sleep(1000);
+            String job = client.send(HttpRequest.newBuilder(URI.create(target + "/api/v1/rag/ingest_job/query?jobId=" + encode(jobId))).GET().build(),
+                    HttpResponse.BodyHandlers.ofString()).body();
+            JSONObject data = JSON.parseObject(job).getJSONObject("data");
+            String status = null == data ? null : data.getString("status");
+            if (FINISHED_STATUS.contains(status)) {
+                if (!"COMMITTED".equals(status)) throw new IllegalStateException("压测文档入库失败:" + job);
+                log.info("压测文档入库完成 切片:{}", data.getLongValue("chunksWritten"));
+                return;
+            }
+        }
+    }
+
+    private static String encode(String value) {
+        return URLEncoder.encode(value, StandardCharsets.UTF_8);
+    }
+
+}
@@ -0,0 +1,148 @@
+package cn.panchen.pc.dev.tech.benchmark.load;
+
+import lombok.extern.slf4j.Slf4j;
+import org.testcontainers.containers.GenericContainer;
+import org.testcontainers.containers.PostgreSQLContainer;
+import org.testcontainers.utility.DockerImageName;
+
+import java.io.File;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 压测环境：pgvector、Redis 测试容器 + 桩模型服务 + 被测应用进程
+ * 被测应用以子进程方式运行打好的 jar，数据源、Redis、模型地址通过命令行参数指向本环境，不读取 application-dev.yml 中的线上地址。
+ * 传入 target 时只启动桩模型服务，被测应用由使用者自行启动并把模型 base-url 指向桩服务。
+ */
+@Slf4j
+public class LoadTestEnvironment implements AutoCloseable {
+
+    private static final String PGVECTOR_IMAGE = "pgvector/pgvector:0.7.4-pg15";
+    private static final String REDIS_IMAGE = "redis:6.2";
+    private static final Duration STARTUP_TIMEOUT = Duration.ofMinutes(3);
+
+    private final LoadTestOptions options;
+    private final StubModelServer stubModelServer;
+
+    private PostgreSQLContainer<?> postgres;
+    private GenericContainer<?> redis;
+    private Process app;
+    private Path workDir;
+    private String target;
+
+    public LoadTestEnvironment(LoadTestOptions options) {
+        this.options = options;
+        this.stubModelServer = new StubModelServer(options);
+    }
+
+    public void start() throws Exception {
+        stubModelServer.start();
+        if (null != options.target()) {
+            target = options.target();
+            log.info("使用已启动的被测应用 target:{}，请确认其 spring.ai.ollama.base-url / spring.ai.openai.base-url 为 {}", target, stubModelServer.getBaseUrl());
+            waitUntilReady();
+            return;
+        }
+        if (null == options.appJar()) throw new IllegalArgumentException("需要 --app-jar 或 --target");
+
+        postgres = new PostgreSQLContainer<>(DockerImageName.parse(PGVECTOR_IMAGE).asCompatibleSubstituteFor("postgres"))
+                .withDatabaseName("ai-rag-knowledge")
+                .withUsername("postgres")
+                .withPassword("postgres");
+        redis = new GenericContainer<>(DockerImageName.parse(REDIS_IMAGE)).withExposedPorts(6379);
+        postgres.start();
+        redis.start();
+        log.info("测试容器已启动 postgres:{} redis:{}:{}", postgres.getJdbcUrl(), redis.getHost(), redis.getMappedPort(6379));
+
+        workDir = Files.createTempDirectory("rag-loadtest-");
+        List<String> command = new ArrayList<>(List.of(
+                Path.of(System.getProperty("java.home"), "bin", "java").toString(), "-jar", options.appJar()));
+        appProperties().forEach((key, value) -> command.add("--" + key + "=" + value));
+        File appLog = workDir.resolve("app.log").toFile();
+        app = new ProcessBuilder(command)
+                .directory(workDir.toFile())
+                .redirectErrorStream(true)
+                .redirectOutput(appLog)
+                .start();
+        target = "http://localhost:" + options.appPort();
+        log.info("被测应用启动中 target:{} 日志:{}", target, appLog);
+        waitUntilReady();
+    }
+
+    public String getTarget() {
+        return target;
+    }
+
+    public StubModelServer getStubModelServer() {
+        return stubModelServer;
+    }
+
+    /**
+     * 被测应用的配置：环境地址 + 命令行中 --app.xxx 的覆盖
+     */
+    private Map<String, String> appProperties() {
+        Map<String, String> properties = new LinkedHashMap<>();
+        properties.put("server.port", String.valueOf(options.appPort()));
+        properties.put("spring.datasource.url", postgres.getJdbcUrl());
+        properties.put("spring.datasource.username", postgres.getUsername());
+        properties.put("spring.datasource.password", postgres.getPassword());
+        properties.put("redis.sdk.config.host", redis.getHost());
+        properties.put("redis.sdk.config.port", String.valueOf(redis.getMappedPort(6379)));
+        properties.put("spring.ai.ollama.base-url", stubModelServer.getBaseUrl());
+        properties.put("spring.ai.openai.base-url", stubModelServer.getBaseUrl());
+        properties.put("spring.ai.openai.api-key", "stub");
+        properties.put("rag.hot-tier.snapshot-dir", workDir.resolve("hot-tier").toString());
+        properties.putAll(options.appProperties());
+        return properties;
+    }
+
+    private void waitUntilReady() throws Exception {
+        HttpClient client = HttpClient.newHttpClient();
+        HttpRequest request = HttpRequest.newBuilder(URI.create(target + "/api/v1/rag/query_rag_tag_list"))
+                .timeout(Duration.ofSeconds(5))
+                .GET()
+                .build();
+        long deadline = System.nanoTime() + STARTUP_TIMEOUT.toNanos();
+        while (System.nanoTime() < deadline) {
+            if (null != app && !app.isAlive()) {
+                throw new IllegalStateException("被测应用启动失败，退出码:" + app.exitValue() + "，日志:" + workDir.resolve("app.log"));
+            }
+            try {
+                if (200 == client.send(request, HttpResponse.BodyHandlers.discarding()).statusCode()) {
+                    log.info("被测应用已就绪 target:{}", target);
+                    return;
+                }
+            } catch (Exception e) {
+                // 尚未监听端口
+            }
+            Thread.sleep(1000);
+        }
+        throw new IllegalStateException("等待被测应用就绪超时 target:" + target);
+    }
+
+    @Override
+    public void close() {
+        if (null != app) {
+            app.destroy();
+            try {
+                app.waitFor();
+            } catch (InterruptedException e) {
+                app.destroyForcibly();
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (null != redis) redis.stop();
+        if (null != postgres) postgres.stop();
+        stubModelServer.stop();
+    }
+
+}
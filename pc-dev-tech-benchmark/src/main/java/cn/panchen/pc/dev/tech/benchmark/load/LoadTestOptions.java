@@ -0,0 +1,152 @@
+package cn.panchen.pc.dev.tech.benchmark.load;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 压测参数，命令行 --key=value 形式传入；--app.xxx=yyy 原样转给被测应用（--xxx=yyy）
+ */
+public class LoadTestOptions {
+
+    private static final String APP_PREFIX = "app.";
+
+    private final Map<String, String> values = new LinkedHashMap<>();
+    private final Map<String, String> appProperties = new LinkedHashMap<>();
+
+    public static LoadTestOptions parse(String[] args) {
+        LoadTestOptions options = new LoadTestOptions();
+        for (String arg : args) {
+            if (!arg.startsWith("--") || !arg.contains("=")) throw new IllegalArgumentException("参数格式应为 --key=value:" + arg);
+            String key = arg.substring(2, arg.indexOf('='));
+            String value = arg.substring(arg.indexOf('=') + 1);
+            if (key.startsWith(APP_PREFIX)) {
+                options.appProperties.put(key.substring(APP_PREFIX.length()), value);
+            } else {
+                options.values.put(key, value);
+            }
+        }
+        return options;
+    }
+
+    /** 已在运行的被测应用地址；不传时由压测启动 app-jar */
+    public String target() {
+        return values.get("target");
+    }
+
+    /** 被测应用的可执行 jar */
+    public String appJar() {
+        return values.get("app-jar");
+    }
+
+    public int appPort() {
+        return intValue("app-port", 18090);
+    }
+
+    /** 桩模型服务端口，0 为随机端口；配合 target 使用时需要固定，被测应用的 base-url 指向它 */
+    public int stubPort() {
+        return intValue("stub-port", 0);
+    }
+
+    /** 压测的接口：ollama、openai，逗号分隔 */
+    public List<String> endpoints() {
+        return List.of(values.getOrDefault("endpoints", "ollama,openai").split(","));
+    }
+
+    public String ollamaModel() {
+        return values.getOrDefault("ollama-model", "deepseek-r1:1.5b");
+    }
+
+    public String openaiModel() {
+        return values.getOrDefault("openai-model", "gpt-4o");
+    }
+
+    public String ragTag() {
+        return values.getOrDefault("rag-tag", "loadtest");
+    }
+
+    /** 压测前写入知识库的文档数，0 为不写入 */
+    public int seedDocuments() {
+        return intValue("seed-documents", 20);
+    }
+
+    /** 每个文档的词数 */
+    public int seedWords() {
+        return intValue("seed-words", 2000);
+    }
+
+    /** 每秒发起的请求数，按固定间隔发出，不等待前一个请求完成 */
+    public double qps() {
+        return doubleValue("qps", 5);
+    }
+
+    public int durationSeconds() {
+        return intValue("duration-seconds", 60);
+    }
+
+    /** 预热时长，期间的请求不计入统计 */
+    public int warmupSeconds() {
+        return intValue("warmup-seconds", 10);
+    }
+
+    /** 同时在途的请求上限，超过时丢弃本次发送并计数 */
+    public int maxInFlight() {
+        return intValue("max-in-flight", 512);
+    }
+
+    /** 不同问题的个数，问题轮流使用；数量太少时会命中检索缓存和回答缓存 */
+    public int distinctQuestions() {
+        return intValue("distinct-questions", 1000);
+    }
+
+    /** 桩模型：首 token 前的延迟（prefill） */
+    public long firstTokenDelayMillis() {
+        return longValue("first-token-delay-ms", 200);
+    }
+
+    /** 桩模型：相邻 token 的间隔 */
+    public long tokenDelayMillis() {
+        return longValue("token-delay-ms", 20);
+    }
+
+    /** 桩模型：每个回答的 token 数 */
+    public int answerTokens() {
+        return intValue("answer-tokens", 200);
+    }
+
+    /** 桩模型：每次向量化请求的延迟 */
+    public long embeddingLatencyMillis() {
+        return longValue("embedding-latency-ms", 20);
+    }
+
+    /** 桩模型：对话请求返回 500 的比例 */
+    public double chatFailureRate() {
+        return doubleValue("chat-failure-rate", 0);
+    }
+
+    /** 桩模型：向量化请求返回 500 的比例 */
+    public double embeddingFailureRate() {
+        return doubleValue("embedding-failure-rate", 0);
+    }
+
+    public int dimensions() {
+        return intValue("dimensions", 768);
+    }
+
+    public Map<String, String> appProperties() {
+        return appProperties;
+    }
+
+    private int intValue(String key, int defaultValue) {
+        return values.containsKey(key) ? Integer.parseInt(values.get(key)) : defaultValue;
+    }
+
+    private long longValue(String key, long defaultValue) {
+        return values.containsKey(key) ? Long.parseLong(values.get(key)) : defaultValue;
+    }
+
+    private double doubleValue(String key, double defaultValue) {
+        return values.containsKey(key) ? Double.parseDouble(values.get(key)) : defaultValue;
+    }
+
+}
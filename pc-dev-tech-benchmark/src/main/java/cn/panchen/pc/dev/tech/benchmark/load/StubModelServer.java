@@ -0,0 +1,246 @@
+package cn.panchen.pc.dev.tech.benchmark.load;
+
+import cn.panchen.pc.dev.tech.benchmark.BenchmarkData;
+import cn.panchen.pc.dev.tech.benchmark.FakeEmbeddingClient;
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.JSONArray;
+import com.alibaba.fastjson.JSONObject;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Ollama 与 OpenAI HTTP 接口的本地替身，压测时代替 GPU 和 OpenAI 代理
+ * 对话接口按 token 流式返回固定的回答，首 token 延迟、token 间隔可配；向量接口用 FakeEmbeddingClient 返回确定性向量。
+ * 两类接口都可按比例返回 500，模拟模型服务故障。
+ * 只实现应用用到的接口：Ollama /api/chat、/api/embeddings，OpenAI /v1/chat/completions、/v1/embeddings。
+ */
+@Slf4j
+public class StubModelServer {
+
+    private final LoadTestOptions options;
+    private final FakeEmbeddingClient embeddingClient;
+    private final String[] answer;
+    private final ExecutorService executor = Executors.newCachedThreadPool(r -> {
+        Thread thread = new Thread(r, "stub-model");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final AtomicLong chatRequests = new AtomicLong();
+    private final AtomicLong embeddingRequests = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+
+    private HttpServer server;
+
+    public StubModelServer(LoadTestOptions options) {
+        this.options = options;
+        this.embeddingClient = new FakeEmbeddingClient(options.dimensions());
+        this.answer = BenchmarkData.text(options.answerTokens(), 7).split(" ");
+    }
+
+    public void start() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(options.stubPort()), 1024);
+        server.createContext("/api/chat", handler(this::ollamaChat));
+        server.createContext("/api/embeddings", handler(this::ollamaEmbeddings));
+        server.createContext("/v1/chat/completions", handler(this::openAiChat));
+        server.createContext("/v1/embeddings", handler(this::openAiEmbeddings));
+        // 每个流式回答占用一个线程直到结束
+        server.setExecutor(executor);
+        server.start();
+        log.info("桩模型服务已启动 port:{}", getPort());
+    }
+
+    public void stop() {
+        if (null != server) server.stop(0);
+        executor.shutdownNow();
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    public String getBaseUrl() {
+        return "http://localhost:" + getPort();
+    }
+
+    public long getChatRequests() {
+        return chatRequests.get();
+    }
+
+    public long getEmbeddingRequests() {
+        return embeddingRequests.get();
+    }
+
+    public long getFailures() {
+        return failures.get();
+    }
+
+    private void ollamaChat(HttpExchange exchange, JSONObject request) throws Exception {
+        chatRequests.incrementAndGet();
+        if (fail(exchange, options.chatFailureRate())) return;
+        String model = request.getString("model");
+        if (!request.getBooleanValue("stream")) {
+            sleep(options.firstTokenDelayMillis() + options.tokenDelayMillis() * (answer.length - 1));
+            send(exchange, "application/json", ollamaChunk(model, String.join(" ", answer), true).toJSONString());
+            return;
+        }
+        exchange.getResponseHeaders().set("Content-Type", "application/x-ndjson");
+        exchange.sendResponseHeaders(200, 0);
+        try (OutputStream out = exchange.getResponseBody()) {
+            sleep(options.firstTokenDelayMillis());
+            for (int i = 0; i < answer.length; i++) {
+                if (i > 0) sleep(options.tokenDelayMillis());
+                write(out, ollamaChunk(model, i == 0 ? answer[i] : " " + answer[i], false).toJSONString() + "\n");
+            }
+            write(out, ollamaChunk(model, "", true).toJSONString() + "\n");
+        }
+    }
+
+    private void ollamaEmbeddings(HttpExchange exchange, JSONObject request) throws Exception {
+        embeddingRequests.incrementAndGet();
+        sleep(options.embeddingLatencyMillis());
+        if (fail(exchange, options.embeddingFailureRate())) return;
+        JSONObject response = new JSONObject();
+        response.put("embedding", embeddingClient.embed(request.getString("prompt")));
+        send(exchange, "application/json", response.toJSONString());
+    }
+
+    private void openAiChat(HttpExchange exchange, JSONObject request) throws Exception {
+        chatRequests.incrementAndGet();
+        if (fail(exchange, options.chatFailureRate())) return;
+        String model = request.getString("model");
+        String id = "chatcmpl-" + UUID.randomUUID();
+        if (!request.getBooleanValue("stream")) {
+            sleep(options.firstTokenDelayMillis() + options.tokenDelayMillis() * (answer.length - 1));
+            JSONObject message = new JSONObject(Map.of("role", "assistant", "content", String.join(" ", answer)));
+            JSONObject choice = new JSONObject(Map.of("index", 0, "message", message, "finish_reason", "stop"));
+            JSONObject response = openAiObject(id, "chat.completion", model);
+            response.put("choices", List.of(choice));
+            response.put("usage", Map.of("prompt_tokens", 0, "completion_tokens", answer.length, "total_tokens", answer.length));
+            send(exchange, "application/json", response.toJSONString());
+            return;
+        }
+        exchange.getResponseHeaders().set("Content-Type", "text/event-stream");
+        exchange.sendResponseHeaders(200, 0);
+        try (OutputStream out = exchange.getResponseBody()) {
+            sleep(options.firstTokenDelayMillis());
+            for (int i = 0; i < answer.length; i++) {
+                if (i > 0) sleep(options.tokenDelayMillis());
+                JSONObject delta = new JSONObject(Map.of("role", "assistant", "content", i == 0 ? answer[i] : " " + answer[i]));
+                write(out, "data: " + openAiChunk(id, model, delta, null).toJSONString() + "\n\n");
+            }
+            write(out, "data: " + openAiChunk(id, model, new JSONObject(), "stop").toJSONString() + "\n\n");
+            write(out, "data: [DONE]\n\n");
+        }
+    }
+
+    private void openAiEmbeddings(HttpExchange exchange, JSONObject request) throws Exception {
+        embeddingRequests.incrementAndGet();
+        sleep(options.embeddingLatencyMillis());
+        if (fail(exchange, options.embeddingFailureRate())) return;
+        Object input = request.get("input");
+        List<String> texts = input instanceof JSONArray array ? array.toJavaList(String.class) : List.of(String.valueOf(input));
+        JSONArray data = new JSONArray();
+        for (int i = 0; i < texts.size(); i++) {
+            data.add(new JSONObject(Map.of("object", "embedding", "index", i, "embedding", embeddingClient.embed(texts.get(i)))));
+        }
+        JSONObject response = new JSONObject();
+        response.put("object", "list");
+        response.put("data", data);
+        response.put("model", request.getString("model"));
+        response.put("usage", Map.of("prompt_tokens", 0, "total_tokens", 0));
+        send(exchange, "application/json", response.toJSONString());
+    }
+
+    private JSONObject ollamaChunk(String model, String content, boolean done) {
+        JSONObject chunk = new JSONObject();
+        chunk.put("model", model);
+        chunk.put("created_at", Instant.now().toString());
+        chunk.put("message", Map.of("role", "assistant", "content", content));
+        chunk.put("done", done);
+        if (done) chunk.put("eval_count", answer.length);
+        return chunk;
+    }
+
+    private JSONObject openAiChunk(String id, String model, JSONObject delta, String finishReason) {
+        JSONObject choice = new JSONObject();
+        choice.put("index", 0);
+        choice.put("delta", delta);
+        choice.put("finish_reason", finishReason);
+        JSONObject chunk = openAiObject(id, "chat.completion.chunk", model);
+        chunk.put("choices", List.of(choice));
+        return chunk;
+    }
+
+    private JSONObject openAiObject(String id, String object, String model) {
+        JSONObject response = new JSONObject();
+        response.put("id", id);
+        response.put("object", object);
+        response.put("created", System.currentTimeMillis() / 1000);
+        response.put("model", model);
+        return response;
+    }
+
+    private boolean fail(HttpExchange exchange, double rate) throws IOException {
+        if (rate <= 0 || ThreadLocalRandom.current().nextDouble() >= rate) return false;
+        failures.incrementAndGet();
+        send(exchange, 500, "application/json", "{\"error\":\"stub failure\"}");
+        return true;
+    }
+
+    private HttpHandler handler(StubHandler handler) {
+        return exchange -> {
+            try (exchange) {
+                String body = new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+                handler.handle(exchange, JSON.parseObject(body));
+            } catch (IOException e) {
+                // 客户端断开
+                log.debug("桩模型连接中断 {}", exchange.getRequestURI(), e);
+            } catch (Exception e) {
+                log.error("桩模型处理失败 {}", exchange.getRequestURI(), e);
+            }
+        };
+    }
+
+    private static void send(HttpExchange exchange, String contentType, String body) throws IOException {
+        send(exchange, 200, contentType, body);
+    }
+
+    private static void send(HttpExchange exchange, int status, String contentType, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    private static void write(OutputStream out, String data) throws IOException {
+        out.write(data.getBytes(StandardCharsets.UTF_8));
+        out.flush();
+    }
+
+    private static void sleep(long millis) throws InterruptedException {
+        if (millis > 0) Thread.sleep(millis);
+    }
+
+    private interface StubHandler {
+        void handle(HttpExchange exchange, JSONObject request) throws Exception;
+    }
+
+}
@@ -0,0 +1,272 @@
+package cn.panchen.pc.dev.tech.trigger.admission;
+
+import cn.panchen.pc.dev.tech.trigger.metrics.RagMetrics;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.Resource;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * 流式对话的准入控制
+ * 每个后端（ollama、openai）和每个模型各有一个并发上限，超出的请求进入该后端的有界 FIFO 队列等待，
+ * 队列满时立即返回 429，等待超过 max-wait 同样返回 429，两者都带 Retry-After。
+ * 排在队首的请求如果因为模型上限暂时不能放行，不阻塞后面其它模型的请求。
+ * 模型服务按它高效的批大小工作，突发流量在这里排队，而不是所有请求一起变慢直到超时。
+ */
+@Slf4j
+@Component
+public class ChatAdmission {
+
+    @Resource
+    private MeterRegistry meterRegistry;
+    @Resource
+    private RagMetrics ragMetrics;
+
+    @Value("${rag.chat.admission.enabled:true}")
+    private boolean enabled;
+    /** 每个后端同时生成的请求数上限，backend=limit，逗号分隔 */
+    @Value("${rag.chat.admission.backend-limits:ollama=4,openai=32}")
+    private String backendLimits;
+    /** 单个模型的上限，model=limit，逗号分隔；未配置的模型只受后端上限约束 */
+    @Value("${rag.chat.admission.model-limits:}")
+    private String modelLimits;
+    /** 每个后端排队的请求数上限 */
+    @Value("${rag.chat.admission.queue-capacity:64}")
+    private int queueCapacity;
+    @Value("${rag.chat.admission.max-wait-ms:30000}")
+    private long maxWaitMillis;
+    @Value("${rag.chat.admission.retry-after-seconds:2}")
+    private long retryAfterSeconds;
+
+    private Map<String, Integer> backendLimitMap;
+    private Map<String, Integer> modelLimitMap;
+    private final Map<String, Backend> backends = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    public void init() {
+        backendLimitMap = parseLimits(backendLimits);
+        modelLimitMap = parseLimits(modelLimits);
+    }
+
+    /**
+     * 为一次生成预约名额：有空闲名额立即占用，否则排队；队列已满时直接抛出 429
+     * 预约后必须通过 Ticket.admit 使用或 Ticket.release 放弃
+     */
+    public Ticket reserve(String backend, String model) {
+        if (!enabled) return new Ticket(null, null);
+        Backend limiter = backends.computeIfAbsent(backend, this::newBackend);
+        Waiter waiter = limiter.reserve(model);
+        if (null == waiter) {
+            rejected(backend, "queue_full");
+            log.warn("对话排队已满，拒绝请求 backend:{} model:{} 排队:{}", backend, model, queueCapacity);
+            throw new ChatRejectedException("模型繁忙，排队已满，请稍后重试", retryAfterSeconds);
+        }
+        return new Ticket(limiter, waiter);
+    }
+
+    private Backend newBackend(String backend) {
+        Backend limiter = new Backend(backend, backendLimitMap.getOrDefault(backend, Integer.MAX_VALUE));
+        Gauge.builder("rag.chat.admission.queue", limiter, Backend::queued)
+                .tag("backend", backend)
+                .register(meterRegistry);
+        Gauge.builder("rag.chat.admission.active", limiter, Backend::active)
+                .tag("backend", backend)
+                .register(meterRegistry);
+        return limiter;
+    }
+
+    private void rejected(String backend, String reason) {
+        Counter.builder("rag.chat.admission.rejected")
+                .tags("backend", backend, "reason", reason)
+                .register(meterRegistry)
+                .increment();
+    }
+
+    private static Map<String, Integer> parseLimits(String limits) {
+        Map<String, Integer> map = new HashMap<>();
+        for (String item : limits.split(",")) {
+            int index = item.lastIndexOf('=');
+            if (index <= 0) continue;
+            map.put(item.substring(0, index).trim(), Integer.parseInt(item.substring(index + 1).trim()));
+        }
+        return map;
+    }
+
+    /**
+     * 一次生成的名额；名额在生成结束、出错或客户端断开时归还
+     */
+    public class Ticket {
+
+        private final Backend backend;
+        private final Waiter waiter;
+
+        private Ticket(Backend backend, Waiter waiter) {
+            this.backend = backend;
+            this.waiter = waiter;
+        }
+
+        /**
+         * 拿到名额后再订阅 stream，stream 结束时归还名额；等待超时以 429 结束
+         */
+        public <T> Flux<T> admit(Flux<T> stream) {
+            if (null == backend) return stream;
+            long remaining = waiter.deadline - System.nanoTime();
+            Mono<Boolean> granted = waiter.sink.asMono()
+                    .timeout(Duration.ofNanos(Math.max(0, remaining)))
+                    .onErrorMap(TimeoutException.class, e -> {
+                        backend.release(waiter, "timeout");
+                        rejected(backend.name, "timeout");
+                        log.warn("对话排队超时 backend:{} model:{}", backend.name, waiter.model);
+                        return new ChatRejectedException("模型繁忙，排队超时，请稍后重试", retryAfterSeconds);
+                    })
+                    .doOnSuccess(ignored -> backend.waited(waiter, "granted"));
+            return Flux.usingWhen(granted,
+                    ignored -> stream,
+                    ignored -> Mono.fromRunnable(this::release),
+                    (ignored, e) -> Mono.fromRunnable(this::release),
+                    ignored -> Mono.fromRunnable(this::release))
+                    // 等待期间出错或被取消时还没有拿到资源，在这里归还排队位置
+                    .doOnError(e -> release())
+                    .doOnCancel(this::release);
+        }
+
+        /**
+         * 归还名额或退出队列，可重复调用
+         */
+        public void release() {
+            if (null == backend) return;
+            backend.release(waiter, "cancelled");
+        }
+    }
+
+    /**
+     * 一个后端的并发名额和排队
+     */
+    private class Backend {
+
+        private final String name;
+        private final int limit;
+        private final Deque<Waiter> queue = new ArrayDeque<>();
+        private final Map<String, Integer> modelActive = new HashMap<>();
+        private int active;
+
+        Backend(String name, int limit) {
+            this.name = name;
+            this.limit = limit;
+        }
+
+        Waiter reserve(String model) {
+            Waiter waiter = new Waiter(model, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(maxWaitMillis));
+            List<Waiter> granted;
+            synchronized (this) {
+                if (queue.size() >= queueCapacity && !canGrant(model)) return null;
+                queue.addLast(waiter);
+                granted = drain();
+            }
+            emit(granted);
+            return waiter;
+        }
+
+        /**
+         * @param outcome 仍在排队时记录的等待结果：cancelled、timeout
+         */
+        void release(Waiter waiter, String outcome) {
+            List<Waiter> granted;
+            synchronized (this) {
+                switch (waiter.state) {
+                    case QUEUED -> {
+                        queue.remove(waiter);
+                        waited(waiter, outcome);
+                    }
+                    case GRANTED -> {
+                        active--;
+                        // 归零的模型移除，不按请求中出现过的模型名无限增长
+                        modelActive.computeIfPresent(waiter.model, (model, count) -> count > 1 ? count - 1 : null);
+                    }
+                    default -> {
+                        return;
+                    }
+                }
+                waiter.state = WaiterState.RELEASED;
+                granted = drain();
+            }
+            emit(granted);
+        }
+
+        /**
+         * 按排队顺序放行能放行的请求；在锁外通知，避免在锁内执行下游订阅
+         */
+        private List<Waiter> drain() {
+            List<Waiter> granted = new ArrayList<>();
+            Iterator<Waiter> iterator = queue.iterator();
+            while (active < limit && iterator.hasNext()) {
+                Waiter waiter = iterator.next();
+                if (!canGrant(waiter.model)) continue;
+                iterator.remove();
+                active++;
+                modelActive.merge(waiter.model, 1, Integer::sum);
+                waiter.state = WaiterState.GRANTED;
+                granted.add(waiter);
+            }
+            return granted;
+        }
+
+        private boolean canGrant(String model) {
+            return active < limit && modelActive.getOrDefault(model, 0) < modelLimitMap.getOrDefault(model, Integer.MAX_VALUE);
+        }
+
+        private void emit(List<Waiter> granted) {
+            for (Waiter waiter : granted) {
+                waiter.sink.tryEmitValue(Boolean.TRUE);
+            }
+        }
+
+        void waited(Waiter waiter, String outcome) {
+            Timer.builder("rag.chat.admission.wait")
+                    .tags("backend", name, "model", ragMetrics.modelTag(waiter.model), "outcome", outcome)
+                    .register(meterRegistry)
+                    .record(System.nanoTime() - waiter.enqueueTime, TimeUnit.NANOSECONDS);
+        }
+
+        synchronized int queued() {
+            return queue.size();
+        }
+
+        synchronized int active() {
+            return active;
+        }
+    }
+
+    private enum WaiterState {
+        QUEUED, GRANTED, RELEASED
+    }
+
+    private static class Waiter {
+
+        private final String model;
+        private final long enqueueTime = System.nanoTime();
+        private final long deadline;
+        private final Sinks.One<Boolean> sink = Sinks.one();
+        private WaiterState state = WaiterState.QUEUED;
+
+        Waiter(String model, long deadline) {
+            this.model = model;
+            this.deadline = deadline;
+        }
+    }
+
+}
@@ -0,0 +1,18 @@
+package cn.panchen.pc.dev.tech.trigger.admission;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.ErrorResponseException;
+
+/**
+ * 对话请求未获准入：排队已满或排队超时，响应 429 并带 Retry-After
+ */
+public class ChatRejectedException extends ErrorResponseException {
+
+    public ChatRejectedException(String detail, long retryAfterSeconds) {
+        super(HttpStatus.TOO_MANY_REQUESTS);
+        setDetail(detail);
+        getHeaders().set(HttpHeaders.RETRY_AFTER, String.valueOf(retryAfterSeconds));
+    }
+
+}
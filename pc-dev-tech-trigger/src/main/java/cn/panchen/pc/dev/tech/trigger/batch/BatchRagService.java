@@ -0,0 +1,101 @@
+package cn.panchen.pc.dev.tech.trigger.batch;
+
+import cn.panchen.pc.dev.tech.api.dto.BatchAnswerDTO;
+import cn.panchen.pc.dev.tech.api.dto.BatchQuestionDTO;
+import cn.panchen.pc.dev.tech.api.dto.BatchRagRequestDTO;
+import cn.panchen.pc.dev.tech.trigger.admission.ChatAdmission;
+import cn.panchen.pc.dev.tech.trigger.retrieval.ContextPacker;
+import cn.panchen.pc.dev.tech.trigger.retrieval.KnowledgeRetriever;
+import cn.panchen.pc.dev.tech.trigger.retrieval.RetrievalExecutor;
+import jakarta.annotation.Resource;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.StringUtils;
+import org.springframework.ai.chat.ChatResponse;
+import org.springframework.ai.document.Document;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Service;
+import org.springframework.web.server.ResponseStatusException;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiFunction;
+import java.util.stream.Collectors;
+
+/**
+ * 批量知识库问答，ollama、openai 两套接口共用
+ * 评测、批量 FAQ 一次提交成百上千个问题：所有问题一次向量化、一次查库检索，
+ * 生成按 parallelism 并发扇出，每个问题仍经过模型准入；哪个问题先答完先返回哪个，单个问题失败不影响其它问题。
+ * 批量问答用于评测模型，不查也不写语义回答缓存。
+ */
+@Slf4j
+@Service
+public class BatchRagService {
+
+    @Resource
+    private KnowledgeRetriever knowledgeRetriever;
+    @Resource
+    private RetrievalExecutor retrievalExecutor;
+    @Resource
+    private ContextPacker contextPacker;
+    @Resource
+    private ChatAdmission chatAdmission;
+
+    @Value("${rag.batch.max-questions:1000}")
+    private int maxQuestions;
+    /** 一个批次同时生成的问题数 */
+    @Value("${rag.batch.parallelism:4}")
+    private int parallelism;
+
+    /**
+     * @param provider ollama、openai，用于模型准入
+     * @param generate 由问题和检索结果组装提示词并流式生成
+     */
+    public Flux<BatchAnswerDTO> answer(String provider, BatchRagRequestDTO request, BiFunction<String, List<Document>, Flux<ChatResponse>> generate) {
+        List<BatchQuestionDTO> questions = request.getQuestions();
+        if (StringUtils.isBlank(request.getModel())) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "model 不能为空");
+        }
+        if (null == questions || questions.isEmpty() || questions.size() > maxQuestions) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "问题数需在 1 到 " + maxQuestions + " 之间");
+        }
+        for (BatchQuestionDTO question : questions) {
+            if (StringUtils.isAnyBlank(question.getRagTag(), question.getQuestion())) {
+                throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "ragTag、question 不能为空");
+            }
+        }
+
+        List<KnowledgeRetriever.Query> queries = questions.stream()
+                .map(question -> new KnowledgeRetriever.Query(question.getRagTag(), question.getQuestion()))
+                .toList();
+        log.info("批量问答 provider:{} model:{} 问题数:{}", provider, request.getModel(), questions.size());
+        return retrievalExecutor.submit(() -> knowledgeRetriever.retrieveBatch(queries, contextPacker.getCandidates()))
+                .flatMapMany(results -> Flux.range(0, questions.size())
+                        .flatMap(i -> answer(provider, request.getModel(), i, questions.get(i), results.get(i), generate), parallelism));
+    }
+
+    private Mono<BatchAnswerDTO> answer(String provider, String model, int index, BatchQuestionDTO question, List<Document> documents,
+                                        BiFunction<String, List<Document>, Flux<ChatResponse>> generate) {
+        long start = System.nanoTime();
+        return Flux.defer(() -> chatAdmission.reserve(provider, model).admit(generate.apply(question.getQuestion(), documents)))
+                .mapNotNull(response -> null == response.getResult() ? null : response.getResult().getOutput().getContent())
+                .collect(Collectors.joining())
+                .map(answer -> answer(index, question, start).answer(answer).code("0000").info("调用成功").build())
+                .onErrorResume(e -> {
+                    log.warn("批量问答失败 index:{} ragTag:{}", index, question.getRagTag(), e);
+                    return Mono.just(answer(index, question, start).code("0001").info(e.getMessage()).build());
+                });
+    }
+
+    private static BatchAnswerDTO.BatchAnswerDTOBuilder answer(int index, BatchQuestionDTO question, long start) {
+        return BatchAnswerDTO.builder()
+                .index(index)
+                .id(question.getId())
+                .ragTag(question.getRagTag())
+                .question(question.getQuestion())
+                .millis(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    }
+
+}
@@ -0,0 +1,220 @@
+package cn.panchen.pc.dev.tech.trigger.embedding;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.hash.Hashing;
+import lombok.extern.slf4j.Slf4j;
+import org.redisson.api.RMapCache;
+import org.redisson.api.RedissonClient;
+import org.redisson.client.codec.ByteArrayCodec;
+import org.redisson.client.codec.StringCodec;
+import org.redisson.codec.CompositeCodec;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.Embedding;
+import org.springframework.ai.embedding.EmbeddingClient;
+import org.springframework.ai.embedding.EmbeddingOptions;
+import org.springframework.ai.embedding.EmbeddingRequest;
+import org.springframework.ai.embedding.EmbeddingResponse;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 按内容寻址的向量缓存
+ * 以 hash(向量模型, 切片内容) 为键，重复上传的文档、多个仓库共有的文件、许可证头等相同切片不再重复请求向量模型。
+ * 两级缓存：本地有界内存缓存 + Redis 共享缓存，多个节点共用向量结果。
+ */
+@Slf4j
+public class CachingEmbeddingClient implements EmbeddingClient {
+
+    private final EmbeddingClient delegate;
+    private final String model;
+    private final Cache<String, float[]> localCache;
+    private final RMapCache<String, byte[]> sharedCache;
+    private final long sharedTtlSeconds;
+
+    private final AtomicLong localHits;
+    private final AtomicLong sharedHits;
+    private final AtomicLong misses;
+
+    public CachingEmbeddingClient(EmbeddingClient delegate, String model, RedissonClient redissonClient,
+                                  long localMaxSize, int sharedMaxSize, long sharedTtlSeconds) {
+        this.delegate = delegate;
+        this.model = model;
+        this.localCache = CacheBuilder.newBuilder().maximumSize(localMaxSize).build();
+        this.sharedCache = redissonClient.getMapCache("embeddingCache", new CompositeCodec(StringCodec.INSTANCE, ByteArrayCodec.INSTANCE));
+        this.sharedCache.setMaxSize(sharedMaxSize);
+        this.sharedTtlSeconds = sharedTtlSeconds;
+        this.localHits = new AtomicLong();
+        this.sharedHits = new AtomicLong();
+        this.misses = new AtomicLong();
+    }
+
+    private CachingEmbeddingClient(CachingEmbeddingClient source, EmbeddingClient delegate) {
+        this.delegate = delegate;
+        this.model = source.model;
+        this.localCache = source.localCache;
+        this.sharedCache = source.sharedCache;
+        this.sharedTtlSeconds = source.sharedTtlSeconds;
+        this.localHits = source.localHits;
+        this.sharedHits = source.sharedHits;
+        this.misses = source.misses;
+    }
+
+    /**
+     * 换一个向量模型客户端（例如入库专用的视图），两级缓存和命中计数与当前实例共用
+     */
+    public CachingEmbeddingClient withDelegate(EmbeddingClient delegate) {
+        return new CachingEmbeddingClient(this, delegate);
+    }
+
+    @Override
+    public List<List<Double>> embed(List<String> texts) {
+        List<String> keys = texts.stream().map(this::key).toList();
+        float[][] vectors = new float[texts.size()][];
+
+        // 1. 本地缓存
+        Set<String> missingKeys = new LinkedHashSet<>();
+        for (int i = 0; i < keys.size(); i++) {
+            vectors[i] = localCache.getIfPresent(keys.get(i));
+            if (null == vectors[i]) {
+                missingKeys.add(keys.get(i));
+            } else {
+                localHits.incrementAndGet();
+            }
+        }
+
+        // 2. Redis 共享缓存，一次往返批量取
+        Map<String, float[]> found = new HashMap<>();
+        if (!missingKeys.isEmpty()) {
+            try {
+                sharedCache.getAll(missingKeys).forEach((key, bytes) -> found.put(key, toFloats(bytes)));
+                localCache.putAll(found);
+            } catch (Exception e) {
+                log.warn("读取向量共享缓存失败，直接请求向量模型", e);
+            }
+        }
+
+        // 3. 未命中的切片去重后批量请求向量模型
+        Map<String, String> toEmbed = new LinkedHashMap<>();
+        for (int i = 0; i < keys.size(); i++) {
+            if (null != vectors[i]) continue;
+            float[] vector = found.get(keys.get(i));
+            if (null != vector) {
+                vectors[i] = vector;
+                sharedHits.incrementAndGet();
+            } else {
+                toEmbed.putIfAbsent(keys.get(i), texts.get(i));
+                misses.incrementAndGet();
+            }
+        }
+        if (!toEmbed.isEmpty()) {
+            List<String> missKeys = new ArrayList<>(toEmbed.keySet());
+            List<List<Double>> embeddings = delegate.embed(new ArrayList<>(toEmbed.values()));
+            Map<String, float[]> embedded = new HashMap<>();
+            Map<String, byte[]> shared = new HashMap<>();
+            for (int i = 0; i < missKeys.size(); i++) {
+                float[] vector = toFloats(embeddings.get(i));
+                embedded.put(missKeys.get(i), vector);
+                shared.put(missKeys.get(i), toBytes(vector));
+            }
+            localCache.putAll(embedded);
+            try {
+                sharedCache.putAll(shared, sharedTtlSeconds, TimeUnit.SECONDS);
+            } catch (Exception e) {
+                log.warn("写入向量共享缓存失败", e);
+            }
+            for (int i = 0; i < keys.size(); i++) {
+                if (null == vectors[i]) vectors[i] = embedded.get(keys.get(i));
+            }
+        }
+
+        List<List<Double>> result = new ArrayList<>(vectors.length);
+        for (float[] vector : vectors) {
+            result.add(toDoubles(vector));
+        }
+        return result;
+    }
+
+    @Override
+    public List<Double> embed(String text) {
+        return embed(List.of(text)).get(0);
+    }
+
+    @Override
+    public List<Double> embed(Document document) {
+        return embed(document.getContent());
+    }
+
+    @Override
+    public EmbeddingResponse call(EmbeddingRequest request) {
+        List<List<Double>> embeddings = embed(request.getInstructions());
+        List<Embedding> results = new ArrayList<>(embeddings.size());
+        for (int i = 0; i < embeddings.size(); i++) {
+            results.add(new Embedding(embeddings.get(i), i));
+        }
+        return new EmbeddingResponse(results);
+    }
+
+    @Override
+    public EmbeddingResponse embedForResponse(List<String> texts) {
+        return call(new EmbeddingRequest(texts, EmbeddingOptions.EMPTY));
+    }
+
+    @Override
+    public int dimensions() {
+        return delegate.dimensions();
+    }
+
+    public EmbeddingClient getDelegate() {
+        return delegate;
+    }
+
+    public long getLocalHits() {
+        return localHits.get();
+    }
+
+    public long getSharedHits() {
+        return sharedHits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    private String key(String text) {
+        return Hashing.sha256().hashString(model + '\u0000' + text, StandardCharsets.UTF_8).toString();
+    }
+
+    private static float[] toFloats(List<Double> embedding) {
+        float[] vector = new float[embedding.size()];
+        for (int i = 0; i < vector.length; i++) {
+            vector[i] = embedding.get(i).floatValue();
+        }
+        return vector;
+    }
+
+    private static List<Double> toDoubles(float[] vector) {
+        List<Double> embedding = new ArrayList<>(vector.length);
+        for (float v : vector) {
+            embedding.add((double) v);
+        }
+        return embedding;
+    }
+
+    private static byte[] toBytes(float[] vector) {
+        ByteBuffer buffer = ByteBuffer.allocate(vector.length * Float.BYTES);
+        buffer.asFloatBuffer().put(vector);
+        return buffer.array();
+    }
+
+    private static float[] toFloats(byte[] bytes) {
+        float[] vector = new float[bytes.length / Float.BYTES];
+        ByteBuffer.wrap(bytes).asFloatBuffer().get(vector);
+        return vector;
+    }
+
+}
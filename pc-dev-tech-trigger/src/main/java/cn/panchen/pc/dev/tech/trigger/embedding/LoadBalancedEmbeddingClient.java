@@ -0,0 +1,248 @@
+package cn.panchen.pc.dev.tech.trigger.embedding;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.EmbeddingClient;
+import org.springframework.ai.embedding.EmbeddingRequest;
+import org.springframework.ai.embedding.EmbeddingResponse;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * 多实例向量模型的负载均衡
+ * 每个请求发往进行中请求最少的实例；连续失败 failureThreshold 次的实例熔断 openMillis，到期后只放一个试探请求，成功即恢复。
+ * 请求失败时换一个实例重试，所有实例都尝试过仍失败才抛出；所有实例都熔断时仍选进行中请求最少的实例，不直接拒绝。
+ * 查询和入库共用同一组实例：入库通过 forIngest 得到的视图发出，每个实例上同时进行的入库请求不超过 ingestMaxInFlight，
+ * 超出时入库线程等待，留出的容量给检索、回答缓存等对延迟敏感的查询请求；查询请求不受限制。
+ */
+@Slf4j
+public class LoadBalancedEmbeddingClient implements EmbeddingClient, MeterBinder {
+
+    public static final String LANE_QUERY = "query";
+    public static final String LANE_INGEST = "ingest";
+
+    private final Pool pool;
+    private final String lane;
+
+    /**
+     * @param endpoints         实例名称（通常为 base-url）和对应的向量模型客户端
+     * @param ingestMaxInFlight 每个实例上同时进行的入库请求上限
+     */
+    public LoadBalancedEmbeddingClient(List<Endpoint> endpoints, int ingestMaxInFlight, int failureThreshold, long openMillis) {
+        if (endpoints.isEmpty()) throw new IllegalArgumentException("向量模型实例不能为空");
+        this.pool = new Pool(List.copyOf(endpoints), ingestMaxInFlight, failureThreshold, openMillis);
+        this.lane = LANE_QUERY;
+    }
+
+    private LoadBalancedEmbeddingClient(Pool pool, String lane) {
+        this.pool = pool;
+        this.lane = lane;
+    }
+
+    /**
+     * 入库流量使用的视图，与查询共用实例、进行中请求数和熔断状态
+     */
+    public LoadBalancedEmbeddingClient forIngest() {
+        return new LoadBalancedEmbeddingClient(pool, LANE_INGEST);
+    }
+
+    @Override
+    public EmbeddingResponse call(EmbeddingRequest request) {
+        return execute(client -> client.call(request));
+    }
+
+    @Override
+    public List<Double> embed(String text) {
+        return execute(client -> client.embed(text));
+    }
+
+    @Override
+    public List<Double> embed(Document document) {
+        return execute(client -> client.embed(document));
+    }
+
+    @Override
+    public List<List<Double>> embed(List<String> texts) {
+        return execute(client -> client.embed(texts));
+    }
+
+    @Override
+    public EmbeddingResponse embedForResponse(List<String> texts) {
+        return execute(client -> client.embedForResponse(texts));
+    }
+
+    @Override
+    public int dimensions() {
+        return execute(EmbeddingClient::dimensions);
+    }
+
+    private <T> T execute(Function<EmbeddingClient, T> request) {
+        boolean ingest = LANE_INGEST.equals(lane);
+        if (ingest) pool.ingestPermits.acquireUninterruptibly();
+        try {
+            List<Endpoint> tried = new ArrayList<>();
+            RuntimeException failure = null;
+            while (tried.size() < pool.endpoints.size()) {
+                Endpoint endpoint = pool.select(tried, ingest);
+                tried.add(endpoint);
+                long start = System.nanoTime();
+                try {
+                    T result = request.apply(endpoint.client);
+                    pool.succeeded(endpoint, System.nanoTime() - start);
+                    return result;
+                } catch (RuntimeException e) {
+                    pool.failed(endpoint, e);
+                    failure = e;
+                } finally {
+                    pool.release(endpoint, ingest);
+                }
+            }
+            throw failure;
+        } finally {
+            if (ingest) pool.ingestPermits.release();
+        }
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        for (Endpoint endpoint : pool.endpoints) {
+            Gauge.builder("rag.embedding.pool.in.flight", endpoint, e -> e.inFlight)
+                    .tag("endpoint", endpoint.name)
+                    .register(registry);
+            Gauge.builder("rag.embedding.pool.healthy", endpoint, e -> pool.healthy(e) ? 1 : 0)
+                    .tag("endpoint", endpoint.name)
+                    .register(registry);
+            FunctionCounter.builder("rag.embedding.pool.requests", endpoint.successes, AtomicLong::get)
+                    .tags("endpoint", endpoint.name, "outcome", "success")
+                    .register(registry);
+            FunctionCounter.builder("rag.embedding.pool.requests", endpoint.failures, AtomicLong::get)
+                    .tags("endpoint", endpoint.name, "outcome", "failure")
+                    .register(registry);
+        }
+    }
+
+    /**
+     * 一个向量模型实例
+     */
+    public static class Endpoint {
+
+        private final String name;
+        private final EmbeddingClient client;
+        /** 以下状态只在 Pool 的锁内修改 */
+        private int inFlight;
+        private int ingestInFlight;
+        private int consecutiveFailures;
+        private long openUntil;
+        private boolean probing;
+        private final AtomicLong successes = new AtomicLong();
+        private final AtomicLong failures = new AtomicLong();
+
+        public Endpoint(String name, EmbeddingClient client) {
+            this.name = name;
+            this.client = client;
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+
+    /**
+     * 查询、入库两个视图共用的实例状态
+     */
+    private static class Pool {
+
+        private final List<Endpoint> endpoints;
+        private final int ingestMaxInFlight;
+        private final int failureThreshold;
+        private final long openMillis;
+        /** 所有实例的入库名额总数，等待名额时不占用选择实例的锁 */
+        private final Semaphore ingestPermits;
+        private int next;
+
+        Pool(List<Endpoint> endpoints, int ingestMaxInFlight, int failureThreshold, long openMillis) {
+            this.endpoints = endpoints;
+            this.ingestMaxInFlight = ingestMaxInFlight;
+            this.failureThreshold = failureThreshold;
+            this.openMillis = openMillis;
+            this.ingestPermits = new Semaphore(ingestMaxInFlight * endpoints.size(), true);
+        }
+
+        /**
+         * 在未尝试过的实例中选择：可用的优先（未熔断，或熔断到期且没有试探请求），其次进行中请求最少；入库请求跳过入库名额已满的实例
+         */
+        synchronized Endpoint select(List<Endpoint> tried, boolean ingest) {
+            Endpoint best = choose(tried, ingest);
+            // 重试时其余实例的入库名额都已占满，不再受限
+            if (null == best) best = choose(tried, false);
+            // 熔断到期后的第一个请求作为试探
+            if (best.openUntil > 0 && best.openUntil <= System.currentTimeMillis() && !best.probing) best.probing = true;
+            best.inFlight++;
+            if (ingest) best.ingestInFlight++;
+            return best;
+        }
+
+        private Endpoint choose(List<Endpoint> tried, boolean limitIngest) {
+            long now = System.currentTimeMillis();
+            Endpoint best = null;
+            boolean bestAvailable = false;
+            // 从轮转的位置开始比较，进行中请求数相同时依次分给各实例
+            int offset = (next++ & Integer.MAX_VALUE) % endpoints.size();
+            for (int i = 0; i < endpoints.size(); i++) {
+                Endpoint endpoint = endpoints.get((offset + i) % endpoints.size());
+                if (tried.contains(endpoint)) continue;
+                if (limitIngest && endpoint.ingestInFlight >= ingestMaxInFlight) continue;
+                boolean available = endpoint.openUntil <= now && !endpoint.probing;
+                if (null == best
+                        || (available && !bestAvailable)
+                        || (available == bestAvailable && endpoint.inFlight < best.inFlight)) {
+                    best = endpoint;
+                    bestAvailable = available;
+                }
+            }
+            return best;
+        }
+
+        synchronized void release(Endpoint endpoint, boolean ingest) {
+            endpoint.inFlight--;
+            if (ingest) endpoint.ingestInFlight--;
+        }
+
+        synchronized void succeeded(Endpoint endpoint, long nanos) {
+            endpoint.successes.incrementAndGet();
+            endpoint.consecutiveFailures = 0;
+            if (endpoint.openUntil > 0) {
+                log.info("向量模型实例恢复 endpoint:{} 耗时:{}ms", endpoint, TimeUnit.NANOSECONDS.toMillis(nanos));
+                endpoint.openUntil = 0;
+            }
+            endpoint.probing = false;
+        }
+
+        synchronized void failed(Endpoint endpoint, RuntimeException e) {
+            endpoint.failures.incrementAndGet();
+            endpoint.consecutiveFailures++;
+            if (endpoint.probing || endpoint.consecutiveFailures >= failureThreshold) {
+                endpoint.openUntil = System.currentTimeMillis() + openMillis;
+                log.warn("向量模型实例熔断 {}ms endpoint:{} 连续失败:{}", openMillis, endpoint, endpoint.consecutiveFailures, e);
+            } else {
+                log.warn("向量模型实例请求失败，换实例重试 endpoint:{}", endpoint, e);
+            }
+            endpoint.probing = false;
+        }
+
+        synchronized boolean healthy(Endpoint endpoint) {
+            return endpoint.openUntil <= System.currentTimeMillis();
+        }
+    }
+
+}
@@ -1,7 +1,16 @@
 package cn.panchen.pc.dev.tech.trigger.http;
 
 import cn.panchen.pc.dev.tech.api.IAiService;
+import cn.panchen.pc.dev.tech.api.dto.BatchAnswerDTO;
+import cn.panchen.pc.dev.tech.api.dto.BatchRagRequestDTO;
 import cn.panchen.pc.dev.tech.api.response.Response;
+import cn.panchen.pc.dev.tech.trigger.admission.ChatAdmission;
+import cn.panchen.pc.dev.tech.trigger.batch.BatchRagService;
+import cn.panchen.pc.dev.tech.trigger.metrics.RagMetrics;
+import cn.panchen.pc.dev.tech.trigger.retrieval.AnswerCache;
+import cn.panchen.pc.dev.tech.trigger.retrieval.ContextPacker;
+import cn.panchen.pc.dev.tech.trigger.retrieval.KnowledgeRetriever;
+import cn.panchen.pc.dev.tech.trigger.retrieval.RetrievalExecutor;
 import jakarta.annotation.Resource;
 import org.springframework.ai.chat.ChatResponse;
 import org.springframework.ai.chat.messages.Message;
@@ -11,21 +20,27 @@ import org.springframework.ai.chat.prompt.SystemPromptTemplate;
 import org.springframework.ai.document.Document;
 import org.springframework.ai.ollama.OllamaChatClient;
 import org.springframework.ai.ollama.api.OllamaOptions;
-import org.springframework.ai.vectorstore.PgVectorStore;
-import org.springframework.ai.vectorstore.SearchRequest;
+import org.springframework.http.MediaType;
 import org.springframework.web.bind.annotation.*;
 import reactor.core.publisher.Flux;
 
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
-import java.util.stream.Collectors;
 
 @RestController()
 @CrossOrigin("*")
 @RequestMapping("/api/v1/ollama/")
 public class OllamaController implements IAiService {
 
+    private static final String SYSTEM_PROMPT = """
+            Use the information from the DOCUMENTS section to provide accurate answers but act as if you knew this information innately.
+            If unsure, simply state that you don't know.
+            Another thing you need to note is that your reply must be in Chinese!
+            DOCUMENTS:
+                {documents}
+            """;
+
     /**
      * Spring AI 提供对话的接口非常简单，call 是直接应答，stream 是流式应答。流式应答通过 Flux 返回。
      *
@@ -55,7 +70,19 @@ public class OllamaController implements IAiService {
     private OllamaChatClient chatClient;
 
     @Resource
-    private PgVectorStore pgVectorStore;
+    private KnowledgeRetriever knowledgeRetriever;
+    @Resource
+    private AnswerCache answerCache;
+    @Resource
+    private RagMetrics ragMetrics;
+    @Resource
+    private ChatAdmission chatAdmission;
+    @Resource
+    private RetrievalExecutor retrievalExecutor;
+    @Resource
+    private ContextPacker contextPacker;
+    @Resource
+    private BatchRagService batchRagService;
 
     /**
      * 非流式 API
@@ -75,8 +102,9 @@ public class OllamaController implements IAiService {
     @RequestMapping(value = "generate_stream", method = RequestMethod.GET)
     @Override
     public Flux<ChatResponse> generateStream(@RequestParam String model, @RequestParam String message) {
-        // 调用底层LLM客户端的流式接口
-        return chatClient.stream(new Prompt(message, OllamaOptions.create().withModel(model)));
+        // 调用底层LLM客户端的流式接口，超出并发上限时排队或 429；拿到名额后才开始计首 token 时间
+        return chatAdmission.reserve("ollama", model).admit(ragMetrics.observeStream("ollama", model,
+                chatClient.stream(new Prompt(message, OllamaOptions.create().withModel(model)))));
         // 响应不是一次性返回的，而是分成多个JSON对象陆续到达
         // [块1], [块2], [块3], ... [块N]
     }
@@ -91,32 +119,54 @@ public class OllamaController implements IAiService {
     @RequestMapping(value = "generate_stream_rag", method = RequestMethod.GET)
     @Override
     public Flux<ChatResponse> generateStreamRag(@RequestParam String model, @RequestParam String ragTag, @RequestParam String message) {
-        String SYSTEM_PROMPT = """
-                Use the information from the DOCUMENTS section to provide accurate answers but act as if you knew this information innately.
-                If unsure, simply state that you don't know.
-                Another thing you need to note is that your reply must be in Chinese!
-                DOCUMENTS:
-                    {documents}
-                """;
+        String cacheModel = "ollama/" + model;
+        // 先预约模型名额，排队已满时直接 429，不做任何检索
+        ChatAdmission.Ticket ticket = chatAdmission.reserve("ollama", model);
+        // 回答缓存查找、知识库检索要调用向量模型、查询 pgvector，放到检索线程池上执行，请求线程组装好 Flux 即返回
+        return retrievalExecutor.submit(() -> {
+                    // 语义相近的问题直接回放缓存的回答，不占用模型名额
+                    AnswerCache.Lookup lookup = answerCache.lookup(cacheModel, ragTag, message);
+                    if (lookup.hit()) {
+                        ticket.release();
+                        return lookup.answer();
+                    }
 
-        // 指定文档搜索
-        SearchRequest request = SearchRequest.query(message)
-                .withTopK(5)
-                .withFilterExpression("knowledge == '" + ragTag + "'");
+                    // 指定文档搜索，重复的问题命中检索缓存；多取一些候选，按模型的 token 预算去重、MMR 挑选后组装上下文
+                    List<Document> documents = knowledgeRetriever.retrieve(ragTag, message, contextPacker.getCandidates());
+                    return ticket.admit(answerCache.record(cacheModel, ragTag, lookup, ragStream(model, message, documents)));
+                })
+                .flatMapMany(stream -> stream)
+                .doFinally(signal -> ticket.release());
+    }
 
-        List<Document> documents = pgVectorStore.similaritySearch(request);
-        String documentCollectors = documents.stream().map(Document::getContent).collect(Collectors.joining());
+    /**
+     * 批量知识库问答，每完成一个问题返回一行 JSON（NDJSON）
+     * curl -N -X POST http://localhost:8090/api/v1/ollama/generate_batch_rag -H 'Content-Type: application/json' \
+     *      -d '{"model":"deepseek-r1:1.5b","questions":[{"id":"q1","ragTag":"xxx","question":"..."}]}'
+     */
+    @RequestMapping(value = "generate_batch_rag", method = RequestMethod.POST, produces = MediaType.APPLICATION_NDJSON_VALUE)
+    @Override
+    public Flux<BatchAnswerDTO> generateBatchRag(@RequestBody BatchRagRequestDTO request) {
+        return batchRagService.answer("ollama", request, (message, documents) -> ragStream(request.getModel(), message, documents));
+    }
+
+    /**
+     * 检索结果按模型的 token 预算组装成提示词，流式生成
+     */
+    private Flux<ChatResponse> ragStream(String model, String message, List<Document> documents) {
+        String documentCollectors = contextPacker.pack(model, documents);
         Message ragMessage = new SystemPromptTemplate(SYSTEM_PROMPT).createMessage(Map.of("documents", documentCollectors));
 
         List<Message> messages = new ArrayList<>();
         messages.add(new UserMessage(message));
         messages.add(ragMessage);
+        ragMetrics.recordPrompt("ollama", model, ragMessage.getContent() + message);
 
-        return chatClient.stream(new Prompt(
+        return ragMetrics.observeStream("ollama", model, chatClient.stream(new Prompt(
                 messages,
                 OllamaOptions.create()
                         .withModel(model)
-        ));
+        )));
     }
 
 }
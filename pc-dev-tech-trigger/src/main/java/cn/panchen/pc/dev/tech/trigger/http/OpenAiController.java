@@ -1,6 +1,15 @@
 package cn.panchen.pc.dev.tech.trigger.http;
 
 import cn.panchen.pc.dev.tech.api.IAiService;
+import cn.panchen.pc.dev.tech.api.dto.BatchAnswerDTO;
+import cn.panchen.pc.dev.tech.api.dto.BatchRagRequestDTO;
+import cn.panchen.pc.dev.tech.trigger.admission.ChatAdmission;
+import cn.panchen.pc.dev.tech.trigger.batch.BatchRagService;
+import cn.panchen.pc.dev.tech.trigger.metrics.RagMetrics;
+import cn.panchen.pc.dev.tech.trigger.retrieval.AnswerCache;
+import cn.panchen.pc.dev.tech.trigger.retrieval.ContextPacker;
+import cn.panchen.pc.dev.tech.trigger.retrieval.KnowledgeRetriever;
+import cn.panchen.pc.dev.tech.trigger.retrieval.RetrievalExecutor;
 import jakarta.annotation.Resource;
 import org.springframework.ai.chat.ChatResponse;
 import org.springframework.ai.chat.messages.Message;
@@ -10,15 +19,13 @@ import org.springframework.ai.chat.prompt.SystemPromptTemplate;
 import org.springframework.ai.document.Document;
 import org.springframework.ai.openai.OpenAiChatClient;
 import org.springframework.ai.openai.OpenAiChatOptions;
-import org.springframework.ai.vectorstore.PgVectorStore;
-import org.springframework.ai.vectorstore.SearchRequest;
+import org.springframework.http.MediaType;
 import org.springframework.web.bind.annotation.*;
 import reactor.core.publisher.Flux;
 
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
-import java.util.stream.Collectors;
 
 /**
  * 实现方式和 ollama 差不多，主要就是接口更改了
@@ -30,10 +37,30 @@ import java.util.stream.Collectors;
 @RequestMapping("/api/v1/openai/")
 public class OpenAiController implements IAiService {
 
+    private static final String SYSTEM_PROMPT = """
+            Use the information from the DOCUMENTS section to provide accurate answers but act as if you knew this information innately.
+            If unsure, simply state that you don't know.
+            Another thing you need to note is that your reply must be in Chinese!
+            DOCUMENTS:
+                {documents}
+            """;
+
     @Resource
     private OpenAiChatClient chatClient;
     @Resource
-    private PgVectorStore pgVectorStore;
+    private KnowledgeRetriever knowledgeRetriever;
+    @Resource
+    private AnswerCache answerCache;
+    @Resource
+    private RagMetrics ragMetrics;
+    @Resource
+    private ChatAdmission chatAdmission;
+    @Resource
+    private RetrievalExecutor retrievalExecutor;
+    @Resource
+    private ContextPacker contextPacker;
+    @Resource
+    private BatchRagService batchRagService;
 
     @RequestMapping(value = "generate", method = RequestMethod.GET)
     @Override
@@ -51,45 +78,66 @@ public class OpenAiController implements IAiService {
      */
     @RequestMapping(value = "generate_stream", method = RequestMethod.GET)
     public Flux<ChatResponse> generateStream(@RequestParam String model, @RequestParam String message) {
-        return chatClient.stream(new Prompt(
+        return chatAdmission.reserve("openai", model).admit(ragMetrics.observeStream("openai", model, chatClient.stream(new Prompt(
                 message,
                 OpenAiChatOptions.builder()
                         .withModel(model)
                         .build()
-        ));
+        ))));
     }
 
     @RequestMapping(value = "generate_stream_rag", method = RequestMethod.GET)
     @Override
     public Flux<ChatResponse> generateStreamRag(@RequestParam String model, @RequestParam String ragTag, @RequestParam String message) {
+        String cacheModel = "openai/" + model;
+        // 先预约模型名额，排队已满时直接 429，不做任何检索
+        ChatAdmission.Ticket ticket = chatAdmission.reserve("openai", model);
+        // 回答缓存查找、知识库检索要调用向量模型、查询 pgvector，放到检索线程池上执行，请求线程组装好 Flux 即返回
+        return retrievalExecutor.submit(() -> {
+                    // 语义相近的问题直接回放缓存的回答，不占用模型名额
+                    AnswerCache.Lookup lookup = answerCache.lookup(cacheModel, ragTag, message);
+                    if (lookup.hit()) {
+                        ticket.release();
+                        return lookup.answer();
+                    }
 
-        String SYSTEM_PROMPT = """
-                Use the information from the DOCUMENTS section to provide accurate answers but act as if you knew this information innately.
-                If unsure, simply state that you don't know.
-                Another thing you need to note is that your reply must be in Chinese!
-                DOCUMENTS:
-                    {documents}
-                """;
+                    // 指定文档搜索，重复的问题命中检索缓存；多取一些候选，按模型的 token 预算去重、MMR 挑选后组装上下文
+                    List<Document> documents = knowledgeRetriever.retrieve(ragTag, message, contextPacker.getCandidates());
+                    return ticket.admit(answerCache.record(cacheModel, ragTag, lookup, ragStream(model, message, documents)));
+                })
+                .flatMapMany(stream -> stream)
+                .doFinally(signal -> ticket.release());
+    }
 
-        // 指定文档搜索
-        SearchRequest request = SearchRequest.query(message)
-                .withTopK(5)
-                .withFilterExpression("knowledge == '" + ragTag + "'");
+    /**
+     * 批量知识库问答，每完成一个问题返回一行 JSON（NDJSON）
+     * curl -N -X POST http://localhost:8090/api/v1/openai/generate_batch_rag -H 'Content-Type: application/json' \
+     *      -d '{"model":"gpt-4o","questions":[{"id":"q1","ragTag":"xxx","question":"..."}]}'
+     */
+    @RequestMapping(value = "generate_batch_rag", method = RequestMethod.POST, produces = MediaType.APPLICATION_NDJSON_VALUE)
+    @Override
+    public Flux<BatchAnswerDTO> generateBatchRag(@RequestBody BatchRagRequestDTO request) {
+        return batchRagService.answer("openai", request, (message, documents) -> ragStream(request.getModel(), message, documents));
+    }
 
-        List<Document> documents = pgVectorStore.similaritySearch(request);
-        String documentCollectors = documents.stream().map(Document::getContent).collect(Collectors.joining());
+    /**
+     * 检索结果按模型的 token 预算组装成提示词，流式生成
+     */
+    private Flux<ChatResponse> ragStream(String model, String message, List<Document> documents) {
+        String documentCollectors = contextPacker.pack(model, documents);
         Message ragMessage = new SystemPromptTemplate(SYSTEM_PROMPT).createMessage(Map.of("documents", documentCollectors));
 
         List<Message> messages = new ArrayList<>();
         messages.add(new UserMessage(message));
         messages.add(ragMessage);
+        ragMetrics.recordPrompt("openai", model, ragMessage.getContent() + message);
 
-        return chatClient.stream(new Prompt(
+        return ragMetrics.observeStream("openai", model, chatClient.stream(new Prompt(
                 messages,
                 OpenAiChatOptions.builder()
                         .withModel(model)
                         .build()
-        ));
+        )));
     }
 
-}
\ No newline at end of file
+}
@@ -1,30 +1,27 @@
 package cn.panchen.pc.dev.tech.trigger.http;
 
 import cn.panchen.pc.dev.tech.api.IRAGService;
+import cn.panchen.pc.dev.tech.api.dto.IngestJobDTO;
+import cn.panchen.pc.dev.tech.api.dto.RagTagDTO;
 import cn.panchen.pc.dev.tech.api.response.Response;
+import cn.panchen.pc.dev.tech.trigger.ingest.GitRepositoryIndexer;
+import cn.panchen.pc.dev.tech.trigger.ingest.IngestJob;
+import cn.panchen.pc.dev.tech.trigger.ingest.IngestJobService;
+import cn.panchen.pc.dev.tech.trigger.ingest.IngestPipeline;
+import cn.panchen.pc.dev.tech.trigger.ingest.RagTagRegistry;
 import jakarta.annotation.Resource;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.io.FileUtils;
-import org.eclipse.jgit.api.Git;
-import org.eclipse.jgit.transport.UsernamePasswordCredentialsProvider;
-import org.redisson.api.RList;
-import org.redisson.api.RedissonClient;
-import org.redisson.client.RedisClient;
-import org.springframework.ai.document.Document;
-import org.springframework.ai.ollama.OllamaChatClient;
-import org.springframework.ai.reader.tika.TikaDocumentReader;
-import org.springframework.ai.transformer.splitter.TokenTextSplitter;
-import org.springframework.ai.vectorstore.PgVectorStore;
-import org.springframework.ai.vectorstore.SimpleVectorStore;
+import org.apache.commons.lang3.StringUtils;
 import org.springframework.core.io.PathResource;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
 
-import java.io.File;
-import java.io.IOException;
 import java.nio.file.*;
-import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.stream.Collectors;
 
 @Slf4j
 @RestController()
@@ -33,15 +30,13 @@ import java.util.List;
 public class RAGController implements IRAGService {
 
     @Resource
-    private OllamaChatClient ollamaChatClient;
+    private IngestPipeline ingestPipeline;
     @Resource
-    private TokenTextSplitter tokenTextSplitter;
+    private IngestJobService ingestJobService;
     @Resource
-    private SimpleVectorStore simpleVectorStore;
+    private GitRepositoryIndexer gitRepositoryIndexer;
     @Resource
-    private PgVectorStore pgVectorStore;
-    @Resource
-    private RedissonClient redissonClient;
+    private RagTagRegistry ragTagRegistry;
 
     /**
      * 本地测试用的 RAG 知识库能力”，正式封装成一套 HTTP 接口服务
@@ -52,13 +47,25 @@ public class RAGController implements IRAGService {
     @Override
     public Response<List<String>> queryRagTagList() {
         /**
-         * 查询目前 redis 中存放了多少 ragTag 标签的知识库
+         * 查询目前登记了多少 ragTag 标签的知识库，读本地副本，不访问 redis
          */
-        RList<String> elements = redissonClient.getList("ragTag");
         return Response.<List<String>>builder()
                 .code("0000")
                 .info("调用成功")
-                .data(elements)
+                .data(ragTagRegistry.list())
+                .build();
+    }
+
+    /**
+     * 各知识库的规模：切片数、字节数、向量模型、最后入库的 commit 和时间
+     */
+    @RequestMapping(value = "query_rag_tag_stats", method = RequestMethod.GET)
+    @Override
+    public Response<List<RagTagDTO>> queryRagTagStats() {
+        return Response.<List<RagTagDTO>>builder()
+                .code("0000")
+                .info("调用成功")
+                .data(ragTagRegistry.listStats())
                 .build();
     }
 
@@ -68,102 +75,105 @@ public class RAGController implements IRAGService {
      *      ragTag： ----------知识库文件----------
      *      Java开发：《SpringBoot AI》、《MVC架构》
      *      旅行：《北京一日游》、《上海周边三日游》
+     *  文件先落到临时目录，入库在后台任务中进行，返回任务ID，进度通过 ingest_job/query 查询
      */
     @RequestMapping(value = "file/upload", method = RequestMethod.POST, headers = "content-type=multipart/form-data")
     @Override
-    public Response<String> uploadFile(@RequestParam String ragTag, @RequestParam("file") List<MultipartFile> files) {
+    public Response<String> uploadFile(@RequestParam String ragTag, @RequestParam("file") List<MultipartFile> files) throws Exception {
         log.info("-----------开始上传知识库 ragtag:{}----------", ragTag);
-        for (MultipartFile file: files) {
-            TikaDocumentReader reader = new TikaDocumentReader(file.getResource());
-            List<Document> documents = reader.get();
-            // 切割文件，知道每一个向量在哪个位置
-            List<Document> documentSplitterList = tokenTextSplitter.apply(documents);
-            // 打标，针对上传的文件，有针对性的检索知识库
-            documents.forEach(doc -> doc.getMetadata().put("knowledge", ragTag));
-            documentSplitterList.forEach(doc -> doc.getMetadata().put("knowledge", ragTag));
-            // 用 pgsql 存储切割之后的向量
-            pgVectorStore.accept(documentSplitterList);
-
-
-            RList<String> elements = redissonClient.getList("ragTag");
-            // 之前就有更新即可
-            if (!elements.contains(ragTag)){
-                elements.add(ragTag);
-            }
+        // multipart 临时文件在请求结束后会被清理，先转存一份给后台任务
+        Path uploadDir = Files.createTempDirectory("rag-upload-");
+        List<PathResource> resources = new ArrayList<>();
+        for (MultipartFile file : files) {
+            Path fileDir = Files.createDirectory(uploadDir.resolve(String.valueOf(resources.size())));
+            Path target = fileDir.resolve(Paths.get(StringUtils.defaultIfBlank(file.getOriginalFilename(), "file")).getFileName());
+            file.transferTo(target);
+            resources.add(new PathResource(target));
+        }
 
+        try {
+            IngestJob job = ingestJobService.submit(ragTag, "upload", ingestJob -> {
+                try {
+                    // 解析、切割、向量化、写库分阶段并行，向量化和写库都按批次进行
+                    ingestPipeline.ingest(ingestJob, resources);
+                } finally {
+                    FileUtils.deleteDirectory(uploadDir.toFile());
+                }
+            });
+            log.info("-----------上传知识库已提交：{} jobId:{}-----------", ragTag, job.getJobId());
+            return Response.<String>builder().code("0000").info("调用成功").data(job.getJobId()).build();
+        } catch (RejectedExecutionException e) {
+            FileUtils.deleteDirectory(uploadDir.toFile());
+            return Response.<String>builder().code("0001").info("入库任务排队已满，请稍后重试").build();
         }
-        log.info("-----------上传知识库完成：{}-----------", ragTag);
-        return Response.<String>builder().code("0000").info("调用成功").build();
     }
 
     /**
      * 分析 Git 代码
      * 1. 克隆仓库 → 2. 遍历文件 → 3. 解析内容 → 4. 向量化存储
      * 填写仓库url，用户名，token后，就将代码拉下来并且上传对应的知识库
+     * 克隆和入库在后台任务中进行，返回任务ID；再次分析同一仓库时按 commit 差异增量入库
      * @param repoUrl：仓库 url
      * @param userName：用户名
      * @param token：token
+     * @param includes：只入库匹配的文件，glob，例如 *.java、src/main/**，可不传
+     * @param excludes：跳过匹配的文件，glob，可不传
      * @return
      * @throws Exception
      */
     @RequestMapping(value = "analyze_git_repository", method = RequestMethod.POST)
     @Override
-    public Response<String> analyzeGitRepository(@RequestParam String repoUrl, @RequestParam String userName, @RequestParam String token) throws Exception {
-        String localPath = "git-cloned-repo";
+    public Response<String> analyzeGitRepository(@RequestParam String repoUrl, @RequestParam String userName, @RequestParam String token,
+                                                 @RequestParam(required = false) List<String> includes,
+                                                 @RequestParam(required = false) List<String> excludes) throws Exception {
         // 分割下工程名称
         // 例如：https://github.com/panchen1017/ai-rag-knowledge
         // 取出：ai-rag-knowledge 作为 RAG 的 tag
         String repoProjectName = extractProjectName(repoUrl);
-        log.info("克隆路径：{}", new File(localPath).getAbsolutePath());
-
-        // 先删除本来文件夹中的代码
-        FileUtils.deleteDirectory(new File(localPath));
-        // 拉代码
-        Git git = Git.cloneRepository()
-                .setURI(repoUrl)
-                .setDirectory(new File(localPath))
-                .setCredentialsProvider(new UsernamePasswordCredentialsProvider(userName, token))
-                .call();
-
-        /**
-         * Git 仓库下文件结构嵌套很深（多模块、多层目录），用 walkFileTree 可以统一处理所有文件，同时对异常/无法访问的文件统一兜底。
-         */
-        // 上传知识库
-        Files.walkFileTree(Paths.get(localPath), new SimpleFileVisitor<>() {
-            @Override
-            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
-                log.info("{} 遍历解析路径，上传知识库:{}", repoProjectName, file.getFileName());
-                try {
-                    TikaDocumentReader reader = new TikaDocumentReader(new PathResource(file));
-                    List<Document> documents = reader.get();
-                    List<Document> documentSplitterList = tokenTextSplitter.apply(documents);
-                    documents.forEach(doc -> doc.getMetadata().put("knowledge", repoProjectName));
-
-                    documentSplitterList.forEach(doc -> doc.getMetadata().put("knowledge", repoProjectName));
-                    pgVectorStore.accept(documentSplitterList);
-                } catch (Exception e) {
-                    log.error("遍历解析路径，上传知识库失败:{}", file.getFileName());
-                }
-                return FileVisitResult.CONTINUE;
-            }
-
-            @Override
-            public FileVisitResult visitFileFailed(Path file, IOException exc) throws IOException {
-                log.info("Failed to access file: {} - {}", file.toString(), exc.getMessage());
-                return FileVisitResult.CONTINUE;
+        // 工程名同时是克隆目录名，不能是 .、.. 或空
+        if (!GitRepositoryIndexer.isValidRepositoryName(repoProjectName)) {
+            return Response.<String>builder().code("0001").info("仓库地址不合法").build();
+        }
+        try {
+            // 克隆或增量拉取，只重新向量化与上次入库 commit 之间有变更的文件；同一个仓库共用一个克隆目录，不允许并发分析
+            IngestJob job = ingestJobService.submitExclusive(repoProjectName, repoUrl,
+                    ingestJob -> gitRepositoryIndexer.index(ingestJob, repoUrl, userName, token, includes, excludes));
+            if (null == job) {
+                return Response.<String>builder().code("0001").info("该仓库已有入库任务在执行").build();
             }
-        });
-//        FileUtils.deleteDirectory(new File(localPath));
+            return Response.<String>builder().code("0000").info("调用成功").data(job.getJobId()).build();
+        } catch (RejectedExecutionException e) {
+            return Response.<String>builder().code("0001").info("入库任务排队已满，请稍后重试").build();
+        }
+    }
 
-        // 添加新的工程名称：ai-rag-knowledge
-        RList<String> elements = redissonClient.getList("ragTag");
-        if (!elements.contains(repoProjectName)) {
-            elements.add(repoProjectName);
+    /**
+     * 查询入库任务进度：已处理文件、已向量化切片、吞吐、错误
+     */
+    @RequestMapping(value = "ingest_job/query", method = RequestMethod.GET)
+    @Override
+    public Response<IngestJobDTO> queryIngestJob(@RequestParam String jobId) {
+        IngestJob job = ingestJobService.queryJob(jobId);
+        if (null == job) {
+            return Response.<IngestJobDTO>builder().code("0001").info("任务不存在").build();
         }
+        return Response.<IngestJobDTO>builder().code("0000").info("调用成功").data(ingestJobService.toDTO(job)).build();
+    }
 
-        git.close();
-        log.info("遍历解析路径，上传完成:{}", repoUrl);
-        return Response.<String>builder().code("0000").info("调用成功").build();
+    @RequestMapping(value = "ingest_job/list", method = RequestMethod.GET)
+    @Override
+    public Response<List<IngestJobDTO>> queryIngestJobList() {
+        List<IngestJobDTO> jobs = ingestJobService.queryJobList().stream().map(ingestJobService::toDTO).collect(Collectors.toList());
+        return Response.<List<IngestJobDTO>>builder().code("0000").info("调用成功").data(jobs).build();
+    }
+
+    /**
+     * 取消入库任务，已写入的切片会被回滚
+     */
+    @RequestMapping(value = "ingest_job/cancel", method = RequestMethod.POST)
+    @Override
+    public Response<Boolean> cancelIngestJob(@RequestParam String jobId) {
+        return Response.<Boolean>builder().code("0000").info("调用成功").data(ingestJobService.cancel(jobId)).build();
     }
 
     private String extractProjectName(String repoUrl) {
@@ -0,0 +1,74 @@
+package cn.panchen.pc.dev.tech.trigger.http;
+
+import cn.panchen.pc.dev.tech.api.IRouterService;
+import cn.panchen.pc.dev.tech.trigger.metrics.RagMetrics;
+import cn.panchen.pc.dev.tech.trigger.retrieval.ContextPacker;
+import cn.panchen.pc.dev.tech.trigger.retrieval.KnowledgeRetriever;
+import cn.panchen.pc.dev.tech.trigger.retrieval.RetrievalExecutor;
+import cn.panchen.pc.dev.tech.trigger.routing.ChatRouter;
+import jakarta.annotation.Resource;
+import org.springframework.ai.chat.ChatResponse;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.UserMessage;
+import org.springframework.ai.chat.prompt.SystemPromptTemplate;
+import org.springframework.web.bind.annotation.*;
+import reactor.core.publisher.Flux;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 路由对话接口，后端和模型由 ChatRouter 选择
+ * 知识库问答只检索一次，上下文按实际选中（含对冲）的模型的 token 预算分别组装；不经过回答缓存，缓存按模型区分
+ */
+@RestController()
+@CrossOrigin("*")
+@RequestMapping("/api/v1/router/")
+public class RouterController implements IRouterService {
+
+    private static final String SYSTEM_PROMPT = """
+            Use the information from the DOCUMENTS section to provide accurate answers but act as if you knew this information innately.
+            If unsure, simply state that you don't know.
+            Another thing you need to note is that your reply must be in Chinese!
+            DOCUMENTS:
+                {documents}
+            """;
+
+    @Resource
+    private ChatRouter chatRouter;
+    @Resource
+    private KnowledgeRetriever knowledgeRetriever;
+    @Resource
+    private RetrievalExecutor retrievalExecutor;
+    @Resource
+    private ContextPacker contextPacker;
+    @Resource
+    private RagMetrics ragMetrics;
+
+    /**
+     * curl http://localhost:8090/api/v1/router/generate_stream?message=1+1
+     */
+    @RequestMapping(value = "generate_stream", method = RequestMethod.GET)
+    @Override
+    public Flux<ChatResponse> generateStream(@RequestParam String message) {
+        return chatRouter.stream(route -> List.of(new UserMessage(message)));
+    }
+
+    @RequestMapping(value = "generate_stream_rag", method = RequestMethod.GET)
+    @Override
+    public Flux<ChatResponse> generateStreamRag(@RequestParam String ragTag, @RequestParam String message) {
+        return retrievalExecutor.submit(() -> knowledgeRetriever.retrieve(ragTag, message, contextPacker.getCandidates()))
+                .flatMapMany(documents -> chatRouter.stream(route -> {
+                    String documentCollectors = contextPacker.pack(route.model(), documents);
+                    Message ragMessage = new SystemPromptTemplate(SYSTEM_PROMPT).createMessage(Map.of("documents", documentCollectors));
+
+                    List<Message> messages = new ArrayList<>();
+                    messages.add(new UserMessage(message));
+                    messages.add(ragMessage);
+                    ragMetrics.recordPrompt(route.backend(), route.model(), ragMessage.getContent() + message);
+                    return messages;
+                }));
+    }
+
+}
@@ -0,0 +1,69 @@
+package cn.panchen.pc.dev.tech.trigger.http;
+
+import cn.panchen.pc.dev.tech.api.IVectorIndexService;
+import cn.panchen.pc.dev.tech.api.dto.VectorIndexDTO;
+import cn.panchen.pc.dev.tech.api.dto.VectorRecallDTO;
+import cn.panchen.pc.dev.tech.api.response.Response;
+import cn.panchen.pc.dev.tech.trigger.store.VectorIndexManager;
+import cn.panchen.pc.dev.tech.trigger.store.VectorRecallEvaluator;
+import jakarta.annotation.Resource;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.web.bind.annotation.*;
+
+/**
+ * 向量索引运维接口：查看索引大小、构建进度，按配置重建索引
+ */
+@Slf4j
+@RestController()
+@CrossOrigin("*")
+@RequestMapping("/api/v1/admin/vector_index/")
+public class VectorIndexController implements IVectorIndexService {
+
+    @Resource
+    private VectorIndexManager vectorIndexManager;
+    @Resource
+    private VectorRecallEvaluator vectorRecallEvaluator;
+
+    /**
+     * http://localhost:8090/api/v1/admin/vector_index/query
+     */
+    @RequestMapping(value = "query", method = RequestMethod.GET)
+    @Override
+    public Response<VectorIndexDTO> queryVectorIndex() {
+        return Response.<VectorIndexDTO>builder().code("0000").info("调用成功").data(vectorIndexManager.status()).build();
+    }
+
+    @RequestMapping(value = "rebuild", method = RequestMethod.POST)
+    @Override
+    public Response<Boolean> rebuildVectorIndex() {
+        boolean submitted = vectorIndexManager.rebuild();
+        log.info("重建向量索引 提交:{}", submitted);
+        if (!submitted) {
+            return Response.<Boolean>builder().code("0001").info("索引正在构建中或未启用").data(false).build();
+        }
+        return Response.<Boolean>builder().code("0000").info("调用成功").data(true).build();
+    }
+
+    @RequestMapping(value = "reindex", method = RequestMethod.POST)
+    @Override
+    public Response<Boolean> reindexVectorIndex() {
+        boolean submitted = vectorIndexManager.reindex();
+        log.info("REINDEX 向量索引 提交:{}", submitted);
+        if (!submitted) {
+            return Response.<Boolean>builder().code("0001").info("索引正在构建中或未启用").data(false).build();
+        }
+        return Response.<Boolean>builder().code("0000").info("调用成功").data(true).build();
+    }
+
+    /**
+     * http://localhost:8090/api/v1/admin/vector_index/recall?ragTag=xxx&samples=20&topK=5
+     */
+    @RequestMapping(value = "recall", method = RequestMethod.GET)
+    @Override
+    public Response<VectorRecallDTO> measureRecall(@RequestParam String ragTag,
+                                                   @RequestParam(defaultValue = "20") int samples,
+                                                   @RequestParam(defaultValue = "5") int topK) {
+        return Response.<VectorRecallDTO>builder().code("0000").info("调用成功").data(vectorRecallEvaluator.evaluate(ragTag, samples, topK)).build();
+    }
+
+}
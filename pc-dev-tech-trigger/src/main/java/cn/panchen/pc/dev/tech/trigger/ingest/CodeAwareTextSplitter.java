@@ -0,0 +1,275 @@
+package cn.panchen.pc.dev.tech.trigger.ingest;
+
+import com.knuddels.jtokkit.Encodings;
+import com.knuddels.jtokkit.api.Encoding;
+import com.knuddels.jtokkit.api.EncodingType;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.transformer.splitter.TextSplitter;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+import java.util.stream.IntStream;
+
+/**
+ * 按语法边界切割文件，替代默认的 TokenTextSplitter
+ * TokenTextSplitter 每切一段都要解码、再把切出的文本重新编码一遍，并且只按固定 token 数加标点切开，代码会被切在方法中间。
+ * 这里按行统计 token 数（短行的结果缓存，代码里大量重复的括号、import 行不再重复分词），按行累加到 chunkSize 时，
+ * 回看本段内最好的切点切开：代码优先切在类、方法等声明之前，markdown 优先切在标题之前且不切开代码块，普通文本切在段落之间。
+ * 切片直接截取原文，不经过解码；超过 parallelThreshold 个字符的文档先在空行处分成几个区域，各区域并行切割。
+ * 文件类型取 metadata 中仓库文件的 path，没有时取上传文件名 source。
+ */
+public class CodeAwareTextSplitter extends TextSplitter {
+
+    private static final Encoding ENCODING = Encodings.newLazyEncodingRegistry().getEncoding(EncodingType.CL100K_BASE);
+
+    /** 不超过该长度的行缓存 token 数 */
+    private static final int CACHED_LINE_CHARS = 80;
+    private static final int MAX_CACHED_LINES = 100_000;
+    /** 切片去掉首尾空白后不超过该长度的丢弃，与 TokenTextSplitter 一致 */
+    private static final int MIN_CHUNK_LENGTH_TO_EMBED = 5;
+
+    /** 切点得分：越高越适合切开 */
+    private static final int BOUNDARY_NONE = 0;
+    private static final int BOUNDARY_WEAK = 1;
+    private static final int BOUNDARY_MEDIUM = 2;
+    private static final int BOUNDARY_STRONG = 3;
+
+    private static final Set<String> CODE_EXTENSIONS = Set.of("java", "kt", "kts", "scala", "groovy", "gradle", "py", "go", "rs",
+            "c", "h", "cc", "cpp", "hpp", "cs", "js", "jsx", "mjs", "ts", "tsx", "vue", "php", "rb", "swift", "dart", "lua", "sh");
+    private static final Set<String> MARKDOWN_EXTENSIONS = Set.of("md", "markdown", "mdx");
+
+    /** 声明的开头：文档注释、注解、修饰符和声明关键字 */
+    private static final Pattern DECLARATION = Pattern.compile("^(/\\*\\*|@\\w|#\\[|(public|protected|private|internal|static|final|abstract|sealed|open|override"
+            + "|export|default|async|class|interface|enum|record|object|trait|struct|impl|fun|fn|func|def|function|module|namespace)\\b)");
+    private static final Pattern HEADING = Pattern.compile("^#{1,6}\\s");
+    private static final String SENTENCE_ENDS = "。！？.!?";
+
+    private enum Syntax {CODE, MARKDOWN, TEXT}
+
+    private final int chunkSize;
+    private final int minChunkTokens;
+    private final int parallelThreshold;
+    private final Map<String, Integer> lineTokens = new ConcurrentHashMap<>();
+
+    /**
+     * @param chunkSize         每个切片的 token 数上限
+     * @param minChunkTokens    切片不少于该 token 数时才会为了更好的边界提前切开
+     * @param parallelThreshold 超过该字符数的文档分区域并行切割；-1 为不启用
+     */
+    public CodeAwareTextSplitter(int chunkSize, int minChunkTokens, int parallelThreshold) {
+        this.chunkSize = chunkSize;
+        this.minChunkTokens = Math.min(minChunkTokens, chunkSize);
+        this.parallelThreshold = parallelThreshold;
+    }
+
+    @Override
+    public List<Document> apply(List<Document> documents) {
+        List<Document> chunks = new ArrayList<>();
+        for (Document document : documents) {
+            Map<String, Object> metadata = new HashMap<>();
+            document.getMetadata().forEach((key, value) -> {
+                if (null != key && null != value) metadata.put(key, value);
+            });
+            for (String text : split(document.getContent(), syntax(metadata))) {
+                Document chunk = new Document(text, new HashMap<>(metadata));
+                chunk.setContentFormatter(document.getContentFormatter());
+                chunks.add(chunk);
+            }
+        }
+        return chunks;
+    }
+
+    @Override
+    protected List<String> splitText(String text) {
+        return split(text, Syntax.TEXT);
+    }
+
+    private List<String> split(String text, Syntax syntax) {
+        if (null == text || text.isBlank()) return List.of();
+        if (parallelThreshold < 0 || text.length() <= parallelThreshold) {
+            return split(text, 0, text.length(), syntax);
+        }
+        List<Integer> bounds = regions(text);
+        return IntStream.range(0, bounds.size() - 1).parallel()
+                .mapToObj(i -> split(text, bounds.get(i), bounds.get(i + 1), syntax))
+                .flatMap(List::stream)
+                .toList();
+    }
+
+    /**
+     * 每隔约 parallelThreshold 个字符找一个空行作为区域边界，找不到空行时退到换行
+     */
+    private List<Integer> regions(String text) {
+        List<Integer> bounds = new ArrayList<>();
+        bounds.add(0);
+        int from = parallelThreshold;
+        while (from < text.length()) {
+            int window = Math.min(text.length(), from + parallelThreshold / 4);
+            int cut = text.indexOf("\n\n", from);
+            if (cut < 0 || cut >= window) cut = text.indexOf('\n', from);
+            if (cut < 0) break;
+            bounds.add(cut + 1);
+            from = cut + 1 + parallelThreshold;
+        }
+        bounds.add(text.length());
+        return bounds;
+    }
+
+    /**
+     * 切割 text 的 [begin, end) 区域，返回按顺序排列的切片
+     */
+    private List<String> split(String text, int begin, int end, Syntax syntax) {
+        // 行起点、每行 token 数、在行首切开的得分
+        List<Integer> starts = new ArrayList<>();
+        for (int i = begin; i < end; ) {
+            starts.add(i);
+            int newline = text.indexOf('\n', i);
+            i = newline < 0 || newline >= end ? end : newline + 1;
+        }
+        int lines = starts.size();
+        starts.add(end);
+        int[] prefixTokens = new int[lines + 1];
+        int[] scores = new int[lines];
+        boolean inFence = false;
+        boolean previousBlank = true;
+        String previous = "";
+        for (int i = 0; i < lines; i++) {
+            String line = text.substring(starts.get(i), lineEnd(text, starts.get(i + 1)));
+            // 换行符本身算一个 token，略多于整段编码的结果，切片不会超过 chunkSize
+            prefixTokens[i + 1] = prefixTokens[i] + tokens(line) + 1;
+            boolean blank = line.isBlank();
+            String stripped = line.stripLeading();
+            int indent = line.length() - stripped.length();
+            switch (syntax) {
+                case CODE -> scores[i] = codeBoundary(stripped, indent, previous, previousBlank);
+                case MARKDOWN -> {
+                    boolean fence = stripped.startsWith("```") || stripped.startsWith("~~~");
+                    if (inFence) {
+                        scores[i] = BOUNDARY_NONE;
+                    } else if (HEADING.matcher(stripped).find()) {
+                        scores[i] = stripped.startsWith("###") ? BOUNDARY_MEDIUM : BOUNDARY_STRONG;
+                    } else {
+                        scores[i] = previousBlank ? BOUNDARY_WEAK : BOUNDARY_NONE;
+                    }
+                    if (fence) inFence = !inFence;
+                }
+                case TEXT -> scores[i] = previousBlank ? BOUNDARY_MEDIUM
+                        : !previous.isEmpty() && SENTENCE_ENDS.indexOf(previous.charAt(previous.length() - 1)) >= 0 ? BOUNDARY_WEAK : BOUNDARY_NONE;
+            }
+            if (!blank) previous = line.strip();
+            previousBlank = blank;
+        }
+
+        List<String> chunks = new ArrayList<>();
+        int start = 0;
+        for (int i = 0; i < lines; i++) {
+            int count = prefixTokens[i + 1] - prefixTokens[i];
+            if (count > chunkSize) {
+                // 单行超长（压缩后的脚本、数据行），先输出前面的内容，再把这一行按字符均分
+                addChunk(chunks, text, starts.get(start), starts.get(i));
+                splitLine(chunks, text, starts.get(i), starts.get(i + 1), count);
+                start = i + 1;
+                continue;
+            }
+            // 放不下第 i 行：在 (start, i] 中找得分最高的切点，同分取最靠后的，切片至少 minChunkTokens
+            while (prefixTokens[i + 1] - prefixTokens[start] > chunkSize) {
+                int cut = i;
+                int best = -1;
+                for (int j = i; j > start; j--) {
+                    if (prefixTokens[j] - prefixTokens[start] < minChunkTokens) break;
+                    if (scores[j] > best) {
+                        best = scores[j];
+                        cut = j;
+                        if (best == BOUNDARY_STRONG) break;
+                    }
+                }
+                addChunk(chunks, text, starts.get(start), starts.get(cut));
+                start = cut;
+            }
+        }
+        addChunk(chunks, text, starts.get(start), starts.get(lines));
+        return chunks;
+    }
+
+    /**
+     * 代码的切点：同一层级的声明之前最好，顶层声明优于成员声明；注解、文档注释之后的声明行属于同一个声明，不切开
+     */
+    private static int codeBoundary(String stripped, int indent, String previous, boolean previousBlank) {
+        boolean header = previous.startsWith("@") || previous.endsWith("*/") || previous.startsWith("#[");
+        if (!header && indent <= 4 && DECLARATION.matcher(stripped).find()) {
+            return indent == 0 ? BOUNDARY_STRONG : BOUNDARY_MEDIUM;
+        }
+        return previousBlank ? BOUNDARY_WEAK : BOUNDARY_NONE;
+    }
+
+    /**
+     * 超长的行按 token 数均分成若干段，切点尽量落在空白处
+     */
+    private void splitLine(List<String> chunks, String text, int begin, int end, int count) {
+        int pieces = (count + chunkSize - 1) / chunkSize;
+        int length = (end - begin + pieces - 1) / pieces;
+        int from = begin;
+        while (from < end) {
+            int to = Math.min(end, from + length);
+            if (to < end) {
+                int space = to;
+                while (space > from + length * 9 / 10 && !Character.isWhitespace(text.charAt(space - 1))) space--;
+                if (space > from + length * 9 / 10) to = space;
+            }
+            addChunk(chunks, text, from, to);
+            from = to;
+        }
+    }
+
+    /**
+     * 截取 [begin, end)，去掉开头的空行和结尾的空白；保留首行缩进
+     */
+    private static void addChunk(List<String> chunks, String text, int begin, int end) {
+        while (begin < end) {
+            int newline = text.indexOf('\n', begin);
+            if (newline < 0 || newline >= end || !isBlank(text, begin, newline)) break;
+            begin = newline + 1;
+        }
+        while (end > begin && Character.isWhitespace(text.charAt(end - 1))) end--;
+        if (end - begin <= MIN_CHUNK_LENGTH_TO_EMBED) return;
+        chunks.add(text.substring(begin, end));
+    }
+
+    private static boolean isBlank(String text, int begin, int end) {
+        for (int i = begin; i < end; i++) {
+            if (!Character.isWhitespace(text.charAt(i))) return false;
+        }
+        return true;
+    }
+
+    private static int lineEnd(String text, int nextStart) {
+        int end = nextStart;
+        if (end > 0 && text.charAt(end - 1) == '\n') end--;
+        if (end > 0 && text.charAt(end - 1) == '\r') end--;
+        return end;
+    }
+
+    private int tokens(String line) {
+        if (line.isEmpty()) return 0;
+        if (line.length() > CACHED_LINE_CHARS) return ENCODING.countTokens(line);
+        Integer cached = lineTokens.get(line);
+        if (null != cached) return cached;
+        int count = ENCODING.countTokens(line);
+        if (lineTokens.size() < MAX_CACHED_LINES) lineTokens.put(line, count);
+        return count;
+    }
+
+    private static Syntax syntax(Map<String, Object> metadata) {
+        Object name = metadata.getOrDefault(GitRepositoryIndexer.METADATA_PATH, metadata.get(StreamingTikaDocumentReader.METADATA_SOURCE));
+        if (null == name) return Syntax.TEXT;
+        String fileName = name.toString();
+        int dot = fileName.lastIndexOf('.');
+        if (dot < 0 || dot < fileName.lastIndexOf('/')) return Syntax.TEXT;
+        String extension = fileName.substring(dot + 1).toLowerCase(Locale.ROOT);
+        if (CODE_EXTENSIONS.contains(extension)) return Syntax.CODE;
+        if (MARKDOWN_EXTENSIONS.contains(extension)) return Syntax.MARKDOWN;
+        return Syntax.TEXT;
+    }
+
+}
@@ -0,0 +1,216 @@
+package cn.panchen.pc.dev.tech.trigger.ingest;
+
+import cn.panchen.pc.dev.tech.trigger.metrics.RagMetrics;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.Resource;
+import org.apache.tika.parser.AutoDetectParser;
+import org.apache.tika.parser.txt.CharsetDetector;
+import org.apache.tika.parser.txt.CharsetMatch;
+import org.springframework.ai.document.Document;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.*;
+import java.util.*;
+import java.util.function.Consumer;
+
+/**
+ * 文件解析：按扩展名选择解析方式
+ * 纯文本和源码（txt、md、java、yml 等，代码仓库中的绝大多数文件）直接读取字节，按 BOM、UTF-8 校验、Tika 编码探测的顺序确定字符集，
+ * 不经过 Tika 的类型探测和解析器初始化；PDF、Office 等其它格式交给共用的 AutoDetectParser，解析器只构造一次。
+ * 超过 streamingThreshold 字节的文件两种方式都边读边按 segmentChars 个字符切段输出，内存中只有当前段。
+ * 每个文件的解析耗时按扩展名、解析方式记录，不含等待下游队列的时间。
+ */
+@Component
+public class DocumentParserRegistry {
+
+    public static final String PARSER_TEXT = "text";
+    public static final String PARSER_TIKA = "tika";
+
+    /** 流式读取时用于探测字符集的字节数 */
+    private static final int SNIFF_BYTES = 65536;
+    private static final byte[] UTF8_BOM = {(byte) 0xEF, (byte) 0xBB, (byte) 0xBF};
+    private static final byte[] UTF16BE_BOM = {(byte) 0xFE, (byte) 0xFF};
+    private static final byte[] UTF16LE_BOM = {(byte) 0xFF, (byte) 0xFE};
+
+    @Resource
+    private RagMetrics ragMetrics;
+
+    /** 直接按文本读取的扩展名，其余交给 Tika */
+    @Value("${rag.ingest.text-extensions:txt,md,markdown,csv,log,json,yml,yaml,toml,ini,conf,properties,xml,sql,java,kt,kts,scala,groovy,gradle,py,go,rs,c,h,cc,cpp,hpp,cs,js,jsx,mjs,ts,tsx,vue,php,rb,swift,dart,lua,sh,bat,css,scss,less,proto}")
+    private String[] textExtensions;
+    @Value("${rag.ingest.document-extensions:pdf,doc,docx,ppt,pptx,xls,xlsx,odt,ods,odp,rtf,epub}")
+    private String[] documentExtensions;
+    /** 超过该大小（字节）的文件边解析边切段入库，不把整个文件的文本读进内存；-1 为不启用 */
+    @Value("${rag.ingest.streaming-threshold:8388608}")
+    private long streamingThreshold;
+    /** 流式解析时每段的字符数 */
+    @Value("${rag.ingest.segment-chars:65536}")
+    private int segmentChars;
+    /** 解析 PDF 时 PDFBox 使用的内存上限，超出部分放临时文件 */
+    @Value("${rag.ingest.pdf-max-main-memory-bytes:67108864}")
+    private long pdfMaxMainMemoryBytes;
+
+    /** Tika 解析器无状态、线程安全，所有解析线程共用 */
+    private final AutoDetectParser tikaParser = new AutoDetectParser();
+    private Set<String> textExtensionSet;
+    /** 指标中按扩展名区分的文件类型，其它扩展名记为 other，避免标签数量失控 */
+    private Set<String> knownExtensions;
+
+    @PostConstruct
+    public void init() {
+        textExtensionSet = lowerCase(Arrays.asList(textExtensions));
+        knownExtensions = new HashSet<>(textExtensionSet);
+        knownExtensions.addAll(lowerCase(Arrays.asList(documentExtensions)));
+    }
+
+    /**
+     * 解析一个文件，按顺序把文本交给 consumer：小文件为一个 Document，大文件为多段；metadata 带文件名 source
+     */
+    public void parse(org.springframework.core.io.Resource resource, Consumer<Document> consumer) throws Exception {
+        String extension = extension(resource.getFilename());
+        String parser = textExtensionSet.contains(extension) ? PARSER_TEXT : PARSER_TIKA;
+        long start = System.nanoTime();
+        long[] waiting = new long[1];
+        Consumer<Document> timedConsumer = document -> {
+            long begin = System.nanoTime();
+            try {
+                consumer.accept(document);
+            } finally {
+                waiting[0] += System.nanoTime() - begin;
+            }
+        };
+        boolean success = false;
+        try {
+            boolean streaming = streamingThreshold >= 0 && resource.contentLength() > streamingThreshold;
+            if (PARSER_TEXT.equals(parser)) {
+                readText(resource, streaming, timedConsumer);
+            } else {
+                new StreamingTikaDocumentReader(tikaParser, resource, streaming ? segmentChars : Integer.MAX_VALUE, pdfMaxMainMemoryBytes)
+                        .read(timedConsumer);
+            }
+            success = true;
+        } finally {
+            String type = knownExtensions.contains(extension) ? extension : "other";
+            ragMetrics.recordParse(type, parser, success, System.nanoTime() - start - waiting[0]);
+        }
+    }
+
+    private void readText(org.springframework.core.io.Resource resource, boolean streaming, Consumer<Document> consumer) throws IOException {
+        if (!streaming) {
+            byte[] bytes = resource.getContentAsByteArray();
+            String text = decode(bytes);
+            if (!text.isBlank()) consumer.accept(document(resource, text, -1));
+            return;
+        }
+
+        try (BufferedInputStream in = new BufferedInputStream(resource.getInputStream(), SNIFF_BYTES)) {
+            in.mark(SNIFF_BYTES);
+            byte[] sample = in.readNBytes(SNIFF_BYTES);
+            in.reset();
+            Charset charset = bomCharset(sample);
+            if (null != charset) {
+                in.skipNBytes(bomLength(charset));
+            } else {
+                charset = isUtf8(sample) ? StandardCharsets.UTF_8 : detect(sample);
+            }
+
+            // 攒够 segmentChars 个字符切一段，段尾落在后半段的最后一个换行处
+            Reader reader = new InputStreamReader(in, charset);
+            StringBuilder buffer = new StringBuilder();
+            char[] chars = new char[8192];
+            int segment = 0;
+            for (int read; (read = reader.read(chars)) >= 0; ) {
+                buffer.append(chars, 0, read);
+                if (buffer.length() < segmentChars) continue;
+                int cut = buffer.lastIndexOf("\n", segmentChars - 1) + 1;
+                if (cut < segmentChars / 2) cut = buffer.length();
+                String text = buffer.substring(0, cut);
+                buffer.delete(0, cut);
+                if (!text.isBlank()) consumer.accept(document(resource, text, segment++));
+            }
+            if (!buffer.toString().isBlank()) consumer.accept(document(resource, buffer.toString(), segment));
+        }
+    }
+
+    /**
+     * 整个文件解码：有 BOM 按 BOM，能按 UTF-8 严格解码即为 UTF-8，否则用 Tika 的编码探测（GBK 等）
+     */
+    private static String decode(byte[] bytes) {
+        Charset charset = bomCharset(bytes);
+        if (null != charset) {
+            int bom = bomLength(charset);
+            return new String(bytes, bom, bytes.length - bom, charset);
+        }
+        try {
+            return StandardCharsets.UTF_8.newDecoder()
+                    .onMalformedInput(CodingErrorAction.REPORT)
+                    .onUnmappableCharacter(CodingErrorAction.REPORT)
+                    .decode(ByteBuffer.wrap(bytes))
+                    .toString();
+        } catch (CharacterCodingException e) {
+            return new String(bytes, detect(bytes));
+        }
+    }
+
+    /**
+     * 文件开头的一段是否为合法 UTF-8；截断处不完整的字符不算错误
+     */
+    private static boolean isUtf8(byte[] sample) {
+        CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPORT)
+                .onUnmappableCharacter(CodingErrorAction.REPORT);
+        return !decoder.decode(ByteBuffer.wrap(sample), CharBuffer.allocate(sample.length), false).isError();
+    }
+
+    private static Charset detect(byte[] bytes) {
+        CharsetMatch match = new CharsetDetector().setText(bytes.length > SNIFF_BYTES ? Arrays.copyOf(bytes, SNIFF_BYTES) : bytes).detect();
+        if (null != match && Charset.isSupported(match.getName())) return Charset.forName(match.getName());
+        return StandardCharsets.UTF_8;
+    }
+
+    private static Charset bomCharset(byte[] bytes) {
+        if (startsWith(bytes, UTF8_BOM)) return StandardCharsets.UTF_8;
+        if (startsWith(bytes, UTF16BE_BOM)) return StandardCharsets.UTF_16BE;
+        if (startsWith(bytes, UTF16LE_BOM)) return StandardCharsets.UTF_16LE;
+        return null;
+    }
+
+    private static int bomLength(Charset charset) {
+        return StandardCharsets.UTF_8.equals(charset) ? UTF8_BOM.length : UTF16BE_BOM.length;
+    }
+
+    private static boolean startsWith(byte[] bytes, byte[] prefix) {
+        if (bytes.length < prefix.length) return false;
+        for (int i = 0; i < prefix.length; i++) {
+            if (bytes[i] != prefix[i]) return false;
+        }
+        return true;
+    }
+
+    /**
+     * metadata 与 Tika 解析的结果一致：文件名 source，流式读取时带段号
+     */
+    private static Document document(org.springframework.core.io.Resource resource, String text, int segment) {
+        Document document = new Document(text);
+        document.getMetadata().put(StreamingTikaDocumentReader.METADATA_SOURCE, resource.getFilename());
+        if (segment >= 0) document.getMetadata().put(StreamingTikaDocumentReader.METADATA_SEGMENT, segment);
+        return document;
+    }
+
+    private static String extension(String fileName) {
+        if (null == fileName) return "";
+        int index = fileName.lastIndexOf('.');
+        return index <= 0 ? "" : fileName.substring(index + 1).toLowerCase(Locale.ROOT);
+    }
+
+    private static Set<String> lowerCase(Collection<String> values) {
+        Set<String> result = new HashSet<>();
+        values.forEach(value -> result.add(value.trim().toLowerCase(Locale.ROOT)));
+        return result;
+    }
+
+}
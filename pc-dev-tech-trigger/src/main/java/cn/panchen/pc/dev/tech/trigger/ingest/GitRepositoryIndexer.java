@@ -0,0 +1,190 @@
+package cn.panchen.pc.dev.tech.trigger.ingest;
+
+import cn.panchen.pc.dev.tech.trigger.store.VectorStoreRepository;
+import jakarta.annotation.Resource;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.io.FileUtils;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.ResetCommand;
+import org.eclipse.jgit.diff.DiffEntry;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.transport.UsernamePasswordCredentialsProvider;
+import org.eclipse.jgit.treewalk.CanonicalTreeParser;
+import org.springframework.core.io.PathResource;
+import org.springframework.stereotype.Component;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+
+/**
+ * Git 仓库入库
+ * 每个仓库保留一份本地克隆，并记录每个 ragTag 最后入库的 commit。再次分析时 fetch 到最新 HEAD，
+ * 用 JGit 对比两个 commit，只重新向量化新增和修改的文件；被删除、被修改文件的旧切片按 path 和写入它的任务删除。
+ * 全量入库时并行遍历仓库，跳过 .git、被 .gitignore 忽略的文件和二进制文件。
+ * 旧切片在任务提交时才删除，任务失败或取消时知识库保持上一次的内容；个别文件入库失败时这些文件保留旧切片，commit 不推进，下次分析时重试。
+ */
+@Slf4j
+@Component
+public class GitRepositoryIndexer {
+
+    /** 切片 metadata：文件在仓库中的相对路径 */
+    public static final String METADATA_PATH = "path";
+    /** 切片 metadata：写入时仓库的 commit */
+    public static final String METADATA_COMMIT = "commit";
+
+    private static final String CLONE_ROOT = "git-cloned-repo";
+
+    @Resource
+    private IngestPipeline ingestPipeline;
+    @Resource
+    private RepositoryWalker repositoryWalker;
+    @Resource
+    private VectorStoreRepository vectorStoreRepository;
+    @Resource
+    private RagTagRegistry ragTagRegistry;
+
+    /**
+     * @param includes 只入库匹配这些 glob 的文件，为空时不限制
+     * @param excludes 跳过匹配这些 glob 的文件
+     */
+    public void index(IngestJob job, String repoUrl, String userName, String token, List<String> includes, List<String> excludes) throws Exception {
+        String ragTag = job.getRagTag();
+        File localPath = cloneDirectory(ragTag);
+        log.info("克隆路径：{}", localPath.getAbsolutePath());
+
+        UsernamePasswordCredentialsProvider credentials = new UsernamePasswordCredentialsProvider(userName, token);
+        try (Git git = openOrClone(repoUrl, localPath, credentials)) {
+            Repository repository = git.getRepository();
+            String headCommit = repository.resolve("HEAD").name();
+
+            String lastCommit = ragTagRegistry.getLastCommit(ragTag);
+            ObjectId lastCommitId = resolveCommit(repository, lastCommit);
+            RepositoryFileFilter filter = repositoryWalker.newFilter(localPath.toPath(), includes, excludes);
+
+            List<PathResource> resources = new ArrayList<>();
+            // 需要清理旧切片的路径，null 表示全量重建，清理整个 ragTag
+            Set<String> stalePaths;
+            if (null == lastCommitId) {
+                log.info("{} 全量入库，commit:{}", ragTag, headCommit);
+                stalePaths = null;
+                for (Path file : repositoryWalker.walk(job, localPath.toPath(), filter)) {
+                    resources.add(new PathResource(file));
+                }
+            } else if (lastCommit.equals(headCommit)) {
+                log.info("{} 没有新的提交，commit:{}", ragTag, headCommit);
+                return;
+            } else {
+                stalePaths = new HashSet<>();
+                for (DiffEntry diff : diff(git, lastCommitId, repository.resolve("HEAD"))) {
+                    if (DiffEntry.ChangeType.DELETE != diff.getChangeType()) {
+                        // 不再需要入库的文件（例如变成了二进制、被 .gitignore 忽略）只清理旧切片
+                        if (filter.accept(diff.getNewPath())) {
+                            resources.add(new PathResource(localPath.toPath().resolve(diff.getNewPath())));
+                        }
+                        stalePaths.add(diff.getNewPath());
+                    }
+                    if (DiffEntry.ChangeType.ADD != diff.getChangeType()) {
+                        stalePaths.add(diff.getOldPath());
+                    }
+                }
+                log.info("{} 增量入库 {}..{} 变更文件:{} 需要向量化:{}", ragTag, lastCommit, headCommit, stalePaths.size(), resources.size());
+            }
+
+            job.getProgress().getFilesSkipped().addAndGet(filter.getSkippedCount());
+            log.info("{} 待入库文件:{} 跳过文件:{} {}", ragTag, resources.size(), filter.getSkippedCount(), filter.getSkipped());
+
+            job.setCommit(headCommit);
+            Path root = localPath.toPath().toAbsolutePath();
+            ingestPipeline.ingest(job, resources, resource -> {
+                String path = root.relativize(Paths.get(resource.getPath()).toAbsolutePath()).toString().replace(File.separatorChar, '/');
+                return Map.of(METADATA_PATH, path, METADATA_COMMIT, headCommit);
+            });
+
+            job.onCommit(committed -> {
+                // 入库失败的文件保留旧版本，删掉本次写入的部分切片；不推进最后入库的 commit，下次分析时这些文件仍在差异中，重新入库
+                Set<String> failedPaths = committed.getFailedFiles();
+                if (!failedPaths.isEmpty()) {
+                    committed.setCommit(null);
+                    int removed = vectorStoreRepository.deleteJobPaths(ragTag, failedPaths, committed.getJobId());
+                    log.warn("{} 入库失败的文件:{} 保留旧切片，删除本次写入的切片:{}，不更新 commit", ragTag, failedPaths, removed);
+                }
+                int deleted = vectorStoreRepository.deleteStale(ragTag, stalePaths, failedPaths, committed.getJobId());
+                log.info("{} 清理旧切片:{} commit:{}", ragTag, deleted, headCommit);
+            });
+        }
+    }
+
+    /**
+     * 仓库名可以作为克隆目录名：非空、不是 . 或 ..、不含路径分隔符
+     */
+    public static boolean isValidRepositoryName(String name) {
+        return null != name && !name.isBlank() && !".".equals(name) && !"..".equals(name)
+                && name.indexOf('/') < 0 && name.indexOf('\\') < 0 && name.indexOf('\0') < 0;
+    }
+
+    /**
+     * ragTag 对应的克隆目录；克隆目录会被 reset、clean 甚至整个删除，解析后的路径必须在 CLONE_ROOT 之下
+     */
+    static File cloneDirectory(String ragTag) {
+        if (!isValidRepositoryName(ragTag)) throw new IllegalArgumentException("仓库名不合法:" + ragTag);
+        Path root = Paths.get(CLONE_ROOT).toAbsolutePath().normalize();
+        Path directory = root.resolve(ragTag).normalize();
+        if (!directory.startsWith(root) || directory.equals(root)) throw new IllegalArgumentException("克隆目录超出 " + CLONE_ROOT + ":" + ragTag);
+        return directory.toFile();
+    }
+
+    /**
+     * 已有克隆则 fetch 并重置到远端最新提交，否则重新克隆
+     */
+    private Git openOrClone(String repoUrl, File localPath, UsernamePasswordCredentialsProvider credentials) throws Exception {
+        if (new File(localPath, ".git").isDirectory()) {
+            try {
+                Git git = Git.open(localPath);
+                git.getRepository().getConfig().setString("remote", "origin", "url", repoUrl);
+                git.fetch().setRemote("origin").setCredentialsProvider(credentials).call();
+                String branch = git.getRepository().getBranch();
+                git.reset().setMode(ResetCommand.ResetType.HARD).setRef("refs/remotes/origin/" + branch).call();
+                git.clean().setCleanDirectories(true).setForce(true).call();
+                return git;
+            } catch (Exception e) {
+                log.warn("更新本地克隆失败，重新克隆:{}", localPath.getAbsolutePath(), e);
+            }
+        }
+        FileUtils.deleteDirectory(localPath);
+        return Git.cloneRepository()
+                .setURI(repoUrl)
+                .setDirectory(localPath)
+                .setCredentialsProvider(credentials)
+                .call();
+    }
+
+    /**
+     * 上次入库的 commit 在本地仓库中不存在（首次入库、强推覆盖等）时返回 null，走全量
+     */
+    private ObjectId resolveCommit(Repository repository, String commit) {
+        if (null == commit) return null;
+        try (RevWalk walk = new RevWalk(repository)) {
+            return walk.parseCommit(ObjectId.fromString(commit)).getId();
+        } catch (Exception e) {
+            log.warn("上次入库的 commit 已不存在，改为全量入库:{}", commit);
+            return null;
+        }
+    }
+
+    private List<DiffEntry> diff(Git git, ObjectId oldCommit, ObjectId newCommit) throws Exception {
+        Repository repository = git.getRepository();
+        try (ObjectReader reader = repository.newObjectReader(); RevWalk walk = new RevWalk(repository)) {
+            CanonicalTreeParser oldTree = new CanonicalTreeParser();
+            oldTree.reset(reader, walk.parseCommit(oldCommit).getTree().getId());
+            CanonicalTreeParser newTree = new CanonicalTreeParser();
+            newTree.reset(reader, walk.parseCommit(newCommit).getTree().getId());
+            return git.diff().setOldTree(oldTree).setNewTree(newTree).call();
+        }
+    }
+
+}
@@ -0,0 +1,114 @@
+package cn.panchen.pc.dev.tech.trigger.ingest;
+
+import lombok.Getter;
+
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Future;
+
+/**
+ * 入库任务，提交后在后台执行，进度可查询，运行中可取消
+ */
+@Getter
+public class IngestJob {
+
+    /** 只保留最近的错误信息 */
+    private static final int MAX_ERRORS = 50;
+
+    private final String jobId;
+    private final String ragTag;
+    private final String source;
+    private final IngestProgress progress = new IngestProgress();
+    private final long submitTime = System.currentTimeMillis();
+
+    private volatile IngestJobStatus status = IngestJobStatus.QUEUED;
+    private volatile long startTime;
+    private volatile long endTime;
+    private volatile boolean cancelled;
+    /** Git 仓库入库时对应的 commit，任务提交时登记为该知识库最后入库的 commit */
+    private volatile String commit;
+
+    private final Deque<String> errors = new ConcurrentLinkedDeque<>();
+    /** 解析、向量化或写入失败的文件：Git 仓库入库时为仓库中的相对路径，否则为文件名 */
+    private final Set<String> failedFiles = ConcurrentHashMap.newKeySet();
+    private final List<IngestTask> commitHooks = new CopyOnWriteArrayList<>();
+    private volatile Future<?> future;
+
+    public IngestJob(String jobId, String ragTag, String source) {
+        this.jobId = jobId;
+        this.ragTag = ragTag;
+        this.source = source;
+    }
+
+    void setFuture(Future<?> future) {
+        this.future = future;
+    }
+
+    public void setCommit(String commit) {
+        this.commit = commit;
+    }
+
+    /**
+     * 注册任务提交时执行的动作，例如清理被替换的旧切片；任务失败或取消时不会执行
+     */
+    public void onCommit(IngestTask hook) {
+        commitHooks.add(hook);
+    }
+
+    public void addFailedFile(String file) {
+        failedFiles.add(file);
+    }
+
+    public void addError(String error) {
+        errors.addLast(error);
+        while (errors.size() > MAX_ERRORS) {
+            errors.pollFirst();
+        }
+    }
+
+    public List<String> getErrors() {
+        return new ArrayList<>(errors);
+    }
+
+    /**
+     * 开始执行，已取消的任务不再执行
+     */
+    synchronized boolean start() {
+        if (cancelled) return false;
+        status = IngestJobStatus.RUNNING;
+        startTime = System.currentTimeMillis();
+        return true;
+    }
+
+    synchronized void finish(IngestJobStatus status) {
+        this.status = status;
+        this.endTime = System.currentTimeMillis();
+    }
+
+    /**
+     * 取消任务；排队中的直接结束，运行中的中断执行线程，由任务线程回滚
+     */
+    public synchronized boolean cancel() {
+        if (status.isFinished()) return false;
+        cancelled = true;
+        if (null != future) future.cancel(true);
+        if (IngestJobStatus.QUEUED == status) finish(IngestJobStatus.CANCELLED);
+        return true;
+    }
+
+    /**
+     * 向量化吞吐，切片/秒
+     */
+    public double getChunksPerSecond() {
+        if (0 == startTime) return 0;
+        long end = 0 == endTime ? System.currentTimeMillis() : endTime;
+        long costMillis = Math.max(1, end - startTime);
+        return progress.getChunksEmbedded().get() * 1000d / costMillis;
+    }
+
+}
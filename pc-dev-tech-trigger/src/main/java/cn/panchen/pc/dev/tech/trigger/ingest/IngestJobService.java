@@ -0,0 +1,224 @@
+package cn.panchen.pc.dev.tech.trigger.ingest;
+
+import cn.panchen.pc.dev.tech.api.dto.IngestJobDTO;
+import cn.panchen.pc.dev.tech.trigger.listener.KnowledgeUpdateListener;
+import cn.panchen.pc.dev.tech.trigger.store.VectorIndexManager;
+import cn.panchen.pc.dev.tech.trigger.store.VectorStoreRepository;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.annotation.Resource;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 入库任务管理
+ * 提交后立即返回任务ID，克隆、解析、向量化都在独立的任务线程池中执行，不再占用 servlet 线程。
+ * 任务成功才登记 ragTag 并更新知识库规模（提交），失败或取消时按任务ID删除已写入的切片（回滚）。
+ */
+@Slf4j
+@Service
+public class IngestJobService {
+
+    /** 切片 metadata 中记录写入它的任务ID，用于回滚 */
+    public static final String METADATA_JOB_ID = "ingest_job";
+
+    @Resource
+    private RagTagRegistry ragTagRegistry;
+    @Resource
+    private VectorStoreRepository vectorStoreRepository;
+    @Resource
+    private KnowledgeUpdateListener knowledgeUpdateListener;
+    @Resource
+    private VectorIndexManager vectorIndexManager;
+
+    @Value("${rag.ingest.job-threads:2}")
+    private int jobThreads;
+    @Value("${rag.ingest.job-queue-capacity:100}")
+    private int jobQueueCapacity;
+    @Value("${rag.ingest.job-retention:100}")
+    private int jobRetention;
+
+    private final Map<String, IngestJob> jobs = new ConcurrentHashMap<>();
+    /** 独占提交的 ragTag 及其未结束的任务，任务结束时移除 */
+    private final Map<String, IngestJob> exclusiveJobs = new ConcurrentHashMap<>();
+    private ExecutorService executor;
+
+    @PostConstruct
+    public void init() {
+        AtomicInteger index = new AtomicInteger();
+        executor = new ThreadPoolExecutor(jobThreads, jobThreads, 0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(jobQueueCapacity), r -> new Thread(r, "rag-ingest-job-" + index.incrementAndGet()));
+    }
+
+    /**
+     * 提交入库任务
+     * @throws RejectedExecutionException 排队任务已满
+     */
+    public IngestJob submit(String ragTag, String source, IngestTask task) {
+        IngestJob job = new IngestJob(UUID.randomUUID().toString().replace("-", ""), ragTag, source);
+        return enqueue(job, () -> execute(job, task), () -> {});
+    }
+
+    /**
+     * 提交入库任务，同一个 ragTag 同时只允许一个独占任务，例如共用一个克隆目录的仓库分析；检查和登记是原子的
+     * @return 该 ragTag 已有未结束的独占任务时返回 null
+     * @throws RejectedExecutionException 排队任务已满
+     */
+    public IngestJob submitExclusive(String ragTag, String source, IngestTask task) {
+        IngestJob job = new IngestJob(UUID.randomUUID().toString().replace("-", ""), ragTag, source);
+        IngestJob active = exclusiveJobs.putIfAbsent(ragTag, job);
+        // 排队中被取消的任务不会执行，结束时没有移除，这里顶替
+        if (null != active && !(active.getStatus().isFinished() && exclusiveJobs.replace(ragTag, active, job))) return null;
+        return enqueue(job, () -> {
+            try {
+                execute(job, task);
+            } finally {
+                exclusiveJobs.remove(ragTag, job);
+            }
+        }, () -> exclusiveJobs.remove(ragTag, job));
+    }
+
+    /**
+     * @param onRejected 排队已满时的清理
+     */
+    private IngestJob enqueue(IngestJob job, Runnable run, Runnable onRejected) {
+        jobs.put(job.getJobId(), job);
+        try {
+            job.setFuture(executor.submit(run));
+        } catch (RejectedExecutionException e) {
+            jobs.remove(job.getJobId());
+            onRejected.run();
+            throw e;
+        }
+        evictFinishedJobs();
+        log.info("提交入库任务 jobId:{} ragTag:{} source:{}", job.getJobId(), job.getRagTag(), job.getSource());
+        return job;
+    }
+
+    public IngestJob queryJob(String jobId) {
+        return jobs.get(jobId);
+    }
+
+    public List<IngestJob> queryJobList() {
+        return jobs.values().stream()
+                .sorted(Comparator.comparingLong(IngestJob::getSubmitTime).reversed())
+                .toList();
+    }
+
+    public boolean cancel(String jobId) {
+        IngestJob job = jobs.get(jobId);
+        if (null == job) return false;
+        boolean cancelled = job.cancel();
+        log.info("取消入库任务 jobId:{} 结果:{}", jobId, cancelled);
+        return cancelled;
+    }
+
+    private void execute(IngestJob job, IngestTask task) {
+        if (!job.start()) return;
+        try {
+            task.run(job);
+            if (job.isCancelled()) throw new CancellationException();
+            commit(job);
+        } catch (CancellationException | InterruptedException e) {
+            // 清掉取消时的中断标记，避免回滚时获取连接失败
+            Thread.interrupted();
+            rollback(job, IngestJobStatus.CANCELLED);
+        } catch (Exception e) {
+            log.error("入库任务失败 jobId:{} ragTag:{}", job.getJobId(), job.getRagTag(), e);
+            job.addError(e.getClass().getSimpleName() + ": " + e.getMessage());
+            rollback(job, IngestJobStatus.FAILED);
+        }
+    }
+
+    /**
+     * 提交钩子（例如删除旧切片）成功后新切片就是知识库的内容，之后的登记、通知失败只记录错误，不能再回滚；
+     * 登记失败时最后入库的 commit 不变，下次分析仓库时重新入库这些文件
+     */
+    private void commit(IngestJob job) throws Exception {
+        for (IngestTask hook : job.getCommitHooks()) {
+            hook.run(job);
+        }
+        try {
+            ragTagRegistry.commit(job.getRagTag(), job.getCommit());
+        } catch (Exception e) {
+            log.error("登记知识库失败 jobId:{} ragTag:{}", job.getJobId(), job.getRagTag(), e);
+            job.addError("登记知识库失败: " + e.getMessage());
+        }
+        job.finish(IngestJobStatus.COMMITTED);
+        try {
+            knowledgeUpdateListener.publish(job.getRagTag());
+        } catch (Exception e) {
+            log.error("发布知识库更新通知失败 ragTag:{}", job.getRagTag(), e);
+        }
+        try {
+            vectorIndexManager.onCommitted(job.getRagTag());
+        } catch (Exception e) {
+            log.error("补建向量索引失败 ragTag:{}", job.getRagTag(), e);
+        }
+        IngestProgress progress = job.getProgress();
+        log.info("入库任务完成 jobId:{} ragTag:{} 文件:{} 失败文件:{} 写入切片:{} 失败切片:{} 吞吐:{}/s", job.getJobId(), job.getRagTag(),
+                progress.getFilesProcessed(), progress.getFilesFailed(), progress.getChunksWritten(), progress.getChunksFailed(),
+                String.format("%.1f", job.getChunksPerSecond()));
+    }
+
+    private void rollback(IngestJob job, IngestJobStatus status) {
+        try {
+            int deleted = vectorStoreRepository.deleteByMetadata(job.getRagTag(), METADATA_JOB_ID, job.getJobId());
+            log.info("入库任务回滚 jobId:{} 状态:{} 删除切片:{}", job.getJobId(), status, deleted);
+            // 任务运行期间写入的切片可能已被检索到并缓存
+            if (deleted > 0) knowledgeUpdateListener.publish(job.getRagTag());
+        } catch (Exception e) {
+            log.error("入库任务回滚失败 jobId:{}", job.getJobId(), e);
+            job.addError("回滚失败: " + e.getMessage());
+        }
+        job.finish(status);
+    }
+
+    /**
+     * 只保留最近 jobRetention 个已结束的任务
+     */
+    private void evictFinishedJobs() {
+        List<IngestJob> finished = jobs.values().stream()
+                .filter(job -> job.getStatus().isFinished())
+                .sorted(Comparator.comparingLong(IngestJob::getSubmitTime))
+                .toList();
+        for (int i = 0; i < finished.size() - jobRetention; i++) {
+            jobs.remove(finished.get(i).getJobId());
+        }
+    }
+
+    public IngestJobDTO toDTO(IngestJob job) {
+        IngestProgress progress = job.getProgress();
+        return IngestJobDTO.builder()
+                .jobId(job.getJobId())
+                .ragTag(job.getRagTag())
+                .source(job.getSource())
+                .status(job.getStatus().name())
+                .filesProcessed(progress.getFilesProcessed().get())
+                .filesFailed(progress.getFilesFailed().get())
+                .filesSkipped(progress.getFilesSkipped().get())
+                .chunksEmbedded(progress.getChunksEmbedded().get())
+                .chunksWritten(progress.getChunksWritten().get())
+                .chunksFailed(progress.getChunksFailed().get())
+                .chunksPerSecond(job.getChunksPerSecond())
+                .errors(job.getErrors())
+                .submitTime(job.getSubmitTime())
+                .startTime(job.getStartTime())
+                .endTime(job.getEndTime())
+                .build();
+    }
+
+    @PreDestroy
+    public void destroy() {
+        executor.shutdownNow();
+    }
+
+}
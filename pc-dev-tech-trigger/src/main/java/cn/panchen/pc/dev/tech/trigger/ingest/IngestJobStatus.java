@@ -0,0 +1,23 @@
+package cn.panchen.pc.dev.tech.trigger.ingest;
+
+/**
+ * 入库任务状态
+ */
+public enum IngestJobStatus {
+
+    /** 排队中 */
+    QUEUED,
+    /** 执行中 */
+    RUNNING,
+    /** 已提交，ragTag 已登记 */
+    COMMITTED,
+    /** 失败，已写入的切片已回滚 */
+    FAILED,
+    /** 已取消，已写入的切片已回滚 */
+    CANCELLED;
+
+    public boolean isFinished() {
+        return this == COMMITTED || this == FAILED || this == CANCELLED;
+    }
+
+}
@@ -0,0 +1,280 @@
+package cn.panchen.pc.dev.tech.trigger.ingest;
+
+import cn.panchen.pc.dev.tech.trigger.metrics.RagMetrics;
+import cn.panchen.pc.dev.tech.trigger.store.VectorStoreRepository;
+import io.micrometer.observation.Observation;
+import jakarta.annotation.PreDestroy;
+import jakarta.annotation.Resource;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.EmbeddingClient;
+import org.springframework.ai.transformer.splitter.TextSplitter;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * 分阶段的入库流水线：解析 → 切割 → 向量化 → 写库
+ * 每个阶段有自己的并发度，阶段之间用有界队列衔接，下游处理不过来时上游自然阻塞（背压）。
+ * 向量化按批次请求模型，写库按批次走 JDBC batch，向量模型不再因为等待单条插入而空转。
+ */
+@Slf4j
+@Component
+public class IngestPipeline {
+
+    private static final long POLL_MILLIS = 100;
+
+    @Resource
+    private DocumentParserRegistry documentParserRegistry;
+    @Resource
+    private TextSplitter textSplitter;
+    /** 入库专用视图，与查询共用向量模型实例时限制入库并发 */
+    @Resource
+    private EmbeddingClient ingestEmbeddingClient;
+    @Resource
+    private VectorStoreRepository vectorStoreRepository;
+    @Resource
+    private RagMetrics ragMetrics;
+
+    @Value("${rag.ingest.parse-threads:4}")
+    private int parseThreads;
+    @Value("${rag.ingest.split-threads:2}")
+    private int splitThreads;
+    @Value("${rag.ingest.embed-threads:4}")
+    private int embedThreads;
+    @Value("${rag.ingest.write-threads:2}")
+    private int writeThreads;
+    @Value("${rag.ingest.queue-capacity:256}")
+    private int queueCapacity;
+    @Value("${rag.ingest.embed-batch-size:32}")
+    private int embedBatchSize;
+    @Value("${rag.ingest.write-batch-size:128}")
+    private int writeBatchSize;
+    /** 解析与切割之间排队的文件/段数 */
+    @Value("${rag.ingest.parsed-queue-capacity:16}")
+    private int parsedQueueCapacity;
+
+    private final ExecutorService workers = Executors.newCachedThreadPool(new ThreadFactory() {
+        private final AtomicInteger index = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "rag-ingest-" + index.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    public void ingest(IngestJob job, List<? extends org.springframework.core.io.Resource> resources) throws InterruptedException {
+        ingest(job, resources, resource -> Collections.emptyMap());
+    }
+
+    /**
+     * 把一批文件入库到任务对应的知识库，所有阶段处理完后返回；任务被取消时尽快停止各阶段
+     * @param fileMetadata 每个文件额外写入切片 metadata 的内容，例如仓库路径、commit
+     */
+    public <R extends org.springframework.core.io.Resource> void ingest(IngestJob job, List<R> resources, Function<R, Map<String, Object>> fileMetadata) throws InterruptedException {
+        Observation observation = ragMetrics.observation(RagMetrics.INGEST, "ragTag", job.getRagTag()).start();
+        try {
+            ingest(job, resources, fileMetadata, observation);
+        } catch (InterruptedException | RuntimeException e) {
+            observation.error(e);
+            throw e;
+        } finally {
+            observation.stop();
+        }
+    }
+
+    private <R extends org.springframework.core.io.Resource> void ingest(IngestJob job, List<R> resources, Function<R, Map<String, Object>> fileMetadata,
+                                                                         Observation observation) throws InterruptedException {
+        IngestProgress progress = job.getProgress();
+
+        BlockingQueue<R> fileQueue = new LinkedBlockingQueue<>(resources);
+        BlockingQueue<Document> parsedQueue = new ArrayBlockingQueue<>(parsedQueueCapacity);
+        BlockingQueue<Document> chunkQueue = new ArrayBlockingQueue<>(queueCapacity);
+        BlockingQueue<Document> embeddedQueue = new ArrayBlockingQueue<>(queueCapacity);
+
+        // 1. 解析文件；大文件边解析边把每段放入下游，每个上传占用的内存与文件大小无关
+        CountDownLatch parsed = startStage(job, observation, "parse", parseThreads, fileQueue, new CountDownLatch(0), 1, batch -> {
+            R resource = batch.get(0);
+            Map<String, Object> metadata = fileMetadata.apply(resource);
+            try {
+                documentParserRegistry.parse(resource, document -> {
+                    document.getMetadata().putAll(metadata);
+                    put(job, parsedQueue, document);
+                });
+                progress.getFilesProcessed().incrementAndGet();
+            } catch (Exception e) {
+                // 流式解析时取消异常会被 Tika 包装
+                if (job.isCancelled()) throw new CancellationException("入库任务已取消");
+                progress.getFilesFailed().incrementAndGet();
+                job.addFailedFile(fileKey(metadata, resource.getFilename()));
+                job.addError("解析文件失败:" + resource.getFilename() + " " + e.getMessage());
+                log.error("解析文件失败:{}", resource.getFilename(), e);
+            }
+        });
+
+        // 2. 切割文件，打标，针对上传的文件，有针对性的检索知识库
+        CountDownLatch split = startStage(job, observation, "split", splitThreads, parsedQueue, parsed, 1, batch -> {
+            List<Document> chunks = textSplitter.apply(batch);
+            progress.getChunksSplit().addAndGet(chunks.size());
+            for (Document chunk : chunks) {
+                chunk.getMetadata().put("knowledge", job.getRagTag());
+                chunk.getMetadata().put(IngestJobService.METADATA_JOB_ID, job.getJobId());
+                put(job, chunkQueue, chunk);
+            }
+        });
+
+        // 3. 批量向量化
+        CountDownLatch embedded = startStage(job, observation, "embed", embedThreads, chunkQueue, split, embedBatchSize, batch -> {
+            List<List<Double>> embeddings;
+            try {
+                embeddings = ingestEmbeddingClient.embed(batch.stream().map(Document::getContent).toList());
+            } catch (Exception e) {
+                progress.getChunksFailed().addAndGet(batch.size());
+                addFailedFiles(job, batch);
+                job.addError("切片向量化失败:" + e.getMessage());
+                log.error("切片向量化失败，批次大小:{}", batch.size(), e);
+                return;
+            }
+            progress.getChunksEmbedded().addAndGet(batch.size());
+            for (int i = 0; i < batch.size(); i++) {
+                Document chunk = batch.get(i);
+                chunk.setEmbedding(embeddings.get(i));
+                put(job, embeddedQueue, chunk);
+            }
+        });
+
+        // 4. 批量写入 pgvector
+        CountDownLatch written = startStage(job, observation, "write", writeThreads, embeddedQueue, embedded, writeBatchSize, batch -> {
+            try {
+                vectorStoreRepository.batchInsert(batch);
+                progress.getChunksWritten().addAndGet(batch.size());
+            } catch (Exception e) {
+                progress.getChunksFailed().addAndGet(batch.size());
+                addFailedFiles(job, batch);
+                job.addError("切片写入向量库失败:" + e.getMessage());
+                log.error("切片写入向量库失败，批次大小:{}", batch.size(), e);
+            }
+        });
+
+        try {
+            written.await();
+        } catch (InterruptedException e) {
+            // 任务被取消，各阶段看到取消标记后自行退出；worker 不在任务线程上，要等它们都退出后才能回滚，
+            // 否则回滚删除之后仍可能有正在进行的 batchInsert 提交，留下不属于任何任务的切片
+            job.cancel();
+            awaitStages(parsed, split, embedded, written);
+            throw e;
+        }
+        if (job.isCancelled()) {
+            awaitStages(parsed, split, embedded, written);
+            throw new CancellationException();
+        }
+    }
+
+    /**
+     * 记录切片所属的文件入库失败
+     */
+    private static void addFailedFiles(IngestJob job, List<Document> chunks) {
+        for (Document chunk : chunks) {
+            Object source = chunk.getMetadata().get(StreamingTikaDocumentReader.METADATA_SOURCE);
+            job.addFailedFile(fileKey(chunk.getMetadata(), null == source ? null : source.toString()));
+        }
+    }
+
+    /**
+     * 文件的标识：Git 仓库文件为相对路径，其它为文件名
+     */
+    private static String fileKey(Map<String, Object> metadata, String fileName) {
+        Object path = metadata.get(GitRepositoryIndexer.METADATA_PATH);
+        return null == path ? String.valueOf(fileName) : path.toString();
+    }
+
+    /**
+     * 不响应中断地等待各阶段的 worker 全部退出；调用方随后抛出取消或中断异常，中断标记不再恢复
+     */
+    private static void awaitStages(CountDownLatch... stages) {
+        for (CountDownLatch stage : stages) {
+            while (true) {
+                try {
+                    stage.await();
+                    break;
+                } catch (InterruptedException ignored) {
+                    // 取消时可能被再次中断，继续等待
+                }
+            }
+        }
+    }
+
+    /**
+     * 启动一个阶段：threads 个 worker 从 input 中按 batchSize 取数据处理，
+     * 上游全部结束且队列取空、或任务被取消后 worker 退出，返回本阶段结束的信号
+     * 每个批次记为任务 span 下的一个 stage span，并按阶段累计处理量
+     */
+    private <T> CountDownLatch startStage(IngestJob job, Observation parent, String stage, int threads, BlockingQueue<T> input, CountDownLatch upstream, int batchSize, Consumer<List<T>> handler) {
+        CountDownLatch done = new CountDownLatch(threads);
+        for (int i = 0; i < threads; i++) {
+            workers.execute(() -> {
+                try {
+                    List<T> batch = new ArrayList<>(batchSize);
+                    while (!job.isCancelled()) {
+                        T first = input.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                        if (null == first) {
+                            if (upstream.getCount() == 0 && input.isEmpty()) break;
+                            continue;
+                        }
+                        batch.add(first);
+                        input.drainTo(batch, batchSize - 1);
+                        try {
+                            List<T> items = batch;
+                            ragMetrics.observation(RagMetrics.INGEST_STAGE, "stage", stage)
+                                    .parentObservation(parent)
+                                    .observe(() -> handler.accept(items));
+                            ragMetrics.recordIngested(stage, items.size());
+                        } catch (CancellationException e) {
+                            throw e;
+                        } catch (Exception e) {
+                            log.error("入库流水线处理失败，批次大小:{}", batch.size(), e);
+                        }
+                        batch = new ArrayList<>(batchSize);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } catch (CancellationException e) {
+                    log.info("入库任务已取消，阶段退出 jobId:{}", job.getJobId());
+                } finally {
+                    done.countDown();
+                }
+            });
+        }
+        return done;
+    }
+
+    /**
+     * 阻塞写入下游队列；下游可能因任务取消已退出，所以等待时要检查取消标记
+     */
+    private static <T> void put(IngestJob job, BlockingQueue<T> queue, T item) {
+        try {
+            while (!queue.offer(item, POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+                if (job.isCancelled()) throw new CancellationException("入库任务已取消");
+            }
+        } catch (InterruptedException e) {
+            throw new CancellationException("入库流水线被中断");
+        }
+    }
+
+    @PreDestroy
+    public void destroy() {
+        workers.shutdownNow();
+    }
+
+}
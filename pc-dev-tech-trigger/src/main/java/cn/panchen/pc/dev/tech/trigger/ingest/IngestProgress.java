@@ -0,0 +1,28 @@
+package cn.panchen.pc.dev.tech.trigger.ingest;
+
+import lombok.Getter;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 一次入库的进度计数，各阶段线程并发累加
+ */
+@Getter
+public class IngestProgress {
+
+    /** 已解析的文件数 */
+    private final AtomicLong filesProcessed = new AtomicLong();
+    /** 被过滤跳过的文件数（版本控制目录除外） */
+    private final AtomicLong filesSkipped = new AtomicLong();
+    /** 解析失败的文件数 */
+    private final AtomicLong filesFailed = new AtomicLong();
+    /** 切割出的切片数 */
+    private final AtomicLong chunksSplit = new AtomicLong();
+    /** 已向量化的切片数 */
+    private final AtomicLong chunksEmbedded = new AtomicLong();
+    /** 已写入向量库的切片数 */
+    private final AtomicLong chunksWritten = new AtomicLong();
+    /** 向量化或写入失败的切片数 */
+    private final AtomicLong chunksFailed = new AtomicLong();
+
+}
@@ -0,0 +1,11 @@
+package cn.panchen.pc.dev.tech.trigger.ingest;
+
+/**
+ * 入库任务的执行体，在任务线程池中运行
+ */
+@FunctionalInterface
+public interface IngestTask {
+
+    void run(IngestJob job) throws Exception;
+
+}
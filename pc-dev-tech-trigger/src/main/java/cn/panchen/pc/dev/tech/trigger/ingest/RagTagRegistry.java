@@ -0,0 +1,184 @@
+package cn.panchen.pc.dev.tech.trigger.ingest;
+
+import cn.panchen.pc.dev.tech.api.dto.RagTagDTO;
+import cn.panchen.pc.dev.tech.trigger.listener.KnowledgeUpdatedEvent;
+import cn.panchen.pc.dev.tech.trigger.store.VectorStoreRepository;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.annotation.Resource;
+import lombok.extern.slf4j.Slf4j;
+import org.redisson.api.RList;
+import org.redisson.api.RLock;
+import org.redisson.api.RMap;
+import org.redisson.api.RedissonClient;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 知识库标签登记
+ * Redis hash ragTagRegistry 为准，field 为 ragTag，值为该知识库的规模和最后入库的 commit；登记时持有该 ragTag 的分布式锁，多个节点同时提交同一个 ragTag 不会互相覆盖。
+ * 每个节点在本地保存整张表的副本，查询标签列表不访问 Redis：入库任务提交后 KnowledgeUpdateListener 经 Redis topic 通知所有节点，
+ * 各节点重新读取该 ragTag；另外每隔 refreshSeconds 全量重新加载一次，防止错过通知。
+ * 首次启动时从旧的 ragTag 列表和 ragTagCommit 表导入，旧数据保留不动。
+ */
+@Slf4j
+@Component
+public class RagTagRegistry {
+
+    private static final String REGISTRY = "ragTagRegistry";
+    private static final String LEGACY_TAGS = "ragTag";
+    private static final String LEGACY_COMMITS = "ragTagCommit";
+    private static final String LOCK_PREFIX = "ragTagRegistry:lock:";
+
+    @Resource
+    private RedissonClient redissonClient;
+    @Resource
+    private VectorStoreRepository vectorStoreRepository;
+
+    @Value("${spring.ai.rag.embed}")
+    private String embeddingModel;
+    @Value("${rag.rag-tag.refresh-seconds:300}")
+    private long refreshSeconds;
+
+    private RMap<String, RagTagDTO> registry;
+    /** 本地副本 */
+    private final Map<String, RagTagDTO> cache = new ConcurrentHashMap<>();
+    /** 按名称排序的标签列表，副本变化时整体替换 */
+    private volatile List<String> tags = List.of();
+    private final ScheduledExecutorService refresher = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "rag-tag-refresher");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    @PostConstruct
+    public void init() {
+        registry = redissonClient.getMap(REGISTRY);
+        if (!registry.isExists()) migrate();
+        reloadAll();
+        refresher.scheduleWithFixedDelay(() -> {
+            try {
+                reloadAll();
+            } catch (Exception e) {
+                log.warn("刷新知识库标签失败", e);
+            }
+        }, refreshSeconds, refreshSeconds, TimeUnit.SECONDS);
+    }
+
+    @PreDestroy
+    public void destroy() {
+        refresher.shutdownNow();
+    }
+
+    /**
+     * 全部标签，读本地副本
+     */
+    public List<String> list() {
+        return tags;
+    }
+
+    /**
+     * 全部标签及其规模，读本地副本
+     */
+    public List<RagTagDTO> listStats() {
+        return tags.stream().map(cache::get).filter(Objects::nonNull).toList();
+    }
+
+    /**
+     * Git 仓库最后入库的 commit，读 Redis，保证拿到其它节点刚提交的结果
+     */
+    public String getLastCommit(String ragTag) {
+        RagTagDTO info = registry.get(ragTag);
+        return null == info ? null : info.getLastCommit();
+    }
+
+    /**
+     * 入库任务提交时调用：登记 ragTag，按库中现有切片重新统计规模；commit 不为空时记录为最后入库的 commit
+     * 读取、修改、写回在该 ragTag 的分布式锁内进行，多个节点同时提交同一个 ragTag（例如 Git 分析和上传）时不会互相覆盖
+     */
+    public void commit(String ragTag, String commit) {
+        RLock lock = redissonClient.getLock(LOCK_PREFIX + ragTag);
+        lock.lock();
+        RagTagDTO info;
+        long[] stats;
+        try {
+            info = registry.get(ragTag);
+            if (null == info) info = RagTagDTO.builder().ragTag(ragTag).build();
+            stats = vectorStoreRepository.tagStats(ragTag);
+            info.setChunkCount(stats[0]);
+            info.setBytes(stats[1]);
+            info.setEmbeddingModel(embeddingModel);
+            info.setUpdateTime(System.currentTimeMillis());
+            if (null != commit) info.setLastCommit(commit);
+            registry.fastPut(ragTag, info);
+        } finally {
+            lock.unlock();
+        }
+        updateCache(ragTag, info);
+        log.info("登记知识库 ragTag:{} 切片:{} 字节:{} commit:{}", ragTag, stats[0], stats[1], info.getLastCommit());
+    }
+
+    @EventListener
+    public void onKnowledgeUpdated(KnowledgeUpdatedEvent event) {
+        String ragTag = event.getRagTag();
+        try {
+            updateCache(ragTag, registry.get(ragTag));
+        } catch (Exception e) {
+            log.warn("刷新知识库标签失败 ragTag:{}", ragTag, e);
+        }
+    }
+
+    private void reloadAll() {
+        Map<String, RagTagDTO> all = registry.readAllMap();
+        synchronized (this) {
+            cache.keySet().retainAll(all.keySet());
+            cache.putAll(all);
+            rebuildTags();
+        }
+    }
+
+    private synchronized void updateCache(String ragTag, RagTagDTO info) {
+        if (null == info) {
+            cache.remove(ragTag);
+        } else {
+            cache.put(ragTag, info);
+        }
+        rebuildTags();
+    }
+
+    private void rebuildTags() {
+        List<String> sorted = new ArrayList<>(cache.keySet());
+        Collections.sort(sorted);
+        tags = List.copyOf(sorted);
+    }
+
+    /**
+     * 从旧的 ragTag 列表、ragTagCommit 表导入；多个节点同时导入时以先写入的为准
+     */
+    private void migrate() {
+        RList<String> legacyTags = redissonClient.getList(LEGACY_TAGS);
+        RMap<String, String> legacyCommits = redissonClient.getMap(LEGACY_COMMITS);
+        Set<String> ragTags = new LinkedHashSet<>(legacyTags.readAll());
+        ragTags.addAll(legacyCommits.keySet());
+        for (String ragTag : ragTags) {
+            RagTagDTO info = RagTagDTO.builder().ragTag(ragTag).lastCommit(legacyCommits.get(ragTag)).build();
+            try {
+                long[] stats = vectorStoreRepository.tagStats(ragTag);
+                info.setChunkCount(stats[0]);
+                info.setBytes(stats[1]);
+            } catch (Exception e) {
+                log.warn("统计知识库规模失败 ragTag:{}", ragTag, e);
+            }
+            registry.fastPutIfAbsent(ragTag, info);
+        }
+        log.info("导入旧的知识库标签:{}", ragTags.size());
+    }
+
+}
@@ -0,0 +1,196 @@
+package cn.panchen.pc.dev.tech.trigger.ingest;
+
+import lombok.extern.slf4j.Slf4j;
+import org.eclipse.jgit.ignore.IgnoreNode;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 仓库文件过滤
+ * 跳过版本控制目录、被 .gitignore 忽略的文件、二进制文件（扩展名 + 前 8000 字节含 NUL，与 git 的判断一致）、超大文件，
+ * 并按请求指定的 include/exclude glob 过滤。每次入库新建一个，记录各原因跳过的文件数。
+ */
+@Slf4j
+public class RepositoryFileFilter {
+
+    private static final int SNIFF_BYTES = 8000;
+    private static final String GITIGNORE = ".gitignore";
+
+    private final Path root;
+    private final Set<String> excludedDirs;
+    private final Set<String> excludedExtensions;
+    private final Set<String> documentExtensions;
+    private final long maxFileSize;
+    private final List<PathMatcher> includes;
+    private final List<PathMatcher> excludes;
+
+    /** 目录相对路径 → 该目录下的 .gitignore，没有时为 empty */
+    private final Map<String, Optional<IgnoreNode>> ignoreNodes = new ConcurrentHashMap<>();
+    /** 跳过原因 → 文件数 */
+    private final Map<String, AtomicLong> skipped = new ConcurrentHashMap<>();
+
+    /**
+     * @param documentExtensions 二进制但可由 Tika 解析的文档格式（pdf、docx 等），不做二进制探测
+     * @param includes 不为空时只保留匹配其中之一的文件
+     * @param excludes 匹配其中之一的文件跳过
+     */
+    public RepositoryFileFilter(Path root, Collection<String> excludedDirs, Collection<String> excludedExtensions,
+                                Collection<String> documentExtensions, long maxFileSize,
+                                Collection<String> includes, Collection<String> excludes) {
+        this.root = root;
+        this.excludedDirs = Set.copyOf(excludedDirs);
+        this.excludedExtensions = lowerCase(excludedExtensions);
+        this.documentExtensions = lowerCase(documentExtensions);
+        this.maxFileSize = maxFileSize;
+        this.includes = matchers(includes);
+        this.excludes = matchers(excludes);
+    }
+
+    /**
+     * 目录是否需要继续遍历
+     * @param path 相对仓库根目录的路径，'/' 分隔
+     */
+    public boolean acceptDirectory(String path) {
+        if (excludedDirs.contains(fileName(path))) return false;
+        return !isIgnored(path, true);
+    }
+
+    /**
+     * 判断任意一个仓库内文件是否需要入库，会检查它的每一级父目录；用于增量入库时的变更文件
+     */
+    public boolean accept(String path) {
+        String parent = parent(path);
+        while (!parent.isEmpty()) {
+            if (excludedDirs.contains(fileName(parent)) || isIgnored(parent, true)) {
+                return skip("ignored-dir");
+            }
+            parent = parent(parent);
+        }
+        Path file = root.resolve(path);
+        try {
+            if (!Files.isRegularFile(file, LinkOption.NOFOLLOW_LINKS)) return skip("not-regular");
+            return acceptFile(path, Files.size(file));
+        } catch (IOException e) {
+            return skip("unreadable");
+        }
+    }
+
+    /**
+     * 判断遍历到的文件是否需要入库，父目录已由 acceptDirectory 检查过
+     */
+    boolean acceptFile(String path, long size) {
+        String name = fileName(path);
+        if (!includes.isEmpty() && includes.stream().noneMatch(matcher -> matches(matcher, path, name))) return skip("not-included");
+        if (excludes.stream().anyMatch(matcher -> matches(matcher, path, name))) return skip("excluded");
+        if (isIgnored(path, false)) return skip("gitignore");
+
+        String extension = extension(name);
+        if (excludedExtensions.contains(extension)) return skip("extension");
+        if (size > maxFileSize) return skip("size");
+        if (0 == size) return skip("empty");
+        if (!documentExtensions.contains(extension) && isBinary(root.resolve(path))) return skip("binary");
+        return true;
+    }
+
+    public long getSkippedCount() {
+        return skipped.values().stream().mapToLong(AtomicLong::get).sum();
+    }
+
+    public Map<String, Long> getSkipped() {
+        Map<String, Long> result = new TreeMap<>();
+        skipped.forEach((reason, count) -> result.put(reason, count.get()));
+        return result;
+    }
+
+    /**
+     * 从最深一级目录的 .gitignore 往上找，第一个给出结论的规则生效
+     */
+    private boolean isIgnored(String path, boolean isDirectory) {
+        String dir = parent(path);
+        while (true) {
+            Optional<IgnoreNode> node = ignoreNode(dir);
+            if (node.isPresent()) {
+                String relative = dir.isEmpty() ? path : path.substring(dir.length() + 1);
+                Boolean ignored = node.get().checkIgnored(relative, isDirectory);
+                if (null != ignored) return ignored;
+            }
+            if (dir.isEmpty()) return false;
+            dir = parent(dir);
+        }
+    }
+
+    private Optional<IgnoreNode> ignoreNode(String dir) {
+        return ignoreNodes.computeIfAbsent(dir, key -> {
+            Path gitignore = root.resolve(key).resolve(GITIGNORE);
+            if (!Files.isRegularFile(gitignore)) return Optional.empty();
+            IgnoreNode node = new IgnoreNode();
+            try (InputStream in = Files.newInputStream(gitignore)) {
+                node.parse(in);
+                return Optional.of(node);
+            } catch (IOException e) {
+                log.warn("读取 .gitignore 失败:{}", gitignore, e);
+                return Optional.empty();
+            }
+        });
+    }
+
+    private static boolean isBinary(Path file) {
+        byte[] buffer = new byte[SNIFF_BYTES];
+        try (InputStream in = Files.newInputStream(file)) {
+            int read = in.readNBytes(buffer, 0, SNIFF_BYTES);
+            for (int i = 0; i < read; i++) {
+                if (0 == buffer[i]) return true;
+            }
+            return false;
+        } catch (IOException e) {
+            return true;
+        }
+    }
+
+    private boolean skip(String reason) {
+        skipped.computeIfAbsent(reason, key -> new AtomicLong()).incrementAndGet();
+        return false;
+    }
+
+    /**
+     * 不含 '/' 的 glob 只匹配文件名，例如 *.java；含 '/' 的匹配相对路径，例如 src/main/**
+     */
+    private static boolean matches(PathMatcher matcher, String path, String name) {
+        return matcher.matches(Paths.get(path)) || matcher.matches(Paths.get(name));
+    }
+
+    private static List<PathMatcher> matchers(Collection<String> globs) {
+        if (null == globs) return List.of();
+        return globs.stream()
+                .map(String::trim)
+                .filter(glob -> !glob.isEmpty())
+                .map(glob -> FileSystems.getDefault().getPathMatcher("glob:" + glob))
+                .toList();
+    }
+
+    private static Set<String> lowerCase(Collection<String> values) {
+        Set<String> result = new HashSet<>();
+        values.forEach(value -> result.add(value.trim().toLowerCase(Locale.ROOT)));
+        return result;
+    }
+
+    private static String parent(String path) {
+        int index = path.lastIndexOf('/');
+        return index < 0 ? "" : path.substring(0, index);
+    }
+
+    private static String fileName(String path) {
+        return path.substring(path.lastIndexOf('/') + 1);
+    }
+
+    private static String extension(String name) {
+        int index = name.lastIndexOf('.');
+        return index <= 0 ? "" : name.substring(index + 1).toLowerCase(Locale.ROOT);
+    }
+
+}
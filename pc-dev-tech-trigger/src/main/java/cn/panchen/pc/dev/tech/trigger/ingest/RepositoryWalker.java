@@ -0,0 +1,115 @@
+package cn.panchen.pc.dev.tech.trigger.ingest;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * 并行遍历仓库目录
+ * 每个目录是一个 fork/join 任务，子目录继续拆分，文件的扩展名、大小、二进制探测在有界线程池中并行完成；
+ * 版本控制目录、被 .gitignore 忽略的目录直接剪枝，不再进入。
+ */
+@Slf4j
+@Component
+public class RepositoryWalker {
+
+    @Value("${rag.ingest.walk-threads:4}")
+    private int walkThreads;
+    @Value("${rag.ingest.max-file-size:1048576}")
+    private long maxFileSize;
+    @Value("${rag.ingest.excluded-dirs:.git,.svn,.hg,.bzr,CVS,node_modules}")
+    private String[] excludedDirs;
+    @Value("${rag.ingest.excluded-extensions:png,jpg,jpeg,gif,bmp,ico,webp,tif,tiff,psd,mp3,mp4,wav,avi,mov,flv,zip,gz,tgz,bz2,xz,7z,rar,tar,jar,war,ear,class,so,dll,dylib,exe,bin,o,a,pyc,woff,woff2,ttf,otf,eot,iso,dmg,db,sqlite}")
+    private String[] excludedExtensions;
+    @Value("${rag.ingest.document-extensions:pdf,doc,docx,ppt,pptx,xls,xlsx,odt,ods,odp,rtf,epub}")
+    private String[] documentExtensions;
+
+    private ForkJoinPool pool;
+
+    @PostConstruct
+    public void init() {
+        pool = new ForkJoinPool(walkThreads);
+    }
+
+    /**
+     * 按配置和请求中的 glob 创建本次入库的文件过滤器
+     */
+    public RepositoryFileFilter newFilter(Path root, Collection<String> includes, Collection<String> excludes) {
+        return new RepositoryFileFilter(root, Arrays.asList(excludedDirs), Arrays.asList(excludedExtensions),
+                Arrays.asList(documentExtensions), maxFileSize, includes, excludes);
+    }
+
+    /**
+     * 遍历仓库，返回需要入库的文件，按路径排序
+     */
+    public List<Path> walk(IngestJob job, Path root, RepositoryFileFilter filter) throws InterruptedException {
+        Queue<Path> files = new ConcurrentLinkedQueue<>();
+        ForkJoinTask<Void> task = pool.submit(new DirectoryTask(job, root, root, filter, files));
+        try {
+            task.get();
+        } catch (InterruptedException e) {
+            task.cancel(true);
+            throw e;
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof CancellationException cancellation) throw cancellation;
+            throw new IllegalStateException("遍历仓库失败:" + root, e.getCause());
+        }
+        List<Path> result = new ArrayList<>(files);
+        Collections.sort(result);
+        return result;
+    }
+
+    @PreDestroy
+    public void destroy() {
+        pool.shutdownNow();
+    }
+
+    private static class DirectoryTask extends RecursiveAction {
+
+        private final IngestJob job;
+        private final Path root;
+        private final Path dir;
+        private final RepositoryFileFilter filter;
+        private final Queue<Path> files;
+
+        DirectoryTask(IngestJob job, Path root, Path dir, RepositoryFileFilter filter, Queue<Path> files) {
+            this.job = job;
+            this.root = root;
+            this.dir = dir;
+            this.filter = filter;
+            this.files = files;
+        }
+
+        @Override
+        protected void compute() {
+            if (job.isCancelled()) throw new CancellationException("入库任务已取消");
+            List<DirectoryTask> subtasks = new ArrayList<>();
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+                for (Path path : stream) {
+                    String relative = root.relativize(path).toString().replace(File.separatorChar, '/');
+                    BasicFileAttributes attrs = Files.readAttributes(path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+                    if (attrs.isDirectory()) {
+                        if (filter.acceptDirectory(relative)) {
+                            subtasks.add(new DirectoryTask(job, root, path, filter, files));
+                        }
+                    } else if (attrs.isRegularFile() && filter.acceptFile(relative, attrs.size())) {
+                        files.add(path);
+                    }
+                }
+            } catch (IOException e) {
+                log.info("Failed to access directory: {} - {}", dir, e.getMessage());
+            }
+            invokeAll(subtasks);
+        }
+    }
+
+}
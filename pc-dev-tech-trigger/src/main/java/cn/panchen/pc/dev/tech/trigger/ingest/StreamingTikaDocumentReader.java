@@ -0,0 +1,121 @@
+package cn.panchen.pc.dev.tech.trigger.ingest;
+
+import org.apache.tika.exception.TikaException;
+import org.apache.tika.io.TikaInputStream;
+import org.apache.tika.metadata.Metadata;
+import org.apache.tika.metadata.TikaCoreProperties;
+import org.apache.tika.parser.ParseContext;
+import org.apache.tika.parser.Parser;
+import org.apache.tika.parser.pdf.PDFParserConfig;
+import org.springframework.ai.document.Document;
+import org.springframework.core.io.Resource;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+import java.io.IOException;
+import java.util.Set;
+import java.util.function.Consumer;
+
+/**
+ * 流式读取文件文本，用于大文件入库
+ * TikaDocumentReader 把整个文件的文本拼成一个字符串再返回；这里由 Tika 边解析边回调，文本攒够 segmentChars 个字符就切出一段交给 consumer，
+ * consumer 阻塞时解析随之暂停，内存中只有当前段，与文件大小无关。
+ * 段尾尽量落在段落或句子结束处，避免把一句话切到两段；压缩包、邮件等容器内的文件递归解析，文本依次输出。
+ * PDF 解析时 PDFBox 超过 maxMainMemoryBytes 的部分放到临时文件。
+ * parser 通常为共用的 AutoDetectParser，Tika 解析器无状态，可在多个线程上同时使用。
+ */
+public class StreamingTikaDocumentReader {
+
+    public static final String METADATA_SOURCE = "source";
+    public static final String METADATA_SEGMENT = "segment";
+
+    /** 结束时换行的块级元素，段落边界 */
+    private static final Set<String> BLOCK_ELEMENTS = Set.of("p", "div", "br", "li", "tr", "pre", "blockquote",
+            "h1", "h2", "h3", "h4", "h5", "h6", "title");
+    private static final String SENTENCE_ENDS = "。！？.!?";
+
+    private final Parser parser;
+    private final Resource resource;
+    private final int segmentChars;
+    private final long maxMainMemoryBytes;
+
+    public StreamingTikaDocumentReader(Parser parser, Resource resource, int segmentChars, long maxMainMemoryBytes) {
+        this.parser = parser;
+        this.resource = resource;
+        this.segmentChars = segmentChars;
+        this.maxMainMemoryBytes = maxMainMemoryBytes;
+    }
+
+    /**
+     * 解析整个文件，按顺序把每一段文本作为一个 Document 交给 consumer，metadata 与 TikaDocumentReader 一致并带段号
+     */
+    public void read(Consumer<Document> consumer) throws IOException, TikaException, SAXException {
+        Metadata metadata = new Metadata();
+        metadata.set(TikaCoreProperties.RESOURCE_NAME_KEY, resource.getFilename());
+        ParseContext context = new ParseContext();
+        // 容器内的文件用同一个解析器递归解析
+        context.set(Parser.class, parser);
+        PDFParserConfig pdfParserConfig = new PDFParserConfig();
+        pdfParserConfig.setMaxMainMemoryBytes(maxMainMemoryBytes);
+        context.set(PDFParserConfig.class, pdfParserConfig);
+
+        SegmentHandler handler = new SegmentHandler(consumer);
+        try (TikaInputStream stream = resource.isFile()
+                ? TikaInputStream.get(resource.getFile().toPath(), metadata)
+                : TikaInputStream.get(resource.getInputStream())) {
+            parser.parse(stream, handler, metadata, context);
+        }
+        handler.flush(true);
+    }
+
+    private class SegmentHandler extends DefaultHandler {
+
+        private final Consumer<Document> consumer;
+        private final StringBuilder buffer = new StringBuilder();
+        private int segment;
+
+        SegmentHandler(Consumer<Document> consumer) {
+            this.consumer = consumer;
+        }
+
+        @Override
+        public void characters(char[] ch, int start, int length) {
+            buffer.append(ch, start, length);
+            if (buffer.length() >= segmentChars) flush(false);
+        }
+
+        @Override
+        public void ignorableWhitespace(char[] ch, int start, int length) {
+            characters(ch, start, length);
+        }
+
+        @Override
+        public void endElement(String uri, String localName, String qName) {
+            if (BLOCK_ELEMENTS.contains(localName)) buffer.append('\n');
+        }
+
+        /**
+         * 输出一段；不是最后一段时在后半段中找最后一个换行或句末切开，余下的留给下一段
+         */
+        void flush(boolean last) {
+            int cut = buffer.length();
+            if (!last) {
+                int from = segmentChars / 2;
+                cut = buffer.lastIndexOf("\n") + 1;
+                for (int i = buffer.length() - 1; cut < from && i >= from; i--) {
+                    if (SENTENCE_ENDS.indexOf(buffer.charAt(i)) >= 0) cut = i + 1;
+                }
+                if (cut < from) cut = buffer.length();
+            }
+            String text = buffer.substring(0, cut);
+            buffer.delete(0, cut);
+            if (text.isBlank()) return;
+
+            Document document = new Document(text);
+            document.getMetadata().put(METADATA_SOURCE, resource.getFilename());
+            document.getMetadata().put(METADATA_SEGMENT, segment++);
+            consumer.accept(document);
+        }
+    }
+
+}
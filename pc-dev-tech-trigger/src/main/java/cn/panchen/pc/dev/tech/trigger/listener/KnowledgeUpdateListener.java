@@ -0,0 +1,58 @@
+package cn.panchen.pc.dev.tech.trigger.listener;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.annotation.Resource;
+import lombok.extern.slf4j.Slf4j;
+import org.redisson.api.RTopic;
+import org.redisson.api.RedissonClient;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.stereotype.Component;
+
+/**
+ * 知识库变更通知
+ * 入库任务提交或回滚后通过 Redis topic 广播 ragTag，所有节点收到后在本地发布 KnowledgeUpdatedEvent，
+ * 检索缓存、回答缓存等按 ragTag 失效。
+ */
+@Slf4j
+@Component
+public class KnowledgeUpdateListener {
+
+    private static final String TOPIC = "ragTagUpdated";
+
+    @Resource
+    private RedissonClient redissonClient;
+    @Resource
+    private ApplicationEventPublisher applicationEventPublisher;
+
+    private RTopic topic;
+    private int listenerId;
+
+    @PostConstruct
+    public void init() {
+        topic = redissonClient.getTopic(TOPIC);
+        listenerId = topic.addListener(String.class, (channel, ragTag) -> {
+            log.info("收到知识库变更通知 ragTag:{}", ragTag);
+            applicationEventPublisher.publishEvent(new KnowledgeUpdatedEvent(this, ragTag));
+        });
+    }
+
+    /**
+     * 广播 ragTag 的内容已变更
+     */
+    public void publish(String ragTag) {
+        try {
+            topic.publish(ragTag);
+        } catch (Exception e) {
+            // Redis 不可用时至少让本节点的缓存失效
+            log.warn("广播知识库变更失败，仅失效本地缓存 ragTag:{}", ragTag, e);
+            applicationEventPublisher.publishEvent(new KnowledgeUpdatedEvent(this, ragTag));
+        }
+    }
+
+    @PreDestroy
+    public void destroy() {
+        topic.removeListener(listenerId);
+    }
+
+}
@@ -0,0 +1,19 @@
+package cn.panchen.pc.dev.tech.trigger.listener;
+
+import lombok.Getter;
+import org.springframework.context.ApplicationEvent;
+
+/**
+ * 知识库内容变更事件，ragTag 下有切片写入或删除后发布，各级缓存据此失效
+ */
+@Getter
+public class KnowledgeUpdatedEvent extends ApplicationEvent {
+
+    private final String ragTag;
+
+    public KnowledgeUpdatedEvent(Object source, String ragTag) {
+        super(source);
+        this.ragTag = ragTag;
+    }
+
+}
@@ -0,0 +1,59 @@
+package cn.panchen.pc.dev.tech.trigger.metrics;
+
+import cn.panchen.pc.dev.tech.trigger.embedding.CachingEmbeddingClient;
+import cn.panchen.pc.dev.tech.trigger.retrieval.AnswerCache;
+import cn.panchen.pc.dev.tech.trigger.retrieval.HotTier;
+import cn.panchen.pc.dev.tech.trigger.retrieval.RetrievalCache;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.cache.GuavaCacheMetrics;
+import jakarta.annotation.Resource;
+import org.springframework.ai.embedding.EmbeddingClient;
+import org.springframework.stereotype.Component;
+
+import java.util.function.ToDoubleFunction;
+
+/**
+ * 各级缓存的命中情况：检索结果缓存、向量缓存、热点检索层、语义回答缓存
+ * 计数由各组件自己维护，这里只在注册表绑定时读取，不改动热路径
+ */
+@Component
+public class RagCacheMetrics implements MeterBinder {
+
+    @Resource
+    private RetrievalCache retrievalCache;
+    @Resource
+    private EmbeddingClient embeddingClient;
+    @Resource
+    private HotTier hotTier;
+    @Resource
+    private AnswerCache answerCache;
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        GuavaCacheMetrics.monitor(registry, retrievalCache.getCache(), "rag.retrieval.cache");
+
+        if (embeddingClient instanceof CachingEmbeddingClient cachingEmbeddingClient) {
+            counter(registry, "rag.embedding.cache.requests", "local-hit", cachingEmbeddingClient, CachingEmbeddingClient::getLocalHits);
+            counter(registry, "rag.embedding.cache.requests", "shared-hit", cachingEmbeddingClient, CachingEmbeddingClient::getSharedHits);
+            counter(registry, "rag.embedding.cache.requests", "miss", cachingEmbeddingClient, CachingEmbeddingClient::getMisses);
+        }
+
+        counter(registry, "rag.hot.tier.requests", "hit", hotTier, HotTier::getHits);
+        counter(registry, "rag.hot.tier.requests", "miss", hotTier, HotTier::getMisses);
+        Gauge.builder("rag.hot.tier.loaded.tags", hotTier, tier -> tier.getLoadedTags().size())
+                .register(registry);
+
+        counter(registry, "rag.answer.cache.requests", "hit", answerCache, AnswerCache::getHits);
+        counter(registry, "rag.answer.cache.requests", "miss", answerCache, AnswerCache::getMisses);
+    }
+
+    private static <T> void counter(MeterRegistry registry, String name, String result, T obj, ToDoubleFunction<T> count) {
+        FunctionCounter.builder(name, obj, count)
+                .tag("result", result)
+                .register(registry);
+    }
+
+}
@@ -0,0 +1,195 @@
+package cn.panchen.pc.dev.tech.trigger.metrics;
+
+import com.knuddels.jtokkit.Encodings;
+import com.knuddels.jtokkit.api.Encoding;
+import com.knuddels.jtokkit.api.EncodingType;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.observation.Observation;
+import io.micrometer.observation.ObservationRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.Resource;
+import org.springframework.ai.chat.ChatResponse;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * 检索、向量化、生成、入库各阶段的指标与链路
+ * 每个阶段是一个 Observation：同时产生同名 Timer（经 Actuator 暴露到 /actuator/prometheus）和一个 span，
+ * 同一请求内的各阶段 span 挂在 HTTP 请求的 span 下，能看出一次慢回答耗在问题向量化、pgvector 检索还是大模型上。
+ */
+@Component
+public class RagMetrics {
+
+    public static final String QUERY_EMBEDDING = "rag.query.embedding";
+    public static final String RETRIEVAL = "rag.retrieval";
+    public static final String RETRIEVAL_BATCH = "rag.retrieval.batch";
+    public static final String SIMILARITY_SEARCH = "rag.similarity.search";
+    public static final String LEXICAL_SEARCH = "rag.lexical.search";
+    public static final String ANSWER_CACHE_LOOKUP = "rag.answer.cache.lookup";
+    public static final String CHAT_GENERATION = "rag.chat.generation";
+    public static final String INGEST = "rag.ingest";
+    public static final String INGEST_STAGE = "rag.ingest.stage";
+
+    /** 取值由用户决定、数量不受控的 key，只记在 span 上，不作为 Timer 的标签，避免 Prometheus 时间序列无限增长 */
+    private static final Set<String> HIGH_CARDINALITY_KEYS = Set.of("ragTag");
+    /** 不在 rag.metrics.models 中的模型，指标上统一记为该值 */
+    public static final String OTHER_MODEL = "other";
+
+    @Resource
+    private MeterRegistry meterRegistry;
+    @Resource
+    private ObservationRegistry observationRegistry;
+
+    /** 作为指标 model 标签的模型，逗号分隔；模型名来自请求参数，不在列表中的记为 other，路由配置的模型启动时自动加入 */
+    @Value("${rag.metrics.models:}")
+    private String models;
+
+    private final Set<String> modelTags = ConcurrentHashMap.newKeySet();
+
+    /** 与切割文件时相同的分词方式，用于估算提示词 token 数 */
+    private final Encoding encoding = Encodings.newLazyEncodingRegistry().getEncoding(EncodingType.CL100K_BASE);
+
+    @PostConstruct
+    public void init() {
+        for (String model : models.split(",")) {
+            if (!model.isBlank()) modelTags.add(model.trim());
+        }
+    }
+
+    /**
+     * 允许作为 model 标签的模型，例如路由配置的模型
+     */
+    public void registerModel(String model) {
+        modelTags.add(model);
+    }
+
+    /**
+     * 指标上的 model 标签：已配置的模型原样返回，其它记为 other
+     */
+    public String modelTag(String model) {
+        return null != model && modelTags.contains(model) ? model : OTHER_MODEL;
+    }
+
+    /**
+     * 创建一个阶段，调用方补充 key 后 observe；keyValues 为 key、value 交替
+     */
+    public Observation observation(String name, String... keyValues) {
+        Observation observation = Observation.createNotStarted(name, observationRegistry);
+        for (int i = 0; i + 1 < keyValues.length; i += 2) {
+            if (HIGH_CARDINALITY_KEYS.contains(keyValues[i])) {
+                observation.highCardinalityKeyValue(keyValues[i], keyValues[i + 1]);
+            } else {
+                observation.lowCardinalityKeyValue(keyValues[i], keyValues[i + 1]);
+            }
+        }
+        return observation;
+    }
+
+    public <T> T observe(String name, Supplier<T> supplier, String... keyValues) {
+        return observation(name, keyValues).observe(supplier);
+    }
+
+    /**
+     * 记录发给大模型的提示词大小（字符数、估算 token 数）
+     */
+    public void recordPrompt(String provider, String model, String prompt) {
+        model = modelTag(model);
+        DistributionSummary.builder("rag.prompt.chars")
+                .baseUnit("chars")
+                .tags("provider", provider, "model", model)
+                .register(meterRegistry)
+                .record(prompt.length());
+        DistributionSummary.builder("rag.prompt.tokens")
+                .baseUnit("tokens")
+                .tags("provider", provider, "model", model)
+                .register(meterRegistry)
+                .record(encoding.countTokens(prompt));
+    }
+
+    /**
+     * 包装大模型的流式应答：记录首 token 时间（TTFT）、生成 token 数和生成速度，整个生成过程是一个 span
+     * 流式应答每个分块约为一个 token，以内容非空的分块数计
+     */
+    public Flux<ChatResponse> observeStream(String provider, String model, Flux<ChatResponse> stream) {
+        // 在请求线程上取父 span，订阅和回调可能在其它线程；span 上记原始模型名，指标只用 model 标签
+        Observation observation = observation(CHAT_GENERATION, "provider", provider)
+                .highCardinalityKeyValue("model.name", model)
+                .parentObservation(observationRegistry.getCurrentObservation());
+        model = modelTag(model);
+        observation.lowCardinalityKeyValue("model", model);
+        Timer ttft = Timer.builder("rag.chat.ttft")
+                .tags("provider", provider, "model", model)
+                .register(meterRegistry);
+        Counter tokenCounter = Counter.builder("rag.chat.tokens")
+                .baseUnit("tokens")
+                .tags("provider", provider, "model", model)
+                .register(meterRegistry);
+        DistributionSummary tokensPerSecond = DistributionSummary.builder("rag.chat.tokens.per.second")
+                .tags("provider", provider, "model", model)
+                .register(meterRegistry);
+
+        return Flux.defer(() -> {
+            observation.start();
+            long start = System.nanoTime();
+            AtomicLong firstToken = new AtomicLong();
+            AtomicLong lastToken = new AtomicLong();
+            AtomicInteger tokens = new AtomicInteger();
+            return stream
+                    .doOnNext(response -> {
+                        if (null == response.getResult() || null == response.getResult().getOutput().getContent()
+                                || response.getResult().getOutput().getContent().isEmpty()) return;
+                        long now = System.nanoTime();
+                        if (0 == tokens.getAndIncrement()) {
+                            firstToken.set(now);
+                            ttft.record(now - start, TimeUnit.NANOSECONDS);
+                            observation.event(Observation.Event.of("rag.chat.first.token"));
+                        }
+                        lastToken.set(now);
+                    })
+                    .doOnError(observation::error)
+                    .doFinally(signal -> {
+                        tokenCounter.increment(tokens.get());
+                        if (tokens.get() > 1 && lastToken.get() > firstToken.get()) {
+                            tokensPerSecond.record((tokens.get() - 1) * 1e9 / (lastToken.get() - firstToken.get()));
+                        }
+                        observation.lowCardinalityKeyValue("signal", signal.name());
+                        observation.stop();
+                    });
+        });
+    }
+
+    /**
+     * 入库阶段处理的数据量，按阶段分别计数，rate 即各阶段吞吐
+     * @param stage parse（文件）、split（文档）、embed、write（切片）
+     */
+    public void recordIngested(String stage, int count) {
+        Counter.builder("rag.ingest.items")
+                .tag("stage", stage)
+                .register(meterRegistry)
+                .increment(count);
+    }
+
+    /**
+     * 单个文件的解析耗时，按文件类型和解析方式区分
+     * @param type 扩展名，不常见的扩展名为 other
+     * @param parser text（直接读取）、tika
+     */
+    public void recordParse(String type, String parser, boolean success, long nanos) {
+        Timer.builder("rag.ingest.parse")
+                .tags("type", type, "parser", parser, "outcome", success ? "success" : "error")
+                .register(meterRegistry)
+                .record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+}
@@ -0,0 +1,218 @@
+package cn.panchen.pc.dev.tech.trigger.retrieval;
+
+import cn.panchen.pc.dev.tech.trigger.listener.KnowledgeUpdatedEvent;
+import cn.panchen.pc.dev.tech.trigger.metrics.RagMetrics;
+import jakarta.annotation.Resource;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.chat.ChatResponse;
+import org.springframework.ai.chat.Generation;
+import org.springframework.ai.embedding.EmbeddingClient;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 语义回答缓存
+ * 同一 ragTag、同一模型下，新问题的向量与某个历史问题的余弦距离不超过阈值时，直接回放历史回答，不再调用大模型。
+ * 回放时按块拆成 Flux<ChatResponse>，前端看到的仍是流式响应。ragTag 重新入库后该 ragTag 的回答全部失效。
+ */
+@Slf4j
+@Component
+public class AnswerCache {
+
+    @Resource
+    private EmbeddingClient embeddingClient;
+    @Resource
+    private RagMetrics ragMetrics;
+
+    @Value("${rag.answer-cache.enabled:false}")
+    private boolean enabled;
+    @Value("${rag.answer-cache.max-distance:0.05}")
+    private double maxDistance;
+    @Value("${rag.answer-cache.ttl-seconds:3600}")
+    private long ttlSeconds;
+    @Value("${rag.answer-cache.max-entries-per-tag:1000}")
+    private int maxEntriesPerTag;
+    @Value("${rag.answer-cache.replay-chunk-size:16}")
+    private int replayChunkSize;
+
+    private final Map<Bucket, Deque<Entry>> buckets = new ConcurrentHashMap<>();
+    /** ragTag 失效次数，生成期间知识库被更新的回答不写入缓存 */
+    private final Map<String, AtomicLong> versions = new ConcurrentHashMap<>();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * 查找语义相近问题的回答；结果带上问题向量，未命中时交给 record 写缓存，不再重复向量化
+     * 版本在检索之前取得，检索到写缓存之间知识库被更新时，基于旧上下文的回答不会写入
+     */
+    public Lookup lookup(String model, String ragTag, String message) {
+        if (!enabled) return new Lookup(message, 0, null, null);
+        long version = version(ragTag).get();
+        Deque<Entry> entries = buckets.get(new Bucket(ragTag, model));
+        if (null == entries || entries.isEmpty()) {
+            misses.incrementAndGet();
+            return new Lookup(message, version, null, null);
+        }
+
+        float[] question = normalize(ragMetrics.observe(RagMetrics.ANSWER_CACHE_LOOKUP, () -> embeddingClient.embed(message), "ragTag", ragTag));
+        long expireBefore = System.currentTimeMillis() - ttlSeconds * 1000;
+        Entry best = null;
+        double bestSimilarity = 1 - maxDistance;
+        for (Entry entry : entries) {
+            if (entry.createTime() < expireBefore) {
+                entries.remove(entry);
+                continue;
+            }
+            double similarity = dot(question, entry.question());
+            if (similarity >= bestSimilarity) {
+                best = entry;
+                bestSimilarity = similarity;
+            }
+        }
+        if (null == best) {
+            misses.incrementAndGet();
+            return new Lookup(message, version, question, null);
+        }
+        hits.incrementAndGet();
+        log.info("命中回答缓存 ragTag:{} model:{} 相似度:{}", ragTag, model, String.format("%.4f", bestSimilarity));
+        return new Lookup(message, version, question, replay(best.answer()));
+    }
+
+    /**
+     * 包装大模型的流式应答，完整结束后把回答写入缓存；出错或客户端中途断开时不缓存
+     * 结束信号在模型客户端的 IO 线程上，查找时没有向量化问题的，写缓存时的向量化放到 boundedElastic 上执行
+     */
+    public Flux<ChatResponse> record(String model, String ragTag, Lookup lookup, Flux<ChatResponse> stream) {
+        if (!enabled) return stream;
+        long version = lookup.version();
+        StringBuilder answer = new StringBuilder();
+        return stream
+                .doOnNext(response -> {
+                    if (null != response.getResult() && null != response.getResult().getOutput().getContent()) {
+                        answer.append(response.getResult().getOutput().getContent());
+                    }
+                })
+                .doOnComplete(() -> {
+                    if (version != version(ragTag).get() || answer.toString().isBlank()) return;
+                    if (null != lookup.question()) {
+                        put(model, ragTag, version, lookup.question(), answer.toString());
+                        return;
+                    }
+                    Mono.fromRunnable(() -> put(model, ragTag, version, normalize(embeddingClient.embed(lookup.message())), answer.toString()))
+                            .subscribeOn(Schedulers.boundedElastic())
+                            .subscribe(null, e -> log.warn("写入回答缓存失败 ragTag:{}", ragTag, e));
+                });
+    }
+
+    private void put(String model, String ragTag, long version, float[] question, String answer) {
+        // 向量化期间知识库可能已更新，写入前再确认一次
+        if (version != version(ragTag).get()) return;
+        Entry entry = new Entry(question, answer, System.currentTimeMillis());
+        Deque<Entry> entries = buckets.computeIfAbsent(new Bucket(ragTag, model), key -> new ConcurrentLinkedDeque<>());
+        entries.addFirst(entry);
+        while (entries.size() > maxEntriesPerTag) {
+            entries.pollLast();
+        }
+    }
+
+    private Flux<ChatResponse> replay(String answer) {
+        List<ChatResponse> chunks = new ArrayList<>();
+        for (int i = 0; i < answer.length(); i += replayChunkSize) {
+            String chunk = answer.substring(i, Math.min(answer.length(), i + replayChunkSize));
+            chunks.add(new ChatResponse(List.of(new Generation(chunk))));
+        }
+        return Flux.fromIterable(chunks);
+    }
+
+    public void invalidate(String ragTag) {
+        version(ragTag).incrementAndGet();
+        buckets.keySet().removeIf(bucket -> bucket.ragTag().equals(ragTag));
+    }
+
+    @EventListener
+    public void onKnowledgeUpdated(KnowledgeUpdatedEvent event) {
+        invalidate(event.getRagTag());
+    }
+
+    private AtomicLong version(String ragTag) {
+        return versions.computeIfAbsent(ragTag, key -> new AtomicLong());
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * 命中率，没有请求时为 0
+     */
+    public double getHitRate() {
+        long total = hits.get() + misses.get();
+        return 0 == total ? 0 : (double) hits.get() / total;
+    }
+
+    /**
+     * 归一化为单位向量，余弦相似度即点积
+     */
+    private static float[] normalize(List<Double> embedding) {
+        float[] vector = new float[embedding.size()];
+        double norm = 0;
+        for (int i = 0; i < vector.length; i++) {
+            double v = embedding.get(i);
+            vector[i] = (float) v;
+            norm += v * v;
+        }
+        norm = Math.sqrt(norm);
+        if (norm > 0) {
+            for (int i = 0; i < vector.length; i++) {
+                vector[i] /= (float) norm;
+            }
+        }
+        return vector;
+    }
+
+    private static double dot(float[] a, float[] b) {
+        if (a.length != b.length) return -1;
+        double sum = 0;
+        for (int i = 0; i < a.length; i++) {
+            sum += a[i] * b[i];
+        }
+        return sum;
+    }
+
+    record Bucket(String ragTag, String model) {
+    }
+
+    record Entry(float[] question, String answer, long createTime) {
+    }
+
+    /**
+     * 查找结果
+     * @param version  查找时 ragTag 的版本，写缓存时与当前版本比较
+     * @param question 归一化的问题向量，查找时没有向量化（缓存未启用或该 ragTag 还没有回答）为 null
+     * @param answer   命中时回放的回答，未命中为 null
+     */
+    public record Lookup(String message, long version, float[] question, Flux<ChatResponse> answer) {
+
+        public boolean hit() {
+            return null != answer;
+        }
+    }
+
+}
@@ -0,0 +1,178 @@
+package cn.panchen.pc.dev.tech.trigger.retrieval;
+
+import com.knuddels.jtokkit.Encodings;
+import com.knuddels.jtokkit.api.Encoding;
+import com.knuddels.jtokkit.api.EncodingType;
+import jakarta.annotation.PostConstruct;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.document.Document;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * 提示词上下文组装：在每个模型的 token 预算内，从检索候选中挑出相关且互不重复的切片
+ * 1. 去重：与已选切片的 token 3-gram 包含度达到阈值的切片视为近似重复（重叠切割、同一段落多次入库），直接丢弃；
+ * 2. MMR：按 λ·相关度 − (1−λ)·与已选切片的最大相似度 依次挑选，相关度取检索名次；
+ * 3. 截断：放不下的切片在剩余预算足够时截断后放入，之后停止。
+ * token 数按 cl100k 估算，与切割文件时一致；Ollama 模型的实际分词略有出入，预算需留余量。
+ */
+@Slf4j
+@Component
+public class ContextPacker {
+
+    private static final String SEPARATOR = "\n\n";
+    private static final int SHINGLE = 3;
+
+    /** 检索候选数，MMR 从中挑选 */
+    @Getter
+    @Value("${rag.context.candidates:12}")
+    private int candidates;
+    @Value("${rag.context.default-token-budget:2000}")
+    private int defaultTokenBudget;
+    /** 每个模型的上下文预算，model=tokens，逗号分隔；未配置的模型用 default-token-budget */
+    @Value("${rag.context.token-budgets:}")
+    private String tokenBudgets;
+    /** MMR 中相关度的权重，1 为只看相关度，0 为只看多样性 */
+    @Value("${rag.context.mmr-lambda:0.7}")
+    private double lambda;
+    /** 包含度达到该值视为近似重复 */
+    @Value("${rag.context.dedup-threshold:0.8}")
+    private double dedupThreshold;
+    /** 剩余预算少于该值时不再截断放入 */
+    @Value("${rag.context.min-truncated-tokens:64}")
+    private int minTruncatedTokens;
+
+    private final Encoding encoding = Encodings.newLazyEncodingRegistry().getEncoding(EncodingType.CL100K_BASE);
+    private Map<String, Integer> tokenBudgetMap;
+
+    @PostConstruct
+    public void init() {
+        tokenBudgetMap = new HashMap<>();
+        for (String item : tokenBudgets.split(",")) {
+            int index = item.lastIndexOf('=');
+            if (index <= 0) continue;
+            tokenBudgetMap.put(item.substring(0, index).trim(), Integer.parseInt(item.substring(index + 1).trim()));
+        }
+    }
+
+    public int tokenBudget(String model) {
+        return tokenBudgetMap.getOrDefault(model, defaultTokenBudget);
+    }
+
+    /**
+     * 按模型的预算组装上下文
+     * @param documents 按相关度从高到低排列的检索结果
+     */
+    public String pack(String model, List<Document> documents) {
+        return pack(documents, tokenBudget(model));
+    }
+
+    public String pack(List<Document> documents, int tokenBudget) {
+        List<Chunk> remaining = new ArrayList<>();
+        for (int rank = 0; rank < documents.size(); rank++) {
+            String content = documents.get(rank).getContent();
+            if (null == content || content.isBlank()) continue;
+            List<Integer> tokens = encoding.encode(content);
+            // 相关度按名次线性递减到 (0, 1]
+            remaining.add(new Chunk(content, tokens, shingles(tokens), 1.0 - (double) rank / documents.size()));
+        }
+
+        List<Chunk> selected = new ArrayList<>();
+        List<String> contents = new ArrayList<>();
+        int separatorTokens = encoding.countTokens(SEPARATOR);
+        int budget = tokenBudget;
+        int duplicates = 0;
+        while (!remaining.isEmpty() && budget > 0) {
+            Chunk best = null;
+            double bestScore = Double.NEGATIVE_INFINITY;
+            for (Iterator<Chunk> iterator = remaining.iterator(); iterator.hasNext(); ) {
+                Chunk chunk = iterator.next();
+                double maxSimilarity = 0;
+                for (Chunk chosen : selected) {
+                    maxSimilarity = Math.max(maxSimilarity, containment(chunk.shingles, chosen.shingles));
+                }
+                if (maxSimilarity >= dedupThreshold) {
+                    iterator.remove();
+                    duplicates++;
+                    continue;
+                }
+                double score = lambda * chunk.relevance - (1 - lambda) * maxSimilarity;
+                if (score > bestScore) {
+                    best = chunk;
+                    bestScore = score;
+                }
+            }
+            if (null == best) break;
+            remaining.remove(best);
+
+            int cost = best.tokens.size() + (contents.isEmpty() ? 0 : separatorTokens);
+            if (cost <= budget) {
+                selected.add(best);
+                contents.add(best.content);
+                budget -= cost;
+                continue;
+            }
+            // 放不下整段：剩余预算足够时截断放入，预算就此用完
+            int room = budget - (contents.isEmpty() ? 0 : separatorTokens);
+            if (room >= minTruncatedTokens) {
+                contents.add(decode(best.tokens.subList(0, room)));
+            }
+            break;
+        }
+
+        log.debug("上下文组装 候选:{} 选中:{} 近似重复:{} 预算:{} 剩余:{}", documents.size(), contents.size(), duplicates, tokenBudget, Math.max(0, budget));
+        return String.join(SEPARATOR, contents);
+    }
+
+    /**
+     * 截断处可能落在多字节字符中间，丢弃末尾不完整的字符
+     */
+    private String decode(List<Integer> tokens) {
+        String text = new String(encoding.decodeBytes(tokens), StandardCharsets.UTF_8);
+        int end = text.length();
+        while (end > 0 && text.charAt(end - 1) == '\uFFFD') end--;
+        return text.substring(0, end);
+    }
+
+    private static Set<Long> shingles(List<Integer> tokens) {
+        Set<Long> shingles = new HashSet<>();
+        if (tokens.size() < SHINGLE) {
+            shingles.add(hash(tokens, 0, tokens.size()));
+            return shingles;
+        }
+        for (int i = 0; i + SHINGLE <= tokens.size(); i++) {
+            shingles.add(hash(tokens, i, i + SHINGLE));
+        }
+        return shingles;
+    }
+
+    private static long hash(List<Integer> tokens, int from, int to) {
+        long hash = 1125899906842597L;
+        for (int i = from; i < to; i++) {
+            hash = 31 * hash + tokens.get(i);
+        }
+        return hash;
+    }
+
+    /**
+     * 包含度 |A∩B| / min(|A|, |B|)，短切片被长切片完整包含时为 1
+     */
+    private static double containment(Set<Long> a, Set<Long> b) {
+        if (a.isEmpty() || b.isEmpty()) return 0;
+        Set<Long> smaller = a.size() <= b.size() ? a : b;
+        Set<Long> larger = smaller == a ? b : a;
+        int common = 0;
+        for (Long shingle : smaller) {
+            if (larger.contains(shingle)) common++;
+        }
+        return (double) common / smaller.size();
+    }
+
+    private record Chunk(String content, List<Integer> tokens, Set<Long> shingles, double relevance) {
+    }
+
+}
@@ -0,0 +1,327 @@
+package cn.panchen.pc.dev.tech.trigger.retrieval;
+
+import java.util.Arrays;
+import java.util.PriorityQueue;
+import java.util.Random;
+
+/**
+ * 进程内 HNSW 图索引
+ * 向量归一化后连续存放在一个 float[] 中，相似度即点积（余弦相似度）；每个节点每层的邻居是一个 int[]，第 0 个元素为邻居数。
+ * 只支持一次性构建后检索，知识库有变更时整体重建。
+ */
+public class HnswIndex {
+
+    private final int dimensions;
+    private final int m;
+    private final int efConstruction;
+
+    private float[] vectors;
+    private int size;
+    /** 节点 → 层 → 邻居（[0] 为邻居数） */
+    private int[][][] neighbors;
+    private int entryPoint = -1;
+    private int maxLevel = -1;
+
+    /** 每个线程复用一个访问标记数组，避免每次搜索都按节点数分配 */
+    private static final ThreadLocal<VisitedMarks> VISITED = ThreadLocal.withInitial(VisitedMarks::new);
+
+    private final Random random = new Random(42);
+
+    public HnswIndex(int dimensions, int m, int efConstruction, int capacity) {
+        this.dimensions = dimensions;
+        this.m = m;
+        this.efConstruction = efConstruction;
+        this.vectors = new float[Math.max(1, capacity) * dimensions];
+        this.neighbors = new int[Math.max(1, capacity)][][];
+    }
+
+    /**
+     * 从快照恢复
+     */
+    HnswIndex(int dimensions, int m, int efConstruction, float[] vectors, int size, int[][][] neighbors, int entryPoint, int maxLevel) {
+        this.dimensions = dimensions;
+        this.m = m;
+        this.efConstruction = efConstruction;
+        this.vectors = vectors;
+        this.size = size;
+        this.neighbors = neighbors;
+        this.entryPoint = entryPoint;
+        this.maxLevel = maxLevel;
+    }
+
+    /**
+     * 插入一个向量，返回它的序号
+     */
+    public int add(float[] vector) {
+        if (vector.length != dimensions) throw new IllegalArgumentException("向量维度不一致:" + vector.length + " != " + dimensions);
+        int node = size;
+        ensureCapacity(node + 1);
+        System.arraycopy(normalize(vector), 0, vectors, node * dimensions, dimensions);
+        size++;
+
+        int level = randomLevel();
+        neighbors[node] = new int[level + 1][];
+        for (int l = 0; l <= level; l++) {
+            neighbors[node][l] = new int[maxConnections(l) + 1];
+        }
+        if (entryPoint < 0) {
+            entryPoint = node;
+            maxLevel = level;
+            return node;
+        }
+
+        int current = entryPoint;
+        float[] query = Arrays.copyOfRange(vectors, node * dimensions, (node + 1) * dimensions);
+        for (int l = maxLevel; l > level; l--) {
+            current = greedy(query, current, l);
+        }
+        for (int l = Math.min(level, maxLevel); l >= 0; l--) {
+            int[] candidates = searchLayer(query, current, efConstruction, l);
+            int[] selected = selectNeighbors(node, candidates, m);
+            for (int neighbor : selected) {
+                link(node, neighbor, l);
+                link(neighbor, node, l);
+            }
+            current = candidates[0];
+        }
+        if (level > maxLevel) {
+            maxLevel = level;
+            entryPoint = node;
+        }
+        return node;
+    }
+
+    /**
+     * 检索与 query 最相似的 k 个节点
+     * @param similarities 输出每个结果的相似度，长度不小于返回的结果数
+     * @return 节点序号，按相似度降序
+     */
+    public int[] search(float[] query, int k, int ef, float[] similarities) {
+        if (entryPoint < 0) return new int[0];
+        float[] q = normalize(query);
+        int current = entryPoint;
+        for (int l = maxLevel; l > 0; l--) {
+            current = greedy(q, current, l);
+        }
+        int[] result = searchLayer(q, current, Math.max(ef, k), 0);
+        int count = Math.min(k, result.length);
+        for (int i = 0; i < count; i++) {
+            similarities[i] = similarity(q, result[i]);
+        }
+        return Arrays.copyOf(result, count);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int dimensions() {
+        return dimensions;
+    }
+
+    int m() {
+        return m;
+    }
+
+    int efConstruction() {
+        return efConstruction;
+    }
+
+    float[] vectors() {
+        return vectors;
+    }
+
+    int[][][] neighbors() {
+        return neighbors;
+    }
+
+    int entryPoint() {
+        return entryPoint;
+    }
+
+    int maxLevel() {
+        return maxLevel;
+    }
+
+    /**
+     * 在某一层上从 start 出发贪心走到局部最相似的节点
+     */
+    private int greedy(float[] query, int start, int level) {
+        int current = start;
+        float best = similarity(query, current);
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            int[] links = neighbors[current][level];
+            for (int i = 1; i <= links[0]; i++) {
+                float s = similarity(query, links[i]);
+                if (s > best) {
+                    best = s;
+                    current = links[i];
+                    changed = true;
+                }
+            }
+        }
+        return current;
+    }
+
+    /**
+     * 在某一层上做 ef 宽度的最佳优先搜索，返回按相似度降序的节点
+     */
+    private int[] searchLayer(float[] query, int start, int ef, int level) {
+        VisitedMarks visited = VISITED.get();
+        int mark = visited.next(size);
+        // 候选：相似度高的先出；结果：保留 ef 个，相似度低的先出
+        PriorityQueue<Candidate> candidates = new PriorityQueue<>((a, b) -> Float.compare(b.similarity, a.similarity));
+        PriorityQueue<Candidate> results = new PriorityQueue<>((a, b) -> Float.compare(a.similarity, b.similarity));
+        Candidate first = new Candidate(start, similarity(query, start));
+        candidates.add(first);
+        results.add(first);
+        visited.marks[start] = mark;
+
+        while (!candidates.isEmpty()) {
+            Candidate candidate = candidates.poll();
+            if (results.size() >= ef && candidate.similarity < results.peek().similarity) break;
+            int[] links = neighbors[candidate.node][level];
+            for (int i = 1; i <= links[0]; i++) {
+                int neighbor = links[i];
+                if (visited.marks[neighbor] == mark) continue;
+                visited.marks[neighbor] = mark;
+                float s = similarity(query, neighbor);
+                if (results.size() < ef || s > results.peek().similarity) {
+                    Candidate next = new Candidate(neighbor, s);
+                    candidates.add(next);
+                    results.add(next);
+                    if (results.size() > ef) results.poll();
+                }
+            }
+        }
+
+        int[] nodes = new int[results.size()];
+        for (int i = nodes.length - 1; i >= 0; i--) {
+            nodes[i] = results.poll().node;
+        }
+        return nodes;
+    }
+
+    /**
+     * 启发式选邻居：候选比已选中的任何邻居都更靠近 node 才保留，让邻居分布在不同方向上，提升召回率
+     */
+    private int[] selectNeighbors(int node, int[] candidates, int limit) {
+        int[] selected = new int[Math.min(limit, candidates.length)];
+        int count = 0;
+        for (int candidate : candidates) {
+            if (count >= selected.length) break;
+            if (candidate == node) continue;
+            float toNode = similarity(node, candidate);
+            boolean good = true;
+            for (int i = 0; i < count; i++) {
+                if (similarity(candidate, selected[i]) > toNode) {
+                    good = false;
+                    break;
+                }
+            }
+            if (good) selected[count++] = candidate;
+        }
+        return Arrays.copyOf(selected, count);
+    }
+
+    /**
+     * 添加一条边，邻居满了时淘汰与 from 最不相似的一个
+     */
+    private void link(int from, int to, int level) {
+        int[] links = neighbors[from][level];
+        int count = links[0];
+        for (int i = 1; i <= count; i++) {
+            if (links[i] == to) return;
+        }
+        if (count < links.length - 1) {
+            links[count + 1] = to;
+            links[0] = count + 1;
+            return;
+        }
+        int worst = -1;
+        float worstSimilarity = similarity(from, to);
+        for (int i = 1; i <= count; i++) {
+            float s = similarity(from, links[i]);
+            if (s < worstSimilarity) {
+                worstSimilarity = s;
+                worst = i;
+            }
+        }
+        if (worst > 0) links[worst] = to;
+    }
+
+    private int maxConnections(int level) {
+        return 0 == level ? 2 * m : m;
+    }
+
+    private int randomLevel() {
+        double ml = 1 / Math.log(m);
+        return (int) Math.floor(-Math.log(1 - random.nextDouble()) * ml);
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity <= neighbors.length) return;
+        int newCapacity = Math.max(capacity, neighbors.length * 2);
+        vectors = Arrays.copyOf(vectors, newCapacity * dimensions);
+        neighbors = Arrays.copyOf(neighbors, newCapacity);
+    }
+
+    private float similarity(float[] query, int node) {
+        int offset = node * dimensions;
+        float sum = 0;
+        for (int i = 0; i < dimensions; i++) {
+            sum += query[i] * vectors[offset + i];
+        }
+        return sum;
+    }
+
+    private float similarity(int a, int b) {
+        int offsetA = a * dimensions;
+        int offsetB = b * dimensions;
+        float sum = 0;
+        for (int i = 0; i < dimensions; i++) {
+            sum += vectors[offsetA + i] * vectors[offsetB + i];
+        }
+        return sum;
+    }
+
+    private static float[] normalize(float[] vector) {
+        double norm = 0;
+        for (float v : vector) {
+            norm += v * v;
+        }
+        norm = Math.sqrt(norm);
+        float[] result = new float[vector.length];
+        for (int i = 0; i < vector.length; i++) {
+            result[i] = norm > 0 ? (float) (vector[i] / norm) : 0;
+        }
+        return result;
+    }
+
+    private record Candidate(int node, float similarity) {
+    }
+
+    private static class VisitedMarks {
+
+        private int[] marks = new int[0];
+        private int generation;
+
+        /**
+         * 开始新一轮搜索，返回本轮的标记值；标记值等于本轮值的节点即已访问
+         */
+        int next(int size) {
+            if (marks.length < size) {
+                marks = new int[Math.max(size, marks.length * 2)];
+                generation = 0;
+            }
+            if (++generation == Integer.MAX_VALUE) {
+                Arrays.fill(marks, 0);
+                generation = 1;
+            }
+            return generation;
+        }
+    }
+
+}
@@ -0,0 +1,261 @@
+package cn.panchen.pc.dev.tech.trigger.retrieval;
+
+import cn.panchen.pc.dev.tech.trigger.listener.KnowledgeUpdatedEvent;
+import cn.panchen.pc.dev.tech.trigger.store.VectorStoreRepository;
+import cn.panchen.pc.dev.tech.trigger.store.VectorStoreSchema;
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.JSONObject;
+import com.pgvector.PGvector;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.annotation.Resource;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.vectorstore.PgVectorStore;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 热点知识库的进程内向量检索层
+ * 查询次数达到阈值的 ragTag 在后台整体加载到内存：向量归一化后放在连续的 float[] 中，建 HNSW 图，检索不再经过 JDBC。
+ * 最多同时加载 max-tags 个 ragTag，已满时新加载的 ragTag 替换最久没有被查询的一个；被替换的 ragTag 查询计数清零，重新达到阈值后才再次加载。
+ * 知识库有变更时丢弃并在后台重建，重建完成前检索回落到 pgvector；每次构建后写快照文件，重启时 mmap 读入即可使用。
+ * 只支持余弦距离，其它距离配置下不启用。
+ */
+@Slf4j
+@Component
+public class HotTier {
+
+    @Resource
+    private VectorStoreRepository vectorStoreRepository;
+    @Resource
+    private VectorStoreSchema vectorStoreSchema;
+
+    @Value("${rag.hot-tier.enabled:false}")
+    private boolean enabled;
+    /** 查询多少次后加载到内存 */
+    @Value("${rag.hot-tier.promote-after-queries:10}")
+    private long promoteAfterQueries;
+    @Value("${rag.hot-tier.max-tags:8}")
+    private int maxTags;
+    /** 切片数超过该值的 ragTag 不加载 */
+    @Value("${rag.hot-tier.max-vectors-per-tag:200000}")
+    private int maxVectorsPerTag;
+    @Value("${rag.hot-tier.m:16}")
+    private int m;
+    @Value("${rag.hot-tier.ef-construction:100}")
+    private int efConstruction;
+    @Value("${rag.hot-tier.ef-search:64}")
+    private int efSearch;
+    @Value("${rag.hot-tier.snapshot-dir:data/hot-tier}")
+    private String snapshotDir;
+
+    private final Map<String, TagIndex> indexes = new ConcurrentHashMap<>();
+    private final Map<String, AtomicLong> queryCounts = new ConcurrentHashMap<>();
+    /** ragTag 最近一次被查询的时间，已满时据此淘汰 */
+    private final Map<String, Long> lastQueried = new ConcurrentHashMap<>();
+    /** 正在加载的 ragTag */
+    private final Set<String> loading = ConcurrentHashMap.newKeySet();
+    /** 切片过多放弃加载的 ragTag，知识库变更后重新判断 */
+    private final Set<String> oversized = ConcurrentHashMap.newKeySet();
+    /** ragTag 变更次数，加载期间知识库被更新的结果丢弃 */
+    private final Map<String, AtomicLong> versions = new ConcurrentHashMap<>();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    private final ExecutorService loader = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "rag-hot-tier");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    @PostConstruct
+    public void init() {
+        if (enabled && PgVectorStore.PgDistanceType.CosineDistance != vectorStoreSchema.getDistance()) {
+            log.warn("热点检索层只支持余弦距离，当前距离:{}，不启用", vectorStoreSchema.getDistance());
+            enabled = false;
+        }
+    }
+
+    /**
+     * 在内存中检索 ragTag；ragTag 未加载时返回 null，由调用方查询 pgvector
+     */
+    public List<Document> search(String ragTag, List<Double> embedding, int topK) {
+        if (!enabled) return null;
+        lastQueried.put(ragTag, System.currentTimeMillis());
+        TagIndex tagIndex = indexes.get(ragTag);
+        if (null == tagIndex) {
+            misses.incrementAndGet();
+            long count = queryCounts.computeIfAbsent(ragTag, key -> new AtomicLong()).incrementAndGet();
+            if (count >= promoteAfterQueries) scheduleLoad(ragTag);
+            return null;
+        }
+        hits.incrementAndGet();
+
+        float[] query = VectorStoreRepository.toFloatArray(embedding);
+        float[] similarities = new float[topK];
+        int[] nodes = tagIndex.index().search(query, topK, efSearch, similarities);
+        List<Document> documents = new ArrayList<>(nodes.length);
+        for (int i = 0; i < nodes.length; i++) {
+            int node = nodes[i];
+            JSONObject metadata = JSON.parseObject(tagIndex.metadata()[node]);
+            Map<String, Object> map = null == metadata ? new HashMap<>() : new HashMap<>(metadata);
+            // 与 pgvector 的余弦距离口径一致
+            map.put("distance", 1 - similarities[i]);
+            documents.add(new Document(tagIndex.ids()[node], tagIndex.contents()[node], map));
+        }
+        return documents;
+    }
+
+    @EventListener
+    public void onKnowledgeUpdated(KnowledgeUpdatedEvent event) {
+        String ragTag = event.getRagTag();
+        versions.computeIfAbsent(ragTag, key -> new AtomicLong()).incrementAndGet();
+        oversized.remove(ragTag);
+        TagIndex removed = indexes.remove(ragTag);
+        if (null != removed) {
+            log.info("热点检索层失效，后台重建 ragTag:{}", ragTag);
+            scheduleLoad(ragTag);
+        }
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public Set<String> getLoadedTags() {
+        return Set.copyOf(indexes.keySet());
+    }
+
+    private void scheduleLoad(String ragTag) {
+        if (indexes.containsKey(ragTag) || oversized.contains(ragTag)) return;
+        if (!loading.add(ragTag)) return;
+        long version = versions.computeIfAbsent(ragTag, key -> new AtomicLong()).get();
+        loader.execute(() -> {
+            try {
+                TagIndex tagIndex = load(ragTag);
+                if (null != tagIndex && version == versions.get(ragTag).get()) {
+                    // 加载完成后再淘汰，加载期间被替换的 ragTag 仍然可用
+                    while (indexes.size() >= maxTags) {
+                        if (!evictLeastRecentlyQueried(ragTag)) break;
+                    }
+                    indexes.put(ragTag, tagIndex);
+                }
+            } catch (Exception e) {
+                log.error("加载热点检索层失败 ragTag:{}", ragTag, e);
+            } finally {
+                loading.remove(ragTag);
+            }
+        });
+    }
+
+    /**
+     * 淘汰最久没有被查询的已加载 ragTag（不含 except）
+     * @return 没有可淘汰的 ragTag 时返回 false
+     */
+    private boolean evictLeastRecentlyQueried(String except) {
+        String eldest = null;
+        long eldestTime = Long.MAX_VALUE;
+        for (String ragTag : indexes.keySet()) {
+            if (ragTag.equals(except)) continue;
+            long time = lastQueried.getOrDefault(ragTag, 0L);
+            if (null == eldest || time < eldestTime) {
+                eldest = ragTag;
+                eldestTime = time;
+            }
+        }
+        if (null == eldest) return false;
+        indexes.remove(eldest);
+        queryCounts.remove(eldest);
+        log.info("热点检索层已满，淘汰最久未查询的 ragTag:{}", eldest);
+        return true;
+    }
+
+    private TagIndex load(String ragTag) throws Exception {
+        long[] counts = vectorStoreRepository.fingerprint(ragTag);
+        Fingerprint fingerprint = new Fingerprint(counts[0], counts[1]);
+        if (fingerprint.count() > maxVectorsPerTag) {
+            oversized.add(ragTag);
+            log.info("切片数超过热点检索层上限，不加载 ragTag:{} 切片:{}", ragTag, fingerprint.count());
+            return null;
+        }
+
+        long start = System.currentTimeMillis();
+        Path snapshot = Paths.get(snapshotDir, VectorStoreSchema.partitionName(ragTag) + ".snap");
+        if (Files.exists(snapshot)) {
+            try {
+                TagIndex tagIndex = HotTierSnapshot.read(snapshot, ragTag, fingerprint);
+                if (null != tagIndex) {
+                    log.info("从快照加载热点检索层 ragTag:{} 切片:{} 耗时:{}ms", ragTag, tagIndex.index().size(), System.currentTimeMillis() - start);
+                    return tagIndex;
+                }
+                log.info("快照已过期，重新构建 ragTag:{}", ragTag);
+            } catch (Exception e) {
+                log.warn("读取快照失败，重新构建 ragTag:{}", ragTag, e);
+            }
+        }
+
+        int capacity = (int) fingerprint.count();
+        List<float[]> vectors = new ArrayList<>(capacity);
+        List<String> ids = new ArrayList<>(capacity);
+        List<String> contents = new ArrayList<>(capacity);
+        List<String> metadata = new ArrayList<>(capacity);
+        vectorStoreRepository.scanChunks(ragTag, 1000, rs -> {
+            vectors.add(new PGvector(rs.getString("embedding")).toArray());
+            ids.add(rs.getString("id"));
+            contents.add(rs.getString("content"));
+            metadata.add(rs.getString("metadata"));
+        });
+        if (vectors.isEmpty()) return null;
+
+        // 读完再建图，不在建图期间占用数据库连接
+        HnswIndex index = new HnswIndex(vectors.get(0).length, m, efConstruction, vectors.size());
+        for (int i = 0; i < vectors.size(); i++) {
+            index.add(vectors.get(i));
+            vectors.set(i, null);
+        }
+
+        TagIndex tagIndex = new TagIndex(ragTag, index, ids.toArray(new String[0]), contents.toArray(new String[0]),
+                metadata.toArray(new String[0]), fingerprint);
+        log.info("构建热点检索层 ragTag:{} 切片:{} 耗时:{}ms", ragTag, ids.size(), System.currentTimeMillis() - start);
+        try {
+            HotTierSnapshot.write(snapshot, tagIndex);
+        } catch (Exception e) {
+            log.warn("写入热点检索层快照失败 ragTag:{}", ragTag, e);
+        }
+        return tagIndex;
+    }
+
+    @PreDestroy
+    public void destroy() {
+        loader.shutdownNow();
+    }
+
+    /**
+     * 一个 ragTag 在内存中的全部数据，下标即 HNSW 节点序号
+     */
+    public record TagIndex(String ragTag, HnswIndex index, String[] ids, String[] contents, String[] metadata, Fingerprint fingerprint) {
+    }
+
+    /**
+     * 知识库内容指纹：切片数 + 切片ID、写入任务、内容的散列和
+     */
+    public record Fingerprint(long count, long checksum) {
+    }
+
+}
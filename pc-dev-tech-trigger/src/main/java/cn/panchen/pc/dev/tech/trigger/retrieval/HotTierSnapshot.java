@@ -0,0 +1,122 @@
+package cn.panchen.pc.dev.tech.trigger.retrieval;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * 热点知识库的快照文件
+ * 依次存放：文件头、向量（float32）、HNSW 图、切片ID/内容/metadata。重启时整体 mmap 读入，批量拷贝向量，不用再从数据库拉取和重建图。
+ * 文件头中的 fingerprint 记录生成快照时知识库的切片数和切片散列，加载前与数据库比对，不一致则丢弃快照。
+ */
+public class HotTierSnapshot {
+
+    private static final int MAGIC = 0x48544931;
+    private static final int VERSION = 1;
+
+    private HotTierSnapshot() {
+    }
+
+    public static void write(Path file, HotTier.TagIndex tagIndex) throws IOException {
+        Files.createDirectories(file.getParent());
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        HnswIndex index = tagIndex.index();
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(tagIndex.fingerprint().count());
+            out.writeLong(tagIndex.fingerprint().checksum());
+            out.writeInt(index.dimensions());
+            out.writeInt(index.m());
+            out.writeInt(index.efConstruction());
+            out.writeInt(index.size());
+            out.writeInt(index.entryPoint());
+            out.writeInt(index.maxLevel());
+
+            float[] vectors = index.vectors();
+            for (int i = 0; i < index.size() * index.dimensions(); i++) {
+                out.writeFloat(vectors[i]);
+            }
+            int[][][] neighbors = index.neighbors();
+            for (int node = 0; node < index.size(); node++) {
+                out.writeInt(neighbors[node].length);
+                for (int[] links : neighbors[node]) {
+                    out.writeInt(links.length);
+                    for (int link : links) {
+                        out.writeInt(link);
+                    }
+                }
+            }
+            for (int node = 0; node < index.size(); node++) {
+                writeString(out, tagIndex.ids()[node]);
+                writeString(out, tagIndex.contents()[node]);
+                writeString(out, tagIndex.metadata()[node]);
+            }
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * 读取快照，fingerprint 与期望不一致时返回 null
+     */
+    public static HotTier.TagIndex read(Path file, String ragTag, HotTier.Fingerprint expected) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) return null;
+            HotTier.Fingerprint fingerprint = new HotTier.Fingerprint(buffer.getLong(), buffer.getLong());
+            if (!fingerprint.equals(expected)) return null;
+
+            int dimensions = buffer.getInt();
+            int m = buffer.getInt();
+            int efConstruction = buffer.getInt();
+            int size = buffer.getInt();
+            int entryPoint = buffer.getInt();
+            int maxLevel = buffer.getInt();
+
+            float[] vectors = new float[size * dimensions];
+            buffer.asFloatBuffer().get(vectors);
+            buffer.position(buffer.position() + vectors.length * Float.BYTES);
+
+            int[][][] neighbors = new int[size][][];
+            for (int node = 0; node < size; node++) {
+                neighbors[node] = new int[buffer.getInt()][];
+                for (int level = 0; level < neighbors[node].length; level++) {
+                    int[] links = new int[buffer.getInt()];
+                    buffer.asIntBuffer().get(links);
+                    buffer.position(buffer.position() + links.length * Integer.BYTES);
+                    neighbors[node][level] = links;
+                }
+            }
+
+            String[] ids = new String[size];
+            String[] contents = new String[size];
+            String[] metadata = new String[size];
+            for (int node = 0; node < size; node++) {
+                ids[node] = readString(buffer);
+                contents[node] = readString(buffer);
+                metadata[node] = readString(buffer);
+            }
+            HnswIndex index = new HnswIndex(dimensions, m, efConstruction, vectors, size, neighbors, entryPoint, maxLevel);
+            return new HotTier.TagIndex(ragTag, index, ids, contents, metadata, fingerprint);
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = (null == value ? "" : value).getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+}
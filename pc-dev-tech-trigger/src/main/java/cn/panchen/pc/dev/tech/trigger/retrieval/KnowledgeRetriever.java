@@ -0,0 +1,155 @@
+package cn.panchen.pc.dev.tech.trigger.retrieval;
+
+import cn.panchen.pc.dev.tech.trigger.metrics.RagMetrics;
+import cn.panchen.pc.dev.tech.trigger.store.VectorStoreRepository;
+import io.micrometer.observation.Observation;
+import jakarta.annotation.Resource;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.EmbeddingClient;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 知识库检索，ollama、openai 两套 RAG 接口共用
+ * 向量检索和关键词检索各取一批候选，用 RRF 融合后取 topK；类名、错误码这类问题靠关键词命中，语义相近的问题靠向量命中。
+ */
+@Slf4j
+@Service
+public class KnowledgeRetriever {
+
+    @Resource
+    private EmbeddingClient embeddingClient;
+    @Resource
+    private VectorStoreRepository vectorStoreRepository;
+    @Resource
+    private RetrievalCache retrievalCache;
+    @Resource
+    private HotTier hotTier;
+    @Resource
+    private RagMetrics ragMetrics;
+
+    @Value("${rag.retrieval.hybrid.enabled:true}")
+    private boolean hybridEnabled;
+    /** 每一路检索取的候选数 */
+    @Value("${rag.retrieval.hybrid.candidates:20}")
+    private int candidates;
+    @Value("${rag.retrieval.hybrid.rrf-k:" + RankFusion.DEFAULT_K + "}")
+    private int rrfK;
+
+    /**
+     * 在 ragTag 对应的知识库中检索与问题最相关的 topK 个切片，重复的问题直接命中缓存
+     */
+    public List<Document> retrieve(String ragTag, String message, int topK) {
+        Observation observation = ragMetrics.observation(RagMetrics.RETRIEVAL, "ragTag", ragTag, "topK", String.valueOf(topK));
+        return observation.observe(() -> {
+            long generation = retrievalCache.generation(ragTag);
+            List<Document> documents = retrievalCache.get(ragTag, message, topK);
+            observation.lowCardinalityKeyValue("cache", null == documents ? "miss" : "hit");
+            if (null != documents) return documents;
+
+            documents = hybridEnabled ? hybridSearch(ragTag, message, topK) : vectorSearch(ragTag, message, topK);
+
+            retrievalCache.put(ragTag, message, topK, generation, documents);
+            return documents;
+        });
+    }
+
+    /**
+     * 批量检索，结果与 queries 一一对应
+     * 未命中缓存的问题一次调用向量模型；热点 ragTag 在内存中做向量检索，其余问题的向量检索和全部问题的关键词检索合并为一次查库。
+     */
+    public List<List<Document>> retrieveBatch(List<Query> queries, int topK) {
+        Observation observation = ragMetrics.observation(RagMetrics.RETRIEVAL_BATCH, "topK", String.valueOf(topK))
+                .highCardinalityKeyValue("size", String.valueOf(queries.size()));
+        return observation.observe(() -> {
+            List<List<Document>> results = new ArrayList<>(queries.size());
+            List<Integer> misses = new ArrayList<>();
+            long[] generations = new long[queries.size()];
+            for (int i = 0; i < queries.size(); i++) {
+                Query query = queries.get(i);
+                generations[i] = retrievalCache.generation(query.ragTag());
+                List<Document> documents = retrievalCache.get(query.ragTag(), query.message(), topK);
+                results.add(documents);
+                if (null == documents) misses.add(i);
+            }
+            observation.highCardinalityKeyValue("misses", String.valueOf(misses.size()));
+            if (misses.isEmpty()) return results;
+
+            // 相同的问题只向量化一次
+            Map<String, Integer> distinct = new LinkedHashMap<>();
+            for (int i : misses) {
+                distinct.putIfAbsent(queries.get(i).message(), distinct.size());
+            }
+            List<List<Double>> embeddings = ragMetrics.observe(RagMetrics.QUERY_EMBEDDING, () -> embeddingClient.embed(new ArrayList<>(distinct.keySet())),
+                    "batch", "true");
+
+            int k = hybridEnabled ? Math.max(topK, candidates) : topK;
+            List<VectorStoreRepository.BatchQuery> batchQueries = new ArrayList<>(misses.size());
+            List<List<Document>> hotResults = new ArrayList<>(misses.size());
+            for (int i : misses) {
+                Query query = queries.get(i);
+                List<Double> embedding = embeddings.get(distinct.get(query.message()));
+                List<Document> hot = hotTier.search(query.ragTag(), embedding, k);
+                hotResults.add(hot);
+                batchQueries.add(new VectorStoreRepository.BatchQuery(query.ragTag(),
+                        null == hot ? VectorStoreRepository.toFloatArray(embedding) : null,
+                        hybridEnabled ? query.message() : null));
+            }
+            List<VectorStoreRepository.BatchResult> searched = ragMetrics.observe(RagMetrics.SIMILARITY_SEARCH,
+                    () -> vectorStoreRepository.batchSearch(batchQueries, k), "tier", "batch", "topK", String.valueOf(k));
+
+            for (int j = 0; j < misses.size(); j++) {
+                int i = misses.get(j);
+                Query query = queries.get(i);
+                List<Document> vectorResults = null == hotResults.get(j) ? searched.get(j).vector() : hotResults.get(j);
+                List<Document> documents = hybridEnabled
+                        ? RankFusion.fuse(List.of(vectorResults, searched.get(j).lexical()), rrfK, topK)
+                        : vectorResults.stream().limit(topK).toList();
+                retrievalCache.put(query.ragTag(), query.message(), topK, generations[i], documents);
+                results.set(i, documents);
+            }
+            return results;
+        });
+    }
+
+    private List<Document> hybridSearch(String ragTag, String message, int topK) {
+        int k = Math.max(topK, candidates);
+        List<Document> vectorResults = vectorSearch(ragTag, message, k);
+        List<Document> lexicalResults;
+        try {
+            lexicalResults = ragMetrics.observe(RagMetrics.LEXICAL_SEARCH, () -> vectorStoreRepository.lexicalSearch(ragTag, message, k),
+                    "ragTag", ragTag, "topK", String.valueOf(k));
+        } catch (Exception e) {
+            log.warn("关键词检索失败，只使用向量检索结果 ragTag:{}", ragTag, e);
+            return vectorResults.stream().limit(topK).toList();
+        }
+        return RankFusion.fuse(List.of(vectorResults, lexicalResults), rrfK, topK);
+    }
+
+    /**
+     * 指定文档搜索：热点 ragTag 在内存中检索，其余只检索 ragTag 自己的分区
+     */
+    private List<Document> vectorSearch(String ragTag, String message, int topK) {
+        List<Double> embedding = ragMetrics.observe(RagMetrics.QUERY_EMBEDDING, () -> embeddingClient.embed(message));
+        Observation observation = ragMetrics.observation(RagMetrics.SIMILARITY_SEARCH, "ragTag", ragTag, "topK", String.valueOf(topK));
+        return observation.observe(() -> {
+            List<Document> documents = hotTier.search(ragTag, embedding, topK);
+            observation.lowCardinalityKeyValue("tier", null == documents ? "pgvector" : "hot");
+            if (null != documents) return documents;
+            return vectorStoreRepository.similaritySearch(ragTag, embedding, topK);
+        });
+    }
+
+    /**
+     * 批量检索中的一个问题
+     */
+    public record Query(String ragTag, String message) {
+    }
+
+}
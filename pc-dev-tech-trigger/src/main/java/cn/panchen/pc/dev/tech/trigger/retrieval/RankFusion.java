@@ -0,0 +1,38 @@
+package cn.panchen.pc.dev.tech.trigger.retrieval;
+
+import org.springframework.ai.document.Document;
+
+import java.util.*;
+
+/**
+ * 倒数排名融合（Reciprocal Rank Fusion）
+ * 文档得分 = Σ 1 / (k + 该文档在各路结果中的名次)，只看名次不看原始分数，向量距离和 ts_rank 无需归一化。
+ */
+public class RankFusion {
+
+    /** 论文推荐的常数，抑制头部名次的权重差距 */
+    public static final int DEFAULT_K = 60;
+
+    private RankFusion() {
+    }
+
+    /**
+     * 融合多路有序结果，按文档ID去重，返回得分最高的 topK 个
+     */
+    public static List<Document> fuse(List<List<Document>> rankings, int k, int topK) {
+        Map<String, Document> documents = new LinkedHashMap<>();
+        Map<String, Double> scores = new HashMap<>();
+        for (List<Document> ranking : rankings) {
+            for (int rank = 0; rank < ranking.size(); rank++) {
+                Document document = ranking.get(rank);
+                documents.putIfAbsent(document.getId(), document);
+                scores.merge(document.getId(), 1.0 / (k + rank + 1), Double::sum);
+            }
+        }
+        return documents.values().stream()
+                .sorted(Comparator.comparingDouble((Document document) -> scores.get(document.getId())).reversed())
+                .limit(topK)
+                .toList();
+    }
+
+}
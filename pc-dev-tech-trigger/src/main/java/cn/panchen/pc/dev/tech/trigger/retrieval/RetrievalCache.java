@@ -0,0 +1,108 @@
+package cn.panchen.pc.dev.tech.trigger.retrieval;
+
+import cn.panchen.pc.dev.tech.trigger.listener.KnowledgeUpdatedEvent;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.document.Document;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 检索结果缓存
+ * (ragTag, 归一化后的问题, topK) → 检索到的切片。重复的问题不再向量化问题、也不再访问 pgvector。
+ * 按 TTL 和条目数淘汰，ragTag 有新切片写入时按 ragTag 失效。
+ * 每个 ragTag 有一个代数，检索前取得、写入时核对：失效时仍在进行的检索，结果不会在失效之后被写回。
+ */
+@Slf4j
+@Component
+public class RetrievalCache {
+
+    @Value("${rag.retrieval.cache.enabled:true}")
+    private boolean enabled;
+    @Value("${rag.retrieval.cache.ttl-seconds:600}")
+    private long ttlSeconds;
+    @Value("${rag.retrieval.cache.max-size:10000}")
+    private long maxSize;
+
+    private Cache<Key, List<Document>> cache;
+    /** ragTag 失效次数 */
+    private final Map<String, AtomicLong> generations = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    public void init() {
+        cache = CacheBuilder.newBuilder()
+                .expireAfterWrite(ttlSeconds, TimeUnit.SECONDS)
+                .maximumSize(maxSize)
+                .recordStats()
+                .build();
+    }
+
+    public List<Document> get(String ragTag, String message, int topK) {
+        if (!enabled) return null;
+        return cache.getIfPresent(new Key(ragTag, normalize(message), topK));
+    }
+
+    /**
+     * 检索开始前取得 ragTag 的代数，写入时传给 put
+     */
+    public long generation(String ragTag) {
+        return generationOf(ragTag).get();
+    }
+
+    /**
+     * @param generation 检索开始前 generation 的返回值；之后 ragTag 失效过时不写入
+     */
+    public void put(String ragTag, String message, int topK, long generation, List<Document> documents) {
+        if (!enabled) return;
+        AtomicLong current = generationOf(ragTag);
+        if (generation != current.get()) return;
+        Key key = new Key(ragTag, normalize(message), topK);
+        List<Document> value = List.copyOf(documents);
+        cache.put(key, value);
+        // 核对与写入之间发生的失效可能已经清理完毕，写入后再核对一次，失效了就撤回
+        if (generation != current.get()) cache.asMap().remove(key, value);
+    }
+
+    /**
+     * 先推进代数再清理，清理之后写入的旧结果都能在写入后的核对中发现
+     */
+    public void invalidate(String ragTag) {
+        generationOf(ragTag).incrementAndGet();
+        cache.asMap().keySet().removeIf(key -> key.ragTag().equals(ragTag));
+    }
+
+    private AtomicLong generationOf(String ragTag) {
+        return generations.computeIfAbsent(ragTag, key -> new AtomicLong());
+    }
+
+    @EventListener
+    public void onKnowledgeUpdated(KnowledgeUpdatedEvent event) {
+        invalidate(event.getRagTag());
+        log.info("检索缓存失效 ragTag:{}", event.getRagTag());
+    }
+
+    public Cache<Key, List<Document>> getCache() {
+        return cache;
+    }
+
+    /**
+     * 归一化：去掉首尾空白、合并连续空白、统一小写
+     */
+    static String normalize(String message) {
+        return message.trim().replaceAll("\\s+", " ").toLowerCase(Locale.ROOT);
+    }
+
+    record Key(String ragTag, String message, int topK) {
+    }
+
+}
@@ -0,0 +1,65 @@
+package cn.panchen.pc.dev.tech.trigger.retrieval;
+
+import cn.panchen.pc.dev.tech.trigger.admission.ChatRejectedException;
+import io.micrometer.observation.Observation;
+import io.micrometer.observation.ObservationRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.annotation.Resource;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Supplier;
+
+/**
+ * 检索线程池
+ * 问题向量化、pgvector 检索都是阻塞调用，放在这个有界线程池上执行，RAG 流式接口的请求线程只负责组装 Flux 后立即返回，
+ * 不再随着模型排队、检索变慢而被占住。线程数不超过检索连接池大小，线程不会在连接池上排队；排队的任务超过上限时返回 429。
+ */
+@Slf4j
+@Component
+public class RetrievalExecutor {
+
+    @Resource
+    private ObservationRegistry observationRegistry;
+
+    @Value("${rag.retrieval.threads:16}")
+    private int threads;
+    /** 等待检索线程的任务总数上限，平均分到各线程 */
+    @Value("${rag.retrieval.queue-capacity:512}")
+    private int queueCapacity;
+    @Value("${rag.retrieval.retry-after-seconds:1}")
+    private long retryAfterSeconds;
+
+    private Scheduler scheduler;
+
+    @PostConstruct
+    public void init() {
+        // boundedElastic 的排队上限是按线程计的，换算成每个线程的份额，使总排队数约为 queueCapacity
+        scheduler = Schedulers.newBoundedElastic(threads, Math.max(1, (queueCapacity + threads - 1) / threads), "rag-retrieval");
+    }
+
+    @PreDestroy
+    public void destroy() {
+        scheduler.dispose();
+    }
+
+    /**
+     * 在检索线程池上执行 task，订阅时才开始；调用线程上的 span 作为 task 中各阶段的父 span
+     */
+    public <T> Mono<T> submit(Supplier<T> task) {
+        Observation parent = observationRegistry.getCurrentObservation();
+        return Mono.fromSupplier(() -> null == parent ? task.get() : parent.scoped(task))
+                .subscribeOn(scheduler)
+                .onErrorMap(RejectedExecutionException.class, e -> {
+                    log.warn("检索排队已满，拒绝请求 线程:{} 排队:{}", threads, queueCapacity);
+                    return new ChatRejectedException("检索繁忙，请稍后重试", retryAfterSeconds);
+                });
+    }
+
+}
@@ -0,0 +1,282 @@
+package cn.panchen.pc.dev.tech.trigger.routing;
+
+import cn.panchen.pc.dev.tech.trigger.admission.ChatAdmission;
+import cn.panchen.pc.dev.tech.trigger.admission.ChatRejectedException;
+import cn.panchen.pc.dev.tech.trigger.metrics.RagMetrics;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.Resource;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.chat.ChatResponse;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.prompt.Prompt;
+import org.springframework.ai.ollama.OllamaChatClient;
+import org.springframework.ai.ollama.api.OllamaOptions;
+import org.springframework.ai.openai.OpenAiChatClient;
+import org.springframework.ai.openai.OpenAiChatOptions;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import reactor.core.Exceptions;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.SignalType;
+import reactor.core.publisher.Sinks;
+
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+
+/**
+ * 多后端路由与对冲请求
+ * routes 中的每一项是一个后端上的一个模型，各自保存最近 window 次请求的首 token 时间（TTFT，含准入排队）；
+ * 对冲落败被取消、还没有首个分块的请求按已等待的时间记为截尾样本。
+ * 请求发往 TTFT 中位数最小的健康路由，还没有样本的路由优先；另有 exploreRatio 的请求随机发往其它路由，让每条路由的估计保持更新。
+ * 连续失败 failureThreshold 次的路由在 cooldown 内不参与选择，准入排队满（429）不算失败。
+ * 开启对冲时，首选路由超过其 TTFT p95 还没有返回首个分块，就向次选路由再发一次，先返回首个分块的一方胜出，另一方被取消；
+ * 首选路由在返回首个分块前失败（例如排队已满）时立即改发次选路由。每次尝试都经过对应后端、模型的准入控制。
+ */
+@Slf4j
+@Component
+public class ChatRouter {
+
+    public static final String OLLAMA = "ollama";
+    public static final String OPENAI = "openai";
+
+    @Resource
+    private OllamaChatClient ollamaChatClient;
+    @Resource
+    private OpenAiChatClient openAiChatClient;
+    @Resource
+    private ChatAdmission chatAdmission;
+    @Resource
+    private RagMetrics ragMetrics;
+    @Resource
+    private MeterRegistry meterRegistry;
+
+    /** 参与路由的后端和模型，backend=model，逗号分隔，靠前的在没有样本时优先 */
+    @Value("${rag.router.routes:ollama=deepseek-r1:1.5b,openai=gpt-4o}")
+    private String routes;
+    /** 每条路由保留的 TTFT 样本数 */
+    @Value("${rag.router.window:100}")
+    private int window;
+    @Value("${rag.router.explore-ratio:0.05}")
+    private double exploreRatio;
+    @Value("${rag.router.failure-threshold:3}")
+    private int failureThreshold;
+    @Value("${rag.router.cooldown-ms:30000}")
+    private long cooldownMillis;
+    @Value("${rag.router.hedge.enabled:true}")
+    private boolean hedgeEnabled;
+    /** 样本数达到该值后才按 p95 对冲，之前用 default-delay-ms */
+    @Value("${rag.router.hedge.min-samples:10}")
+    private int minSamples;
+    @Value("${rag.router.hedge.default-delay-ms:3000}")
+    private long defaultDelayMillis;
+    @Value("${rag.router.hedge.min-delay-ms:200}")
+    private long minDelayMillis;
+
+    private List<Route> routeList;
+    private final Map<Route, RouteStats> stats = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    public void init() {
+        List<Route> list = new ArrayList<>();
+        for (String item : routes.split(",")) {
+            int index = item.indexOf('=');
+            if (index <= 0) continue;
+            Route route = new Route(item.substring(0, index).trim(), item.substring(index + 1).trim());
+            if (!OLLAMA.equals(route.backend()) && !OPENAI.equals(route.backend())) {
+                throw new IllegalStateException("不支持的路由后端:" + route.backend());
+            }
+            list.add(route);
+            ragMetrics.registerModel(route.model());
+            RouteStats routeStats = new RouteStats();
+            stats.put(route, routeStats);
+            Gauge.builder("rag.router.ttft", routeStats, s -> s.percentile(0.5) / 1e9)
+                    .tags("backend", route.backend(), "model", route.model(), "quantile", "0.5")
+                    .baseUnit("seconds")
+                    .register(meterRegistry);
+            Gauge.builder("rag.router.ttft", routeStats, s -> s.percentile(0.95) / 1e9)
+                    .tags("backend", route.backend(), "model", route.model(), "quantile", "0.95")
+                    .baseUnit("seconds")
+                    .register(meterRegistry);
+            Gauge.builder("rag.router.healthy", routeStats, s -> s.healthy() ? 1 : 0)
+                    .tags("backend", route.backend(), "model", route.model())
+                    .register(meterRegistry);
+        }
+        if (list.isEmpty()) throw new IllegalStateException("rag.router.routes 未配置");
+        routeList = List.copyOf(list);
+        log.info("对话路由:{} 对冲:{}", routeList, hedgeEnabled);
+    }
+
+    /**
+     * 选择路由并流式生成
+     * @param messages 由选中的路由组装消息，例如按该模型的 token 预算组装上下文；对冲时每条路由各调用一次
+     */
+    public Flux<ChatResponse> stream(Function<Route, List<Message>> messages) {
+        List<Route> ranked = rank();
+        Route primary = ranked.get(0);
+        if (ranked.size() == 1) return attempt(primary, "primary", messages);
+        Route backup = ranked.get(1);
+
+        // 首选路由没有返回首个分块就结束（失败）时立即改发，否则等到对冲时间
+        Sinks.Empty<Void> primaryTerminated = Sinks.empty();
+        AtomicBoolean failover = new AtomicBoolean();
+        Flux<ChatResponse> primaryAttempt = attempt(primary, "primary", messages)
+                .doOnTerminate(() -> {
+                    failover.set(true);
+                    primaryTerminated.tryEmitEmpty();
+                });
+        Mono<?> trigger = hedgeEnabled
+                ? Mono.firstWithSignal(Mono.delay(hedgeDelay(primary)), primaryTerminated.asMono())
+                : primaryTerminated.asMono();
+        Flux<ChatResponse> backupAttempt = Flux.defer(() -> attempt(backup, failover.get() ? "failover" : "hedge", messages))
+                .delaySubscription(trigger);
+        return Flux.firstWithValue(primaryAttempt, backupAttempt)
+                .onErrorMap(NoSuchElementException.class, ChatRouter::unwrap);
+    }
+
+    /**
+     * 健康路由按 TTFT 中位数从小到大排列，没有样本的排在最前；全部不健康时仍按原顺序尝试
+     */
+    private List<Route> rank() {
+        List<Route> healthy = routeList.stream().filter(route -> stats.get(route).healthy()).toList();
+        if (healthy.isEmpty()) return routeList;
+        Map<Route, Double> scores = new HashMap<>();
+        for (Route route : healthy) {
+            RouteStats routeStats = stats.get(route);
+            scores.put(route, routeStats.count() == 0 ? 0 : routeStats.percentile(0.5));
+        }
+        List<Route> ranked = new ArrayList<>(healthy);
+        ranked.sort(Comparator.comparingDouble(scores::get));
+        if (ranked.size() > 1 && ThreadLocalRandom.current().nextDouble() < exploreRatio) {
+            Collections.swap(ranked, 0, 1 + ThreadLocalRandom.current().nextInt(ranked.size() - 1));
+        }
+        return ranked;
+    }
+
+    private Duration hedgeDelay(Route route) {
+        RouteStats routeStats = stats.get(route);
+        if (routeStats.count() < minSamples) return Duration.ofMillis(defaultDelayMillis);
+        long p95 = (long) routeStats.percentile(0.95);
+        return Duration.ofNanos(Math.max(TimeUnit.MILLISECONDS.toNanos(minDelayMillis), p95));
+    }
+
+    /**
+     * 在一条路由上生成一次，记录 TTFT 和成败
+     * @param role primary、hedge（对冲）、failover（首选失败后改发）
+     */
+    private Flux<ChatResponse> attempt(Route route, String role, Function<Route, List<Message>> messages) {
+        RouteStats routeStats = stats.get(route);
+        return Flux.defer(() -> {
+            long start = System.nanoTime();
+            AtomicBoolean firstToken = new AtomicBoolean();
+            Flux<ChatResponse> stream = ragMetrics.observeStream(route.backend(), route.model(), client(route, messages.apply(route)));
+            return chatAdmission.reserve(route.backend(), route.model()).admit(stream)
+                    .doOnNext(response -> {
+                        if (firstToken.compareAndSet(false, true)) routeStats.recordTtft(System.nanoTime() - start);
+                    })
+                    .doOnError(e -> {
+                        if (!(e instanceof ChatRejectedException)) routeStats.recordFailure(route);
+                    })
+                    .doFinally(signal -> {
+                        // 被对冲胜出的一方取消（或客户端断开）时还没有首个分块，真实 TTFT 至少是已等待的时间，记为截尾样本，
+                        // 否则变慢的路由不会留下样本，中位数一直停在过去的水平，始终被选为首选
+                        if (signal == SignalType.CANCEL && !firstToken.get()) routeStats.recordCensored(System.nanoTime() - start);
+                        attempted(route, role, firstToken.get() ? "first-token"
+                                : signal == SignalType.CANCEL ? "cancelled" : "failed");
+                    });
+        });
+    }
+
+    private Flux<ChatResponse> client(Route route, List<Message> messages) {
+        if (OLLAMA.equals(route.backend())) {
+            return ollamaChatClient.stream(new Prompt(messages, OllamaOptions.create().withModel(route.model())));
+        }
+        return openAiChatClient.stream(new Prompt(messages, OpenAiChatOptions.builder().withModel(route.model()).build()));
+    }
+
+    private void attempted(Route route, String role, String outcome) {
+        Counter.builder("rag.router.attempts")
+                .tags("backend", route.backend(), "model", route.model(), "role", role, "outcome", outcome)
+                .register(meterRegistry)
+                .increment();
+    }
+
+    /**
+     * 两条路由都失败时，优先返回排队已满（429），否则返回首选路由的错误
+     */
+    private static Throwable unwrap(NoSuchElementException e) {
+        List<Throwable> errors = Exceptions.unwrapMultiple(e.getCause());
+        return errors.stream()
+                .filter(ChatRejectedException.class::isInstance)
+                .findFirst()
+                .orElse(errors.isEmpty() ? e : errors.get(0));
+    }
+
+    public record Route(String backend, String model) {
+    }
+
+    /**
+     * 一条路由最近的 TTFT 样本（环形缓冲）和连续失败次数
+     */
+    private class RouteStats {
+
+        private final long[] samples = new long[window];
+        private int count;
+        private int next;
+        private int consecutiveFailures;
+        private long unhealthyUntil;
+
+        synchronized void recordTtft(long nanos) {
+            samples[next] = nanos;
+            next = (next + 1) % samples.length;
+            count = Math.min(count + 1, samples.length);
+            consecutiveFailures = 0;
+        }
+
+        /**
+         * 截尾样本：只知道 TTFT 不小于 nanos；不小于当前中位数时才有信息量，按 nanos 记入，使中位数向上移动
+         * 比中位数还短的（例如刚开始就因首选胜出被取消的对冲请求）不记录，避免把路由估计得过快
+         */
+        synchronized void recordCensored(long nanos) {
+            if (count > 0 && nanos < percentile(0.5)) return;
+            samples[next] = nanos;
+            next = (next + 1) % samples.length;
+            count = Math.min(count + 1, samples.length);
+        }
+
+        synchronized void recordFailure(Route route) {
+            if (++consecutiveFailures < failureThreshold) return;
+            consecutiveFailures = 0;
+            unhealthyUntil = System.currentTimeMillis() + cooldownMillis;
+            log.warn("路由连续失败，暂停 {}ms route:{}", cooldownMillis, route);
+        }
+
+        synchronized boolean healthy() {
+            return System.currentTimeMillis() >= unhealthyUntil;
+        }
+
+        synchronized int count() {
+            return count;
+        }
+
+        /**
+         * 样本的分位数，纳秒；没有样本时为 NaN
+         */
+        synchronized double percentile(double quantile) {
+            if (0 == count) return Double.NaN;
+            long[] sorted = Arrays.copyOf(samples, count);
+            Arrays.sort(sorted);
+            int index = (int) Math.ceil(quantile * count) - 1;
+            return sorted[Math.max(0, Math.min(count - 1, index))];
+        }
+    }
+
+}
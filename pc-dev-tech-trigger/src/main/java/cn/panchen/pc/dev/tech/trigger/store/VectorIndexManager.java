@@ -0,0 +1,329 @@
+package cn.panchen.pc.dev.tech.trigger.store;
+
+import cn.panchen.pc.dev.tech.api.dto.VectorIndexDTO;
+import cn.panchen.pc.dev.tech.api.dto.VectorIndexPartitionDTO;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.annotation.Resource;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.sql.Statement;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 向量索引管理
+ * 每个知识库分区在 embedding 列上有自己的 HNSW（或 IVFFlat）索引，避免切片多了以后每次相似度检索都全表扫描。
+ * 新分区在空表上直接建 HNSW 索引；IVFFlat 要用已有数据训练聚类中心，空分区不建，等该分区第一次有任务提交后再构建；
+ * 已有数据的分区一律 CONCURRENTLY 构建，不阻塞写入；
+ * 重建时先建新索引，再在一个事务中把新旧索引互换名字，最后删除旧索引；任何时刻分区上都有一个可用的 ANN 索引，期间检索仍可走旧索引。
+ * 查询时的 hnsw.ef_search / ivfflat.probes 通过连接池的 connection-init-sql 设置。
+ */
+@Slf4j
+@Component
+public class VectorIndexManager {
+
+    private static final String INDEX_SUFFIX = "_embedding_idx";
+    private static final String BUILDING_INDEX_SUFFIX = INDEX_SUFFIX + "_new";
+    private static final String RETIRED_INDEX_SUFFIX = INDEX_SUFFIX + "_old";
+
+    @Resource
+    private JdbcTemplate jdbcTemplate;
+    @Resource
+    private VectorStoreSchema vectorStoreSchema;
+
+    /** hnsw、ivfflat、none */
+    @Value("${rag.vector-index.type:hnsw}")
+    private String type;
+    @Value("${rag.vector-index.m:16}")
+    private int m;
+    @Value("${rag.vector-index.ef-construction:64}")
+    private int efConstruction;
+    @Value("${rag.vector-index.lists:100}")
+    private int lists;
+    @Value("${rag.vector-index.maintenance-work-mem:512MB}")
+    private String maintenanceWorkMem;
+    @Value("${rag.vector-index.create-on-startup:true}")
+    private boolean createOnStartup;
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "rag-vector-index");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final AtomicBoolean building = new AtomicBoolean();
+    private volatile String lastError;
+
+    @PostConstruct
+    public void init() {
+        if (!createOnStartup || isDisabled()) return;
+        // 已有数据的分区建索引耗时较长，放到后台执行，不阻塞启动
+        submit(() -> {
+            for (String partition : vectorStoreSchema.getPartitions().values()) {
+                Map<String, Object> index = queryIndex(partition);
+                if (null == index) {
+                    if (isIvfflat() && isEmpty(partition)) continue;
+                    build(partition, indexName(partition), true);
+                } else if (!matchesConfig((String) index.get("indexdef"))) {
+                    log.warn("向量索引与配置不一致，可调用重建接口:{}", index.get("indexdef"));
+                }
+            }
+        });
+    }
+
+    /**
+     * 新建分区后在空表上直接建索引，耗时可以忽略；IVFFlat 在空表上训练不出聚类中心，等有数据后由 onCommitted 构建
+     */
+    public void ensureIndex(String partition) {
+        if (isDisabled() || isIvfflat()) return;
+        build(partition, indexName(partition), false);
+    }
+
+    /**
+     * 入库任务提交后调用：分区还没有索引（IVFFlat 新分区）时在后台 CONCURRENTLY 构建；已有构建在进行时跳过，由下一次提交或重启时补建
+     */
+    public void onCommitted(String ragTag) {
+        if (isDisabled()) return;
+        String partition = vectorStoreSchema.getPartitions().get(ragTag);
+        if (null == partition || null != queryIndex(partition) || isEmpty(partition)) return;
+        if (!submit(() -> build(partition, indexName(partition), true))) {
+            log.info("已有向量索引构建在进行，稍后补建 分区:{}", partition);
+        }
+    }
+
+    /**
+     * 按当前配置重建所有分区的索引
+     * 各分区独立进行：某个分区失败时清理它的半成品索引、保留旧索引，继续重建其它分区，最后汇总失败的分区
+     * @return 已有构建在进行时返回 false
+     */
+    public boolean rebuild() {
+        if (isDisabled()) return false;
+        return submit(() -> {
+            Map<String, String> failed = new TreeMap<>();
+            for (String partition : vectorStoreSchema.getPartitions().values()) {
+                try {
+                    rebuild(partition);
+                } catch (Exception e) {
+                    log.error("重建向量索引失败，保留旧索引 分区:{}", partition, e);
+                    failed.put(partition, e.getMessage());
+                    dropQuietly(partition + BUILDING_INDEX_SUFFIX);
+                }
+            }
+            if (!failed.isEmpty()) throw new IllegalStateException("部分分区重建失败:" + failed);
+        });
+    }
+
+    /**
+     * 建好新索引后，在一个事务中把旧索引改名为 _old、新索引改名为正式名字，提交后再删除旧索引
+     */
+    private void rebuild(String partition) {
+        if (isIvfflat() && isEmpty(partition)) return;
+        String indexName = indexName(partition);
+        String buildingIndexName = partition + BUILDING_INDEX_SUFFIX;
+        String retiredIndexName = partition + RETIRED_INDEX_SUFFIX;
+        // 上次重建中断留下的半成品、旧索引
+        jdbcTemplate.execute("DROP INDEX CONCURRENTLY IF EXISTS " + buildingIndexName);
+        jdbcTemplate.execute("DROP INDEX CONCURRENTLY IF EXISTS " + retiredIndexName);
+        build(partition, buildingIndexName, true);
+        jdbcTemplate.execute((ConnectionCallback<Void>) connection -> {
+            boolean autoCommit = connection.getAutoCommit();
+            connection.setAutoCommit(false);
+            try (Statement statement = connection.createStatement()) {
+                statement.execute("ALTER INDEX IF EXISTS " + indexName + " RENAME TO " + retiredIndexName);
+                statement.execute("ALTER INDEX " + buildingIndexName + " RENAME TO " + indexName);
+                connection.commit();
+            } catch (Exception e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(autoCommit);
+            }
+            return null;
+        });
+        jdbcTemplate.execute("DROP INDEX CONCURRENTLY IF EXISTS " + retiredIndexName);
+    }
+
+    /**
+     * 原地重建所有分区的索引，索引不存在时按配置新建
+     * @return 已有构建在进行时返回 false
+     */
+    public boolean reindex() {
+        if (isDisabled()) return false;
+        return submit(() -> {
+            for (String partition : vectorStoreSchema.getPartitions().values()) {
+                if (null == queryIndex(partition)) {
+                    build(partition, indexName(partition), true);
+                } else {
+                    withMaintenanceWorkMem("REINDEX INDEX CONCURRENTLY " + indexName(partition));
+                }
+            }
+        });
+    }
+
+    public VectorIndexDTO status() {
+        Map<String, Map<String, Object>> progress = new HashMap<>();
+        for (Map<String, Object> row : jdbcTemplate.queryForList(
+                "SELECT c.relname, p.phase, p.blocks_done, p.blocks_total, p.tuples_done, p.tuples_total " +
+                        "FROM pg_stat_progress_create_index p JOIN pg_class c ON c.oid = p.relid")) {
+            progress.put((String) row.get("relname"), row);
+        }
+
+        List<VectorIndexPartitionDTO> partitions = new ArrayList<>();
+        for (Map.Entry<String, String> entry : new TreeMap<>(vectorStoreSchema.getPartitions()).entrySet()) {
+            String partition = entry.getValue();
+            VectorIndexPartitionDTO.VectorIndexPartitionDTOBuilder builder = VectorIndexPartitionDTO.builder()
+                    .ragTag(entry.getKey())
+                    .partition(partition);
+            Map<String, Object> index = queryIndex(partition);
+            if (null != index) {
+                String definition = (String) index.get("indexdef");
+                builder.indexName(indexName(partition))
+                        .definition(definition)
+                        .matchesConfig(matchesConfig(definition))
+                        .valid(Boolean.TRUE.equals(index.get("valid")))
+                        .sizeBytes(((Number) index.get("size")).longValue());
+            }
+            List<Long> rows = jdbcTemplate.queryForList("SELECT reltuples::bigint FROM pg_class WHERE relname = ?", Long.class, partition);
+            if (!rows.isEmpty()) builder.estimatedRows(Math.max(0, rows.get(0)));
+            Map<String, Object> row = progress.get(partition);
+            if (null != row) {
+                builder.phase((String) row.get("phase"))
+                        .blocksDone(((Number) row.get("blocks_done")).longValue())
+                        .blocksTotal(((Number) row.get("blocks_total")).longValue())
+                        .tuplesDone(((Number) row.get("tuples_done")).longValue())
+                        .tuplesTotal(((Number) row.get("tuples_total")).longValue());
+            }
+            partitions.add(builder.build());
+        }
+
+        return VectorIndexDTO.builder()
+                .indexType(type)
+                .building(building.get())
+                .lastError(lastError)
+                .totalSizeBytes(partitions.stream().mapToLong(VectorIndexPartitionDTO::getSizeBytes).sum())
+                .estimatedRows(partitions.stream().mapToLong(VectorIndexPartitionDTO::getEstimatedRows).sum())
+                .partitions(partitions)
+                .build();
+    }
+
+    private boolean submit(Runnable action) {
+        if (!building.compareAndSet(false, true)) return false;
+        executor.execute(() -> {
+            try {
+                action.run();
+                lastError = null;
+            } catch (Exception e) {
+                lastError = e.getMessage();
+                log.error("向量索引构建失败", e);
+                // 并发构建失败会留下不可用的索引，清理掉以便下次重建
+                for (String partition : vectorStoreSchema.getPartitions().values()) {
+                    dropQuietly(partition + BUILDING_INDEX_SUFFIX);
+                }
+            } finally {
+                building.set(false);
+            }
+        });
+        return true;
+    }
+
+    private void dropQuietly(String indexName) {
+        try {
+            jdbcTemplate.execute("DROP INDEX CONCURRENTLY IF EXISTS " + indexName);
+        } catch (Exception e) {
+            log.warn("清理向量索引失败:{}", indexName, e);
+        }
+    }
+
+    private void build(String partition, String indexName, boolean concurrently) {
+        String sql = "CREATE INDEX " + (concurrently ? "CONCURRENTLY " : "") + "IF NOT EXISTS " + indexName + " ON " + partition +
+                " USING " + method() + " (" + vectorStoreSchema.indexExpression() + " " + operatorClass() + ") WITH (" + withClause() + ")";
+        log.info("开始构建向量索引:{}", sql);
+        long start = System.currentTimeMillis();
+        withMaintenanceWorkMem(sql);
+        log.info("向量索引构建完成:{} 耗时:{}ms", indexName, System.currentTimeMillis() - start);
+    }
+
+    /**
+     * 构建索引需要较大的 maintenance_work_mem，SET 只对当前会话生效，所以和建索引语句走同一个连接
+     */
+    private void withMaintenanceWorkMem(String sql) {
+        jdbcTemplate.execute((ConnectionCallback<Void>) connection -> {
+            try (Statement statement = connection.createStatement()) {
+                statement.execute("SET maintenance_work_mem = '" + maintenanceWorkMem + "'");
+                try {
+                    statement.execute(sql);
+                } finally {
+                    statement.execute("RESET maintenance_work_mem");
+                }
+            }
+            return null;
+        });
+    }
+
+    private Map<String, Object> queryIndex(String partition) {
+        List<Map<String, Object>> rows = jdbcTemplate.queryForList(
+                "SELECT i.indexdef, pg_relation_size(c.oid) AS size, x.indisvalid AS valid FROM pg_indexes i " +
+                        "JOIN pg_class c ON c.relname = i.indexname JOIN pg_index x ON x.indexrelid = c.oid " +
+                        "WHERE i.tablename = ? AND i.indexname = ?",
+                partition, indexName(partition));
+        return rows.isEmpty() ? null : rows.get(0);
+    }
+
+    /**
+     * 索引定义形如 USING hnsw (embedding vector_cosine_ops) WITH (m='16', ef_construction='64')，
+     * 量化时为 USING hnsw (((binary_quantize(embedding))::bit(768)) bit_hamming_ops) ...
+     */
+    private boolean matchesConfig(String definition) {
+        if (null == definition) return false;
+        String normalized = definition.toLowerCase(Locale.ROOT).replace("'", "").replace(" ", "");
+        boolean quantized = switch (vectorStoreSchema.getQuantization()) {
+            case NONE -> normalized.contains("(embedding" + operatorClass() + ")");
+            case HALFVEC -> normalized.contains("halfvec(" + vectorStoreSchema.getDimensions() + ")");
+            case BINARY -> normalized.contains("binary_quantize") && normalized.contains("bit(" + vectorStoreSchema.getDimensions() + ")");
+        };
+        return quantized
+                && normalized.contains("using" + method() + "(")
+                && normalized.contains(operatorClass() + ")")
+                && normalized.contains("with(" + withClause().replace(" ", "") + ")");
+    }
+
+    private static String indexName(String partition) {
+        return partition + INDEX_SUFFIX;
+    }
+
+    private boolean isEmpty(String partition) {
+        return !Boolean.TRUE.equals(jdbcTemplate.queryForObject("SELECT EXISTS (SELECT 1 FROM " + partition + ")", Boolean.class));
+    }
+
+    private boolean isIvfflat() {
+        return "ivfflat".equalsIgnoreCase(type);
+    }
+
+    private boolean isDisabled() {
+        return "none".equalsIgnoreCase(type);
+    }
+
+    private String method() {
+        return isIvfflat() ? "ivfflat" : "hnsw";
+    }
+
+    private String withClause() {
+        return isIvfflat() ? "lists = " + lists : "m = " + m + ", ef_construction = " + efConstruction;
+    }
+
+    private String operatorClass() {
+        return vectorStoreSchema.indexOperatorClass();
+    }
+
+    @PreDestroy
+    public void destroy() {
+        executor.shutdownNow();
+    }
+
+}
@@ -0,0 +1,17 @@
+package cn.panchen.pc.dev.tech.trigger.store;
+
+/**
+ * 向量索引的量化方式
+ * 表中始终保存完整的 float32 向量；量化只作用于 ANN 索引（表达式索引），第一轮在紧凑的索引上多取候选，
+ * 再用完整向量精确重排。需要 pgvector 0.7 及以上。
+ */
+public enum VectorQuantization {
+
+    /** 不量化，索引直接建在 vector 列上 */
+    NONE,
+    /** 半精度 halfvec，索引约为原来的 1/2 */
+    HALFVEC,
+    /** 二值量化 bit，每维 1 bit，索引约为原来的 1/32，按汉明距离召回 */
+    BINARY
+
+}
@@ -0,0 +1,67 @@
+package cn.panchen.pc.dev.tech.trigger.store;
+
+import cn.panchen.pc.dev.tech.api.dto.VectorRecallDTO;
+import jakarta.annotation.Resource;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.document.Document;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * 召回率评估
+ * 从 ragTag 中随机取切片向量作为查询，对比线上检索路径（ANN 索引、量化 + 重排）与不走索引的精确检索，
+ * 用于调整 ef_search、over-fetch 和量化方式。
+ */
+@Slf4j
+@Component
+public class VectorRecallEvaluator {
+
+    @Resource
+    private VectorStoreRepository vectorStoreRepository;
+    @Resource
+    private VectorStoreSchema vectorStoreSchema;
+
+    @Value("${rag.store.over-fetch:4}")
+    private int overFetch;
+
+    public VectorRecallDTO evaluate(String ragTag, int samples, int topK) {
+        List<float[]> queries = vectorStoreRepository.sampleEmbeddings(ragTag, samples);
+        long found = 0;
+        long exactNanos = 0;
+        long annNanos = 0;
+        for (float[] query : queries) {
+            long start = System.nanoTime();
+            Set<String> exact = new HashSet<>(vectorStoreRepository.exactSearchIds(ragTag, query, topK));
+            exactNanos += System.nanoTime() - start;
+
+            List<Double> embedding = new ArrayList<>(query.length);
+            for (float v : query) {
+                embedding.add((double) v);
+            }
+            start = System.nanoTime();
+            List<Document> ann = vectorStoreRepository.similaritySearch(ragTag, embedding, topK);
+            annNanos += System.nanoTime() - start;
+            found += ann.stream().filter(document -> exact.contains(document.getId())).count();
+        }
+
+        int n = queries.size();
+        VectorRecallDTO result = VectorRecallDTO.builder()
+                .ragTag(ragTag)
+                .quantization(vectorStoreSchema.getQuantization().name())
+                .overFetch(overFetch)
+                .samples(n)
+                .topK(topK)
+                .recall(0 == n ? 0 : (double) found / ((long) n * topK))
+                .exactMillis(0 == n ? 0 : exactNanos / 1e6 / n)
+                .annMillis(0 == n ? 0 : annNanos / 1e6 / n)
+                .build();
+        log.info("召回率评估 {}", result);
+        return result;
+    }
+
+}
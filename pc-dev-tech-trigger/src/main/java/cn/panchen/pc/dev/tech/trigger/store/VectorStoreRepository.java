@@ -0,0 +1,382 @@
+package cn.panchen.pc.dev.tech.trigger.store;
+
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.JSONObject;
+import com.pgvector.PGvector;
+import jakarta.annotation.Resource;
+import org.springframework.ai.document.Document;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.stereotype.Repository;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.*;
+import java.util.stream.Collectors;
+
+/**
+ * 切片的直接读写
+ * PgVectorStore.accept 会在写入时逐条调用向量模型，这里只负责把已经算好向量的切片批量写入 pgvector；
+ * 所有读写都带上 knowledge 列，只访问 ragTag 自己的分区。
+ * 在线检索（向量检索、关键词检索）走单独的检索连接池，入库批量写入占满连接时不影响检索。
+ */
+@Repository
+public class VectorStoreRepository {
+
+    public static final String TABLE_NAME = VectorStoreSchema.TABLE_NAME;
+
+    private static final RowMapper<Document> DOCUMENT_ROW_MAPPER = (rs, rowNum) -> {
+        JSONObject metadata = JSON.parseObject(rs.getString("metadata"));
+        Map<String, Object> map = null == metadata ? new HashMap<>() : new HashMap<>(metadata);
+        return new Document(rs.getString("id"), rs.getString("content"), map);
+    };
+
+    @Resource
+    private JdbcTemplate jdbcTemplate;
+    /** 检索连接池，只读 */
+    @Resource
+    private JdbcTemplate retrievalJdbcTemplate;
+    @Resource
+    private VectorStoreSchema vectorStoreSchema;
+    @Resource
+    private VectorIndexManager vectorIndexManager;
+
+    /** 量化索引第一轮的候选倍数 */
+    @Value("${rag.store.over-fetch:4}")
+    private int overFetch;
+    /** 连接上默认的 hnsw.ef_search */
+    @Value("${rag.vector-index.ef-search:40}")
+    private int efSearch;
+
+    /**
+     * 批量写入已向量化的切片，一批只有一次 JDBC 往返；ragTag 取自切片 metadata 中的 knowledge
+     */
+    public void batchInsert(List<Document> documents) {
+        if (documents.isEmpty()) return;
+        Map<String, List<Document>> byRagTag = documents.stream()
+                .collect(Collectors.groupingBy(document -> (String) document.getMetadata().get("knowledge")));
+        byRagTag.keySet().forEach(this::ensurePartition);
+
+        jdbcTemplate.batchUpdate(
+                "INSERT INTO " + TABLE_NAME + " (knowledge, id, content, metadata, embedding) VALUES (?, ?, ?, ?::jsonb, ?) " +
+                        "ON CONFLICT (knowledge, id) DO UPDATE SET content = EXCLUDED.content, metadata = EXCLUDED.metadata, embedding = EXCLUDED.embedding",
+                new BatchPreparedStatementSetter() {
+                    @Override
+                    public void setValues(PreparedStatement ps, int i) throws SQLException {
+                        Document document = documents.get(i);
+                        ps.setString(1, (String) document.getMetadata().get("knowledge"));
+                        ps.setObject(2, UUID.fromString(document.getId()));
+                        ps.setString(3, document.getContent());
+                        ps.setString(4, JSON.toJSONString(document.getMetadata()));
+                        ps.setObject(5, new PGvector(toFloatArray(document.getEmbedding())));
+                    }
+
+                    @Override
+                    public int getBatchSize() {
+                        return documents.size();
+                    }
+                });
+    }
+
+    /**
+     * 按 metadata 中的某个键值删除 ragTag 下的切片
+     * @return 删除的切片数
+     */
+    public int deleteByMetadata(String ragTag, String key, String value) {
+        return jdbcTemplate.update("DELETE FROM " + TABLE_NAME + " WHERE knowledge = ? AND metadata->>? = ?", ragTag, key, value);
+    }
+
+    /**
+     * 删除 ragTag 下 Git 仓库文件（带 path）中不是由指定任务写入的切片，即被替换的旧版本；通过上传写入、没有 path 的切片不受影响
+     * 全量重建时还会删除既没有 path 也没有 ingest_job 的切片：这是升级前逐文件写入的仓库切片（从旧表迁移而来），不删会与本次写入的切片重复；
+     * 升级后上传的切片都带 ingest_job，不受影响。有文件入库失败时不删这部分，失败文件的旧版本只能从中找到，commit 不推进，下次全量时再清理。
+     * @param paths     只清理这些路径；为 null 时清理整个 ragTag 的仓库文件（全量重建）
+     * @param keepPaths 不清理的路径，例如本次入库失败、需要保留旧版本的文件
+     * @return 删除的切片数
+     */
+    public int deleteStale(String ragTag, Collection<String> paths, Collection<String> keepPaths, String jobId) {
+        if (null == paths) {
+            String legacy = keepPaths.isEmpty() ? " OR (metadata->>'path' IS NULL AND metadata->>'ingest_job' IS NULL)" : "";
+            String sql = "DELETE FROM " + TABLE_NAME + " WHERE knowledge = ? AND ((metadata->>'path' IS NOT NULL" +
+                    " AND metadata->>'ingest_job' IS DISTINCT FROM ? AND NOT (metadata->>'path' = ANY (?)))" + legacy + ")";
+            return jdbcTemplate.update(con -> {
+                PreparedStatement ps = con.prepareStatement(sql);
+                ps.setString(1, ragTag);
+                ps.setString(2, jobId);
+                ps.setArray(3, con.createArrayOf("text", keepPaths.toArray()));
+                return ps;
+            });
+        }
+        List<Object[]> args = paths.stream()
+                .filter(path -> !keepPaths.contains(path))
+                .map(path -> new Object[]{ragTag, path, jobId})
+                .toList();
+        if (args.isEmpty()) return 0;
+        int[] counts = jdbcTemplate.batchUpdate("DELETE FROM " + TABLE_NAME + " WHERE knowledge = ? AND metadata->>'path' = ? AND metadata->>'ingest_job' IS DISTINCT FROM ?", args);
+        return Arrays.stream(counts).sum();
+    }
+
+    /**
+     * 删除指定任务在这些路径下写入的切片，用于入库失败的文件，保留它的旧版本
+     * @return 删除的切片数
+     */
+    public int deleteJobPaths(String ragTag, Collection<String> paths, String jobId) {
+        if (paths.isEmpty()) return 0;
+        List<Object[]> args = paths.stream().map(path -> new Object[]{ragTag, path, jobId}).toList();
+        int[] counts = jdbcTemplate.batchUpdate("DELETE FROM " + TABLE_NAME + " WHERE knowledge = ? AND metadata->>'path' = ? AND metadata->>'ingest_job' = ?", args);
+        return Arrays.stream(counts).sum();
+    }
+
+    /**
+     * 向量检索：knowledge = ? 裁剪到 ragTag 的分区，走该分区自己的 ANN 索引；距离写入 metadata 的 distance
+     * 索引量化时分两轮：先在量化索引上取 topK * overFetch 个候选，再用完整向量算精确距离重排取 topK
+     */
+    public List<Document> similaritySearch(String ragTag, List<Double> embedding, int topK) {
+        String operator = VectorStoreSchema.distanceOperator(vectorStoreSchema.getDistance());
+        PGvector vector = new PGvector(toFloatArray(embedding));
+        RowMapper<Document> rowMapper = (rs, rowNum) -> {
+            Document document = DOCUMENT_ROW_MAPPER.mapRow(rs, rowNum);
+            document.getMetadata().put("distance", rs.getFloat("distance"));
+            return document;
+        };
+        if (VectorQuantization.NONE == vectorStoreSchema.getQuantization()) {
+            return retrievalJdbcTemplate.query(
+                    "SELECT id, content, metadata, embedding " + operator + " ? AS distance FROM " + TABLE_NAME +
+                            " WHERE knowledge = ? ORDER BY embedding " + operator + " ? LIMIT ?",
+                    rowMapper,
+                    vector, ragTag, vector, topK);
+        }
+
+        int candidates = topK * Math.max(1, overFetch);
+        String sql = "SELECT id, content, metadata, embedding " + operator + " ? AS distance FROM (" +
+                "SELECT id, content, metadata, embedding FROM " + TABLE_NAME + " WHERE knowledge = ? " +
+                "ORDER BY " + vectorStoreSchema.indexExpression() + " " + vectorStoreSchema.indexOperator() + " " + vectorStoreSchema.queryExpression() +
+                " LIMIT ?) candidate ORDER BY distance LIMIT ?";
+        // HNSW 一次最多返回 ef_search 个结果，候选数大于连接上的默认值时在本事务内调大
+        return inTransaction(retrievalJdbcTemplate, List.of("SET LOCAL hnsw.ef_search = " + Math.max(candidates, efSearch)), sql, rowMapper,
+                vector, ragTag, vector, candidates, topK);
+    }
+
+    /**
+     * 不走索引的精确检索，只返回切片ID；用于评估 ANN 索引/量化的召回率
+     */
+    public List<String> exactSearchIds(String ragTag, float[] vector, int topK) {
+        String operator = VectorStoreSchema.distanceOperator(vectorStoreSchema.getDistance());
+        return inTransaction(jdbcTemplate, List.of("SET LOCAL enable_indexscan = off", "SET LOCAL enable_bitmapscan = off"),
+                "SELECT id FROM " + TABLE_NAME + " WHERE knowledge = ? ORDER BY embedding " + operator + " ? LIMIT ?",
+                (rs, rowNum) -> rs.getString("id"),
+                ragTag, new PGvector(vector), topK);
+    }
+
+    /**
+     * 随机取 ragTag 下的若干切片向量，作为评估召回率的查询
+     */
+    public List<float[]> sampleEmbeddings(String ragTag, int samples) {
+        return jdbcTemplate.query(
+                "SELECT embedding::text AS embedding FROM " + TABLE_NAME + " WHERE knowledge = ? ORDER BY random() LIMIT ?",
+                (rs, rowNum) -> new PGvector(rs.getString("embedding")).toArray(),
+                ragTag, samples);
+    }
+
+    /**
+     * 在一个事务中先执行 SET LOCAL 再查询，设置只对本次查询生效，不污染连接池中的连接
+     */
+    private <T> List<T> inTransaction(JdbcTemplate jdbcTemplate, List<String> settings, String sql, RowMapper<T> rowMapper, Object... args) {
+        return jdbcTemplate.execute((ConnectionCallback<List<T>>) connection -> {
+            boolean autoCommit = connection.getAutoCommit();
+            connection.setAutoCommit(false);
+            try {
+                try (Statement statement = connection.createStatement()) {
+                    for (String setting : settings) {
+                        statement.execute(setting);
+                    }
+                }
+                List<T> result = new ArrayList<>();
+                try (PreparedStatement ps = connection.prepareStatement(sql)) {
+                    for (int i = 0; i < args.length; i++) {
+                        ps.setObject(i + 1, args[i]);
+                    }
+                    try (ResultSet rs = ps.executeQuery()) {
+                        int rowNum = 0;
+                        while (rs.next()) {
+                            result.add(rowMapper.mapRow(rs, rowNum++));
+                        }
+                    }
+                }
+                connection.commit();
+                return result;
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(autoCommit);
+            }
+        });
+    }
+
+    /**
+     * 关键词检索：问题中的任一词命中即为候选，按 ts_rank_cd 排序
+     * 问题先经 plainto_tsquery 分词（自动处理特殊字符），再把 AND 改为 OR，避免自然语言问题要求所有词同时出现
+     */
+    public List<Document> lexicalSearch(String ragTag, String query, int topK) {
+        String config = VectorStoreSchema.TEXT_SEARCH_CONFIG;
+        return retrievalJdbcTemplate.query(
+                "SELECT id, content, metadata FROM " + TABLE_NAME + ", " +
+                        "to_tsquery('" + config + "', replace(plainto_tsquery('" + config + "', ?)::text, ' & ', ' | ')) query " +
+                        "WHERE knowledge = ? AND content_tsv @@ query " +
+                        "ORDER BY ts_rank_cd(content_tsv, query) DESC LIMIT ?",
+                DOCUMENT_ROW_MAPPER,
+                query, ragTag, topK);
+    }
+
+    /**
+     * 批量检索：多个问题的向量检索、关键词检索合并为一条 SQL，一次往返
+     * 问题以数组参数传入，每个问题 LATERAL 一次子查询，子查询内 knowledge = 问题的 ragTag，执行期裁剪到该分区并走分区自己的索引。
+     * @return 与 queries 一一对应；embedding 为 null 的问题不做向量检索，text 为 null 的不做关键词检索，对应结果为空列表
+     */
+    public List<BatchResult> batchSearch(List<BatchQuery> queries, int topK) {
+        List<BatchResult> results = new ArrayList<>(queries.size());
+        for (int i = 0; i < queries.size(); i++) {
+            results.add(new BatchResult(new ArrayList<>(), new ArrayList<>()));
+        }
+        if (queries.isEmpty()) return results;
+
+        Integer[] ords = new Integer[queries.size()];
+        String[] ragTags = new String[queries.size()];
+        String[] embeddings = new String[queries.size()];
+        String[] texts = new String[queries.size()];
+        for (int i = 0; i < queries.size(); i++) {
+            BatchQuery query = queries.get(i);
+            ords[i] = i;
+            ragTags[i] = query.ragTag();
+            embeddings[i] = null == query.embedding() ? null : new PGvector(query.embedding()).toString();
+            texts[i] = query.text();
+        }
+
+        String operator = VectorStoreSchema.distanceOperator(vectorStoreSchema.getDistance());
+        String config = VectorStoreSchema.TEXT_SEARCH_CONFIG;
+        String vectorSearch;
+        List<String> settings;
+        if (VectorQuantization.NONE == vectorStoreSchema.getQuantization()) {
+            vectorSearch = "SELECT id, content, metadata, -(embedding " + operator + " q.embedding::vector) AS score FROM " + TABLE_NAME +
+                    " WHERE knowledge = q.knowledge ORDER BY embedding " + operator + " q.embedding::vector LIMIT " + topK;
+            settings = List.of();
+        } else {
+            // 与 similaritySearch 相同的两轮：量化索引取候选，完整向量重排
+            int candidates = topK * Math.max(1, overFetch);
+            vectorSearch = "SELECT id, content, metadata, -(embedding " + operator + " q.embedding::vector) AS score FROM (" +
+                    "SELECT id, content, metadata, embedding FROM " + TABLE_NAME + " WHERE knowledge = q.knowledge " +
+                    "ORDER BY " + vectorStoreSchema.indexExpression() + " " + vectorStoreSchema.indexOperator() + " " +
+                    vectorStoreSchema.queryExpression().replace("?", "q.embedding::vector") + " LIMIT " + candidates + ") candidate " +
+                    "ORDER BY score DESC LIMIT " + topK;
+            settings = List.of("SET LOCAL hnsw.ef_search = " + Math.max(candidates, efSearch));
+        }
+        String sql = "WITH q AS (SELECT * FROM unnest(?::int[], ?::text[], ?::text[], ?::text[]) AS q(ord, knowledge, embedding, question)) " +
+                "SELECT q.ord, true AS is_vector, c.id, c.content, c.metadata, c.score FROM q CROSS JOIN LATERAL (" + vectorSearch + ") c " +
+                "WHERE q.embedding IS NOT NULL " +
+                "UNION ALL " +
+                "SELECT q.ord, false AS is_vector, c.id, c.content, c.metadata, c.score FROM q CROSS JOIN LATERAL (" +
+                "SELECT id, content, metadata, ts_rank_cd(content_tsv, query) AS score FROM " + TABLE_NAME + ", " +
+                "to_tsquery('" + config + "', replace(plainto_tsquery('" + config + "', q.question)::text, ' & ', ' | ')) query " +
+                "WHERE knowledge = q.knowledge AND content_tsv @@ query ORDER BY score DESC LIMIT " + topK + ") c " +
+                "WHERE q.question IS NOT NULL " +
+                "ORDER BY ord, is_vector, score DESC";
+
+        List<BatchRow> rows = inTransaction(retrievalJdbcTemplate, settings, sql, (rs, rowNum) -> {
+            Document document = DOCUMENT_ROW_MAPPER.mapRow(rs, rowNum);
+            boolean vector = rs.getBoolean("is_vector");
+            if (vector) document.getMetadata().put("distance", -rs.getFloat("score"));
+            return new BatchRow(rs.getInt("ord"), vector, document);
+        }, ords, ragTags, embeddings, texts);
+        for (BatchRow row : rows) {
+            BatchResult result = results.get(row.ord());
+            (row.vector() ? result.vector() : result.lexical()).add(row.document());
+        }
+        return results;
+    }
+
+    /**
+     * ragTag 下切片的指纹：切片数 + 每个切片（ID、写入任务、内容）散列之和
+     * 重新入库相同文件时切片ID不变、按ID覆盖写入，只看ID发现不了变化；覆盖写入的切片带上新的 ingest_job，向量随之重算，指纹随之变化
+     * @return [切片数, 散列和]
+     */
+    public long[] fingerprint(String ragTag) {
+        return jdbcTemplate.queryForObject(
+                "SELECT count(*), coalesce(sum(hashtext(id::text)::bigint + hashtext(coalesce(metadata->>'ingest_job', '') || coalesce(content, ''))::bigint), 0) " +
+                        "FROM " + TABLE_NAME + " WHERE knowledge = ?",
+                (rs, rowNum) -> new long[]{rs.getLong(1), rs.getLong(2)},
+                ragTag);
+    }
+
+    /**
+     * ragTag 下的切片数和切片文本的总字节数
+     * @return [切片数, 字节数]
+     */
+    public long[] tagStats(String ragTag) {
+        return jdbcTemplate.queryForObject(
+                "SELECT count(*), coalesce(sum(octet_length(content)), 0) FROM " + TABLE_NAME + " WHERE knowledge = ?",
+                (rs, rowNum) -> new long[]{rs.getLong(1), rs.getLong(2)},
+                ragTag);
+    }
+
+    /**
+     * 流式读取 ragTag 下的全部切片（id, content, metadata, embedding），不把整个结果集放进内存
+     */
+    public void scanChunks(String ragTag, int fetchSize, RowCallbackHandler handler) {
+        jdbcTemplate.execute((ConnectionCallback<Void>) connection -> {
+            // PostgreSQL 只有在事务中才按 fetchSize 分批拉取
+            boolean autoCommit = connection.getAutoCommit();
+            connection.setAutoCommit(false);
+            try (PreparedStatement ps = connection.prepareStatement(
+                    "SELECT id, content, metadata, embedding::text AS embedding FROM " + TABLE_NAME + " WHERE knowledge = ?")) {
+                ps.setFetchSize(fetchSize);
+                ps.setString(1, ragTag);
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) {
+                        handler.processRow(rs);
+                    }
+                }
+                connection.commit();
+            } finally {
+                connection.setAutoCommit(autoCommit);
+            }
+            return null;
+        });
+    }
+
+    /**
+     * 新分区创建后立即在空表上建好 ANN 索引，之后写入时增量维护；IVFFlat 等任务提交、分区有数据后再建
+     */
+    private void ensurePartition(String ragTag) {
+        if (vectorStoreSchema.hasPartition(ragTag)) return;
+        String partition = vectorStoreSchema.ensurePartition(ragTag);
+        vectorIndexManager.ensureIndex(partition);
+    }
+
+    public static float[] toFloatArray(List<Double> embedding) {
+        float[] vector = new float[embedding.size()];
+        for (int i = 0; i < vector.length; i++) {
+            vector[i] = embedding.get(i).floatValue();
+        }
+        return vector;
+    }
+
+    /**
+     * 批量检索中的一个问题，embedding 用于向量检索，text 用于关键词检索
+     */
+    public record BatchQuery(String ragTag, float[] embedding, String text) {
+    }
+
+    public record BatchResult(List<Document> vector, List<Document> lexical) {
+    }
+
+    private record BatchRow(int ord, boolean vector, Document document) {
+    }
+
+}
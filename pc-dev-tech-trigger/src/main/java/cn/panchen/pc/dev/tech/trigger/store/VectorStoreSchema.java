@@ -0,0 +1,271 @@
+package cn.panchen.pc.dev.tech.trigger.store;
+
+import com.google.common.hash.Hashing;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.Resource;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.embedding.EmbeddingClient;
+import org.springframework.ai.vectorstore.PgVectorStore;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 切片表结构
+ * rag_chunk 按 knowledge（ragTag）列做 LIST 分区，每个 ragTag 一个分区、各自一个 ANN 索引；
+ * 检索时 knowledge = ? 直接裁剪到对应分区，小知识库不会被大知识库的索引拖累召回率和延迟。
+ * content_tsv 是由 content 生成的 tsvector 存储列，切片写入时由数据库自动填充，GIN 索引支撑关键词检索。
+ */
+@Slf4j
+@Component
+public class VectorStoreSchema {
+
+    public static final String TABLE_NAME = "rag_chunk";
+    /** PgVectorStore 使用的旧表，启动时把其中的切片迁移到分区表 */
+    public static final String LEGACY_TABLE_NAME = "vector_store";
+    /** 旧表迁移记录，每个迁移完成的 ragTag 一行；迁移中途失败时，下次启动继续迁移没有记录的 ragTag */
+    public static final String MIGRATION_TABLE_NAME = "rag_chunk_migration";
+    /** 使用 simple 分词配置：不做词干化、不去停用词，类名、方法名、错误码按原样（小写）入索引 */
+    public static final String TEXT_SEARCH_CONFIG = "simple";
+
+    @Resource
+    private JdbcTemplate jdbcTemplate;
+    @Resource
+    private EmbeddingClient embeddingClient;
+    /** 依赖 PgVectorStore，保证旧表已经创建，迁移时可以直接读取 */
+    @Resource
+    private PgVectorStore pgVectorStore;
+
+    @Value("${rag.vector-index.distance:CosineDistance}")
+    private PgVectorStore.PgDistanceType distance;
+    /** 向量维度，0 表示启动时向向量模型查询 */
+    @Value("${rag.store.dimensions:0}")
+    private int dimensions;
+    @Value("${rag.store.migrate-legacy:true}")
+    private boolean migrateLegacy;
+    @Value("${rag.store.quantization:NONE}")
+    private VectorQuantization quantization;
+
+    /** 已确认存在的分区：ragTag → 分区表名 */
+    private final Map<String, String> partitions = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    public void init() {
+        if (dimensions <= 0) dimensions = embeddingClient.dimensions();
+        jdbcTemplate.execute("CREATE TABLE IF NOT EXISTS " + TABLE_NAME + " (" +
+                "knowledge text NOT NULL, " +
+                "id uuid NOT NULL, " +
+                "content text, " +
+                "metadata jsonb, " +
+                "embedding vector(" + dimensions + "), " +
+                "content_tsv tsvector GENERATED ALWAYS AS (to_tsvector('" + TEXT_SEARCH_CONFIG + "', coalesce(content, ''))) STORED, " +
+                "PRIMARY KEY (knowledge, id)" +
+                ") PARTITION BY LIST (knowledge)");
+        // 建在分区父表上，新建的分区自动带上
+        jdbcTemplate.execute("CREATE INDEX IF NOT EXISTS " + TABLE_NAME + "_content_tsv_idx ON " + TABLE_NAME + " USING gin (content_tsv)");
+        partitions.putAll(queryPartitions());
+        log.info("切片分区表就绪 维度:{} 分区数:{}", dimensions, partitions.size());
+
+        if (migrateLegacy && tableExists(LEGACY_TABLE_NAME)) {
+            migrateLegacyTable();
+        }
+    }
+
+    /**
+     * 确保 ragTag 的分区存在
+     * @return 分区表名
+     */
+    public String ensurePartition(String ragTag) {
+        String partition = partitions.get(ragTag);
+        if (null != partition) return partition;
+        partition = partitionName(ragTag);
+        try {
+            jdbcTemplate.execute("CREATE TABLE IF NOT EXISTS " + partition + " PARTITION OF " + TABLE_NAME +
+                    " FOR VALUES IN (" + quote(ragTag) + ")");
+        } catch (Exception e) {
+            // 多个线程同时创建同一个分区时，后到的会失败，确认分区已存在即可
+            if (!queryPartitions().containsKey(ragTag)) throw e;
+        }
+        partitions.put(ragTag, partition);
+        log.info("创建知识库分区 ragTag:{} 分区:{}", ragTag, partition);
+        return partition;
+    }
+
+    public boolean hasPartition(String ragTag) {
+        return partitions.containsKey(ragTag);
+    }
+
+    /**
+     * 已存在的分区：ragTag → 分区表名
+     */
+    public Map<String, String> getPartitions() {
+        return Map.copyOf(partitions);
+    }
+
+    public PgVectorStore.PgDistanceType getDistance() {
+        return distance;
+    }
+
+    public VectorQuantization getQuantization() {
+        return quantization;
+    }
+
+    public int getDimensions() {
+        return dimensions;
+    }
+
+    /**
+     * ANN 索引建在哪个表达式上：不量化时为 embedding 列，量化时为量化后的表达式
+     */
+    public String indexExpression() {
+        return switch (quantization) {
+            case NONE -> "embedding";
+            case HALFVEC -> "(embedding::halfvec(" + dimensions + "))";
+            case BINARY -> "(binary_quantize(embedding)::bit(" + dimensions + "))";
+        };
+    }
+
+    /**
+     * 与 indexExpression 对应的查询向量表达式，参数为 vector
+     */
+    public String queryExpression() {
+        return switch (quantization) {
+            case NONE -> "?";
+            case HALFVEC -> "?::halfvec(" + dimensions + ")";
+            case BINARY -> "binary_quantize(?::vector)::bit(" + dimensions + ")";
+        };
+    }
+
+    /**
+     * 第一轮（索引上）排序用的运算符，二值量化用汉明距离
+     */
+    public String indexOperator() {
+        return VectorQuantization.BINARY == quantization ? "<~>" : distanceOperator(distance);
+    }
+
+    /**
+     * 索引的算子类，要和 indexOperator 一致，否则检索用不上索引
+     */
+    public String indexOperatorClass() {
+        return switch (quantization) {
+            case NONE -> operatorClass(distance);
+            case HALFVEC -> operatorClass(distance).replace("vector_", "halfvec_");
+            case BINARY -> "bit_hamming_ops";
+        };
+    }
+
+    /**
+     * 分区表名由 ragTag 的 hash 生成，ragTag 可以包含任意字符
+     */
+    public static String partitionName(String ragTag) {
+        return TABLE_NAME + "_" + Hashing.sha256().hashString(ragTag, StandardCharsets.UTF_8).toString().substring(0, 16);
+    }
+
+    /**
+     * 检索时的距离运算符
+     */
+    public static String distanceOperator(PgVectorStore.PgDistanceType distance) {
+        return switch (distance) {
+            case EuclideanDistance -> "<->";
+            case NegativeInnerProduct -> "<#>";
+            case CosineDistance -> "<=>";
+        };
+    }
+
+    /**
+     * 索引的距离算子要和检索时用的一致，否则检索用不上索引
+     */
+    public static String operatorClass(PgVectorStore.PgDistanceType distance) {
+        return switch (distance) {
+            case EuclideanDistance -> "vector_l2_ops";
+            case NegativeInnerProduct -> "vector_ip_ops";
+            case CosineDistance -> "vector_cosine_ops";
+        };
+    }
+
+    private Map<String, String> queryPartitions() {
+        List<Map<String, Object>> rows = jdbcTemplate.queryForList(
+                "SELECT c.relname, pg_get_expr(c.relpartbound, c.oid) AS bound FROM pg_inherits i " +
+                        "JOIN pg_class c ON c.oid = i.inhrelid WHERE i.inhparent = ?::regclass", TABLE_NAME);
+        Map<String, String> result = new LinkedHashMap<>();
+        for (Map<String, Object> row : rows) {
+            // 分区范围形如 FOR VALUES IN ('ragTag')
+            String bound = (String) row.get("bound");
+            int start = bound.indexOf("('");
+            int end = bound.lastIndexOf("')");
+            if (start < 0 || end <= start) continue;
+            result.put(bound.substring(start + 2, end).replace("''", "'"), (String) row.get("relname"));
+        }
+        return result;
+    }
+
+    /**
+     * 把 PgVectorStore 旧表中的切片按 ragTag 迁移过来；旧表保留不删除
+     * 是否迁移过以迁移记录为准：每个 ragTag 的切片和它的迁移记录在同一个事务中写入，中途失败的 ragTag 下次启动重新迁移。
+     * 没有迁移记录、但分区里已经有切片的 ragTag（迁移记录表出现之前已经迁移过）只补记录，不再迁移，避免已清理的旧切片被写回。
+     */
+    private void migrateLegacyTable() {
+        jdbcTemplate.execute("CREATE TABLE IF NOT EXISTS " + MIGRATION_TABLE_NAME + " (" +
+                "knowledge text PRIMARY KEY, " +
+                "migrated bigint NOT NULL, " +
+                "completed_at timestamptz NOT NULL DEFAULT now())");
+        List<String> ragTags = jdbcTemplate.queryForList(
+                "SELECT DISTINCT metadata->>'knowledge' FROM " + LEGACY_TABLE_NAME + " l WHERE metadata->>'knowledge' IS NOT NULL " +
+                        "AND NOT EXISTS (SELECT 1 FROM " + MIGRATION_TABLE_NAME + " m WHERE m.knowledge = l.metadata->>'knowledge')", String.class);
+        for (String ragTag : ragTags) {
+            boolean existing = hasPartition(ragTag) && Boolean.TRUE.equals(jdbcTemplate.queryForObject(
+                    "SELECT EXISTS (SELECT 1 FROM " + TABLE_NAME + " WHERE knowledge = ?)", Boolean.class, ragTag));
+            ensurePartition(ragTag);
+            int migrated = jdbcTemplate.execute((ConnectionCallback<Integer>) connection -> {
+                boolean autoCommit = connection.getAutoCommit();
+                connection.setAutoCommit(false);
+                try {
+                    int count = 0;
+                    if (!existing) {
+                        try (PreparedStatement ps = connection.prepareStatement("INSERT INTO " + TABLE_NAME + " (knowledge, id, content, metadata, embedding) " +
+                                "SELECT metadata->>'knowledge', id, content, metadata::jsonb, embedding FROM " + LEGACY_TABLE_NAME +
+                                " WHERE metadata->>'knowledge' = ? ON CONFLICT DO NOTHING")) {
+                            ps.setString(1, ragTag);
+                            count = ps.executeUpdate();
+                        }
+                    }
+                    try (PreparedStatement ps = connection.prepareStatement("INSERT INTO " + MIGRATION_TABLE_NAME + " (knowledge, migrated) VALUES (?, ?) ON CONFLICT DO NOTHING")) {
+                        ps.setString(1, ragTag);
+                        ps.setLong(2, count);
+                        ps.executeUpdate();
+                    }
+                    connection.commit();
+                    return count;
+                } catch (SQLException e) {
+                    connection.rollback();
+                    throw e;
+                } finally {
+                    connection.setAutoCommit(autoCommit);
+                }
+            });
+            if (existing) {
+                log.info("分区已有切片，视为已迁移 ragTag:{}", ragTag);
+            } else {
+                log.info("迁移旧表切片 ragTag:{} 切片:{}", ragTag, migrated);
+            }
+        }
+    }
+
+    private boolean tableExists(String table) {
+        return Boolean.TRUE.equals(jdbcTemplate.queryForObject("SELECT to_regclass(?) IS NOT NULL", Boolean.class, table));
+    }
+
+    private static String quote(String value) {
+        return "'" + value.replace("'", "''") + "'";
+    }
+
+}